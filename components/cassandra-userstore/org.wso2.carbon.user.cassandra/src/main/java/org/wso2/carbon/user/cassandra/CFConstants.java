@@ -50,6 +50,13 @@ public class CFConstants {
     public static final String USERNAME_PROPERTY = "username";
     public static final String PASSWORD_PROPERTY = "password";
     public static final String UM_USER_NAME_INDEX = "UM_USER_NAME_INDEX";
+    public static final String UM_TENANT_USER_INDEX = "UM_TENANT_USER_INDEX";
+    // row of UM_TENANT_USER_INDEX marking that the index was built from the existing users. Tenant ids are
+    // numeric, so the key does not clash with the rows of the tenants
+    public static final String UM_TENANT_USER_INDEX_STATE = "UM_TENANT_USER_INDEX_STATE";
+    public static final String UM_TENANT_USER_INDEX_BUILT = "BUILT";
+    public static final String READ_CONSISTENCY_LEVEL_XML_ATTRIB = "ReadConsistencyLevel";
+    public static final String WRITE_CONSISTENCY_LEVEL_XML_ATTRIB = "WriteConsistencyLevel";
     public static String AUTH_WITH_ANY_CREDENTIAL = "AuthenticateWithAnyCredential";
 
 }
@@ -11,6 +11,7 @@ package org.wso2.carbon.user.cassandra;
 
 import me.prettyprint.cassandra.model.BasicColumnDefinition;
 import me.prettyprint.cassandra.model.BasicColumnFamilyDefinition;
+import me.prettyprint.cassandra.model.ConfigurableConsistencyLevel;
 import me.prettyprint.cassandra.serializers.CompositeSerializer;
 import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.cassandra.service.CassandraHostConfigurator;
@@ -19,6 +20,7 @@ import me.prettyprint.cassandra.service.template.ColumnFamilyResult;
 import me.prettyprint.cassandra.service.template.ColumnFamilyTemplate;
 import me.prettyprint.cassandra.service.template.ThriftColumnFamilyTemplate;
 import me.prettyprint.hector.api.Cluster;
+import me.prettyprint.hector.api.HConsistencyLevel;
 import me.prettyprint.hector.api.Keyspace;
 import me.prettyprint.hector.api.beans.Composite;
 import me.prettyprint.hector.api.beans.HColumn;
@@ -54,10 +56,13 @@ import org.wso2.carbon.user.core.util.UserCoreUtil;
 
 import javax.sql.DataSource;
 import java.util.*;
+import java.util.regex.Pattern;
 
 public class CassandraUserStoreManager extends AbstractUserStoreManager {
 
     private static final String TRUE = "TRUE";
+    /* Number of columns or rows fetched from Cassandra in one round trip while listing */
+    private static final int LIST_PAGE_SIZE = 1000;
     private static Log log = LogFactory.getLog(CassandraUserStoreManager.class);
     private final StringSerializer stringSerializer = StringSerializer.get();
     protected DataSource jdbcDataSource = null;
@@ -115,7 +120,7 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
         cluster = HFactory.getOrCreateCluster(realmConfig.getUserStoreProperty(CFConstants.KEYSPACE_NAME_XML_ATTRIB),
                 hostConf, credentials);
         keyspace = HFactory.createKeyspace(realmConfig.getUserStoreProperty(CFConstants.KEYSPACE_NAME_XML_ATTRIB),
-                cluster);
+                cluster, createConsistencyLevelPolicy(realmConfig));
         insertInitialData(keyspace);
     }
 
@@ -166,10 +171,16 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
 
         List<KeyspaceDefinition> keyspaceDefinitions = cluster.describeKeyspaces();
         boolean foundKS = false;
+        boolean foundUserIndexCF = false;
         String keyspaceName = keyspace.getKeyspaceName();
         for (KeyspaceDefinition keyspaceDefinition : keyspaceDefinitions) {
             if (keyspaceDefinition.getName().equals(keyspaceName)) {
                 foundKS = true;
+                for (ColumnFamilyDefinition cfDefinition : keyspaceDefinition.getCfDefs()) {
+                    if (CFConstants.UM_TENANT_USER_INDEX.equals(cfDefinition.getName())) {
+                        foundUserIndexCF = true;
+                    }
+                }
             }
         }
 
@@ -218,6 +229,22 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
             cluster.addColumnFamily(claimsCF, true);
 
         }
+
+        if (!foundUserIndexCF) {
+            // Holds the user names per tenant in lexical order. Mapped as (tenant_id) -> user_name
+            ColumnFamilyDefinition userIndexCF = new BasicColumnFamilyDefinition();
+            userIndexCF.setName(CFConstants.UM_TENANT_USER_INDEX);
+            userIndexCF.setKeyspaceName(keyspaceName);
+            userIndexCF.setComparatorType(ComparatorType.UTF8TYPE);
+            cluster.addColumnFamily(userIndexCF, true);
+        }
+        if (!foundKS) {
+            // a new keyspace has no users, the index is kept up to date from the start
+            markUserNameIndexBuilt();
+        } else if (!isUserNameIndexBuilt()) {
+            // also resumes a build interrupted before it completed
+            buildUserNameIndex();
+        }
         String msg = "Connected to Cassandra keyspace : " + keyspace.getKeyspaceName() + ". ";
         if (foundKS) {
             msg += " Keyspace already found. Not creating any column families or intialization data.";
@@ -227,6 +254,178 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
         log.info(msg);
     }
 
+    /**
+     * Creates the consistency level policy of the keyspace from the ReadConsistencyLevel and
+     * WriteConsistencyLevel user store properties. QUORUM is used if a property is not set.
+     */
+    private ConfigurableConsistencyLevel createConsistencyLevelPolicy(RealmConfiguration realmConfig)
+            throws UserStoreException {
+
+        ConfigurableConsistencyLevel consistencyLevelPolicy = new ConfigurableConsistencyLevel();
+        String readConsistencyLevel = realmConfig.getUserStoreProperty(CFConstants.READ_CONSISTENCY_LEVEL_XML_ATTRIB);
+        String writeConsistencyLevel = realmConfig
+                .getUserStoreProperty(CFConstants.WRITE_CONSISTENCY_LEVEL_XML_ATTRIB);
+        try {
+            if (readConsistencyLevel != null && readConsistencyLevel.trim().length() > 0) {
+                consistencyLevelPolicy.setDefaultReadConsistencyLevel(
+                        HConsistencyLevel.valueOf(readConsistencyLevel.trim().toUpperCase()));
+            }
+            if (writeConsistencyLevel != null && writeConsistencyLevel.trim().length() > 0) {
+                consistencyLevelPolicy.setDefaultWriteConsistencyLevel(
+                        HConsistencyLevel.valueOf(writeConsistencyLevel.trim().toUpperCase()));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new UserStoreException("Invalid consistency level. Read : " + readConsistencyLevel + ", write : "
+                    + writeConsistencyLevel, e);
+        }
+        return consistencyLevelPolicy;
+    }
+
+    /**
+     * Populates the user name index from the users of all the tenants and marks the index as built.
+     * Used until the index of a keyspace which already held users is marked as built. Indexing a user
+     * again writes the same column, so an interrupted build is simply run again.
+     */
+    private void buildUserNameIndex() {
+
+        log.info("Building " + CFConstants.UM_TENANT_USER_INDEX + " from the existing users.");
+        int userCount = 0;
+        // an empty key leaves the range open
+        Composite startKey = new Composite();
+        boolean firstPage = true;
+
+        while (true) {
+            RangeSlicesQuery<Composite, String, String> rangeSliceQuery = HFactory.createRangeSlicesQuery(keyspace,
+                    CompositeSerializer.get(), stringSerializer, stringSerializer);
+            rangeSliceQuery.setColumnFamily(CFConstants.UM_USER);
+            rangeSliceQuery.setColumnNames(CFConstants.UM_USER_ID, CFConstants.UM_USER_NAME,
+                    CFConstants.UM_TENANT_ID);
+            rangeSliceQuery.setKeys(startKey, new Composite());
+            rangeSliceQuery.setRowCount(LIST_PAGE_SIZE);
+            OrderedRows<Composite, String, String> rows = rangeSliceQuery.execute().get();
+
+            Mutator<Composite> mutator = HFactory.createMutator(keyspace, CompositeSerializer.get());
+            for (Row<Composite, String, String> row : rows) {
+                if (!firstPage && CompositeSerializer.get().toByteBuffer(startKey)
+                        .equals(CompositeSerializer.get().toByteBuffer(row.getKey()))) {
+                    // range queries include the start key, which was the last row of the previous page
+                    continue;
+                }
+                HColumn<String, String> userName = row.getColumnSlice().getColumnByName(CFConstants.UM_USER_NAME);
+                HColumn<String, String> tenant = row.getColumnSlice().getColumnByName(CFConstants.UM_TENANT_ID);
+                HColumn<String, String> userId = row.getColumnSlice().getColumnByName(CFConstants.UM_USER_ID);
+                if (userName == null || tenant == null || userId == null) {
+                    continue;
+                }
+                mutator.addInsertion(getUserNameIndexKey(tenant.getValue()), CFConstants.UM_TENANT_USER_INDEX,
+                        HFactory.createColumn(userName.getValue(), userId.getValue(), stringSerializer,
+                                stringSerializer));
+                userCount++;
+            }
+            mutator.execute();
+
+            if (rows.getCount() < LIST_PAGE_SIZE) {
+                break;
+            }
+            startKey = rows.peekLast().getKey();
+            firstPage = false;
+        }
+        markUserNameIndexBuilt();
+        log.info("Indexed " + userCount + " users in " + CFConstants.UM_TENANT_USER_INDEX);
+    }
+
+    private boolean isUserNameIndexBuilt() {
+        ColumnQuery<Composite, String, String> query = HFactory.createColumnQuery(keyspace,
+                CompositeSerializer.get(), stringSerializer, stringSerializer);
+        query.setColumnFamily(CFConstants.UM_TENANT_USER_INDEX)
+                .setKey(getUserNameIndexKey(CFConstants.UM_TENANT_USER_INDEX_STATE))
+                .setName(CFConstants.UM_TENANT_USER_INDEX_BUILT);
+        return query.execute().get() != null;
+    }
+
+    private void markUserNameIndexBuilt() {
+        Mutator<Composite> mutator = HFactory.createMutator(keyspace, CompositeSerializer.get());
+        mutator.insert(getUserNameIndexKey(CFConstants.UM_TENANT_USER_INDEX_STATE), CFConstants.UM_TENANT_USER_INDEX,
+                HFactory.createColumn(CFConstants.UM_TENANT_USER_INDEX_BUILT, Boolean.TRUE.toString(),
+                        stringSerializer, stringSerializer));
+    }
+
+    private Composite getUserNameIndexKey(String tenantId) {
+        Composite key = new Composite();
+        key.addComponent(tenantId, stringSerializer);
+        return key;
+    }
+
+    /**
+     * Reads the column names of a row which match the given filter, in the order of the row. Only
+     * the slice starting with the fixed prefix of the filter is read, in pages.
+     *
+     * @param key          Row key.
+     * @param columnFamily Column family of the row.
+     * @param filter       Filter with * and ? wildcards.
+     * @param startAfter   Column name to continue after, null to start from the beginning.
+     * @param limit        Maximum number of column names to return.
+     */
+    private List<String> getMatchingColumnNames(Composite key, String columnFamily, String filter,
+                                                String startAfter, int limit) {
+
+        List<String> names = new ArrayList<String>();
+        if (limit <= 0) {
+            return names;
+        }
+        if (filter == null || filter.trim().length() == 0) {
+            filter = "*";
+        }
+        filter = filter.trim();
+
+        int wildcardIndex = filter.length();
+        for (int i = 0; i < filter.length(); i++) {
+            if (filter.charAt(i) == '*' || filter.charAt(i) == '?') {
+                wildcardIndex = i;
+                break;
+            }
+        }
+        String prefix = filter.substring(0, wildcardIndex);
+
+        // a filter of the form prefix* is fully answered by the slice
+        Pattern pattern = null;
+        if (!filter.equals(prefix + "*")) {
+            StringBuilder regex = new StringBuilder();
+            for (char c : filter.toCharArray()) {
+                if (c == '*') {
+                    regex.append(".*");
+                } else if (c == '?') {
+                    regex.append('.');
+                } else {
+                    regex.append(Pattern.quote(String.valueOf(c)));
+                }
+            }
+            pattern = Pattern.compile(regex.toString());
+        }
+
+        String start = prefix;
+        if (startAfter != null && startAfter.compareTo(prefix) > 0) {
+            start = startAfter;
+        }
+
+        SliceQuery<Composite, String, String> query = HFactory
+                .createSliceQuery(keyspace, CompositeSerializer.get(), stringSerializer, stringSerializer)
+                .setKey(key).setColumnFamily(columnFamily);
+        ColumnSliceIterator<Composite, String, String> iterator = new ColumnSliceIterator<Composite, String, String>(
+                query, start, prefix + "\uFFFF", false, limit < LIST_PAGE_SIZE ? limit + 1 : LIST_PAGE_SIZE);
+
+        while (iterator.hasNext() && names.size() < limit) {
+            String name = iterator.next().getName();
+            if (name.equals(startAfter)) {
+                continue;
+            }
+            if (pattern == null || pattern.matcher(name).matches()) {
+                names.add(name);
+            }
+        }
+        return names;
+    }
+
     /**
      * Checks if the role is existing the role store.
      */
@@ -299,6 +498,8 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
                     "false", stringSerializer, stringSerializer));
             mutator.addInsertion(key, CFConstants.UM_USER,
                     HFactory.createColumn(CFConstants.UM_TENANT_ID, tenantIdString, stringSerializer, stringSerializer));
+            mutator.addInsertion(getUserNameIndexKey(tenantIdString), CFConstants.UM_TENANT_USER_INDEX,
+                    HFactory.createColumn(userName, userId, stringSerializer, stringSerializer));
             mutator = addUserToRoleList(userName, roleList, mutator);
 
             if (claims != null) {
@@ -346,6 +547,8 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
         userKey.addComponent(tenantIdString, stringSerializer);
         mutator.addDeletion(userKey, CFConstants.UM_USER_ROLE, null, CompositeSerializer.get());
         mutator.addDeletion(userKey, CFConstants.UM_USER, null, CompositeSerializer.get());
+        mutator.addDeletion(getUserNameIndexKey(tenantIdString), CFConstants.UM_TENANT_USER_INDEX, userName,
+                stringSerializer);
         mutator.execute();
 
         if (log.isDebugEnabled()) {
@@ -615,7 +818,8 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
         ColumnFamilyTemplate<Composite, String> userCFTemplate = new ThriftColumnFamilyTemplate<Composite, String>(
                 keyspace, CFConstants.UM_USER, CompositeSerializer.get(), StringSerializer.get());
 
-        ColumnFamilyResult<Composite, String> result = userCFTemplate.queryColumns(key);
+        ColumnFamilyResult<Composite, String> result = userCFTemplate.queryColumns(key,
+                Arrays.asList(CFConstants.UM_SALT_VALUE, CFConstants.UM_SECRET));
         String saltVallue = result.getString(CFConstants.UM_SALT_VALUE);
         String storedPassword = result.getString(CFConstants.UM_SECRET);
 
@@ -634,9 +838,6 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
     @Override
     protected String[] doListUsers(String filter, int maxItemLimit) throws UserStoreException {
 
-        List<String> users = new ArrayList<String>();
-        int arrayLength = 0;
-
         if (maxItemLimit == 0) {
             return new String[0];
         }
@@ -654,37 +855,33 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
             maxItemLimit = givenMax;
         }
 
-        RangeSlicesQuery<String, String, String> rangeSliceQuery = HFactory.createRangeSlicesQuery(keyspace,
-                stringSerializer, stringSerializer, stringSerializer);
-
-        rangeSliceQuery.setColumnFamily(CFConstants.UM_USER);
-        rangeSliceQuery.setRange(filter, null, false, Integer.MAX_VALUE);
-        rangeSliceQuery.addEqualsExpression(CFConstants.UM_TENANT_ID, tenantIdString);
+        return listUsers(filter, null, maxItemLimit);
 
-        // TODO - Need to check how to use the filter for range
-        rangeSliceQuery.setKeys("", "");
-        rangeSliceQuery.setRowCount(maxItemLimit);
-        QueryResult<OrderedRows<String, String, String>> result = rangeSliceQuery.execute();
-        if (result != null) {
-            OrderedRows<String, String, String> rows = result.get();
-            if (rows.getCount() > 0) {
-                arrayLength = rows.getCount();
+    }
 
-                Iterator<Row<String, String, String>> rowsIterator = rows.iterator();
+    /**
+     * Lists a page of the users in the user store whose names match the given filter, in lexical
+     * order of the user names. Only the users starting with the fixed prefix of the filter are read
+     * from the user name index of the tenant.
+     *
+     * @param filter      Filter with * and ? wildcards.
+     * @param pagingToken Last user name of the previous page, null for the first page.
+     * @param pageSize    Maximum number of users to return.
+     * @return User names, with the domain appended if exist.
+     */
+    public String[] listUsers(String filter, String pagingToken, int pageSize) {
 
-                while (rowsIterator.hasNext()) {
-                    Row<String, String, String> row = rowsIterator.next();
-                    if (row.getColumnSlice().getColumnByName(CFConstants.UM_USER_ID).getValue() != null) {
-                        String name = row.getColumnSlice().getColumnByName(CFConstants.UM_USER_NAME).getValue();
-                        // append the domain if exist
-                        name = UserCoreUtil.addDomainToName(name, domain);
-                        users.add(name);
-                    }
-                }
-            }
+        if (pagingToken != null) {
+            pagingToken = UserCoreUtil.removeDomainFromName(pagingToken);
         }
-        return users.toArray(new String[arrayLength]);
 
+        List<String> users = getMatchingColumnNames(getUserNameIndexKey(tenantIdString),
+                CFConstants.UM_TENANT_USER_INDEX, filter, pagingToken, pageSize);
+        for (int i = 0; i < users.size(); i++) {
+            // append the domain if exist
+            users.set(i, UserCoreUtil.addDomainToName(users.get(i), domain));
+        }
+        return users.toArray(new String[users.size()]);
     }
 
     /**
@@ -772,21 +969,12 @@ public class CassandraUserStoreManager extends AbstractUserStoreManager {
     @Override
     public String[] doGetUserListOfRole(String roleName, String filter) throws UserStoreException {
 
-        List<String> usersList = new ArrayList<String>();
         Composite key = new Composite();
         key.addComponent(roleName, stringSerializer);
         key.addComponent(tenantIdString, stringSerializer);
-        SliceQuery<Composite, String, String> query = HFactory
-                .createSliceQuery(keyspace, CompositeSerializer.get(), StringSerializer.get(), StringSerializer.get())
-                .setKey(key).setColumnFamily(CFConstants.UM_ROLE_USER_INDEX);
 
-        ColumnSliceIterator<Composite, String, String> iterator = new ColumnSliceIterator<Composite, String, String>(
-                query, null, "\uFFFF", false);
-
-        while (iterator.hasNext()) {
-            HColumn<String, String> column = iterator.next();
-            usersList.add(column.getValue());
-        }
+        List<String> usersList = getMatchingColumnNames(key, CFConstants.UM_ROLE_USER_INDEX, filter, null,
+                Integer.MAX_VALUE);
         return usersList.toArray(new String[usersList.size()]);
     }
 
@@ -31,6 +31,7 @@ import org.wso2.carbon.user.core.UserStoreException;
 import org.wso2.carbon.user.core.claim.ClaimManager;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClaimManagerHandler {
 
@@ -42,6 +43,9 @@ public class ClaimManagerHandler {
     // To enable attempted thread-safety using double-check locking
     private static Object lock = new Object();
 
+    // Incremented on every claim mapping change made through this handler
+    private static AtomicLong claimMappingVersion = new AtomicLong();
+
     // Making the class singleton
     private ClaimManagerHandler() throws Exception {
     }
@@ -62,6 +66,16 @@ public class ClaimManagerHandler {
         return claimManagerHandler;
     }
 
+    /**
+     * Returns a number which changes whenever a claim mapping or dialect is added, updated or
+     * removed through this handler. Used to invalidate data derived from the claim mappings.
+     *
+     * @return current claim mapping version
+     */
+    public static long getClaimMappingVersion() {
+        return claimMappingVersion.get();
+    }
+
     /**
      * Returns all supported claims.
      *
@@ -315,6 +329,7 @@ public class ClaimManagerHandler {
                 // There can be cases - we get a request for an external user store - where we don'
                 // have a claims administrator.
                 claimManager.updateClaimMapping(mapping);
+                claimMappingVersion.incrementAndGet();
             }
         } catch (UserStoreException e) {
             log.error("Error occurred while updating claim mapping", e);
@@ -335,6 +350,7 @@ public class ClaimManagerHandler {
                 // There can be cases - we get a request for an external user store - where we don'
                 // have a claims administrator.
                 claimManager.addNewClaimMapping(mapping);
+                claimMappingVersion.incrementAndGet();
             }
         } catch (UserStoreException e) {
             log.error("Error occurred while adding new claim mapping", e);
@@ -362,6 +378,7 @@ public class ClaimManagerHandler {
                 claim.setDialectURI(dialectUri);
                 mapping = new ClaimMapping(claim, null);
                 claimManager.deleteClaimMapping(mapping);
+                claimMappingVersion.incrementAndGet();
             }
         } catch (UserStoreException e) {
             log.error("Error occurred while removing new claim mapping", e);
@@ -383,6 +400,7 @@ public class ClaimManagerHandler {
                 for (int i = 0; i < mapping.length; i++) {
                     claimManager.addNewClaimMapping(mapping[i]);
                 }
+                claimMappingVersion.incrementAndGet();
             }
         } catch (UserStoreException e) {
             log.error("Error occurred while removing new claim mapping", e);
@@ -406,6 +424,7 @@ public class ClaimManagerHandler {
                     for (int i = 0; i < mapping.length; i++) {
                         claimManager.deleteClaimMapping(mapping[i]);
                     }
+                    claimMappingVersion.incrementAndGet();
                 }
             }
         } catch (UserStoreException e) {
@@ -18,18 +18,57 @@
 
 package org.wso2.carbon.identity.application.authentication.framework.cache;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.application.authentication.framework.store.SessionDataStore;
 import org.wso2.carbon.identity.application.common.cache.BaseCache;
 import org.wso2.carbon.identity.application.common.cache.CacheEntry;
 import org.wso2.carbon.identity.application.common.cache.CacheKey;
 import org.wso2.carbon.identity.core.util.IdentityUtil;
 
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches the authentication contexts of the authentication flows in progress and, when temporary
+ * caches are enabled, writes them to the session data store so that a flow can continue on another
+ * node. A context is serialized once, on the calling thread, into a compact encoding and is written
+ * only if it changed since it was last written.
+ */
 public class AuthenticationContextCache extends BaseCache<CacheKey, CacheEntry> {
 
+    private static final Log log = LogFactory.getLog(AuthenticationContextCache.class);
     private static final String AUTHENTICATION_CONTEXT_CACHE_NAME = "AuthenticationContextCache";
+    private static final String COMPRESSION_THRESHOLD = "JDBCPersistenceManager.SessionDataPersist.CompressionThreshold";
+    private static final String MAX_CONTEXT_SIZE = "JDBCPersistenceManager.SessionDataPersist.MaxContextSize";
+    private static final int DEFAULT_COMPRESSION_THRESHOLD = 1024;
+    private static final int DEFAULT_MAX_CONTEXT_SIZE = 1024 * 1024;
+    /**
+     * Maximum number of contexts whose last written digest is remembered. The least recently written
+     * context is forgotten first, which only costs writing it once more.
+     */
+    private static final int MAX_TRACKED_CONTEXTS = 10000;
     private static volatile AuthenticationContextCache instance;
     private boolean useCache = true;
     private boolean enableTemporaryCaches = true;
+    private int compressionThreshold = DEFAULT_COMPRESSION_THRESHOLD;
+    private int maxContextSize = DEFAULT_MAX_CONTEXT_SIZE;
+    private final Map<String, PersistedContext> persistedContexts = Collections.synchronizedMap(
+            new LinkedHashMap<String, PersistedContext>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = -2906389463207515371L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PersistedContext> eldest) {
+                    return size() > MAX_TRACKED_CONTEXTS;
+                }
+            });
+    private final AuthenticationContextPersistenceStats persistenceStats = new AuthenticationContextPersistenceStats();
 
     private AuthenticationContextCache(String cacheName) {
         super(cacheName);
@@ -41,6 +80,8 @@ public class AuthenticationContextCache extends BaseCache<CacheKey, CacheEntry>
         if (IdentityUtil.getProperty("JDBCPersistenceManager.SessionDataPersist.Temporary") != null) {
             enableTemporaryCaches = Boolean.parseBoolean(IdentityUtil.getProperty("JDBCPersistenceManager.SessionDataPersist.Temporary"));
         }
+        compressionThreshold = IdentityUtil.getIntProperty(COMPRESSION_THRESHOLD, DEFAULT_COMPRESSION_THRESHOLD);
+        maxContextSize = IdentityUtil.getIntProperty(MAX_CONTEXT_SIZE, DEFAULT_MAX_CONTEXT_SIZE);
     }
 
     public static AuthenticationContextCache getInstance(int timeout) {
@@ -61,7 +102,7 @@ public class AuthenticationContextCache extends BaseCache<CacheKey, CacheEntry>
             super.addToCache(keyValue, entry);
         }
         if (enableTemporaryCaches) {
-            SessionDataStore.getInstance().storeSessionData(keyValue, AUTHENTICATION_CONTEXT_CACHE_NAME, entry);
+            persist(keyValue, entry);
         }
     }
 
@@ -73,8 +114,21 @@ public class AuthenticationContextCache extends BaseCache<CacheKey, CacheEntry>
             cacheEntry = super.getValueFromCache(keyValue);
         }
         if (cacheEntry == null) {
-            cacheEntry = (AuthenticationContextCacheEntry) SessionDataStore.getInstance().
+            Object storedEntry = SessionDataStore.getInstance().
                     getSessionData(keyValue, AUTHENTICATION_CONTEXT_CACHE_NAME);
+            if (storedEntry instanceof byte[]) {
+                try {
+                    cacheEntry = (AuthenticationContextCacheEntry) AuthenticationContextSerializer.decode(
+                            (byte[]) storedEntry);
+                } catch (IOException e) {
+                    log.error("Error while reading the authentication context " + keyValue, e);
+                } catch (ClassNotFoundException e) {
+                    log.error("Error while reading the authentication context " + keyValue, e);
+                }
+            } else {
+                // stored before the contexts were encoded
+                cacheEntry = (AuthenticationContextCacheEntry) storedEntry;
+            }
         }
         return cacheEntry;
     }
@@ -86,7 +140,80 @@ public class AuthenticationContextCache extends BaseCache<CacheKey, CacheEntry>
             super.clearCacheEntry(keyValue);
         }
         if (enableTemporaryCaches) {
+            PersistedContext persistedContext = persistedContexts.remove(keyValue);
+            if (persistedContext != null) {
+                persistenceStats.recordCompletedFlow(persistedContext.bytesWritten);
+            }
             SessionDataStore.getInstance().clearSessionData(keyValue, AUTHENTICATION_CONTEXT_CACHE_NAME);
         }
     }
+
+    /**
+     * @return statistics of writing the contexts to the session data store
+     */
+    public AuthenticationContextPersistenceStats getPersistenceStats() {
+        return persistenceStats;
+    }
+
+    private void persist(String keyValue, CacheEntry entry) {
+
+        byte[] data;
+        try {
+            data = AuthenticationContextSerializer.encode(entry, compressionThreshold);
+        } catch (IOException e) {
+            log.error("Error while serializing the authentication context " + keyValue, e);
+            return;
+        }
+
+        if (useCache && data.length > maxContextSize) {
+            // the flow can still continue on this node, but not on the others
+            persistenceStats.recordOversized();
+            log.warn("Authentication context " + keyValue + " of " + data.length + " bytes is larger than " +
+                    maxContextSize + " bytes. It is not written to the session data store.");
+            // an older version of the context must not be picked up by the other nodes
+            persistedContexts.remove(keyValue);
+            SessionDataStore.getInstance().clearSessionData(keyValue, AUTHENTICATION_CONTEXT_CACHE_NAME);
+            return;
+        }
+
+        byte[] digest = digest(data);
+        PersistedContext previous = persistedContexts.get(keyValue);
+        if (previous != null && digest != null && Arrays.equals(previous.digest, digest)) {
+            persistenceStats.recordSkippedWrite();
+            if (log.isDebugEnabled()) {
+                log.debug("Authentication context " + keyValue + " has not changed. Skipped writing it.");
+            }
+            return;
+        }
+
+        SessionDataStore.getInstance().storeSessionData(keyValue, AUTHENTICATION_CONTEXT_CACHE_NAME, data);
+        persistenceStats.recordWrite(data.length);
+        long bytesWritten = (previous != null ? previous.bytesWritten : 0) + data.length;
+        persistedContexts.put(keyValue, new PersistedContext(digest, bytesWritten));
+    }
+
+    private static byte[] digest(byte[] data) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(data);
+        } catch (NoSuchAlgorithmException e) {
+            log.error("SHA-256 is not available. Authentication contexts are written even if they have not changed.",
+                    e);
+            return null;
+        }
+    }
+
+    private static class PersistedContext {
+
+        private final byte[] digest;
+
+        /**
+         * Bytes written for the context since the flow started
+         */
+        private final long bytesWritten;
+
+        private PersistedContext(byte[] digest, long bytesWritten) {
+            this.digest = digest;
+            this.bytesWritten = bytesWritten;
+        }
+    }
 }
@@ -0,0 +1,111 @@
+/*
+*Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*WSO2 Inc. licenses this file to you under the Apache License,
+*Version 2.0 (the "License"); you may not use this file except
+*in compliance with the License.
+*You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+*Unless required by applicable law or agreed to in writing,
+*software distributed under the License is distributed on an
+*"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+*KIND, either express or implied.  See the License for the
+*specific language governing permissions and limitations
+*under the License.
+*/
+
+package org.wso2.carbon.identity.application.authentication.framework.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Statistics of writing authentication contexts to the session data store.
+ */
+public class AuthenticationContextPersistenceStats {
+
+    private final AtomicLong writeCount = new AtomicLong();
+
+    private final AtomicLong skippedWriteCount = new AtomicLong();
+
+    private final AtomicLong oversizedCount = new AtomicLong();
+
+    private final AtomicLong bytesWritten = new AtomicLong();
+
+    private final AtomicLong completedFlowCount = new AtomicLong();
+
+    private final AtomicLong completedFlowBytes = new AtomicLong();
+
+    private final AtomicLong maxFlowBytes = new AtomicLong();
+
+    void recordWrite(int bytes) {
+        writeCount.incrementAndGet();
+        bytesWritten.addAndGet(bytes);
+    }
+
+    void recordSkippedWrite() {
+        skippedWriteCount.incrementAndGet();
+    }
+
+    void recordOversized() {
+        oversizedCount.incrementAndGet();
+    }
+
+    void recordCompletedFlow(long bytes) {
+        completedFlowCount.incrementAndGet();
+        completedFlowBytes.addAndGet(bytes);
+        long currentMax = maxFlowBytes.get();
+        while (bytes > currentMax && !maxFlowBytes.compareAndSet(currentMax, bytes)) {
+            currentMax = maxFlowBytes.get();
+        }
+    }
+
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return number of writes skipped as the context had not changed since it was last written
+     */
+    public long getSkippedWriteCount() {
+        return skippedWriteCount.get();
+    }
+
+    /**
+     * @return number of contexts which were only cached as they were larger than the maximum size
+     */
+    public long getOversizedCount() {
+        return oversizedCount.get();
+    }
+
+    public long getBytesWritten() {
+        return bytesWritten.get();
+    }
+
+    /**
+     * @return number of authentication flows whose context was written at least once and then removed
+     */
+    public long getCompletedFlowCount() {
+        return completedFlowCount.get();
+    }
+
+    /**
+     * @return average bytes written for the context of a completed authentication flow
+     */
+    public long getAverageBytesPerFlow() {
+        long flows = completedFlowCount.get();
+        return flows == 0 ? 0 : completedFlowBytes.get() / flows;
+    }
+
+    public long getMaxBytesPerFlow() {
+        return maxFlowBytes.get();
+    }
+
+    @Override
+    public String toString() {
+        return "[writes=" + getWriteCount() + ", skipped=" + getSkippedWriteCount() + ", oversized=" +
+                getOversizedCount() + ", bytes=" + getBytesWritten() + ", flows=" + getCompletedFlowCount() +
+                ", avgBytesPerFlow=" + getAverageBytesPerFlow() + ", maxBytesPerFlow=" + getMaxBytesPerFlow() + "]";
+    }
+}
@@ -0,0 +1,102 @@
+/*
+*Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*WSO2 Inc. licenses this file to you under the Apache License,
+*Version 2.0 (the "License"); you may not use this file except
+*in compliance with the License.
+*You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+*Unless required by applicable law or agreed to in writing,
+*software distributed under the License is distributed on an
+*"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+*KIND, either express or implied.  See the License for the
+*specific language governing permissions and limitations
+*under the License.
+*/
+
+package org.wso2.carbon.identity.application.authentication.framework.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compact encoding of the authentication context cache entries stored in the session data store.
+ * The entry is serialized once and deflated when it is larger than the compression threshold. The
+ * first byte tells how the rest was encoded.
+ */
+public class AuthenticationContextSerializer {
+
+    private static final byte PLAIN = 0;
+
+    private static final byte DEFLATED = 1;
+
+    private AuthenticationContextSerializer() {
+    }
+
+    /**
+     * @param entry                cache entry to encode
+     * @param compressionThreshold entries up to this many bytes are not compressed
+     * @return encoded entry
+     * @throws IOException if the entry could not be serialized
+     */
+    public static byte[] encode(Serializable entry, int compressionThreshold) throws IOException {
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(1024);
+        bytes.write(PLAIN);
+        ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes);
+        objectOutputStream.writeObject(entry);
+        objectOutputStream.close();
+        byte[] plain = bytes.toByteArray();
+        if (plain.length - 1 <= compressionThreshold) {
+            return plain;
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(plain.length / 4 + 16);
+        compressed.write(DEFLATED);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            DeflaterOutputStream deflaterOutputStream = new DeflaterOutputStream(compressed, deflater);
+            deflaterOutputStream.write(plain, 1, plain.length - 1);
+            deflaterOutputStream.close();
+        } finally {
+            deflater.end();
+        }
+        byte[] result = compressed.toByteArray();
+        return result.length < plain.length ? result : plain;
+    }
+
+    /**
+     * @param data entry encoded by {@link #encode(Serializable, int)}
+     * @return decoded cache entry
+     * @throws IOException            if the data is not a valid encoded entry
+     * @throws ClassNotFoundException if a class of the entry can not be loaded
+     */
+    public static Object decode(byte[] data) throws IOException, ClassNotFoundException {
+
+        if (data.length == 0) {
+            throw new IOException("Empty authentication context data");
+        }
+        InputStream inputStream = new ByteArrayInputStream(data, 1, data.length - 1);
+        if (data[0] == DEFLATED) {
+            inputStream = new InflaterInputStream(inputStream);
+        } else if (data[0] != PLAIN) {
+            throw new IOException("Unknown authentication context encoding : " + data[0]);
+        }
+        ObjectInputStream objectInputStream = new ObjectInputStream(inputStream);
+        try {
+            return objectInputStream.readObject();
+        } finally {
+            objectInputStream.close();
+        }
+    }
+}
@@ -42,12 +42,20 @@ import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class DefaultClaimHandler implements ClaimHandler {
 
     private static Log log = LogFactory.getLog(DefaultClaimHandler.class);
     private static volatile DefaultClaimHandler instance;
 
+    private static final int MAX_CLAIM_PROJECTIONS = 1000;
+    private static final long CLAIM_PROJECTION_TIMEOUT = 15 * 60 * 1000L;
+
+    // key:value -> service provider and request type:local claims to fetch for it
+    private final Map<String, ClaimProjection> claimProjections =
+            new ConcurrentHashMap<String, ClaimProjection>();
+
     public static DefaultClaimHandler getInstance() {
         if (instance == null) {
             synchronized (DefaultClaimHandler.class) {
@@ -304,19 +312,16 @@ public class DefaultClaimHandler implements ClaimHandler {
         // key:value -> sp_dialect:claim_value
         Map<String, String> spRequestedClaims = new HashMap<String, String>();
 
-        // Retrieve all non-null user claim values against local claim uris.
-        try {
+        ClaimProjection projection = getClaimProjection(spStandardDialect, spToLocalClaimMappings,
+                requestedClaimMappings, claimManager, tenantDomain, context);
+        spToLocalClaimMappings = projection.spToLocalClaimMappings;
 
-            org.wso2.carbon.user.api.ClaimMapping[] claimMappings = claimManager
-                    .getAllClaimMappings(ApplicationConstants.LOCAL_IDP_DEFAULT_CLAIM_DIALECT);
-            List<String> localClaimURIs = new ArrayList<String>();
-            for (org.wso2.carbon.user.api.ClaimMapping mapping : claimMappings) {
-                String claimURI = mapping.getClaim().getClaimUri();
-                localClaimURIs.add(claimURI);
+        // Retrieve the non-null user claim values of the projected local claim uris only.
+        try {
+            if (projection.localClaimURIs.length > 0) {
+                allLocalClaims = userStore.getUserClaimValues(tenantAwareUserName,
+                        projection.localClaimURIs, null);
             }
-            allLocalClaims = userStore.getUserClaimValues(
-                    MultitenantUtils.getTenantAwareUsername(authenticatedUser),
-                    localClaimURIs.toArray(new String[localClaimURIs.size()]), null);
         } catch (UserStoreException e) {
             throw new FrameworkException("Error occurred while getting all user claims for " +
                     authenticatedUser + " in " + tenantDomain, e);
@@ -327,19 +332,6 @@ public class DefaultClaimHandler implements ClaimHandler {
 
         context.setProperty(FrameworkConstants.UNFILTERED_LOCAL_CLAIM_VALUES, allLocalClaims);
 
-        // if standard dialect get all claim mappings from standard dialect to carbon dialect
-        if (spStandardDialect != null) {
-            try {
-                spToLocalClaimMappings = getClaimMappings(spStandardDialect, null,
-                        context.getTenantDomain(), false);
-            } catch (Exception e) {
-                throw new FrameworkException("Error occurred while getting all claim mappings from " +
-                        spStandardDialect + " dialect to " +
-                        ApplicationConstants.LOCAL_IDP_DEFAULT_CLAIM_DIALECT + " dialect for " +
-                        tenantDomain + " to handle local claims", e);
-            }
-        }
-
         for (Iterator<Entry<String, String>> iterator = spToLocalClaimMappings.entrySet().
                 iterator(); iterator.hasNext(); ) {
             Entry<String, String> entry = iterator.next();
@@ -372,6 +364,97 @@ public class DefaultClaimHandler implements ClaimHandler {
         return spRequestedClaims;
     }
 
+    /**
+     * Returns the local claims to fetch for the service provider, building the projection if it is
+     * not cached or is stale. A projection is rebuilt when the claim mappings of the application
+     * change, when a claim mapping or dialect is changed through ClaimManagerHandler, and after
+     * CLAIM_PROJECTION_TIMEOUT to pick up changes made on other nodes.
+     * <p/>
+     * All local claims are fetched when the service provider has no requested claims, since all
+     * unfiltered local claim values are sent in that case. For OpenID all service provider mapped
+     * claims are returned, so all of them are fetched. Otherwise only the requested claims and the
+     * subject claim are fetched.
+     */
+    private ClaimProjection getClaimProjection(String spStandardDialect,
+                                               Map<String, String> appClaimMappings,
+                                               Map<String, String> requestedClaimMappings,
+                                               ClaimManager claimManager, String userTenantDomain,
+                                               AuthenticationContext context)
+            throws FrameworkException {
+
+        ApplicationConfig appConfig = context.getSequenceConfig().getApplicationConfig();
+        String key = context.getTenantDomain() + ":" + userTenantDomain + ":" +
+                appConfig.getApplicationID() + ":" + appConfig.getApplicationName() + ":" +
+                spStandardDialect + ":" + context.getRequestType();
+        long version = ClaimManagerHandler.getClaimMappingVersion();
+
+        ClaimProjection projection = claimProjections.get(key);
+        if (projection != null && projection.version == version &&
+                projection.expiryTime > System.currentTimeMillis() &&
+                projection.appClaimMappings.equals(appClaimMappings) &&
+                projection.requestedClaimMappings.equals(requestedClaimMappings)) {
+            return projection;
+        }
+
+        Map<String, String> spToLocalClaimMappings = appClaimMappings;
+        // if standard dialect get all claim mappings from standard dialect to carbon dialect
+        if (spStandardDialect != null) {
+            try {
+                spToLocalClaimMappings = getClaimMappings(spStandardDialect, null,
+                        context.getTenantDomain(), false);
+            } catch (Exception e) {
+                throw new FrameworkException("Error occurred while getting all claim mappings from " +
+                        spStandardDialect + " dialect to " +
+                        ApplicationConstants.LOCAL_IDP_DEFAULT_CLAIM_DIALECT + " dialect for " +
+                        userTenantDomain + " to handle local claims", e);
+            }
+        }
+
+        Set<String> localClaimURIs = new HashSet<String>();
+        if (requestedClaimMappings.isEmpty()) {
+            try {
+                org.wso2.carbon.user.api.ClaimMapping[] claimMappings = claimManager
+                        .getAllClaimMappings(ApplicationConstants.LOCAL_IDP_DEFAULT_CLAIM_DIALECT);
+                for (org.wso2.carbon.user.api.ClaimMapping mapping : claimMappings) {
+                    localClaimURIs.add(mapping.getClaim().getClaimUri());
+                }
+            } catch (UserStoreException e) {
+                throw new FrameworkException("Error occurred while getting all local claim mappings in " +
+                        userTenantDomain, e);
+            }
+        } else if (FrameworkConstants.RequestType.CLAIM_TYPE_OPENID.equals(context.getRequestType())) {
+            localClaimURIs.addAll(spToLocalClaimMappings.values());
+        } else {
+            for (String spClaimURI : requestedClaimMappings.keySet()) {
+                String localClaimURI = spToLocalClaimMappings.get(spClaimURI);
+                if (localClaimURI != null) {
+                    localClaimURIs.add(localClaimURI);
+                }
+            }
+        }
+
+        String subjectURI = appConfig.getSubjectClaimUri();
+        if (subjectURI != null && !subjectURI.isEmpty()) {
+            localClaimURIs.add(subjectURI.trim());
+            if (spToLocalClaimMappings.get(subjectURI) != null) {
+                localClaimURIs.add(spToLocalClaimMappings.get(subjectURI));
+            }
+        }
+
+        projection = new ClaimProjection(version, System.currentTimeMillis() + CLAIM_PROJECTION_TIMEOUT,
+                appClaimMappings, requestedClaimMappings, spToLocalClaimMappings,
+                localClaimURIs.toArray(new String[localClaimURIs.size()]));
+        if (claimProjections.size() >= MAX_CLAIM_PROJECTIONS) {
+            claimProjections.clear();
+        }
+        claimProjections.put(key, projection);
+        if (log.isDebugEnabled()) {
+            log.debug("Projected " + projection.localClaimURIs.length + " local claims for service provider " +
+                    appConfig.getApplicationName() + " and request type " + context.getRequestType());
+        }
+        return projection;
+    }
+
     /**
      * Set federated subject's SP Subject Claim URI as a property
      */
@@ -599,4 +682,30 @@ public class DefaultClaimHandler implements ClaimHandler {
         log.debug(FrameworkConstants.UNFILTERED_SP_CLAIM_VALUES +
                 " map property set to " + sb.toString());
     }
+
+    /**
+     * Local claims to fetch for a service provider, along with the mappings they were derived from.
+     */
+    private static class ClaimProjection {
+
+        private final long version;
+        private final long expiryTime;
+        private final Map<String, String> appClaimMappings;
+        private final Map<String, String> requestedClaimMappings;
+        // key:value -> sp_dialect:carbon_dialect
+        private final Map<String, String> spToLocalClaimMappings;
+        private final String[] localClaimURIs;
+
+        private ClaimProjection(long version, long expiryTime, Map<String, String> appClaimMappings,
+                                Map<String, String> requestedClaimMappings,
+                                Map<String, String> spToLocalClaimMappings, String[] localClaimURIs) {
+            this.version = version;
+            this.expiryTime = expiryTime;
+            this.appClaimMappings = new HashMap<String, String>(appClaimMappings);
+            this.requestedClaimMappings = new HashMap<String, String>(requestedClaimMappings);
+            this.spToLocalClaimMappings = Collections.unmodifiableMap(
+                    new HashMap<String, String>(spToLocalClaimMappings));
+            this.localClaimURIs = localClaimURIs;
+        }
+    }
 }
@@ -1,14 +1,19 @@
 package org.wso2.carbon.identity.application.authentication.framework.handler.provisioning.impl;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.CarbonException;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.core.util.AnonymousSessionUtil;
 import org.wso2.carbon.core.util.PermissionUpdateUtil;
 import org.wso2.carbon.identity.application.authentication.framework.exception.FrameworkException;
 import org.wso2.carbon.identity.application.authentication.framework.handler.provisioning.ProvisioningHandler;
 import org.wso2.carbon.identity.application.authentication.framework.internal.FrameworkServiceComponent;
 import org.wso2.carbon.identity.application.common.model.ClaimMapping;
+import org.wso2.carbon.identity.application.common.model.ThreadLocalProvisioningServiceProvider;
+import org.wso2.carbon.identity.application.common.util.IdentityApplicationManagementUtil;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.core.UserRealm;
 import org.wso2.carbon.user.core.UserStoreException;
@@ -17,16 +22,137 @@ import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.user.core.util.UserCoreUtil;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
+import java.io.UnsupportedEncodingException;
 import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultProvisioningHandler implements ProvisioningHandler {
 
+    private static final String DEFERRED = "JITProvisioning.Deferred";
+    private static final String THREAD_POOL_SIZE = "JITProvisioning.ThreadPoolSize";
+    private static final String QUEUE_SIZE = "JITProvisioning.QueueSize";
+    private static final String FINGERPRINT_TIMEOUT = "JITProvisioning.FingerprintTimeout";
+    private static final String PERMISSION_TREE_UPDATE_DELAY = "JITProvisioning.PermissionTreeUpdateDelay";
+
+    private static final int DEFAULT_THREAD_POOL_SIZE = 2;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    // in seconds, disabled by default
+    private static final int DEFAULT_FINGERPRINT_TIMEOUT = 0;
+    // in milli seconds, the permission tree is updated on the login thread by default
+    private static final int DEFAULT_PERMISSION_TREE_UPDATE_DELAY = 0;
+    // in milli seconds
+    private static final long SHUTDOWN_TIMEOUT = 10000;
+    private static final int MAX_FINGERPRINTS = 10000;
+
     private static Log log = LogFactory.getLog(DefaultProvisioningHandler.class);
     private static volatile DefaultProvisioningHandler instance;
     private SecureRandom random = new SecureRandom();
 
+    /**
+     * Fingerprint of the roles and attributes a user was last provisioned with, by tenant, user
+     * store domain and username. A login bringing the same fingerprint again within the fingerprint
+     * timeout does not touch the user store. The fingerprint only reflects what this node
+     * provisioned, so changes made to the user in the user store by other means, or on other
+     * nodes, are not corrected until the fingerprint expires.
+     */
+    private final Map<String, ProvisionedState> provisionedStates =
+            new ConcurrentHashMap<String, ProvisionedState>();
+    private final long fingerprintTimeout;
+
+    /**
+     * Tenants with a permission tree update scheduled but not yet started
+     */
+    private final Set<Integer> pendingPermissionTreeUpdates =
+            Collections.newSetFromMap(new ConcurrentHashMap<Integer, Boolean>());
+    private final long permissionTreeUpdateDelay;
+    private final ScheduledExecutorService permissionTreeUpdater;
+
+    /**
+     * Single threaded executors for deferred provisioning. Logins of the same user always go to the
+     * same executor so that they are provisioned in order. Null if provisioning is not deferred.
+     */
+    private final ThreadPoolExecutor[] deferredExecutors;
+
+    public DefaultProvisioningHandler() {
+
+        fingerprintTimeout = TimeUnit.SECONDS.toMillis(IdentityUtil.getIntProperty(FINGERPRINT_TIMEOUT,
+                DEFAULT_FINGERPRINT_TIMEOUT));
+        permissionTreeUpdateDelay = IdentityUtil.getIntProperty(PERMISSION_TREE_UPDATE_DELAY,
+                DEFAULT_PERMISSION_TREE_UPDATE_DELAY);
+        if (permissionTreeUpdateDelay > 0) {
+            permissionTreeUpdater = Executors.newSingleThreadScheduledExecutor(
+                    new ProvisioningThreadFactory("JITPermissionTreeUpdater"));
+        } else {
+            permissionTreeUpdater = null;
+        }
+
+        if (Boolean.parseBoolean(IdentityUtil.getProperty(DEFERRED))) {
+            int poolSize = Math.max(1, IdentityUtil.getIntProperty(THREAD_POOL_SIZE, DEFAULT_THREAD_POOL_SIZE));
+            int queueSize = Math.max(1, IdentityUtil.getIntProperty(QUEUE_SIZE, DEFAULT_QUEUE_SIZE));
+            ThreadFactory threadFactory = new ProvisioningThreadFactory("JITProvisioning");
+            deferredExecutors = new ThreadPoolExecutor[poolSize];
+            for (int i = 0; i < poolSize; i++) {
+                // when the queue is full the login thread provisions the user itself
+                deferredExecutors[i] = new ThreadPoolExecutor(1, 1, 60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<Runnable>(queueSize), threadFactory,
+                        new ThreadPoolExecutor.CallerRunsPolicy());
+                deferredExecutors[i].allowCoreThreadTimeOut(true);
+            }
+        } else {
+            deferredExecutors = null;
+        }
+    }
+
+    /**
+     * Stops the background provisioning and permission tree updates of the running handler,
+     * letting the queued ones complete. Called when the authentication framework bundle is
+     * deactivated. The next {@link #getInstance()} creates a new handler.
+     */
+    public static void shutdown() {
+        DefaultProvisioningHandler handler;
+        synchronized (DefaultProvisioningHandler.class) {
+            handler = instance;
+            instance = null;
+        }
+        if (handler == null) {
+            return;
+        }
+        if (handler.deferredExecutors != null) {
+            for (ThreadPoolExecutor executor : handler.deferredExecutors) {
+                executor.shutdown();
+            }
+        }
+        if (handler.permissionTreeUpdater != null) {
+            handler.permissionTreeUpdater.shutdown();
+        }
+        try {
+            if (handler.deferredExecutors != null) {
+                for (ThreadPoolExecutor executor : handler.deferredExecutors) {
+                    if (!executor.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                        log.warn("Deferred provisioning did not complete in " + SHUTDOWN_TIMEOUT + " ms");
+                    }
+                }
+            }
+            if (handler.permissionTreeUpdater != null
+                    && !handler.permissionTreeUpdater.awaitTermination(SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("Permission tree updates did not complete in " + SHUTDOWN_TIMEOUT + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static DefaultProvisioningHandler getInstance() {
         if (instance == null) {
             synchronized (DefaultProvisioningHandler.class) {
@@ -38,8 +164,61 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
         return instance;
     }
 
-    public void handle(List<String> roles, String subject, Map<String, String> attributes,
-                       String provisioningUserStoreId, String tenantDomain) throws FrameworkException {
+    public void handle(List<String> roles, final String subject, Map<String, String> attributes,
+                       final String provisioningUserStoreId, final String tenantDomain) throws FrameworkException {
+
+        if (deferredExecutors == null) {
+            provision(roles, subject, attributes, provisioningUserStoreId, tenantDomain);
+            return;
+        }
+
+        final int tenantId;
+        try {
+            tenantId = FrameworkServiceComponent.getRealmService().getTenantManager().getTenantId(tenantDomain);
+        } catch (org.wso2.carbon.user.api.UserStoreException e) {
+            throw new FrameworkException("Error while provisioning user : " + subject, e);
+        }
+        // the caller may reuse the collections once the login completes
+        final List<String> rolesCopy = roles == null ? null : new ArrayList<String>(roles);
+        final Map<String, String> attributesCopy =
+                attributes == null ? null : new HashMap<String, String>(attributes);
+        // outbound provisioning triggered by the user store listeners looks up the service provider
+        // from the thread local
+        final ThreadLocalProvisioningServiceProvider serviceProvider =
+                IdentityApplicationManagementUtil.getThreadLocalProvisioningServiceProvider();
+
+        int executor = ((tenantDomain + ":" + subject).hashCode() & Integer.MAX_VALUE) % deferredExecutors.length;
+        deferredExecutors[executor].execute(new Runnable() {
+            @Override
+            public void run() {
+                boolean callerThread = IdentityApplicationManagementUtil
+                        .getThreadLocalProvisioningServiceProvider() == serviceProvider;
+                PrivilegedCarbonContext.startTenantFlow();
+                try {
+                    PrivilegedCarbonContext carbonContext = PrivilegedCarbonContext.getThreadLocalCarbonContext();
+                    carbonContext.setTenantDomain(tenantDomain);
+                    carbonContext.setTenantId(tenantId);
+                    IdentityApplicationManagementUtil.setThreadLocalProvisioningServiceProvider(serviceProvider);
+                    provision(rolesCopy, subject, attributesCopy, provisioningUserStoreId, tenantDomain);
+                } catch (FrameworkException e) {
+                    log.error("Deferred provisioning of user " + subject + " failed", e);
+                } catch (RuntimeException e) {
+                    log.error("Deferred provisioning of user " + subject + " failed", e);
+                } finally {
+                    if (!callerThread) {
+                        IdentityApplicationManagementUtil.resetThreadLocalProvisioningServiceProvider();
+                    }
+                    PrivilegedCarbonContext.endTenantFlow();
+                }
+            }
+        });
+    }
+
+    /**
+     * Provisions the user, writing only what differs from the user store
+     */
+    private void provision(List<String> roles, String subject, Map<String, String> attributes,
+                           String provisioningUserStoreId, String tenantDomain) throws FrameworkException {
 
         RegistryService registryService = FrameworkServiceComponent.getRegistryService();
         RealmService realmService = FrameworkServiceComponent.getRealmService();
@@ -81,20 +260,34 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
                         + " going to be provisioned");
             }
 
-            // addingRoles = newRoles AND allExistingRoles
-            Collection<String> addingRoles = new ArrayList<String>();
-            Collections.addAll(addingRoles, newRoles);
-            Collection<String> allExistingRoles = Arrays.asList(userstore.getRoleNames());
-            addingRoles.retainAll(allExistingRoles);
+            String stateKey = tenantDomain + ":" + userstoreDomain + ":" + username;
+            byte[] fingerprint = getFingerprint(roles, attributes);
+            boolean existingUser = userstore.isExistingUser(username);
+            if (existingUser && isProvisioned(stateKey, fingerprint)) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Federated user: " + username + " is already provisioned with the same roles and"
+                            + " attributes");
+                }
+                return;
+            }
+            provisionedStates.remove(stateKey);
+
+            boolean rolesChanged = false;
+            boolean userAdded = false;
 
-            if (userstore.isExistingUser(username)) {
+            if (existingUser) {
 
                 if (roles != null && roles.size() > 0) {
                     // Update user
                     Collection<String> currentRolesList = Arrays.asList(userstore
                             .getRoleListOfUser(username));
                     // addingRoles = (newRoles AND existingRoles) - currentRolesList)
-                    addingRoles.removeAll(currentRolesList);
+                    Collection<String> addingRoles = new ArrayList<String>();
+                    for (String role : newRoles) {
+                        if (!currentRolesList.contains(role) && userstore.isExistingRole(role)) {
+                            addingRoles.add(role);
+                        }
+                    }
 
                     Collection<String> deletingRoles = new ArrayList<String>();
                     deletingRoles.addAll(currentRolesList);
@@ -123,27 +316,41 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
                         }
                     }
 
-                    if (log.isDebugEnabled()) {
-                        log.debug("Deleting roles : "
-                                + Arrays.toString(deletingRoles.toArray(new String[0]))
-                                + " and Adding roles : "
-                                + Arrays.toString(addingRoles.toArray(new String[0])));
-                    }
-                    userstore.updateRoleListOfUser(username, deletingRoles.toArray(new String[0]),
-                            addingRoles.toArray(new String[0]));
-                    if (log.isDebugEnabled()) {
-                        log.debug("Federated user: " + username
-                                + " is updated by authentication framework with roles : "
-                                + Arrays.toString(newRoles));
+                    if (!deletingRoles.isEmpty() || !addingRoles.isEmpty()) {
+                        if (log.isDebugEnabled()) {
+                            log.debug("Deleting roles : "
+                                    + Arrays.toString(deletingRoles.toArray(new String[0]))
+                                    + " and Adding roles : "
+                                    + Arrays.toString(addingRoles.toArray(new String[0])));
+                        }
+                        userstore.updateRoleListOfUser(username, deletingRoles.toArray(new String[0]),
+                                addingRoles.toArray(new String[0]));
+                        rolesChanged = true;
+                        if (log.isDebugEnabled()) {
+                            log.debug("Federated user: " + username
+                                    + " is updated by authentication framework with roles : "
+                                    + Arrays.toString(newRoles));
+                        }
                     }
                 }
 
                 if (attributes != null && attributes.size() > 0) {
-                    userstore.setUserClaimValues(username, attributes, null);
+                    Map<String, String> changedClaims = getChangedClaimValues(userstore, username, attributes);
+                    if (!changedClaims.isEmpty()) {
+                        userstore.setUserClaimValues(username, changedClaims, null);
+                    }
                 }
 
             } else {
 
+                // addingRoles = newRoles AND existingRoles
+                Collection<String> addingRoles = new ArrayList<String>();
+                for (String role : newRoles) {
+                    if (userstore.isExistingRole(role)) {
+                        addingRoles.add(role);
+                    }
+                }
+
                 Map<String, String> userClaim = new HashMap<String, String>();
                 if (attributes != null && attributes.size() > 0) {
                     // Provision user
@@ -152,13 +359,11 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
                             userClaim.put(entry.getKey(), entry.getValue());
                         }
                     }
-
-                    userstore.addUser(username, generatePassword(username),
-                            addingRoles.toArray(new String[0]), userClaim, null);
-                } else {
-                    userstore.addUser(username, generatePassword(username),
-                            addingRoles.toArray(new String[0]), userClaim, null);
                 }
+                userstore.addUser(username, generatePassword(username),
+                        addingRoles.toArray(new String[0]), userClaim, null);
+                rolesChanged = true;
+                userAdded = true;
 
                 if (log.isDebugEnabled()) {
                     log.debug("Federated user: " + username
@@ -167,7 +372,11 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
                 }
             }
 
-            PermissionUpdateUtil.updatePermissionTree(tenantId);
+            if (rolesChanged) {
+                // a new user must be authorized as soon as the login completes
+                updatePermissionTree(tenantId, userAdded);
+            }
+            rememberProvisionedState(stateKey, fingerprint);
 
         } catch (UserStoreException e) {
             throw new FrameworkException("Error while provisioning user : " + subject, e);
@@ -207,6 +416,108 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
         return new BigInteger(130, random).toString(32);
     }
 
+    /**
+     * Reads the current values of the given claims and returns the ones which differ. Missing and
+     * empty values are considered equal.
+     */
+    private Map<String, String> getChangedClaimValues(UserStoreManager userstore, String username,
+                                                      Map<String, String> attributes)
+            throws org.wso2.carbon.user.api.UserStoreException {
+
+        String[] claimURIs = attributes.keySet().toArray(new String[attributes.size()]);
+        Map<String, String> currentValues = userstore.getUserClaimValues(username, claimURIs, null);
+        Map<String, String> changedClaims = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : attributes.entrySet()) {
+            String currentValue = currentValues != null ? currentValues.get(entry.getKey()) : null;
+            if (!StringUtils.defaultString(entry.getValue()).equals(StringUtils.defaultString(currentValue))) {
+                changedClaims.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return changedClaims;
+    }
+
+    /**
+     * Updates the permission tree of the tenant. Unless the delay is disabled or the update is
+     * requested inline, the update runs in the background and logins changing roles of the same
+     * tenant within the delay share it.
+     */
+    private void updatePermissionTree(final int tenantId, boolean inline) throws CarbonException {
+
+        if (permissionTreeUpdater == null || inline) {
+            PermissionUpdateUtil.updatePermissionTree(tenantId);
+            return;
+        }
+        if (!pendingPermissionTreeUpdates.add(tenantId)) {
+            return;
+        }
+        permissionTreeUpdater.schedule(new Runnable() {
+            @Override
+            public void run() {
+                // role changes made while updating schedule another update
+                pendingPermissionTreeUpdates.remove(tenantId);
+                try {
+                    PermissionUpdateUtil.updatePermissionTree(tenantId);
+                } catch (CarbonException e) {
+                    log.error("Error while updating the permission tree of tenant " + tenantId, e);
+                } catch (RuntimeException e) {
+                    log.error("Error while updating the permission tree of tenant " + tenantId, e);
+                }
+            }
+        }, permissionTreeUpdateDelay, TimeUnit.MILLISECONDS);
+    }
+
+    private boolean isProvisioned(String stateKey, byte[] fingerprint) {
+        if (fingerprint == null || fingerprintTimeout <= 0) {
+            return false;
+        }
+        ProvisionedState state = provisionedStates.get(stateKey);
+        return state != null && System.currentTimeMillis() - state.provisionedTime < fingerprintTimeout
+                && MessageDigest.isEqual(state.fingerprint, fingerprint);
+    }
+
+    private void rememberProvisionedState(String stateKey, byte[] fingerprint) {
+        if (fingerprint == null || fingerprintTimeout <= 0) {
+            return;
+        }
+        if (provisionedStates.size() >= MAX_FINGERPRINTS) {
+            provisionedStates.clear();
+        }
+        provisionedStates.put(stateKey, new ProvisionedState(fingerprint));
+    }
+
+    /**
+     * @return digest of the roles and attributes, independent of their order. Null if the digest
+     * could not be computed
+     */
+    private byte[] getFingerprint(List<String> roles, Map<String, String> attributes) {
+
+        StringBuilder builder = new StringBuilder();
+        if (roles == null) {
+            builder.append('\u0001');
+        } else {
+            List<String> sortedRoles = new ArrayList<String>(roles);
+            Collections.sort(sortedRoles);
+            for (String role : sortedRoles) {
+                builder.append(role).append('\u0000');
+            }
+        }
+        builder.append('\u0002');
+        if (attributes != null) {
+            for (Map.Entry<String, String> entry : new TreeMap<String, String>(attributes).entrySet()) {
+                builder.append(entry.getKey()).append('\u0000')
+                        .append(StringUtils.defaultString(entry.getValue())).append('\u0000');
+            }
+        }
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(builder.toString().getBytes("UTF-8"));
+        } catch (NoSuchAlgorithmException e) {
+            log.error("Error while computing the fingerprint of the provisioned user", e);
+        } catch (UnsupportedEncodingException e) {
+            log.error("Error while computing the fingerprint of the provisioned user", e);
+        }
+        return null;
+    }
+
     private String getUserStoreClaimValueFromMap(Map<ClaimMapping, String> claimMappingStringMap,
                                                  String userStoreClaimURI) {
 
@@ -217,4 +528,33 @@ public class DefaultProvisioningHandler implements ProvisioningHandler {
         }
         return null;
     }
+
+    private static class ProvisionedState {
+
+        private final byte[] fingerprint;
+
+        private final long provisionedTime = System.currentTimeMillis();
+
+        private ProvisionedState(byte[] fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    private static class ProvisioningThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        private ProvisioningThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
@@ -29,6 +29,7 @@ import org.osgi.util.tracker.ServiceTracker;
 import org.osgi.util.tracker.ServiceTrackerCustomizer;
 import org.wso2.carbon.identity.application.authentication.framework.*;
 import org.wso2.carbon.identity.application.authentication.framework.config.ConfigurationFacade;
+import org.wso2.carbon.identity.application.authentication.framework.handler.provisioning.impl.DefaultProvisioningHandler;
 import org.wso2.carbon.identity.application.authentication.framework.listener.AuthenticationEndpointTenantActivityListener;
 import org.wso2.carbon.identity.application.authentication.framework.servlet.CommonAuthenticationServlet;
 import org.wso2.carbon.identity.application.common.ApplicationAuthenticatorService;
@@ -227,6 +228,7 @@ public class FrameworkServiceComponent {
             log.info("Application Authentication Framework bundle is deactivated");
         }
 
+        DefaultProvisioningHandler.shutdown();
         bundleContext = null;
     }
 
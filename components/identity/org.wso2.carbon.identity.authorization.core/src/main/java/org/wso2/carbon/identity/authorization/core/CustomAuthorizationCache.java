@@ -26,9 +26,29 @@ import org.wso2.carbon.identity.authorization.core.dto.PermissionModule;
 import javax.cache.Cache;
 import javax.cache.CacheManager;
 import javax.cache.Caching;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Cache wrapper for the custom permissions
+ * <p/>
+ * The keys added through this wrapper are indexed by tenant and module, and by
+ * tenant, module and subject, so that invalidating the permissions of a module
+ * or a subject only touches the affected entries. The number of entries is
+ * bounded and the least recently used entries are evicted first.
+ * <p/>
+ * The indexes only hold the keys added on this node. When the cache is
+ * distributed, or before it is known whether it is, the permissions of a module
+ * or a subject are invalidated by scanning every key of the cache. Entries
+ * already in a local cache when it is first used, such as after a bundle
+ * restart, are added to the indexes then.
  *
  * @author venura
  */
@@ -39,8 +59,30 @@ public class CustomAuthorizationCache {
     private static Log log = LogFactory.getLog(CustomAuthorizationCache.class);
     private static String cacheIdentifier;
 
+    private static final int MAX_CACHE_ENTRIES = 10000;
+
     private static CustomAuthorizationCache instance = new CustomAuthorizationCache();
 
+    /*Access ordered keys of the cache entries. Guarded by itself, as are the indexes.*/
+    private final LinkedHashMap<AuthorizationKey, Boolean> cachedKeys =
+            new LinkedHashMap<AuthorizationKey, Boolean>(16, 0.75f, true);
+
+    private final Map<String, Set<AuthorizationKey>> moduleIndex = new HashMap<String, Set<AuthorizationKey>>();
+
+    private final Map<String, Set<AuthorizationKey>> subjectIndex = new HashMap<String, Set<AuthorizationKey>>();
+
+    private final AtomicLong hitCount = new AtomicLong();
+
+    private final AtomicLong missCount = new AtomicLong();
+
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    /*If the cache is shared by the nodes of a cluster, null until it is known*/
+    private volatile Boolean distributed;
+
+    /*If the keys already in the cache were added to the indexes. Guarded by cachedKeys.*/
+    private boolean indexSeeded;
+
     private CustomAuthorizationCache() {
         cacheIdentifier = null;
     }
@@ -71,6 +113,7 @@ public class CustomAuthorizationCache {
                 removeCacheEnrty(key);
             }
             cache.put(key, new AuthorizeCacheEntry(value));
+            track(key);
         }
     }
 
@@ -91,6 +134,7 @@ public class CustomAuthorizationCache {
             }
 
             cache.put(key, entry);
+            track(key);
         }
     }
 
@@ -121,34 +165,66 @@ public class CustomAuthorizationCache {
 
     public void removeCacheEntry(AuthorizationKey key) {
         key.setServerId(cacheIdentifier);
+        synchronized (cachedKeys) {
+            untrack(key);
+        }
         removeCacheEnrty(key);
     }
 
+    /**
+     * @param distributed if the cache is shared by the nodes of a cluster
+     */
+    public void setDistributed(boolean distributed) {
+        this.distributed = distributed;
+    }
+
     public void removeCacheEntries(int moduleId, int tenantId) {
-        Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
-        if (cache != null) {
-            for (Cache.Entry<AuthorizationKey, AuthorizeCacheEntry> entry : cache) {
-                AuthorizationKey authorizationKey = entry.getKey();
-                if (tenantId == (authorizationKey.getTenantId())
-                        && authorizationKey.getModuleId() == moduleId) {
-                    removeCacheEnrty(authorizationKey);
+        if (!isIndexComplete()) {
+            Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
+            if (cache != null) {
+                for (Cache.Entry<AuthorizationKey, AuthorizeCacheEntry> entry : cache) {
+                    AuthorizationKey authorizationKey = entry.getKey();
+                    if (tenantId == (authorizationKey.getTenantId())
+                            && authorizationKey.getModuleId() == moduleId) {
+                        removeCacheEntry(authorizationKey);
+                    }
                 }
             }
+            return;
+        }
+        List<AuthorizationKey> keys = untrackAll(moduleIndex, getModuleIndexKey(tenantId, moduleId));
+        for (AuthorizationKey key : keys) {
+            removeCacheEnrty(key);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + keys.size() + " cache entries of module " + moduleId + " of tenant " + tenantId);
         }
     }
 
     public void removeCacheEntries(int moduleId, String subjectName, int tenantId,
                                    boolean isRolePermissions) {
-        Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
-        if (cache != null) {
-            for (Cache.Entry<AuthorizationKey, AuthorizeCacheEntry> entry : cache) {
-                AuthorizationKey authorizationKey = entry.getKey();
-                if (authorizationKey.getTenantId() == tenantId && authorizationKey.getModuleId() == moduleId &&
-                        (isRolePermissions ? authorizationKey.getRoleName().equals(subjectName)
-                                : authorizationKey.getUserName().equals(subjectName))) {
-                    removeCacheEnrty(authorizationKey);
+        if (!isIndexComplete()) {
+            Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
+            if (cache != null) {
+                for (Cache.Entry<AuthorizationKey, AuthorizeCacheEntry> entry : cache) {
+                    AuthorizationKey authorizationKey = entry.getKey();
+                    if (authorizationKey.getTenantId() == tenantId && authorizationKey.getModuleId() == moduleId &&
+                            subjectName.equals(isRolePermissions ? authorizationKey.getRoleName()
+                                    : authorizationKey.getUserName())) {
+                        removeCacheEntry(authorizationKey);
+                    }
                 }
             }
+            return;
+        }
+        List<AuthorizationKey> keys = untrackAll(subjectIndex,
+                getSubjectIndexKey(tenantId, moduleId, isRolePermissions, subjectName));
+        for (AuthorizationKey key : keys) {
+            removeCacheEnrty(key);
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Removed " + keys.size() + " cache entries of subject " + subjectName + " of module " +
+                    moduleId + " of tenant " + tenantId);
         }
     }
 
@@ -158,6 +234,11 @@ public class CustomAuthorizationCache {
         if (cache != null) {
             cache.removeAll();
         }
+        synchronized (cachedKeys) {
+            cachedKeys.clear();
+            moduleIndex.clear();
+            subjectIndex.clear();
+        }
     }
 
     /**
@@ -178,13 +259,20 @@ public class CustomAuthorizationCache {
 
         Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
         if (cache != null) {
+            // the absent subject is an empty string, as in the keys added for permissions
             AuthorizationKey key = new AuthorizationKey(cacheIdentifier,
-                    tenantId, isUserPerm ? subject : null, resource, action,
-                    moduleId, !isUserPerm ? subject : null);
+                    tenantId, isUserPerm ? subject : "", resource, action,
+                    moduleId, !isUserPerm ? subject : "");
 
-            if (cache.containsKey(key)) {
-                AuthorizeCacheEntry entry = (AuthorizeCacheEntry) cache
-                        .get(key);
+            AuthorizeCacheEntry entry = cache.get(key);
+            if (entry == null) {
+                missCount.incrementAndGet();
+            } else {
+                hitCount.incrementAndGet();
+                synchronized (cachedKeys) {
+                    // updates the access order
+                    cachedKeys.get(key);
+                }
 
                 permission = new Permission();
                 permission.setAction(key.getAction());
@@ -197,5 +285,152 @@ public class CustomAuthorizationCache {
         return permission;
     }
 
+    /**
+     * @return number of permission lookups found in the cache
+     */
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    /**
+     * @return number of permission lookups not found in the cache
+     */
+    public long getMissCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return number of entries evicted to keep the cache within its bound
+     */
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    /**
+     * @return if the indexes hold every key of the cache. Seeds the indexes with the keys of a local cache
+     * the first time.
+     */
+    private boolean isIndexComplete() {
+        Boolean isDistributed = distributed;
+        if (isDistributed == null || isDistributed) {
+            return false;
+        }
+        synchronized (cachedKeys) {
+            if (indexSeeded) {
+                return true;
+            }
+        }
+        Cache<AuthorizationKey, AuthorizeCacheEntry> cache = getCustomAuthorizationCache();
+        if (cache == null) {
+            return false;
+        }
+        List<AuthorizationKey> keys = new ArrayList<AuthorizationKey>();
+        for (Cache.Entry<AuthorizationKey, AuthorizeCacheEntry> entry : cache) {
+            keys.add(entry.getKey());
+        }
+        for (AuthorizationKey key : keys) {
+            track(key);
+        }
+        synchronized (cachedKeys) {
+            indexSeeded = true;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Indexed " + keys.size() + " existing permission cache entries");
+        }
+        return true;
+    }
+
+    private void track(AuthorizationKey key) {
+        List<AuthorizationKey> evictedKeys = null;
+        synchronized (cachedKeys) {
+            cachedKeys.put(key, Boolean.TRUE);
+            addToIndex(moduleIndex, getModuleIndexKey(key.getTenantId(), key.getModuleId()), key);
+            String subjectIndexKey = getSubjectIndexKey(key);
+            if (subjectIndexKey != null) {
+                addToIndex(subjectIndex, subjectIndexKey, key);
+            }
+            if (cachedKeys.size() > MAX_CACHE_ENTRIES) {
+                evictedKeys = new ArrayList<AuthorizationKey>();
+                Iterator<AuthorizationKey> iterator = cachedKeys.keySet().iterator();
+                while (cachedKeys.size() - evictedKeys.size() > MAX_CACHE_ENTRIES && iterator.hasNext()) {
+                    evictedKeys.add(iterator.next());
+                }
+                for (AuthorizationKey evictedKey : evictedKeys) {
+                    untrack(evictedKey);
+                }
+            }
+        }
+        if (evictedKeys != null) {
+            for (AuthorizationKey evictedKey : evictedKeys) {
+                removeCacheEnrty(evictedKey);
+            }
+            evictionCount.addAndGet(evictedKeys.size());
+        }
+    }
 
+    /**
+     * Removes the key from the indexes. Must be called holding the lock of cachedKeys.
+     */
+    private void untrack(AuthorizationKey key) {
+        if (cachedKeys.remove(key) == null) {
+            return;
+        }
+        removeFromIndex(moduleIndex, getModuleIndexKey(key.getTenantId(), key.getModuleId()), key);
+        String subjectIndexKey = getSubjectIndexKey(key);
+        if (subjectIndexKey != null) {
+            removeFromIndex(subjectIndex, subjectIndexKey, key);
+        }
+    }
+
+    private List<AuthorizationKey> untrackAll(Map<String, Set<AuthorizationKey>> index, String indexKey) {
+        synchronized (cachedKeys) {
+            Set<AuthorizationKey> keys = index.get(indexKey);
+            if (keys == null) {
+                return new ArrayList<AuthorizationKey>();
+            }
+            List<AuthorizationKey> untrackedKeys = new ArrayList<AuthorizationKey>(keys);
+            for (AuthorizationKey key : untrackedKeys) {
+                untrack(key);
+            }
+            return untrackedKeys;
+        }
+    }
+
+    private static void addToIndex(Map<String, Set<AuthorizationKey>> index, String indexKey,
+                                   AuthorizationKey key) {
+        Set<AuthorizationKey> keys = index.get(indexKey);
+        if (keys == null) {
+            keys = new HashSet<AuthorizationKey>();
+            index.put(indexKey, keys);
+        }
+        keys.add(key);
+    }
+
+    private static void removeFromIndex(Map<String, Set<AuthorizationKey>> index, String indexKey,
+                                        AuthorizationKey key) {
+        Set<AuthorizationKey> keys = index.get(indexKey);
+        if (keys != null) {
+            keys.remove(key);
+            if (keys.isEmpty()) {
+                index.remove(indexKey);
+            }
+        }
+    }
+
+    private static String getModuleIndexKey(int tenantId, int moduleId) {
+        return tenantId + ":" + moduleId;
+    }
+
+    private static String getSubjectIndexKey(int tenantId, int moduleId, boolean isRole, String subjectName) {
+        return tenantId + ":" + moduleId + (isRole ? ":R:" : ":U:") + subjectName;
+    }
+
+    private static String getSubjectIndexKey(AuthorizationKey key) {
+        if (key.getRoleName().length() > 0) {
+            return getSubjectIndexKey(key.getTenantId(), key.getModuleId(), true, key.getRoleName());
+        } else if (key.getUserName() != null && key.getUserName().length() > 0) {
+            return getSubjectIndexKey(key.getTenantId(), key.getModuleId(), false, key.getUserName());
+        }
+        return null;
+    }
 }
@@ -21,8 +21,10 @@ package org.wso2.carbon.identity.authorization.core.internal;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
+import org.wso2.carbon.identity.authorization.core.CustomAuthorizationCache;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.core.service.RealmService;
+import org.wso2.carbon.utils.ConfigurationContextService;
 
 /**
  * @scr.component name="identity.authorization.component" immediate="true"
@@ -36,6 +38,10 @@ import org.wso2.carbon.user.core.service.RealmService;
  * cardinality="1..1"
  * policy="dynamic" bind="setRealmService"
  * unbind="unsetRealmService"
+ * @scr.reference name="config.context.service"
+ * interface="org.wso2.carbon.utils.ConfigurationContextService"
+ * cardinality="0..1" policy="dynamic" bind="setConfigurationContextService"
+ * unbind="unsetConfigurationContextService"
  */
 public class AuthorizationServiceComponent {
 
@@ -133,6 +139,31 @@ public class AuthorizationServiceComponent {
         }
         AuthorizationServiceComponent.realmService = realmService;
     }
+
+    /**
+     * sets configuration context service. The permission cache is distributed when clustering is enabled.
+     *
+     * @param contextService <code>ConfigurationContextService</code>
+     */
+    protected void setConfigurationContextService(ConfigurationContextService contextService) {
+        if (log.isDebugEnabled()) {
+            log.debug("ConfigurationContextService set in Authorization bundle");
+        }
+        boolean clustered = contextService.getServerConfigContext().getAxisConfiguration()
+                .getClusteringAgent() != null;
+        CustomAuthorizationCache.getInstance().setDistributed(clustered);
+    }
+
+    /**
+     * unsets configuration context service
+     *
+     * @param contextService <code>ConfigurationContextService</code>
+     */
+    protected void unsetConfigurationContextService(ConfigurationContextService contextService) {
+        if (log.isDebugEnabled()) {
+            log.debug("ConfigurationContextService unset in Authorization bundle");
+        }
+    }
 //
 //	public static CacheInvalidator getCacheInvalidator() {
 //		return cacheInvalidator;
@@ -101,7 +101,9 @@ public class PermissionProcessor {
                 log.error("Error while creating the cache entry for the DAO object ");
             }
             if (cacheMap != null) {
-                cache.removeCacheEntry(cacheMap.keySet().iterator().next());
+                for (AuthorizationKey key : cacheMap.keySet()) {
+                    cache.removeCacheEntry(key);
+                }
             }
         } else {
             Map<AuthorizationKey, Boolean> cacheMap = null;
@@ -113,6 +113,7 @@ public class IdentityConstants {
         public final static String OPENID_USE_MULTIFACTOR_AUTHENTICATION = "OpenID.UseMultifactorAuthentication";
         public final static String OPENID_DISABLE_DUMB_MODE = "OpenID.DisableOpenIDDumbMode";
         public final static String OPENID_SESSION_TIMEOUT = "OpenID.SessionTimeout";
+        public final static String OPENID_ASSOCIATION_PERSISTENCE_QUEUE_SIZE = "OpenID.AssociationPersistenceQueueSize";
         public static final String ACCEPT_SAMLSSO_LOGIN = "OpenID.AcceptSAMLSSOLogin";
 
         public static final String ISSUER_POLICY = "Identity.IssuerPolicy";
@@ -162,6 +163,12 @@ public class IdentityConstants {
         public final static String SSO_ATTRIB_CLAIM_DIALECT = "SSOService.AttributesClaimDialect";
         public static final String SINGLE_LOGOUT_RETRY_COUNT = "SSOService.SingleLogoutRetryCount";
         public static final String SINGLE_LOGOUT_RETRY_INTERVAL = "SSOService.SingleLogoutRetryInterval";
+        public static final String SINGLE_LOGOUT_MAX_RETRY_INTERVAL = "SSOService.SingleLogoutMaxRetryInterval";
+        public static final String SINGLE_LOGOUT_THREAD_POOL_SIZE = "SSOService.SingleLogoutThreadPoolSize";
+        public static final String SINGLE_LOGOUT_MAX_CONNECTIONS_PER_PARTICIPANT =
+                "SSOService.SingleLogoutMaxConnectionsPerParticipant";
+        public static final String SINGLE_LOGOUT_CONNECTION_TIMEOUT = "SSOService.SingleLogoutConnectionTimeout";
+        public static final String SINGLE_LOGOUT_SOCKET_TIMEOUT = "SSOService.SingleLogoutSocketTimeout";
         public static final String SSO_TENANT_PARTITIONING_ENABLED = "SSOService.TenantPartitioningEnabled";
         public static final String SSO_SESSION_TIMEOUT = "SSOService.SessionTimeout";
         public static final String ACCEPT_OPENID_LOGIN = "SSOService.AcceptOpenIDLogin";
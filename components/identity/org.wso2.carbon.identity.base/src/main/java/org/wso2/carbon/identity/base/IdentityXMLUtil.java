@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.base;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Node;
+import org.w3c.dom.bootstrap.DOMImplementationRegistry;
+import org.w3c.dom.ls.DOMImplementationLS;
+import org.w3c.dom.ls.LSException;
+import org.w3c.dom.ls.LSOutput;
+import org.w3c.dom.ls.LSSerializer;
+import org.xml.sax.EntityResolver;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+
+/**
+ * Securely configured XML parsers and serializers shared by the SAML, XACML and WS-Trust
+ * message processing code.
+ * <p/>
+ * Document builders and serializers are kept per thread and reset before each use, instead of
+ * creating and configuring a new factory for every message. A document builder returned by this
+ * class must not be handed over to another thread.
+ */
+public class IdentityXMLUtil {
+
+    private static final Log log = LogFactory.getLog(IdentityXMLUtil.class);
+
+    private static final String DISALLOW_DOCTYPE_DECL_FEATURE =
+            "http://apache.org/xml/features/disallow-doctype-decl";
+    private static final String EXTERNAL_GENERAL_ENTITIES_FEATURE =
+            "http://xml.org/sax/features/external-general-entities";
+    private static final String EXTERNAL_PARAMETER_ENTITIES_FEATURE =
+            "http://xml.org/sax/features/external-parameter-entities";
+    private static final String LOAD_EXTERNAL_DTD_FEATURE =
+            "http://apache.org/xml/features/nonvalidating/load-external-dtd";
+
+    private static final EntityResolver SECURE_ENTITY_RESOLVER = new EntityResolver() {
+        @Override
+        public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
+            throw new SAXException("XML message contains invalid elements. Possible XML External Entity (XXE) attack.");
+        }
+    };
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilders = new ThreadLocal<DocumentBuilder>();
+
+    private static final ThreadLocal<LSSerializer> serializers = new ThreadLocal<LSSerializer>();
+
+    private static DocumentBuilderFactory documentBuilderFactory;
+
+    private static volatile DOMImplementationLS domImplementationLS;
+
+    private IdentityXMLUtil() {
+    }
+
+    /**
+     * Returns a namespace aware document builder which rejects DTDs and external entities.
+     *
+     * @return document builder of the current thread
+     * @throws ParserConfigurationException if a secured document builder can not be created
+     */
+    public static DocumentBuilder getSecuredDocumentBuilder() throws ParserConfigurationException {
+        DocumentBuilder documentBuilder = documentBuilders.get();
+        if (documentBuilder == null) {
+            documentBuilder = newDocumentBuilder();
+            documentBuilders.set(documentBuilder);
+        } else {
+            documentBuilder.reset();
+        }
+        documentBuilder.setEntityResolver(SECURE_ENTITY_RESOLVER);
+        return documentBuilder;
+    }
+
+    /**
+     * Serializes the given node, including the XML declaration, as UTF-8.
+     *
+     * @param node node to serialize
+     * @return serialized node
+     * @throws IdentityException if the node can not be serialized
+     */
+    public static String serialize(Node node) throws IdentityException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        serialize(node, outputStream);
+        try {
+            return outputStream.toString("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IdentityException("Error while serializing XML node", e);
+        }
+    }
+
+    /**
+     * Serializes the given node, including the XML declaration, as UTF-8 to the given stream.
+     *
+     * @param node         node to serialize
+     * @param outputStream stream to write to
+     * @throws IdentityException if the node can not be serialized
+     */
+    public static void serialize(Node node, OutputStream outputStream) throws IdentityException {
+        DOMImplementationLS impl = domImplementationLS;
+        if (impl == null) {
+            impl = loadDOMImplementationLS();
+        }
+        LSSerializer serializer = serializers.get();
+        if (serializer == null) {
+            serializer = impl.createLSSerializer();
+            serializers.set(serializer);
+        }
+        LSOutput output = impl.createLSOutput();
+        output.setByteStream(outputStream);
+        try {
+            serializer.write(node, output);
+        } catch (LSException e) {
+            throw new IdentityException("Error while serializing XML node", e);
+        }
+    }
+
+    private static synchronized DocumentBuilder newDocumentBuilder() throws ParserConfigurationException {
+        if (documentBuilderFactory == null) {
+            documentBuilderFactory = createDocumentBuilderFactory();
+        }
+        return documentBuilderFactory.newDocumentBuilder();
+    }
+
+    private static DocumentBuilderFactory createDocumentBuilderFactory() throws ParserConfigurationException {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setXIncludeAware(false);
+        factory.setExpandEntityReferences(false);
+        factory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+        try {
+            factory.setFeature(DISALLOW_DOCTYPE_DECL_FEATURE, true);
+        } catch (ParserConfigurationException e) {
+            // not a Xerces based parser, fall back to ignoring all external content
+            log.warn("Parser " + factory.getClass().getName() + " does not support " +
+                    DISALLOW_DOCTYPE_DECL_FEATURE + ". Only external entities are disabled.");
+            factory.setFeature(EXTERNAL_GENERAL_ENTITIES_FEATURE, false);
+            factory.setFeature(EXTERNAL_PARAMETER_ENTITIES_FEATURE, false);
+            factory.setFeature(LOAD_EXTERNAL_DTD_FEATURE, false);
+        }
+        return factory;
+    }
+
+    private static synchronized DOMImplementationLS loadDOMImplementationLS() throws IdentityException {
+        if (domImplementationLS == null) {
+            try {
+                DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
+                domImplementationLS = (DOMImplementationLS) registry.getDOMImplementation("LS");
+            } catch (ClassNotFoundException e) {
+                throw new IdentityException("Error while loading the DOM Load and Save implementation", e);
+            } catch (InstantiationException e) {
+                throw new IdentityException("Error while loading the DOM Load and Save implementation", e);
+            } catch (IllegalAccessException e) {
+                throw new IdentityException("Error while loading the DOM Load and Save implementation", e);
+            }
+        }
+        return domImplementationLS;
+    }
+}
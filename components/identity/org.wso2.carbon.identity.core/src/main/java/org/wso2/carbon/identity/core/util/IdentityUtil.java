@@ -18,7 +18,6 @@
 package org.wso2.carbon.identity.core.util;
 
 import org.apache.axiom.om.impl.dom.factory.OMDOMFactory;
-import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.xml.security.utils.Base64;
@@ -27,7 +26,6 @@ import org.w3c.dom.Node;
 import org.wso2.carbon.base.ServerConfigurationException;
 import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.core.model.IdentityErrorMsgContext;
-import org.wso2.carbon.registry.core.utils.UUIDGenerator;
 import org.wso2.carbon.user.api.TenantManager;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
@@ -35,8 +33,6 @@ import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
 import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.security.SignatureException;
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -95,6 +91,40 @@ public class IdentityUtil {
         return (String) value;
     }
 
+    /**
+     * @param key          property of identity.xml
+     * @param defaultValue value used when the property is not set or is not a number
+     * @return value of the property as an int
+     */
+    public static int getIntProperty(String key, int defaultValue) {
+        String value = getProperty(key);
+        if (value != null && value.trim().length() > 0) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value " + value + " for " + key + ". Using the default value " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * @param key          property of identity.xml
+     * @param defaultValue value used when the property is not set or is not a number
+     * @return value of the property as a long
+     */
+    public static long getLongProperty(String key, long defaultValue) {
+        String value = getProperty(key);
+        if (value != null && value.trim().length() > 0) {
+            try {
+                return Long.parseLong(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value " + value + " for " + key + ". Using the default value " + defaultValue);
+            }
+        }
+        return defaultValue;
+    }
+
     public static void populateProperties() throws ServerConfigurationException {
         configuration = IdentityConfigParser.getInstance().getConfiguration();
     }
@@ -150,28 +180,13 @@ public class IdentityUtil {
     }
 
     /**
-     * Generates a secure random hexadecimal string using SHA1 PRNG and digest
+     * Generates a secure random hexadecimal string of 160 bits
      *
      * @return Random hexadecimal encoded String
      * @throws Exception
      */
     public static String generateUUID() throws Exception {
-
-        try {
-            // SHA1 Pseudo Random Number Generator
-            SecureRandom prng = SecureRandom.getInstance("SHA1PRNG");
-
-            // random number
-            String randomNum = Integer.toString(prng.nextInt());
-            MessageDigest sha = MessageDigest.getInstance("SHA-1");
-            byte[] digest = sha.digest(randomNum.getBytes());
-
-            // Hexadecimal encoding
-            return new String(Hex.encodeHex(digest));
-
-        } catch (NoSuchAlgorithmException e) {
-            throw new Exception("Failed to generate UUID ", e);
-        }
+        return SecureIdGenerator.generateHexId();
     }
 
     /**
@@ -199,46 +214,23 @@ public class IdentityUtil {
     }
 
     /**
-     * Generates a random number using two UUIDs and HMAC-SHA1
+     * Generates a random number of 160 bits, in the same form as the HMAC-SHA1 based numbers
+     * generated earlier
      *
      * @return Random Number generated.
      * @throws IdentityException Exception due to Invalid Algorithm or Invalid Key
      */
     public static String getRandomNumber() throws IdentityException {
-        try {
-            String secretKey = UUIDGenerator.generateUUID();
-            String baseString = UUIDGenerator.generateUUID();
-
-            SecretKeySpec key = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            Mac mac = Mac.getInstance("HmacSHA1");
-            mac.init(key);
-            byte[] rawHmac = mac.doFinal(baseString.getBytes());
-            String random = Base64.encode(rawHmac);
-            // Registry doesn't have support for these character.
-            random = random.replace("/", "_");
-            random = random.replace("=", "a");
-            random = random.replace("+", "f");
-            return random;
-        } catch (Exception e) {
-            log.error("Error when generating a random number.", e);
-            throw new IdentityException("Error when generating a random number.", e);
-        }
+        String random = Base64.encode(SecureIdGenerator.generateBytes(SecureIdGenerator.DEFAULT_ID_LENGTH));
+        // Registry doesn't have support for these character.
+        random = random.replace("/", "_");
+        random = random.replace("=", "a");
+        random = random.replace("+", "f");
+        return random;
     }
 
     public static int getRandomInteger() throws IdentityException {
-
-        try {
-            SecureRandom prng = SecureRandom.getInstance("SHA1PRNG");
-            int number = prng.nextInt();
-            while (number < 0) {
-                number = prng.nextInt();
-            }
-            return number;
-        } catch (NoSuchAlgorithmException e) {
-            log.error("Error when generating a random number.", e);
-            throw new IdentityException("Error when generating a random number.", e);
-        }
-
+        return SecureIdGenerator.nextNonNegativeInt();
     }
 
 }
@@ -0,0 +1,212 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied. See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.core.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Generates the random identifiers used for sessions, nonces, tokens and SAML messages.
+ * <p/>
+ * Every thread has its own seeded SecureRandom, so generating an identifier neither creates a new
+ * generator nor contends on a shared one. Optionally, identifiers of the default length are
+ * pre-generated into a buffer by a background thread to absorb bursts of logins. The buffer size is
+ * configured by IdentifierGenerator.BufferSize in identity.xml and pre-generation is disabled by
+ * default.
+ */
+public class SecureIdGenerator {
+
+    /**
+     * Number of random bytes in an identifier of the default length, 160 bits.
+     */
+    public static final int DEFAULT_ID_LENGTH = 20;
+
+    private static final Log log = LogFactory.getLog(SecureIdGenerator.class);
+
+    private static final String BUFFER_SIZE = "IdentifierGenerator.BufferSize";
+
+    private static final String PRNG_ALGORITHM = "SHA1PRNG";
+
+    private static final char[] HEX_CHARS = "0123456789abcdef".toCharArray();
+
+    private static final char[] URL_SAFE_CHARS =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private static final ThreadLocal<SecureRandom> randoms = new ThreadLocal<SecureRandom>() {
+        @Override
+        protected SecureRandom initialValue() {
+            SecureRandom random;
+            try {
+                random = SecureRandom.getInstance(PRNG_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                log.warn(PRNG_ALGORITHM + " is not available. Using the default SecureRandom.");
+                random = new SecureRandom();
+            }
+            // force seeding now, from the system entropy source
+            random.nextBytes(new byte[1]);
+            return random;
+        }
+    };
+
+    private static volatile boolean bufferInitialized;
+
+    private static BlockingQueue<String> buffer;
+
+    private SecureIdGenerator() {
+    }
+
+    /**
+     * Fills the given array with random bytes.
+     *
+     * @param bytes array to fill
+     */
+    public static void nextBytes(byte[] bytes) {
+        randoms.get().nextBytes(bytes);
+    }
+
+    /**
+     * @param length number of bytes
+     * @return given number of random bytes
+     */
+    public static byte[] generateBytes(int length) {
+        byte[] bytes = new byte[length];
+        nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * @return random integer between 0 and Integer.MAX_VALUE, both inclusive
+     */
+    public static int nextNonNegativeInt() {
+        return randoms.get().nextInt() >>> 1;
+    }
+
+    /**
+     * Returns a lower case hexadecimal identifier of the default length, taken from the pre-generated
+     * buffer when it is enabled and not empty.
+     *
+     * @return 40 character hexadecimal identifier
+     */
+    public static String generateHexId() {
+        BlockingQueue<String> ids = getBuffer();
+        if (ids != null) {
+            String id = ids.poll();
+            if (id != null) {
+                return id;
+            }
+        }
+        return toHex(generateBytes(DEFAULT_ID_LENGTH));
+    }
+
+    /**
+     * @param length number of random bytes
+     * @return lower case hexadecimal identifier of twice the given length
+     */
+    public static String generateHexId(int length) {
+        return toHex(generateBytes(length));
+    }
+
+    /**
+     * Returns an identifier which can be used in URLs, cookies and file names without escaping.
+     *
+     * @param length number of random bytes
+     * @return base64url encoded identifier, without padding
+     */
+    public static String generateUrlSafeId(int length) {
+        return toUrlSafe(generateBytes(length));
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[i * 2] = HEX_CHARS[(bytes[i] >> 4) & 0x0f];
+            chars[i * 2 + 1] = HEX_CHARS[bytes[i] & 0x0f];
+        }
+        return new String(chars);
+    }
+
+    private static String toUrlSafe(byte[] bytes) {
+        StringBuilder builder = new StringBuilder((bytes.length * 4 + 2) / 3);
+        int i = 0;
+        for (; i + 2 < bytes.length; i += 3) {
+            int block = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8) | (bytes[i + 2] & 0xff);
+            builder.append(URL_SAFE_CHARS[(block >> 18) & 0x3f]).append(URL_SAFE_CHARS[(block >> 12) & 0x3f])
+                    .append(URL_SAFE_CHARS[(block >> 6) & 0x3f]).append(URL_SAFE_CHARS[block & 0x3f]);
+        }
+        int remaining = bytes.length - i;
+        if (remaining == 1) {
+            int block = (bytes[i] & 0xff) << 16;
+            builder.append(URL_SAFE_CHARS[(block >> 18) & 0x3f]).append(URL_SAFE_CHARS[(block >> 12) & 0x3f]);
+        } else if (remaining == 2) {
+            int block = ((bytes[i] & 0xff) << 16) | ((bytes[i + 1] & 0xff) << 8);
+            builder.append(URL_SAFE_CHARS[(block >> 18) & 0x3f]).append(URL_SAFE_CHARS[(block >> 12) & 0x3f])
+                    .append(URL_SAFE_CHARS[(block >> 6) & 0x3f]);
+        }
+        return builder.toString();
+    }
+
+    private static BlockingQueue<String> getBuffer() {
+        if (!bufferInitialized) {
+            initBuffer();
+        }
+        return buffer;
+    }
+
+    private static synchronized void initBuffer() {
+        if (bufferInitialized) {
+            return;
+        }
+        int bufferSize = 0;
+        String bufferSizeValue = IdentityUtil.getProperty(BUFFER_SIZE);
+        if (bufferSizeValue != null && bufferSizeValue.trim().length() > 0) {
+            try {
+                bufferSize = Integer.parseInt(bufferSizeValue.trim());
+            } catch (NumberFormatException e) {
+                log.error("Invalid value for " + BUFFER_SIZE + " : " + bufferSizeValue + ". Identifiers are not " +
+                        "pre-generated.");
+            }
+        }
+        if (bufferSize > 0) {
+            final BlockingQueue<String> ids = new ArrayBlockingQueue<String>(bufferSize);
+            Thread refiller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (!Thread.currentThread().isInterrupted()) {
+                            ids.put(toHex(generateBytes(DEFAULT_ID_LENGTH)));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "IdentifierGenerator");
+            refiller.setDaemon(true);
+            refiller.start();
+            buffer = ids;
+            if (log.isDebugEnabled()) {
+                log.debug("Pre-generating up to " + bufferSize + " identifiers");
+            }
+        }
+        bufferInitialized = true;
+    }
+}
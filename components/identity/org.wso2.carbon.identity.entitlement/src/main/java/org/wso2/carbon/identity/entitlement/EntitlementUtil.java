@@ -31,6 +31,7 @@ import org.wso2.balana.combine.xacml3.*;
 import org.wso2.balana.ctx.AbstractRequestCtx;
 import org.wso2.balana.ctx.Attribute;
 import org.wso2.balana.xacml3.Attributes;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 import org.wso2.carbon.identity.entitlement.cache.EntitlementBaseCache;
 import org.wso2.carbon.identity.entitlement.cache.IdentityCacheEntry;
 import org.wso2.carbon.identity.entitlement.cache.IdentityCacheKey;
@@ -204,9 +205,7 @@ public class EntitlementUtil {
 
             if (schema != null) {
                 //build XML document
-                DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-                documentBuilderFactory.setNamespaceAware(true);
-                DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+                DocumentBuilder documentBuilder = IdentityXMLUtil.getSecuredDocumentBuilder();
                 InputStream stream = new ByteArrayInputStream(policy.getPolicy().getBytes());
                 Document doc = documentBuilder.parse(stream);
                 //Do the DOM validation
@@ -236,9 +235,7 @@ public class EntitlementUtil {
 
         try {
             //build XML document
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-            DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+            DocumentBuilder documentBuilder = IdentityXMLUtil.getSecuredDocumentBuilder();
             InputStream stream = new ByteArrayInputStream(policy.getBytes());
             Document doc = documentBuilder.parse(stream);
 
@@ -21,10 +21,10 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 import org.wso2.carbon.identity.entitlement.EntitlementException;
 import org.xml.sax.SAXException;
 
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
@@ -46,14 +46,11 @@ public class PolicyRequestBuilder {
     public Element getXacmlRequest(String request) throws EntitlementException {
 
         ByteArrayInputStream inputStream;
-        DocumentBuilderFactory dbf;
         Document doc;
 
         inputStream = new ByteArrayInputStream(request.getBytes());
-        dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
         try {
-            doc = dbf.newDocumentBuilder().parse(inputStream);
+            doc = IdentityXMLUtil.getSecuredDocumentBuilder().parse(inputStream);
         } catch (SAXException e) {
             throw new EntitlementException("Error while creating DOM from XACML request");
         } catch (IOException e) {
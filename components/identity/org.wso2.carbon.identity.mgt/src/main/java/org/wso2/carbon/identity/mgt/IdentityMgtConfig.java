@@ -71,6 +71,7 @@ public class IdentityMgtConfig {
     private String digsestFunction;
     private RandomPasswordGenerator passwordGenerator;
     private UserIdentityDataStore identityDataStore;
+    private long userDataStoreWriteBehindInterval;
     private UserRecoveryDataStore recoveryDataStore;
     private List<NotificationSendingModule> sendingModules =
             new ArrayList<NotificationSendingModule>();
@@ -290,6 +291,17 @@ public class IdentityMgtConfig {
                 }
             }
 
+            String writeBehindInterval = properties.
+                    getProperty(IdentityMgtConstants.PropertyConfig.USER_DATA_STORE_WRITE_BEHIND_INTERVAL);
+            if (writeBehindInterval != null && writeBehindInterval.trim().length() > 0) {
+                try {
+                    this.userDataStoreWriteBehindInterval = Long.parseLong(writeBehindInterval.trim());
+                } catch (NumberFormatException e) {
+                    log.error("Invalid user data store write behind interval " + writeBehindInterval +
+                            ". Identity data would be written synchronously", e);
+                }
+            }
+
             String recoveryPersistModule = properties.
                     getProperty(IdentityMgtConstants.PropertyConfig.EXTENSION_USER_RECOVERY_DATA_STORE);
             if (dataPersistModule != null && dataPersistModule.trim().length() > 0) {
@@ -471,6 +483,14 @@ public class IdentityMgtConfig {
         return authPolicyAccountLockOnFailure;
     }
 
+    /**
+     * @return interval in milli seconds at which buffered login counter updates are written to the user
+     * data store. 0 if login counters are written immediately.
+     */
+    public long getUserDataStoreWriteBehindInterval() {
+        return userDataStoreWriteBehindInterval;
+    }
+
     public int getAuthPolicyPasswordExpireTime() {
         return authPolicyPasswordExpireTime;
     }
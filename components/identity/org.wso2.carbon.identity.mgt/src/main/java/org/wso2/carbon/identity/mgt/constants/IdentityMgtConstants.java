@@ -158,6 +158,8 @@ public class IdentityMgtConstants {
 
         public static final String EXTENSION_USER_DATA_STORE = "Identity.Mgt.User.Data.Store";
 
+        public static final String USER_DATA_STORE_WRITE_BEHIND_INTERVAL = "Identity.Mgt.User.Data.Store.Write.Behind.Interval";
+
         public static final String EXTENSION_USER_RECOVERY_DATA_STORE = "Identity.Mgt.User.Recovery.Data.Store";
 
         public static final String EXTENSION_NOTIFICATION_SENDING_MODULE = "Identity.Mgt.Notification.Sending.Module";
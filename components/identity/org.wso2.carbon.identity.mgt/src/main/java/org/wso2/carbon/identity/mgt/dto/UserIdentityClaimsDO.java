@@ -50,6 +50,7 @@ public class UserIdentityClaimsDO implements Serializable {
     private Map<String, String> userIdentityDataMap = new HashMap<String, String>();
     private char[] temporaryPassword = null;
     private String confirmationCode = null;
+    private Map<String, String> persistedDataMap = null;
 
     public UserIdentityClaimsDO(String userName) {
         this.userName = userName;
@@ -193,6 +194,20 @@ public class UserIdentityClaimsDO implements Serializable {
         this.userIdentityDataMap = userDataMap;
     }
 
+    /**
+     * Returns the user data as it was last read from or written to the data store. Data stores use this to
+     * write only the claims which have changed since then.
+     *
+     * @return persisted user data, or null if it is not known
+     */
+    public Map<String, String> getPersistedDataMap() {
+        return persistedDataMap;
+    }
+
+    public void setPersistedDataMap(Map<String, String> persistedDataMap) {
+        this.persistedDataMap = persistedDataMap;
+    }
+
     /**
      * Sets user identity data claim
      *
@@ -27,6 +27,7 @@ import org.wso2.carbon.identity.mgt.IdentityMgtEventListener;
 import org.wso2.carbon.identity.mgt.RecoveryProcessor;
 import org.wso2.carbon.identity.mgt.constants.IdentityMgtConstants;
 import org.wso2.carbon.identity.mgt.dto.ChallengeQuestionDTO;
+import org.wso2.carbon.identity.mgt.store.JDBCIdentityDataStore;
 import org.wso2.carbon.registry.core.Collection;
 import org.wso2.carbon.registry.core.Registry;
 import org.wso2.carbon.registry.core.exceptions.RegistryException;
@@ -166,6 +167,11 @@ public class IdentityMgtServiceComponent {
     }
 
     protected void deactivate(ComponentContext context) {
+        IdentityMgtConfig config = IdentityMgtConfig.getInstance();
+        if (config != null && config.getIdentityDataStore() instanceof JDBCIdentityDataStore) {
+            // write the buffered login counters before going down
+            ((JDBCIdentityDataStore) config.getIdentityDataStore()).shutdown();
+        }
         log.debug("Identity Management bundle is de-activated");
     }
 
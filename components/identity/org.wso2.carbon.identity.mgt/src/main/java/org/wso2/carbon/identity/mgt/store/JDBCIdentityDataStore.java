@@ -21,6 +21,7 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.core.persistence.JDBCPersistenceManager;
 import org.wso2.carbon.identity.core.util.IdentityDatabaseUtil;
+import org.wso2.carbon.identity.mgt.IdentityMgtConfig;
 import org.wso2.carbon.identity.mgt.dto.UserIdentityClaimsDO;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.user.api.UserStoreManager;
@@ -32,16 +33,45 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * //TODO remove method when user is deleted
+ * <p/>
+ * Only the claims which have changed since the user data was last read or written are stored, in a
+ * single batch. When Identity.Mgt.User.Data.Store.Write.Behind.Interval is set, updates which only
+ * change login counters are buffered and written periodically, so that a burst of logins for the same
+ * user results in a single write.
  */
 public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
 
     private static Log log = LogFactory.getLog(JDBCIdentityDataStore.class);
 
+    /**
+     * Claims which change at every login and can be written behind.
+     */
+    private static final Set<String> LOGIN_COUNTER_CLAIMS = new HashSet<String>(Arrays.asList(
+            FAIL_LOGIN_ATTEMPTS, LAST_FAILED_LOGIN_ATTEMPT_TIME, LAST_LOGON_TIME));
+
+    // buffered login counter updates, keyed by tenant id and user name
+    private final ConcurrentMap<String, UserDataWrite> pendingWrites =
+            new ConcurrentHashMap<String, UserDataWrite>();
+
+    private volatile ScheduledExecutorService writeBehindScheduler;
+
     @Override
     public void store(UserIdentityClaimsDO userIdentityDTO, UserStoreManager userStoreManager)
             throws IdentityException {
@@ -59,8 +89,6 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
         userName = UserCoreUtil.addDomainToName(userName, domainName);
         userIdentityDTO.setUserName(userName);
 
-        super.store(userIdentityDTO, userStoreManager);
-
         int tenantId = MultitenantConstants.SUPER_TENANT_ID;
         try {
             tenantId = userStoreManager.getTenantId();
@@ -68,102 +96,266 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
             log.error(e);
         }
 
+        try {
+            Map<String, String> data = userIdentityDTO.getUserDataMap();
+            Map<String, String> persistedData = userIdentityDTO.getPersistedDataMap();
 
-        Map<String, String> data = userIdentityDTO.getUserDataMap();
+            if (persistedData != null) {
+                Map<String, String> changedData = getChangedData(data, persistedData);
+                if (changedData.isEmpty()) {
+                    return;
+                }
+                if (isWriteBehindEnabled() && LOGIN_COUNTER_CLAIMS.containsAll(changedData.keySet())) {
+                    addPendingWrite(tenantId, userName, changedData);
+                    // claims without a row stay out of the persisted data until the buffered write inserts them
+                    Map<String, String> newPersistedData = new HashMap<String, String>(persistedData);
+                    for (Map.Entry<String, String> entry : changedData.entrySet()) {
+                        if (newPersistedData.containsKey(entry.getKey())) {
+                            newPersistedData.put(entry.getKey(), entry.getValue());
+                        }
+                    }
+                    userIdentityDTO.setPersistedDataMap(newPersistedData);
+                    return;
+                }
+            }
 
-        for (Map.Entry<String, String> entry : data.entrySet()) {
-            String key = entry.getKey();
-            String value = entry.getValue();
-            if (isExistingUserDataValue(userName, tenantId, key)) {
-                updateUserDataValue(userName, tenantId, key, value);
-            } else {
-                addUserDataValue(userName, tenantId, key, value);
+            Connection connection = null;
+            UserDataWrite pendingWrite = null;
+            try {
+                connection = JDBCPersistenceManager.getInstance().getDBConnection();
+                boolean persistedDataLoaded = persistedData == null;
+                if (persistedDataLoaded) {
+                    persistedData = loadUserData(connection, tenantId, userName);
+                }
+                Map<String, String> changedData = getChangedData(data, persistedData);
+
+                // buffered counters of this user are written along with the other changes.
+                pendingWrite = pendingWrites.remove(getPendingWriteKey(tenantId, userName));
+                if (pendingWrite != null) {
+                    for (Map.Entry<String, String> entry : pendingWrite.getData().entrySet()) {
+                        if (!changedData.containsKey(entry.getKey())) {
+                            changedData.put(entry.getKey(), data.containsKey(entry.getKey()) ?
+                                    data.get(entry.getKey()) : entry.getValue());
+                        }
+                    }
+                }
+
+                if (!changedData.isEmpty()) {
+                    // rows of claims new to this node's view may have been inserted by a buffered write or
+                    // another node, so they are checked in the database
+                    Set<String> existingClaims = persistedData.keySet();
+                    if (!persistedDataLoaded && !existingClaims.containsAll(changedData.keySet())) {
+                        existingClaims = null;
+                    }
+                    writeUserData(connection, Collections.singletonList(
+                            new UserDataWrite(tenantId, userName, changedData, existingClaims)));
+                    connection.commit();
+                }
+                userIdentityDTO.setPersistedDataMap(new HashMap<String, String>(data));
+            } catch (SQLException e) {
+                IdentityDatabaseUtil.rollBack(connection);
+                if (pendingWrite != null) {
+                    requeuePendingWrite(pendingWrite);
+                }
+                log.error("Error while persisting user identity data in database", e);
+                throw new IdentityException("Error while persisting user identity data in database", e);
+            } catch (IdentityException e) {
+                log.error("Error while persisting user identity data in database", e);
+                throw new IdentityException("Error while persisting user identity data in database", e);
+            } finally {
+                IdentityDatabaseUtil.closeConnection(connection);
             }
+        } finally {
+            super.store(userIdentityDTO, userStoreManager);
         }
     }
 
-    private boolean isExistingUserDataValue(String userName, int tenantId, String key) throws IdentityException {
+    /**
+     * Writes the buffered login counter updates to the database.
+     */
+    public void flushPendingWrites() {
+
+        List<UserDataWrite> writes = new ArrayList<UserDataWrite>();
+        for (String key : pendingWrites.keySet()) {
+            UserDataWrite write = pendingWrites.remove(key);
+            if (write != null) {
+                writes.add(write);
+            }
+        }
+        if (writes.isEmpty()) {
+            return;
+        }
 
         Connection connection = null;
-        PreparedStatement prepStmt = null;
-        ResultSet results;
         try {
             connection = JDBCPersistenceManager.getInstance().getDBConnection();
-            prepStmt = connection.prepareStatement(SQLQuery.CHECK_EXIST_USER_DATA);
-            prepStmt.setInt(1, tenantId);
-            prepStmt.setString(2, userName);
-            prepStmt.setString(3, key);
-            results = prepStmt.executeQuery();
-            if (results.next()) {
-                return true;
-            }
+            writeUserData(connection, writes);
             connection.commit();
-        } catch (SQLException e) {
-            log.error("Error while retrieving user identity data in database", e);
-            throw new IdentityException("Error while retrieving user identity data in database", e);
-        } catch (IdentityException e) {
-            log.error("Error while retrieving user identity data in database", e);
-            throw new IdentityException("Error while retrieving user identity data in database", e);
+            if (log.isDebugEnabled()) {
+                log.debug("Written buffered login data of " + writes.size() + " users");
+            }
+        } catch (Exception e) {
+            IdentityDatabaseUtil.rollBack(connection);
+            log.error("Error while persisting buffered user identity data in database. Retrying at the next " +
+                    "interval", e);
+            for (UserDataWrite write : writes) {
+                requeuePendingWrite(write);
+            }
         } finally {
-            IdentityDatabaseUtil.closeStatement(prepStmt);
             IdentityDatabaseUtil.closeConnection(connection);
         }
-        return false;
     }
 
+    /**
+     * Stops the periodic writing of buffered login counter updates after writing the pending updates.
+     */
+    public void shutdown() {
+        if (writeBehindScheduler != null) {
+            writeBehindScheduler.shutdown();
+        }
+        flushPendingWrites();
+    }
 
-    private void addUserDataValue(String userName, int tenantId, String key, String value) throws IdentityException {
+    private Map<String, String> getChangedData(Map<String, String> data, Map<String, String> persistedData) {
 
-        Connection connection = null;
-        PreparedStatement prepStmt = null;
+        Map<String, String> changedData = new HashMap<String, String>();
+        for (Map.Entry<String, String> entry : data.entrySet()) {
+            String value = entry.getValue();
+            String persistedValue = persistedData.get(entry.getKey());
+            if (!persistedData.containsKey(entry.getKey()) ||
+                    (value == null ? persistedValue != null : !value.equals(persistedValue))) {
+                changedData.put(entry.getKey(), value);
+            }
+        }
+        return changedData;
+    }
 
+    private Map<String, String> loadUserData(Connection connection, int tenantId, String userName)
+            throws SQLException {
+
+        PreparedStatement prepStmt = null;
+        ResultSet results = null;
         try {
-            connection = JDBCPersistenceManager.getInstance().getDBConnection();
-            prepStmt = connection.prepareStatement(SQLQuery.STORE_USER_DATA);
+            prepStmt = connection.prepareStatement(SQLQuery.LOAD_USER_DATA);
             prepStmt.setInt(1, tenantId);
             prepStmt.setString(2, userName);
-            prepStmt.setString(3, key);
-            prepStmt.setString(4, value);
-            prepStmt.execute();
-            connection.commit();
-        } catch (SQLException e) {
-            log.error("Error while persisting user identity data in database", e);
-            throw new IdentityException("Error while persisting user identity data in database", e);
-        } catch (IdentityException e) {
-            log.error("Error while persisting user identity data in database", e);
-            throw new IdentityException("Error while persisting user identity data in database", e);
+            results = prepStmt.executeQuery();
+            Map<String, String> data = new HashMap<String, String>();
+            while (results.next()) {
+                data.put(results.getString(1), results.getString(2));
+            }
+            return data;
         } finally {
+            IdentityDatabaseUtil.closeResultSet(results);
             IdentityDatabaseUtil.closeStatement(prepStmt);
-            IdentityDatabaseUtil.closeConnection(connection);
         }
     }
 
+    /**
+     * Updates the claims which already have a row in one batch and inserts the others in a second batch.
+     * Whether a row exists is taken from the claims known to be persisted, or read from the database
+     * when they are not known, as batch update counts are not reported by all drivers. The caller
+     * commits.
+     */
+    private void writeUserData(Connection connection, List<UserDataWrite> writes) throws SQLException {
 
-    private void updateUserDataValue(String userName, int tenantId, String key, String value) throws IdentityException {
-
-        Connection connection = null;
-        PreparedStatement prepStmt = null;
-
+        PreparedStatement updateStmt = null;
+        PreparedStatement insertStmt = null;
         try {
-            connection = JDBCPersistenceManager.getInstance().getDBConnection();
-            prepStmt = connection.prepareStatement(SQLQuery.UPDATE_USER_DATA);
-            prepStmt.setString(1, value);
-            prepStmt.setInt(2, tenantId);
-            prepStmt.setString(3, userName);
-            prepStmt.setString(4, key);
-            prepStmt.executeUpdate();
-            connection.commit();
-        } catch (SQLException e) {
-            log.error("Error while persisting user identity data in database", e);
-            throw new IdentityException("Error while persisting user identity data in database", e);
-        } catch (IdentityException e) {
-            log.error("Error while persisting user identity data in database", e);
-            throw new IdentityException("Error while persisting user identity data in database", e);
+            for (UserDataWrite write : writes) {
+                Set<String> existingClaims = write.existingClaims;
+                if (existingClaims == null) {
+                    existingClaims = loadUserData(connection, write.tenantId, write.userName).keySet();
+                }
+                for (Map.Entry<String, String> entry : write.getData().entrySet()) {
+                    if (existingClaims.contains(entry.getKey())) {
+                        if (updateStmt == null) {
+                            updateStmt = connection.prepareStatement(SQLQuery.UPDATE_USER_DATA);
+                        }
+                        updateStmt.setString(1, entry.getValue());
+                        updateStmt.setInt(2, write.tenantId);
+                        updateStmt.setString(3, write.userName);
+                        updateStmt.setString(4, entry.getKey());
+                        updateStmt.addBatch();
+                    } else {
+                        if (insertStmt == null) {
+                            insertStmt = connection.prepareStatement(SQLQuery.STORE_USER_DATA);
+                        }
+                        insertStmt.setInt(1, write.tenantId);
+                        insertStmt.setString(2, write.userName);
+                        insertStmt.setString(3, entry.getKey());
+                        insertStmt.setString(4, entry.getValue());
+                        insertStmt.addBatch();
+                    }
+                }
+            }
+            if (updateStmt != null) {
+                updateStmt.executeBatch();
+            }
+            if (insertStmt != null) {
+                insertStmt.executeBatch();
+            }
         } finally {
-            IdentityDatabaseUtil.closeStatement(prepStmt);
-            IdentityDatabaseUtil.closeConnection(connection);
+            IdentityDatabaseUtil.closeStatement(insertStmt);
+            IdentityDatabaseUtil.closeStatement(updateStmt);
         }
+    }
 
+    private boolean isWriteBehindEnabled() {
+        IdentityMgtConfig config = IdentityMgtConfig.getInstance();
+        return config != null && config.getUserDataStoreWriteBehindInterval() > 0;
+    }
+
+    private void addPendingWrite(int tenantId, String userName, Map<String, String> changedData) {
+
+        UserDataWrite write = new UserDataWrite(tenantId, userName, changedData);
+        UserDataWrite pendingWrite = pendingWrites.putIfAbsent(write.getKey(), write);
+        if (pendingWrite != null) {
+            pendingWrite.mergeNewer(changedData);
+            // the pending write may have been taken by a flush while merging.
+            pendingWrites.putIfAbsent(write.getKey(), pendingWrite);
+        }
+        startWriteBehindScheduler();
+    }
+
+    private void requeuePendingWrite(UserDataWrite write) {
+        // newer updates of the same user, buffered meanwhile, take precedence.
+        UserDataWrite newer = pendingWrites.putIfAbsent(write.getKey(), write);
+        if (newer != null) {
+            newer.mergeOlder(write.getData());
+        }
+    }
+
+    private void startWriteBehindScheduler() {
+
+        if (writeBehindScheduler != null) {
+            return;
+        }
+        synchronized (this) {
+            if (writeBehindScheduler == null) {
+                long interval = IdentityMgtConfig.getInstance().getUserDataStoreWriteBehindInterval();
+                ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable runnable) {
+                                Thread thread = new Thread(runnable, "IdentityDataStoreWriteBehind");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                scheduler.scheduleWithFixedDelay(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushPendingWrites();
+                    }
+                }, interval, interval, TimeUnit.MILLISECONDS);
+                writeBehindScheduler = scheduler;
+            }
+        }
+    }
+
+    private static String getPendingWriteKey(int tenantId, String userName) {
+        return tenantId + ":" + userName;
     }
 
     @Override
@@ -193,6 +385,11 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
             while (results.next()) {
                 data.put(results.getString(1), results.getString(2));
             }
+            Map<String, String> persistedData = new HashMap<String, String>(data);
+            UserDataWrite pendingWrite = pendingWrites.get(getPendingWriteKey(tenantId, userName));
+            if (pendingWrite != null) {
+                data.putAll(pendingWrite.getData());
+            }
             if (log.isDebugEnabled()) {
                 log.debug("Retrieved identity data for:" + tenantId + ":" + userName);
                 for (Map.Entry<String, String> dataEntry : data.entrySet()) {
@@ -201,6 +398,7 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
             }
             dto = new UserIdentityClaimsDO(userName, data);
             dto.setTenantId(tenantId);
+            dto.setPersistedDataMap(persistedData);
             return dto;
         } catch (SQLException e) {
             log.error("Error while reading user identity data", e);
@@ -227,6 +425,7 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
         PreparedStatement prepStmt = null;
         try {
             int tenantId = userStoreManager.getTenantId();
+            pendingWrites.remove(getPendingWriteKey(tenantId, userName));
             connection = JDBCPersistenceManager.getInstance().getDBConnection();
             prepStmt = connection.prepareStatement(SQLQuery.DELETE_USER_DATA);
             prepStmt.setInt(1, tenantId);
@@ -245,6 +444,50 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
         }
     }
 
+    /**
+     * Claims of a single user waiting to be written.
+     */
+    private static class UserDataWrite {
+
+        private final int tenantId;
+        private final String userName;
+        private final Map<String, String> data;
+        // claims which have a row in the database, null if not known
+        private final Set<String> existingClaims;
+
+        private UserDataWrite(int tenantId, String userName, Map<String, String> data) {
+            this(tenantId, userName, data, null);
+        }
+
+        private UserDataWrite(int tenantId, String userName, Map<String, String> data,
+                              Set<String> existingClaims) {
+            this.tenantId = tenantId;
+            this.userName = userName;
+            this.data = new HashMap<String, String>(data);
+            this.existingClaims = existingClaims == null ? null : new HashSet<String>(existingClaims);
+        }
+
+        private String getKey() {
+            return getPendingWriteKey(tenantId, userName);
+        }
+
+        private synchronized Map<String, String> getData() {
+            return new HashMap<String, String>(data);
+        }
+
+        private synchronized void mergeNewer(Map<String, String> newerData) {
+            data.putAll(newerData);
+        }
+
+        private synchronized void mergeOlder(Map<String, String> olderData) {
+            for (Map.Entry<String, String> entry : olderData.entrySet()) {
+                if (!data.containsKey(entry.getKey())) {
+                    data.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+    }
+
     /**
      * This class contains the SQL queries.
      * Schem:
@@ -252,9 +495,6 @@ public class JDBCIdentityDataStore extends InMemoryIdentityDataStore {
      * The primary key is tenantId, userName, DatKey combination
      */
     private static class SQLQuery {
-        public static final String CHECK_EXIST_USER_DATA = "SELECT " + "DATA_VALUE "
-                + "FROM IDN_IDENTITY_USER_DATA "
-                + "WHERE TENANT_ID = ? AND USER_NAME = ? AND DATA_KEY=?";
         public static final String STORE_USER_DATA =
                 "INSERT "
                         + "INTO IDN_IDENTITY_USER_DATA "
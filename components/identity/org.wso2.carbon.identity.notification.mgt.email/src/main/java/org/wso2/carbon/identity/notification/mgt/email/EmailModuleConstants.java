@@ -29,6 +29,11 @@ public class EmailModuleConstants {
     public static final String MODULE_NAME = "email";
     public static final String SUBJECT_PROPERTY_LABEL = "subject";
     public static final String MAILTO_LABEL = "mailto:";
+    public static final String PLACE_HOLDER_START = "{";
+    public static final String PLACE_HOLDER_END = "}";
+    public static final String UNDISCLOSED_RECIPIENTS = "undisclosed-recipients:;";
+    public static final int DEFAULT_BATCH_SIZE = 1;
+    public static final int MAX_IDLE_SERVICE_CLIENTS = 10;
 
     /**
      * Configuration constants for email sending module
@@ -38,6 +43,7 @@ public class EmailModuleConstants {
         public static final String ENDPOINT_QNAME = "endpoint";
         public static final String ADDRESS_QNAME = "address";
         public static final String SUBSCRIPTION_NS = MODULE_NAME + "." + NotificationMgtConstants.Configs.SUBSCRIPTION;
+        public static final String BATCH_SIZE = MODULE_NAME + ".batch.size";
     }
 }
 
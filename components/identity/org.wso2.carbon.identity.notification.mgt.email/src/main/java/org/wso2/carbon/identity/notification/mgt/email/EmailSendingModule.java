@@ -36,7 +36,8 @@ import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.core.CarbonConfigurationContextFactory;
 import org.wso2.carbon.identity.notification.mgt.AbstractNotificationSendingModule;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementException;
-import org.wso2.carbon.identity.notification.mgt.NotificationManagementUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
+import org.wso2.carbon.identity.notification.mgt.UnsentNotificationException;
 import org.wso2.carbon.identity.notification.mgt.bean.ModuleConfiguration;
 import org.wso2.carbon.identity.notification.mgt.bean.PublisherEvent;
 import org.wso2.carbon.identity.notification.mgt.bean.Subscription;
@@ -44,6 +45,8 @@ import org.wso2.carbon.identity.notification.mgt.email.bean.EmailEndpointInfo;
 import org.wso2.carbon.identity.notification.mgt.email.bean.EmailSubscription;
 
 import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 
 
 /**
@@ -58,9 +61,21 @@ public class EmailSendingModule extends AbstractNotificationSendingModule {
      * Subscription map which has all the subscriptions by email module
      */
     private Map<String, EmailSubscription> subscriptionMap;
+    /**
+     * Maximum number of recipients of a single mail
+     */
+    private int batchSize = EmailModuleConstants.DEFAULT_BATCH_SIZE;
+    /**
+     * Idle service clients which are reused for sending mails
+     */
+    private final BlockingQueue<ServiceClient> serviceClientPool =
+            new LinkedBlockingQueue<ServiceClient>(EmailModuleConstants.MAX_IDLE_SERVICE_CLIENTS);
 
     /**
-     * Logic for sending email on publisher event from Notification Management component
+     * Logic for sending email on publisher event from Notification Management component. Endpoints which get the same
+     * subject and message are sent in batches of up to the configured batch size, one mail per batch. If a batch
+     * cannot be sent, the rest of the batches are still sent and the failure is thrown afterwards, holding a resend
+     * to the recipients of the failed batches.
      *
      * @param publisherEvent Publisher event from publisher. Includes event name and properties
      * @throws NotificationManagementException
@@ -72,23 +87,18 @@ public class EmailSendingModule extends AbstractNotificationSendingModule {
 
         // Message sending will only be done if there is a subscription on this module
         if (subscription != null) {
-            List<EmailEndpointInfo> endpointInfoList = new ArrayList<EmailEndpointInfo>(subscription.getEmailEndpointInfoList());
-
-            PrivilegedCarbonContext.startTenantFlow();
-            // Send mails for each and every subscribed endpoint of the subscription
-            for (EmailEndpointInfo endpointInfo : endpointInfoList) {
-                Map<String, String> headerMap = new HashMap<String, String>();
+            // Recipients against subject and message of the mail, in the order of the endpoints
+            Map<List<String>, List<String>> mails = new LinkedHashMap<List<String>, List<String>>();
 
-                headerMap.put(MailConstants.MAIL_HEADER_SUBJECT,
-                        getSubject(subscription.getSubscriptionProperties(),
-                                endpointInfo.getProperties(),
-                                publisherEvent.getEventProperties()));
+            for (EmailEndpointInfo endpointInfo : subscription.getEmailEndpointInfoList()) {
+                String subject = getSubject(subscription.getSubscriptionProperties(), endpointInfo.getProperties(),
+                        publisherEvent.getEventProperties());
                 // Read the template configured in endpoint information.
-                String template = endpointInfo.getTemplate();
+                NotificationTemplate template = endpointInfo.getCompiledTemplate();
                 // If there is no template defined in the endpoint. use default template for which is configured for
                 // subscription.
-                if (StringUtils.isEmpty(template)) {
-                    template = subscription.getMailTemplate();
+                if (template == null) {
+                    template = subscription.getCompiledMailTemplate();
                 }
                 // If still no template found. The message sending will be aborted to that
                 // particular endpoint.
@@ -99,42 +109,153 @@ public class EmailSendingModule extends AbstractNotificationSendingModule {
                 }
                 // Get the message which the place holders are replaced by configurations and
                 // subscription properties.
-                String message = getMessage(template,
-                        subscription.getSubscriptionProperties(),
+                String message = getMessage(template, subscription.getSubscriptionProperties(),
                         endpointInfo.getProperties(), publisherEvent.getEventProperties());
-                OMElement payload = OMAbstractFactory.getOMFactory().createOMElement(BaseConstants
-                        .DEFAULT_TEXT_WRAPPER, null);
-                payload.setText(message);
-                ServiceClient serviceClient;
-                ConfigurationContext configContext = CarbonConfigurationContextFactory.getConfigurationContext();
-                try {
-                    if (configContext != null) {
-                        serviceClient = new ServiceClient(configContext, null);
-                    } else {
-                        serviceClient = new ServiceClient();
-                    }
-                    //setting properties for axis2 client
-                    Options options = new Options();
-                    options.setProperty(Constants.Configuration.ENABLE_REST, Constants.VALUE_TRUE);
-                    options.setProperty(MessageContext.TRANSPORT_HEADERS, headerMap);
-                    options.setProperty(MailConstants.TRANSPORT_MAIL_FORMAT,
-                            MailConstants.TRANSPORT_FORMAT_TEXT);
-                    options.setTo(new EndpointReference(EmailModuleConstants.MAILTO_LABEL +
-                            endpointInfo.getEmailAddress()));
-                    serviceClient.setOptions(options);
-                    serviceClient.fireAndForget(payload);
-                    if (log.isDebugEnabled()) {
-                        log.debug("Email has been sent to " + endpointInfo.getEmailAddress() + ", " +
-                                "on event " + publisherEvent.getEventName());
+
+                List<String> mail = Arrays.asList(subject, message);
+                List<String> recipients = mails.get(mail);
+                if (recipients == null) {
+                    recipients = new ArrayList<String>();
+                    mails.put(mail, recipients);
+                }
+                recipients.add(endpointInfo.getEmailAddress());
+            }
+
+            sendMails(mails, publisherEvent);
+        }
+    }
+
+    /**
+     * Sends the mails in batches of recipients
+     *
+     * @param mails Recipients against subject and message of the mail
+     * @throws UnsentNotificationException If some of the batches could not be sent. Thrown after sending the rest of
+     *                                     the batches, so that the notification management component retries the
+     *                                     failed batches or dead-letters the event.
+     */
+    private void sendMails(Map<List<String>, List<String>> mails, final PublisherEvent publisherEvent)
+            throws UnsentNotificationException {
+        // Recipients of the batches that could not be sent, and the failure of the last of them
+        final Map<List<String>, List<String>> failedMails = new LinkedHashMap<List<String>, List<String>>();
+        NotificationManagementException failure = null;
+        PrivilegedCarbonContext.startTenantFlow();
+        try {
+            for (Map.Entry<List<String>, List<String>> mail : mails.entrySet()) {
+                List<String> recipients = mail.getValue();
+                for (int i = 0; i < recipients.size(); i += batchSize) {
+                    List<String> batch = recipients.subList(i, Math.min(recipients.size(), i + batchSize));
+                    try {
+                        sendMail(mail.getKey().get(0), mail.getKey().get(1), batch, publisherEvent);
+                    } catch (NotificationManagementException e) {
+                        failure = e;
+                        List<String> failedRecipients = failedMails.get(mail.getKey());
+                        if (failedRecipients == null) {
+                            failedRecipients = new ArrayList<String>();
+                            failedMails.put(mail.getKey(), failedRecipients);
+                        }
+                        failedRecipients.addAll(batch);
                     }
-                } catch (AxisFault axisFault) {
-                    log.error("Error while sending email notification to address " + endpointInfo.
-                            getEmailAddress() + "on event " + publisherEvent.getEventName(), axisFault);
                 }
             }
+        } finally {
             // Ultimately close tenant flow.
             PrivilegedCarbonContext.endTenantFlow();
         }
+        if (failure != null) {
+            throw new UnsentNotificationException(failure.getMessage(), failure.getCause(),
+                    new UnsentNotificationException.Resend() {
+                        @Override
+                        public void resend() throws NotificationManagementException {
+                            sendMails(failedMails, publisherEvent);
+                        }
+                    });
+        }
+    }
+
+    /**
+     * Sends a mail to the given recipients. If there are several recipients they are set as blind copy
+     * recipients, so that they do not see each other.
+     */
+    private void sendMail(String subject, String message, List<String> recipients, PublisherEvent publisherEvent)
+            throws NotificationManagementException {
+        Map<String, String> headerMap = new HashMap<String, String>();
+        headerMap.put(MailConstants.MAIL_HEADER_SUBJECT, subject);
+        if (recipients.size() > 1) {
+            headerMap.put(MailConstants.MAIL_HEADER_TO, EmailModuleConstants.UNDISCLOSED_RECIPIENTS);
+            headerMap.put(MailConstants.MAIL_HEADER_BCC, StringUtils.join(recipients, ","));
+        }
+
+        OMElement payload = OMAbstractFactory.getOMFactory().createOMElement(BaseConstants
+                .DEFAULT_TEXT_WRAPPER, null);
+        payload.setText(message);
+        ServiceClient serviceClient = null;
+        try {
+            serviceClient = borrowServiceClient();
+            //setting properties for axis2 client
+            Options options = new Options();
+            options.setProperty(Constants.Configuration.ENABLE_REST, Constants.VALUE_TRUE);
+            options.setProperty(MessageContext.TRANSPORT_HEADERS, headerMap);
+            options.setProperty(MailConstants.TRANSPORT_MAIL_FORMAT,
+                    MailConstants.TRANSPORT_FORMAT_TEXT);
+            options.setTo(new EndpointReference(EmailModuleConstants.MAILTO_LABEL + recipients.get(0)));
+            serviceClient.setOptions(options);
+            serviceClient.fireAndForget(payload);
+            if (log.isDebugEnabled()) {
+                log.debug("Email has been sent to " + recipients + ", " +
+                        "on event " + publisherEvent.getEventName());
+            }
+        } catch (AxisFault axisFault) {
+            String errorMessage = "Error while sending email notification to address " + recipients +
+                    " on event " + publisherEvent.getEventName();
+            log.error(errorMessage, axisFault);
+            throw new NotificationManagementException(errorMessage, axisFault);
+        } finally {
+            if (serviceClient != null) {
+                returnServiceClient(serviceClient);
+            }
+        }
+    }
+
+    /**
+     * Takes an idle service client from the pool, or creates one if there is none. Creating a service client
+     * registers an anonymous service in the configuration context, so clients are reused instead of being created for
+     * every mail.
+     */
+    private ServiceClient borrowServiceClient() throws AxisFault {
+        ServiceClient serviceClient = serviceClientPool.poll();
+        if (serviceClient == null) {
+            ConfigurationContext configContext = CarbonConfigurationContextFactory.getConfigurationContext();
+            if (configContext != null) {
+                serviceClient = new ServiceClient(configContext, null);
+            } else {
+                serviceClient = new ServiceClient();
+            }
+        }
+        return serviceClient;
+    }
+
+    private void returnServiceClient(ServiceClient serviceClient) {
+        if (!serviceClientPool.offer(serviceClient)) {
+            cleanup(serviceClient);
+        }
+    }
+
+    private void cleanup(ServiceClient serviceClient) {
+        try {
+            serviceClient.cleanup();
+        } catch (AxisFault axisFault) {
+            log.error("Error while cleaning up email service client", axisFault);
+        }
+    }
+
+    /**
+     * Cleans up the pooled service clients
+     */
+    public void shutdown() {
+        ServiceClient serviceClient;
+        while ((serviceClient = serviceClientPool.poll()) != null) {
+            cleanup(serviceClient);
+        }
     }
 
     /**
@@ -155,6 +276,17 @@ public class EmailSendingModule extends AbstractNotificationSendingModule {
      */
     @Override
     public void init(ModuleConfiguration configurations) {
+        Properties moduleProperties = configurations.getModuleProperties();
+        String batchSizeValue = moduleProperties != null ?
+                moduleProperties.getProperty(EmailModuleConstants.Config.BATCH_SIZE) : null;
+        if (StringUtils.isNotBlank(batchSizeValue)) {
+            try {
+                batchSize = Math.max(1, Integer.parseInt(batchSizeValue.trim()));
+            } catch (NumberFormatException e) {
+                log.error("Invalid value " + batchSizeValue + " for " + EmailModuleConstants.Config.BATCH_SIZE +
+                        ". Default value " + EmailModuleConstants.DEFAULT_BATCH_SIZE + " will be used.");
+            }
+        }
         List<Subscription> subscriptions = configurations.getSubscriptions();
         subscriptionMap = new HashMap<String, EmailSubscription>();
         // Create Email Subscription from generic Subscriptions and add to map
@@ -176,22 +308,17 @@ public class EmailSendingModule extends AbstractNotificationSendingModule {
     /**
      * Message whose place holders are replaced by configurations and dynamic properties.
      *
-     * @param mailContent            Original content with place holders
+     * @param mailContent            Template of the content with place holders
      * @param subscriptionProperties Generic properties which are defined in Event level
      * @param endpointProperties     Configured Properties which are in endpoint level
      * @param eventProperties        Dynamic properties which are coming from the event publisher
      * @return Message whose place holders are replaced.
      */
-    private String getMessage(String mailContent, Properties subscriptionProperties, Properties endpointProperties,
-                              Properties eventProperties) {
-        // First replace place holders with configured endpoint properties
-        mailContent = NotificationManagementUtils.replacePlaceHolders(mailContent, "\\{", "\\}", endpointProperties);
-        // Secondly replace place holders with dynamic properties which comes form publisher
-        mailContent = NotificationManagementUtils.replacePlaceHolders(mailContent, "\\{", "\\}", eventProperties);
-        // Thirdly replace place holders with generic properties which are configured in event level.
-        mailContent = NotificationManagementUtils.replacePlaceHolders(mailContent, "\\{", "\\}",
-                subscriptionProperties);
-        return mailContent;
+    private String getMessage(NotificationTemplate mailContent, Properties subscriptionProperties,
+                              Properties endpointProperties, Properties eventProperties) {
+        // Place holders are replaced with configured endpoint properties first, then with dynamic properties which
+        // come from the publisher and lastly with generic properties which are configured in event level.
+        return mailContent.build(endpointProperties, eventProperties, subscriptionProperties);
     }
 
     /**
@@ -18,6 +18,10 @@
 
 package org.wso2.carbon.identity.notification.mgt.email.bean;
 
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
+import org.wso2.carbon.identity.notification.mgt.email.EmailModuleConstants;
+
 import java.util.Properties;
 
 /**
@@ -33,6 +37,10 @@ public class EmailEndpointInfo {
      * Email template
      */
     private String template;
+    /**
+     * Email template parsed for building messages. Null if there is no endpoint level template.
+     */
+    private NotificationTemplate compiledTemplate;
     /**
      * Email address which email should be sent to.
      */
@@ -49,6 +57,12 @@ public class EmailEndpointInfo {
 
     public void setTemplate(String template) {
         this.template = template;
+        this.compiledTemplate = StringUtils.isEmpty(template) ? null : new NotificationTemplate(template,
+                EmailModuleConstants.PLACE_HOLDER_START, EmailModuleConstants.PLACE_HOLDER_END);
+    }
+
+    public NotificationTemplate getCompiledTemplate() {
+        return compiledTemplate;
     }
 
     public String getEmailAddress() {
@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementException;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
 import org.wso2.carbon.identity.notification.mgt.bean.Subscription;
 import org.wso2.carbon.identity.notification.mgt.email.EmailModuleConstants;
 
@@ -43,6 +44,10 @@ public class EmailSubscription extends Subscription {
      * Subscription level template.
      */
     private String mailTemplate;
+    /**
+     * Subscription level template parsed for building messages
+     */
+    private NotificationTemplate compiledMailTemplate;
     /**
      * List of email endpoints which is registered with the subscription.
      */
@@ -173,6 +178,12 @@ public class EmailSubscription extends Subscription {
 
     public void setMailTemplate(String mailTemplate) {
         this.mailTemplate = mailTemplate;
+        this.compiledMailTemplate = mailTemplate == null ? null : new NotificationTemplate(mailTemplate,
+                EmailModuleConstants.PLACE_HOLDER_START, EmailModuleConstants.PLACE_HOLDER_END);
+    }
+
+    public NotificationTemplate getCompiledMailTemplate() {
+        return compiledMailTemplate;
     }
 
     public List<EmailEndpointInfo> getEmailEndpointInfoList() {
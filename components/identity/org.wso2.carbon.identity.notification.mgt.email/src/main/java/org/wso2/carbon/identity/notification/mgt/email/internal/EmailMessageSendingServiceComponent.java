@@ -32,13 +32,15 @@ import org.wso2.carbon.identity.notification.mgt.email.EmailSendingModule;
 public class EmailMessageSendingServiceComponent {
 
     private static Log log = LogFactory.getLog(EmailMessageSendingServiceComponent.class);
+    private EmailSendingModule emailSendingModule;
 
     protected void activate(ComponentContext ctxt) {
 
         try {
             // Registering email message sending module on user operation for entitlement component
+            emailSendingModule = new EmailSendingModule();
             ctxt.getBundleContext().registerService(NotificationSendingModule.class.getName(),
-                    new EmailSendingModule(), null);
+                    emailSendingModule, null);
             if (log.isDebugEnabled()) {
                 log.debug("Email notification sending module is activated");
             }
@@ -52,5 +54,8 @@ public class EmailMessageSendingServiceComponent {
         if (log.isDebugEnabled()) {
             log.debug("Email notification sending module is deactivated");
         }
+        if (emailSendingModule != null) {
+            emailSendingModule.shutdown();
+        }
     }
 }
\ No newline at end of file
@@ -24,13 +24,18 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
 import org.wso2.carbon.identity.notification.mgt.AbstractNotificationSendingModule;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementException;
-import org.wso2.carbon.identity.notification.mgt.NotificationManagementUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
+import org.wso2.carbon.identity.notification.mgt.UnsentNotificationException;
 import org.wso2.carbon.identity.notification.mgt.bean.ModuleConfiguration;
 import org.wso2.carbon.identity.notification.mgt.bean.PublisherEvent;
 import org.wso2.carbon.identity.notification.mgt.bean.Subscription;
@@ -39,6 +44,7 @@ import org.wso2.carbon.identity.notification.mgt.json.bean.JsonSubscription;
 
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -55,90 +61,120 @@ public class JsonMessageModule extends AbstractNotificationSendingModule {
      * Map of JsonSubscriptions which are registered
      */
     private Map<String, JsonSubscription> subscriptionMap;
+    /**
+     * Http client shared by all events. Connections to the endpoints are pooled and reused.
+     */
+    private DefaultHttpClient httpClient;
 
     /**
      * Overridden method for rest json message sending.
      *
      * @param publisherEvent Published event name
-     * @throws NotificationManagementException
+     * @throws NotificationManagementException If the message could not be posted to one of the endpoints. The
+     *                                         exception holds a resend to the endpoints it could not be posted to.
      */
     @Override
     public void sendMessage(PublisherEvent publisherEvent) throws NotificationManagementException {
         // Publisher event will not be null since it is handled by the mgt component.
         // Read the relevant subscription from configurations.
         JsonSubscription jsonSubscription = subscriptionMap.get(publisherEvent.getEventName());
-        // New list for aggregated set of endpoints. ie configured and dynamic
-        List<JsonEndpointInfo> endpoints;
-
         if (jsonSubscription != null) {
-            endpoints = jsonSubscription.getEndpointInfoList();
-            HttpClient client = new DefaultHttpClient();
             // Get all configured endpoints for message sending
-            // Send messages to each endpoint in endpoints list
-            for (JsonEndpointInfo endpoint : endpoints) {
-                HttpPost post = new HttpPost(endpoint.getEndpoint());
-                HttpResponse response = null;
-                StringEntity entity;
-
-                post.setHeader(JsonModuleConstants.CONTENT_TYPE_LABEL, JsonModuleConstants.CONTENT_TYPE_JSON_LABEL);
-
-                //Adding basic authentication header to post. If required information are not found,
-                // building subscription will fail at the time of configuration building
-                if (endpoint.isAuthenticationRequired()) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Setting authentication information on request to " + endpoint.getEndpoint());
-                    }
-                    post.setHeader(JsonModuleConstants.AUTHORIZATION_HEADER, getBase64EncodedBasicAuthHeader
-                            (endpoint.getUsername(), String.valueOf(endpoint.getPassword())));
-                } else {
-                    if (log.isDebugEnabled()) {
-                        log.debug("No authentication required to endpoint " + endpoint.getEndpoint());
-                    }
-                }
+            sendMessage(publisherEvent, jsonSubscription, jsonSubscription.getEndpointInfoList());
+        }
+    }
+
+    /**
+     * Posts the message to each of the given endpoints. The message is posted to the rest of the endpoints if it
+     * could not be posted to one of them.
+     *
+     * @throws UnsentNotificationException If the message could not be posted to some of the endpoints
+     */
+    private void sendMessage(final PublisherEvent publisherEvent, final JsonSubscription jsonSubscription,
+                             List<JsonEndpointInfo> endpoints) throws UnsentNotificationException {
+        // Endpoints the message could not be posted to, and the failure of the last of them
+        final List<JsonEndpointInfo> failedEndpoints = new ArrayList<JsonEndpointInfo>();
+        Exception failure = null;
+        String failureMessage = null;
+
+        // Send messages to each endpoint in endpoints list
+        for (JsonEndpointInfo endpoint : endpoints) {
+            HttpPost post = new HttpPost(endpoint.getEndpoint());
+            HttpResponse response = null;
+            StringEntity entity;
 
-                // Read JSON content from endpoint configurations. If not present,
-                // get content form event configurations.
-                String jsonContent = endpoint.getJsonConfigString();
-                if (StringUtils.isEmpty(jsonContent)) {
-                    jsonContent = jsonSubscription.getJsonContent();
+            post.setHeader(JsonModuleConstants.CONTENT_TYPE_LABEL, JsonModuleConstants.CONTENT_TYPE_JSON_LABEL);
+
+            //Adding basic authentication header to post. If required information are not found,
+            // building subscription will fail at the time of configuration building
+            if (endpoint.isAuthenticationRequired()) {
+                if (log.isDebugEnabled()) {
+                    log.debug("Setting authentication information on request to " + endpoint.getEndpoint());
                 }
-                if (StringUtils.isEmpty(jsonContent)) {
-                    log.error("No content template found either for event or endpoint " + endpoint.getEndpoint() +
-                            " on event " + publisherEvent.getEventName() + ", message sending aborted");
-                    continue;
+                post.setHeader(JsonModuleConstants.AUTHORIZATION_HEADER, getBase64EncodedBasicAuthHeader
+                        (endpoint.getUsername(), String.valueOf(endpoint.getPassword())));
+            } else {
+                if (log.isDebugEnabled()) {
+                    log.debug("No authentication required to endpoint " + endpoint.getEndpoint());
                 }
-                String jsonMessage = getJSONData(jsonContent,
-                        jsonSubscription.getSubscriptionProperties(), endpoint.getEndpointsParams(),
-                        publisherEvent.getEventProperties());
-                try {
-                    entity = new StringEntity(jsonMessage);
-                    post.setEntity(entity);
-                    response = client.execute(post);
-                    log.info("Notification message has been posted to " + endpoint.getEndpoint() + " on event " +
-                            publisherEvent.getEventName());
-                    if (log.isDebugEnabled() && response != null) {
-                        log.debug("Response of HTTP post is " + response.getStatusLine() + "on post operation to " +
-                                "endpoint " + endpoint.getEndpoint() + " on event " + publisherEvent.getEventName());
-                    }
-                } catch (UnsupportedEncodingException e) {
-                    log.error("Error while creating StringEntry from given JSON string on event " + publisherEvent.
-                            getEventName() + "to endpoint " + endpoint.getEndpoint() + " JSON string : " +
-                            jsonMessage, e);
-
-                } catch (ClientProtocolException e) {
-                    log.error("Error in HTTP protocol, error while executing POST operation to endpoint " + endpoint
-                            .getEndpoint() + "on event " + publisherEvent.getEventName(), e);
-
-                } catch (IOException e) {
-                    log.error("Error while executing POST operation to endpoint " + endpoint.getEndpoint() + "on " +
-                            "event " + publisherEvent.getEventName(), e);
-
-                } finally {
-                    // Finally closing connections.
-                    post.abort();
+            }
+
+            // Read JSON content from endpoint configurations. If not present,
+            // get content form event configurations.
+            NotificationTemplate jsonTemplate = endpoint.getJsonTemplate();
+            if (jsonTemplate == null) {
+                jsonTemplate = jsonSubscription.getJsonTemplate();
+            }
+            if (jsonTemplate == null) {
+                log.error("No content template found either for event or endpoint " + endpoint.getEndpoint() +
+                        " on event " + publisherEvent.getEventName() + ", message sending aborted");
+                continue;
+            }
+            String jsonMessage = getJSONData(jsonTemplate,
+                    jsonSubscription.getSubscriptionProperties(), endpoint.getEndpointsParams(),
+                    publisherEvent.getEventProperties());
+            try {
+                entity = new StringEntity(jsonMessage);
+                post.setEntity(entity);
+                response = httpClient.execute(post);
+                log.info("Notification message has been posted to " + endpoint.getEndpoint() + " on event " +
+                        publisherEvent.getEventName());
+                if (log.isDebugEnabled() && response != null) {
+                    log.debug("Response of HTTP post is " + response.getStatusLine() + "on post operation to " +
+                            "endpoint " + endpoint.getEndpoint() + " on event " + publisherEvent.getEventName());
                 }
+            } catch (UnsupportedEncodingException e) {
+                failureMessage = "Error while creating StringEntry from given JSON string on event " +
+                        publisherEvent.getEventName() + " to endpoint " + endpoint.getEndpoint() +
+                        " JSON string : " + jsonMessage;
+                log.error(failureMessage, e);
+                failure = e;
+                failedEndpoints.add(endpoint);
+            } catch (ClientProtocolException e) {
+                failureMessage = "Error in HTTP protocol, error while executing POST operation to endpoint " +
+                        endpoint.getEndpoint() + " on event " + publisherEvent.getEventName();
+                log.error(failureMessage, e);
+                failure = e;
+                failedEndpoints.add(endpoint);
+            } catch (IOException e) {
+                failureMessage = "Error while executing POST operation to endpoint " + endpoint.getEndpoint() +
+                        " on event " + publisherEvent.getEventName();
+                log.error(failureMessage, e);
+                failure = e;
+                failedEndpoints.add(endpoint);
+            } finally {
+                // Finally releasing the connection back to the pool.
+                releaseConnection(post, response);
             }
         }
+        if (!failedEndpoints.isEmpty()) {
+            throw new UnsentNotificationException(failureMessage, failure, new UnsentNotificationException.Resend() {
+                @Override
+                public void resend() throws NotificationManagementException {
+                    sendMessage(publisherEvent, jsonSubscription, failedEndpoints);
+                }
+            });
+        }
     }
 
     @Override
@@ -155,6 +191,20 @@ public class JsonMessageModule extends AbstractNotificationSendingModule {
     @Override
     public void init(ModuleConfiguration moduleConfigurations) throws NotificationManagementException {
 
+        Properties moduleProperties = moduleConfigurations.getModuleProperties();
+        if (moduleProperties == null) {
+            moduleProperties = new Properties();
+        }
+        this.httpClient = createHttpClient(
+                getIntProperty(moduleProperties, JsonModuleConstants.Config.HTTP_MAX_CONNECTIONS,
+                        JsonModuleConstants.HTTP_DEFAULT_MAX_CONNECTIONS),
+                getIntProperty(moduleProperties, JsonModuleConstants.Config.HTTP_MAX_CONNECTIONS_PER_ENDPOINT,
+                        JsonModuleConstants.HTTP_DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT),
+                getIntProperty(moduleProperties, JsonModuleConstants.Config.HTTP_CONNECTION_TIMEOUT,
+                        JsonModuleConstants.HTTP_DEFAULT_CONNECTION_TIMEOUT),
+                getIntProperty(moduleProperties, JsonModuleConstants.Config.HTTP_SOCKET_TIMEOUT,
+                        JsonModuleConstants.HTTP_DEFAULT_SOCKET_TIMEOUT));
+
         this.subscriptionMap = new HashMap<String, JsonSubscription>();
         for (Subscription subscription : moduleConfigurations.getSubscriptions()) {
             try {
@@ -179,6 +229,57 @@ public class JsonMessageModule extends AbstractNotificationSendingModule {
         return (publisherEvent != null && subscriptionMap.containsKey(publisherEvent.getEventName()));
     }
 
+    /**
+     * Closes the pooled connections to the endpoints
+     */
+    public void shutdown() {
+        if (httpClient != null) {
+            httpClient.getConnectionManager().shutdown();
+        }
+    }
+
+    /**
+     * Consumes the response so that the connection can be reused. Aborts the request if there is no response or the
+     * response can not be read, so that the connection is closed and not reused.
+     */
+    private void releaseConnection(HttpPost post, HttpResponse response) {
+        if (response == null) {
+            post.abort();
+            return;
+        }
+        try {
+            EntityUtils.consume(response.getEntity());
+        } catch (IOException e) {
+            log.error("Error while reading response of endpoint " + post.getURI(), e);
+            post.abort();
+        }
+    }
+
+    private static DefaultHttpClient createHttpClient(int maxConnections, int maxConnectionsPerEndpoint,
+                                                      int connectionTimeout, int socketTimeout) {
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager();
+        connectionManager.setMaxTotal(Math.max(maxConnections, maxConnectionsPerEndpoint));
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerEndpoint);
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectionTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+        return new DefaultHttpClient(connectionManager, params);
+    }
+
+    private static int getIntProperty(Properties properties, String key, int defaultValue) {
+        String value = properties.getProperty(key);
+        if (StringUtils.isNotBlank(value)) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.error("Invalid value " + value + " for " + key + ". Default value " + defaultValue +
+                        " will be used.");
+            }
+        }
+        return defaultValue;
+    }
+
     /**
      * To get Base64 encoded username:password for basic authentication header
      *
@@ -200,15 +301,10 @@ public class JsonMessageModule extends AbstractNotificationSendingModule {
      *
      * @return A string which contains JSON message to be sent to the endpoint
      */
-    private String getJSONData(String jsonContent, Properties eventParams, Properties endpointParams,
+    private String getJSONData(NotificationTemplate jsonTemplate, Properties eventParams, Properties endpointParams,
                                Properties dynamicParams) {
 
-        if (StringUtils.isNotEmpty(jsonContent)) {
-            // Replaced using one property map at once. May improve efficiency if no replacements are needed.
-            jsonContent = NotificationManagementUtils.replacePlaceHolders(jsonContent, "\\(", "\\)", endpointParams);
-            jsonContent = NotificationManagementUtils.replacePlaceHolders(jsonContent, "\\(", "\\)", dynamicParams);
-            jsonContent = NotificationManagementUtils.replacePlaceHolders(jsonContent, "\\(", "\\)", eventParams);
-        }
-        return jsonContent;
+        // Endpoint parameters take precedence over dynamic parameters, which take precedence over event parameters.
+        return jsonTemplate.build(endpointParams, dynamicParams, eventParams);
     }
 }
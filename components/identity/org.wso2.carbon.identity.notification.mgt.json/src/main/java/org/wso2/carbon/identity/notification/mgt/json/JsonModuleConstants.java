@@ -30,6 +30,12 @@ public class JsonModuleConstants {
     public static final String PASSWORD_PROPERTY = "password";
     public static final String CONTENT_TYPE_LABEL = "Content-Type";
     public static final String CONTENT_TYPE_JSON_LABEL = "application/json";
+    public static final String PLACE_HOLDER_START = "(";
+    public static final String PLACE_HOLDER_END = ")";
+    public static final int HTTP_DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int HTTP_DEFAULT_MAX_CONNECTIONS_PER_ENDPOINT = 5;
+    public static final int HTTP_DEFAULT_CONNECTION_TIMEOUT = 10000;
+    public static final int HTTP_DEFAULT_SOCKET_TIMEOUT = 30000;
 
 
     public static class Config {
@@ -40,6 +46,10 @@ public class JsonModuleConstants {
         public static final String PASSWORD_QNAME = "password";
         public static final String AUTH_REQUIRED_QNAME = "AuthenticationRequired";
         public static final String SUBSCRIPTION_NS = MODULE_NAME + "." + NotificationMgtConstants.Configs.SUBSCRIPTION;
+        public static final String HTTP_MAX_CONNECTIONS = MODULE_NAME + ".http.maxConnections";
+        public static final String HTTP_MAX_CONNECTIONS_PER_ENDPOINT = MODULE_NAME + ".http.maxConnectionsPerEndpoint";
+        public static final String HTTP_CONNECTION_TIMEOUT = MODULE_NAME + ".http.connectionTimeout";
+        public static final String HTTP_SOCKET_TIMEOUT = MODULE_NAME + ".http.socketTimeout";
     }
 }
 
@@ -18,6 +18,10 @@
 
 package org.wso2.carbon.identity.notification.mgt.json.bean;
 
+import org.apache.commons.lang.StringUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
+import org.wso2.carbon.identity.notification.mgt.json.JsonModuleConstants;
+
 import java.util.Properties;
 
 /**
@@ -50,6 +54,10 @@ public class JsonEndpointInfo {
      * Json message string
      */
     private String jsonConfigString;
+    /**
+     * Json message template parsed from the json message string
+     */
+    private NotificationTemplate jsonTemplate;
     /**
      * Endpoint level config parameters
      */
@@ -78,6 +86,12 @@ public class JsonEndpointInfo {
 
     public void setJsonConfigString(String jsonConfigString) {
         this.jsonConfigString = jsonConfigString;
+        this.jsonTemplate = StringUtils.isEmpty(jsonConfigString) ? null : new NotificationTemplate(jsonConfigString,
+                JsonModuleConstants.PLACE_HOLDER_START, JsonModuleConstants.PLACE_HOLDER_END);
+    }
+
+    public NotificationTemplate getJsonTemplate() {
+        return jsonTemplate;
     }
 
     public boolean isAuthenticationRequired() {
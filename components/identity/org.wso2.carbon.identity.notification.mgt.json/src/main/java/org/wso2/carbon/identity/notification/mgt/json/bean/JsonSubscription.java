@@ -23,6 +23,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementException;
 import org.wso2.carbon.identity.notification.mgt.NotificationManagementUtils;
+import org.wso2.carbon.identity.notification.mgt.NotificationTemplate;
 import org.wso2.carbon.identity.notification.mgt.bean.Subscription;
 import org.wso2.carbon.identity.notification.mgt.json.JsonModuleConstants;
 
@@ -43,6 +44,10 @@ public class JsonSubscription extends Subscription {
      * Template of the json as defined in the configuration or given at the run time
      */
     private String jsonContent;
+    /**
+     * Json template parsed from the json content
+     */
+    private NotificationTemplate jsonTemplate;
     /**
      * List of endpoints which this event should fire notifications.
      */
@@ -218,6 +223,12 @@ public class JsonSubscription extends Subscription {
 
     public void setJsonContent(String jsonContent) {
         this.jsonContent = jsonContent;
+        this.jsonTemplate = StringUtils.isEmpty(jsonContent) ? null : new NotificationTemplate(jsonContent,
+                JsonModuleConstants.PLACE_HOLDER_START, JsonModuleConstants.PLACE_HOLDER_END);
+    }
+
+    public NotificationTemplate getJsonTemplate() {
+        return jsonTemplate;
     }
 
     public List<JsonEndpointInfo> getEndpointInfoList() {
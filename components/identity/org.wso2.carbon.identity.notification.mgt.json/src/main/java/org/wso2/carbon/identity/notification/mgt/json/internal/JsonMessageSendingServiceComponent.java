@@ -33,14 +33,16 @@ import org.wso2.carbon.identity.notification.mgt.json.JsonMessageModule;
 public class JsonMessageSendingServiceComponent {
 
     private static Log log = LogFactory.getLog(JsonMessageSendingServiceComponent.class);
+    private JsonMessageModule jsonMessageModule;
 
     protected void activate(ComponentContext ctxt) {
         // Using try catch to whole activator. Unless if something goes wrong (configuration failure) module will keep
         // trying to start
         try {
             // Registering json message sending module on user operation for entitlement component
+            jsonMessageModule = new JsonMessageModule();
             ctxt.getBundleContext().registerService(NotificationSendingModule.class.getName(),
-                    new JsonMessageModule(), null);
+                    jsonMessageModule, null);
             if (log.isDebugEnabled()) {
                 log.debug("REST JSON notification sending component is activated ");
             }
@@ -54,5 +56,8 @@ public class JsonMessageSendingServiceComponent {
         if (log.isDebugEnabled()) {
             log.debug("REST JSON notification sending module is deactivated");
         }
+        if (jsonMessageModule != null) {
+            jsonMessageModule.shutdown();
+        }
     }
 }
\ No newline at end of file
@@ -21,36 +21,92 @@ package org.wso2.carbon.identity.notification.mgt;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.notification.mgt.bean.PublisherEvent;
+import org.wso2.carbon.utils.CarbonUtils;
 
+import java.io.File;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingDeque;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This has a queue inside. All publishers add events to this queue and this event distribution task is responsible
- * for distributing these events to Notification sending modules
+ * for distributing these events to Notification sending modules.
+ * <p/>
+ * Each module has its own bounded queue and thread pool, so that a module which is slow or failing does not hold up
+ * the others. Failed sends are retried with an exponential backoff. Events which can not be queued because a queue is
+ * full, or which could not be sent after all retries, are handled according to the overflow policy and written to
+ * the dead letter log.
  */
 public class EventDistributionTask implements Runnable {
 
-    private static final Log log = LogFactory.getLog(NotificationSender.class);
+    private static final Log log = LogFactory.getLog(EventDistributionTask.class);
+
     /**
-     * Thread pool for executing event distribution
+     * What to do with an event when a queue is full
      */
-    private static ExecutorService threadPool = null;
+    public enum OverflowPolicy {
+        /**
+         * Write the new event to the dead letter log
+         */
+        DEAD_LETTER,
+        /**
+         * Write the oldest queued event to the dead letter log and queue the new event
+         */
+        DROP_OLDEST,
+        /**
+         * Reject the new event to the publisher. Events which are rejected by a module queue are written to the
+         * dead letter log, since the publisher has already returned
+         */
+        REJECT
+    }
+
     /**
      * Queue used to add events by publishers.
      */
-    private BlockingDeque<PublisherEvent> eventQueue;
+    private final BlockingDeque<PublisherEvent> eventQueue;
     /**
      * Registered message sending modules.
      */
-    private List<NotificationSendingModule> notificationSendingModules;
+    private final List<NotificationSendingModule> notificationSendingModules;
+    /**
+     * Thread pools of the modules, against module name
+     */
+    private final Map<String, ThreadPoolExecutor> moduleExecutors = new ConcurrentHashMap<String,
+            ThreadPoolExecutor>();
+    /**
+     * Events which could not be sent
+     */
+    private final NotificationDeadLetterLog deadLetterLog;
+    private final int threadPoolSize;
+    private final int queueSize;
+    private final OverflowPolicy overflowPolicy;
+    private final int retryCount;
+    private final long retryDelay;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong deadLetterCount = new AtomicLong();
+    private final AtomicLong totalLatency = new AtomicLong();
+
     /**
      * Condition to break event distribution task
      */
-    private volatile boolean running;
+    private volatile boolean stopped;
+    /**
+     * Thread which runs the event distribution task. Interrupted on shutdown.
+     */
+    private volatile Thread distributionThread;
 
     /**
      * Overridden constructor to initiate notification sending modules and thread pool size
@@ -59,56 +115,348 @@ public class EventDistributionTask implements Runnable {
      * @param threadPoolSize             Size of thread pool for notification sending components
      */
     public EventDistributionTask(List<NotificationSendingModule> notificationSendingModules, int threadPoolSize) {
+        this(notificationSendingModules, threadPoolSize, new Properties());
+    }
+
+    /**
+     * Overridden constructor to initiate notification sending modules, thread pool size and dispatching
+     * configurations
+     *
+     * @param notificationSendingModules List of notification sending modules registered
+     * @param threadPoolSize             Size of the thread pool of each notification sending module
+     * @param dispatchProperties         Queue, retry and dead letter configurations
+     */
+    public EventDistributionTask(List<NotificationSendingModule> notificationSendingModules, int threadPoolSize,
+                                 Properties dispatchProperties) {
         this.notificationSendingModules = notificationSendingModules;
-        this.eventQueue = new LinkedBlockingDeque<PublisherEvent>();
-        threadPool = Executors.newFixedThreadPool(threadPoolSize);
+        if (threadPoolSize >= 1) {
+            this.threadPoolSize = threadPoolSize;
+        } else {
+            log.warn("Invalid thread pool size " + threadPoolSize + ", using default value " +
+                    NotificationMgtConstants.THREAD_POOL_DEFAULT_SIZE);
+            this.threadPoolSize = NotificationMgtConstants.THREAD_POOL_DEFAULT_SIZE;
+        }
+        this.queueSize = (int) readLong(dispatchProperties, NotificationMgtConstants.Configs.QUEUE_SIZE,
+                NotificationMgtConstants.QUEUE_DEFAULT_SIZE, 1, Integer.MAX_VALUE);
+        this.retryCount = (int) readLong(dispatchProperties, NotificationMgtConstants.Configs.RETRY_COUNT,
+                NotificationMgtConstants.RETRY_DEFAULT_COUNT, 0, Integer.MAX_VALUE);
+        this.retryDelay = readLong(dispatchProperties, NotificationMgtConstants.Configs.RETRY_DELAY,
+                NotificationMgtConstants.RETRY_DEFAULT_DELAY, 0, Long.MAX_VALUE);
+        this.overflowPolicy = readOverflowPolicy(dispatchProperties);
+        this.eventQueue = new LinkedBlockingDeque<PublisherEvent>(queueSize);
+
+        String deadLetterFile = dispatchProperties.getProperty(NotificationMgtConstants.Configs.DEAD_LETTER_FILE);
+        if (deadLetterFile == null || deadLetterFile.isEmpty()) {
+            deadLetterFile = CarbonUtils.getCarbonHome() + File.separator + "repository" + File.separator + "logs" +
+                    File.separator + NotificationMgtConstants.DEAD_LETTER_DEFAULT_FILE;
+        }
+        this.deadLetterLog = new NotificationDeadLetterLog(new File(deadLetterFile));
     }
 
-    public void addEventToQueue(PublisherEvent publisherEvent) {
-        this.eventQueue.add(publisherEvent);
+    /**
+     * Adds an event to the queue. If the queue is full the event is handled according to the overflow policy.
+     *
+     * @param publisherEvent Publisher event
+     * @throws NotificationManagementException If the queue is full and the overflow policy is REJECT
+     */
+    public void addEventToQueue(PublisherEvent publisherEvent) throws NotificationManagementException {
+        if (stopped) {
+            deadLetter(null, publisherEvent, "Notification management is shut down");
+            return;
+        }
+        if (eventQueue.offer(publisherEvent)) {
+            return;
+        }
+        log.warn("Notification event queue is full. Handling event " + publisherEvent.getEventName() +
+                " according to overflow policy " + overflowPolicy);
+        if (overflowPolicy == OverflowPolicy.REJECT) {
+            throw new NotificationManagementException("Notification event queue is full. Rejected event " +
+                    publisherEvent.getEventName());
+        } else if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            PublisherEvent oldest = eventQueue.poll();
+            if (oldest != null) {
+                deadLetter(null, oldest, "Dropped from full event queue");
+            }
+            if (!eventQueue.offer(publisherEvent)) {
+                deadLetter(null, publisherEvent, "Event queue is full");
+            }
+        } else {
+            deadLetter(null, publisherEvent, "Event queue is full");
+        }
     }
 
     @Override
     public void run() {
-        running = true;
-        // Run forever until stop the bundle. Will stop in eventQueue.take()
-        while (running) {
+        distributionThread = Thread.currentThread();
+        // Run until the bundle is stopped. Shutdown interrupts eventQueue.take()
+        while (!stopped) {
             try {
-                final PublisherEvent event = eventQueue.take();
-                for (final NotificationSendingModule module : notificationSendingModules) {
-                    // If the module is subscribed to the event, module will be executed.
-                    try {
-                        if (module.isSubscribed(event)) {
-                            // Create a runnable and submit to the thread pool for sending message.
-                            Runnable msgSender = new Runnable() {
-                                @Override
-                                public void run() {
-                                    if (log.isDebugEnabled()) {
-                                        log.debug("Executing " + module.getModuleName() + " on event" + event.
-                                                getEventName());
-                                    }
-                                    try {
-                                        module.sendMessage(event);
-                                    } catch (NotificationManagementException e) {
-                                        log.error("Error while invoking notification sending module " + module.
-                                                getModuleName(), e);
-                                    }
-                                }
-                            };
-                            threadPool.submit(msgSender);
-                        }
-                    } catch (NotificationManagementException e) {
-                        log.error("Error while getting subscription status from notification module " + module.
-                                getModuleName(), e);
-                    }
-                }
+                PublisherEvent event = eventQueue.take();
+                distribute(event);
             } catch (InterruptedException e) {
-                log.error("Error while picking up event from event queue", e);
+                if (!stopped) {
+                    log.error("Error while picking up event from event queue", e);
+                }
             }
         }
+        if (log.isDebugEnabled()) {
+            log.debug("Event distribution task stopped");
+        }
     }
 
+    /**
+     * Stops distributing events. Waits for the queued notifications to be sent and writes the ones which could not
+     * be sent in time to the dead letter log.
+     */
     public void shutdown() {
-        this.running = false;
+        this.stopped = true;
+        Thread thread = distributionThread;
+        if (thread != null) {
+            thread.interrupt();
+        }
+
+        for (ThreadPoolExecutor executor : moduleExecutors.values()) {
+            executor.shutdown();
+        }
+        long deadline = System.currentTimeMillis() + NotificationMgtConstants.SHUTDOWN_TIMEOUT;
+        for (Map.Entry<String, ThreadPoolExecutor> entry : moduleExecutors.entrySet()) {
+            ThreadPoolExecutor executor = entry.getValue();
+            try {
+                long timeout = Math.max(0, deadline - System.currentTimeMillis());
+                if (executor.awaitTermination(timeout, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            for (Runnable runnable : executor.shutdownNow()) {
+                if (runnable instanceof NotificationJob) {
+                    NotificationJob job = (NotificationJob) runnable;
+                    deadLetter(entry.getKey(), job.event, "Not sent before shutdown");
+                }
+            }
+        }
+
+        List<PublisherEvent> remaining = new ArrayList<PublisherEvent>();
+        eventQueue.drainTo(remaining);
+        for (PublisherEvent event : remaining) {
+            deadLetter(null, event, "Not distributed before shutdown");
+        }
+        deadLetterLog.close();
+    }
+
+    /**
+     * @return Number of events waiting to be distributed to the modules
+     */
+    public int getQueueDepth() {
+        return eventQueue.size();
+    }
+
+    /**
+     * @param moduleName Name of the module
+     * @return Number of notifications waiting to be sent by the module
+     */
+    public int getModuleQueueDepth(String moduleName) {
+        ThreadPoolExecutor executor = moduleExecutors.get(moduleName);
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    /**
+     * @return Number of notifications sent successfully
+     */
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    /**
+     * @return Number of notifications which could not be sent after all retries
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return Number of events written to the dead letter log
+     */
+    public long getDeadLetterCount() {
+        return deadLetterCount.get();
+    }
+
+    /**
+     * @return Average time in milliseconds from distributing an event to a module until it is sent by the module
+     */
+    public long getAverageLatency() {
+        long sent = sentCount.get();
+        return sent > 0 ? totalLatency.get() / sent : 0;
+    }
+
+    private void distribute(PublisherEvent event) {
+        for (NotificationSendingModule module : notificationSendingModules) {
+            // If the module is subscribed to the event, module will be executed.
+            try {
+                if (module.isSubscribed(event)) {
+                    submit(module, event);
+                }
+            } catch (NotificationManagementException e) {
+                log.error("Error while getting subscription status from notification module " + module.
+                        getModuleName(), e);
+            }
+        }
+    }
+
+    private void submit(NotificationSendingModule module, PublisherEvent event) {
+        ThreadPoolExecutor executor = getExecutor(module.getModuleName());
+        NotificationJob job = new NotificationJob(module, event);
+        try {
+            executor.execute(job);
+            return;
+        } catch (RejectedExecutionException e) {
+            if (executor.isShutdown()) {
+                deadLetter(module.getModuleName(), event, "Notification management is shut down");
+                return;
+            }
+        }
+
+        log.warn("Notification queue of module " + module.getModuleName() + " is full. Handling event " +
+                event.getEventName() + " according to overflow policy " + overflowPolicy);
+        if (overflowPolicy == OverflowPolicy.DROP_OLDEST) {
+            Runnable oldest = executor.getQueue().poll();
+            if (oldest instanceof NotificationJob) {
+                deadLetter(module.getModuleName(), ((NotificationJob) oldest).event, "Dropped from full module queue");
+            }
+            try {
+                executor.execute(job);
+                return;
+            } catch (RejectedExecutionException e) {
+                // fall through to the dead letter log
+            }
+        }
+        deadLetter(module.getModuleName(), event, "Module queue is full");
+    }
+
+    /**
+     * Returns the thread pool of a module, creating it on the first event of the module. Only called by the event
+     * distribution thread.
+     */
+    private ThreadPoolExecutor getExecutor(final String moduleName) {
+        ThreadPoolExecutor executor = moduleExecutors.get(moduleName);
+        if (executor == null) {
+            executor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "NotificationSender-" + moduleName + "-" +
+                            count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            moduleExecutors.put(moduleName, executor);
+        }
+        return executor;
+    }
+
+    private void deadLetter(String moduleName, PublisherEvent event, String reason) {
+        deadLetterCount.incrementAndGet();
+        deadLetterLog.write(moduleName, event, reason);
+    }
+
+    /**
+     * Reads a numeric property, falling back to the default value if the property is missing, not a number or
+     * out of the given range.
+     */
+    private static long readLong(Properties properties, String key, long defaultValue, long minValue,
+                                 long maxValue) {
+        String value = properties.getProperty(key);
+        if (value != null) {
+            try {
+                long parsed = Long.parseLong(value.trim());
+                if (parsed >= minValue && parsed <= maxValue) {
+                    return parsed;
+                }
+            } catch (NumberFormatException e) {
+                // use the default value
+            }
+            log.warn("Invalid value " + value + " for " + key + ", using default value " + defaultValue);
+        }
+        return defaultValue;
+    }
+
+    private static OverflowPolicy readOverflowPolicy(Properties properties) {
+        String value = properties.getProperty(NotificationMgtConstants.Configs.QUEUE_OVERFLOW_POLICY);
+        if (value != null) {
+            try {
+                return OverflowPolicy.valueOf(value.trim().toUpperCase());
+            } catch (IllegalArgumentException e) {
+                log.warn("Invalid value " + value + " for " + NotificationMgtConstants.Configs.QUEUE_OVERFLOW_POLICY +
+                        ", using default value " + OverflowPolicy.DEAD_LETTER);
+            }
+        }
+        return OverflowPolicy.DEAD_LETTER;
+    }
+
+    /**
+     * Sends an event through a module, retrying with an exponential backoff. If the module could send the event to
+     * some of its endpoints, only the rest of the endpoints are retried.
+     */
+    private class NotificationJob implements Runnable {
+
+        private final NotificationSendingModule module;
+        private final PublisherEvent event;
+        private final long queuedTime = System.currentTimeMillis();
+
+        private NotificationJob(NotificationSendingModule module, PublisherEvent event) {
+            this.module = module;
+            this.event = event;
+        }
+
+        @Override
+        public void run() {
+            if (log.isDebugEnabled()) {
+                log.debug("Executing " + module.getModuleName() + " on event" + event.getEventName());
+            }
+            long delay = retryDelay;
+            Exception error = null;
+            UnsentNotificationException.Resend resend = null;
+            for (int attempt = 0; attempt <= retryCount; attempt++) {
+                if (attempt > 0) {
+                    if (stopped) {
+                        break;
+                    }
+                    log.warn("Retrying notification sending module " + module.getModuleName() + " on event " +
+                            event.getEventName() + " in " + delay + " ms, attempt " + attempt + " of " + retryCount);
+                    try {
+                        Thread.sleep(delay);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        break;
+                    }
+                    delay = delay * 2;
+                }
+                try {
+                    if (resend == null) {
+                        module.sendMessage(event);
+                    } else {
+                        resend.resend();
+                    }
+                    sentCount.incrementAndGet();
+                    totalLatency.addAndGet(System.currentTimeMillis() - queuedTime);
+                    return;
+                } catch (UnsentNotificationException e) {
+                    error = e;
+                    resend = e.getResend();
+                } catch (NotificationManagementException e) {
+                    error = e;
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+            }
+            failedCount.incrementAndGet();
+            log.error("Error while invoking notification sending module " + module.getModuleName(), error);
+            deadLetter(module.getModuleName(), event, error != null ? error.getMessage() : "Not sent");
+        }
     }
 }
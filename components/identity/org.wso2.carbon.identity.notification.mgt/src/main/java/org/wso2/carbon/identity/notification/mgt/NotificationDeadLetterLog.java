@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.notification.mgt;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.identity.notification.mgt.bean.PublisherEvent;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+/**
+ * Appends the events which could not be sent to a file, one tab separated line per event and module, so that they
+ * can be inspected and sent again after an outage of the notification endpoints.
+ */
+public class NotificationDeadLetterLog {
+
+    private static final Log log = LogFactory.getLog(NotificationDeadLetterLog.class);
+    /**
+     * File the events are written to
+     */
+    private final File file;
+    /**
+     * Writer of the file. Opened on the first write and after a write error.
+     */
+    private Writer writer;
+
+    public NotificationDeadLetterLog(File file) {
+        this.file = file;
+    }
+
+    /**
+     * Appends an event to the dead letter file
+     *
+     * @param moduleName Name of the module which could not send the event. Null if the event was not distributed
+     * @param event      Event which could not be sent
+     * @param reason     Why the event could not be sent
+     */
+    public synchronized void write(String moduleName, PublisherEvent event, String reason) {
+        StringBuilder line = new StringBuilder();
+        line.append(new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date())).append('\t');
+        line.append(moduleName != null ? moduleName : "-").append('\t');
+        line.append(event.getEventName()).append('\t');
+        line.append(String.valueOf(reason).replace('\n', ' ').replace('\r', ' ')).append('\t');
+        line.append(String.valueOf(event.getEventProperties()).replace('\n', ' ').replace('\r', ' '));
+        line.append(System.getProperty("line.separator"));
+        try {
+            if (writer == null) {
+                File parent = file.getParentFile();
+                if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                    log.warn("Could not create directory " + parent.getPath() + " for the notification dead letter log");
+                }
+                writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+            }
+            writer.write(line.toString());
+            writer.flush();
+        } catch (IOException e) {
+            log.error("Error while writing event " + event.getEventName() + " to notification dead letter log " +
+                    file.getPath(), e);
+            close();
+        }
+    }
+
+    /**
+     * Closes the dead letter file. It is opened again if an event is written afterwards.
+     */
+    public synchronized void close() {
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                log.error("Error while closing notification dead letter log " + file.getPath(), e);
+            }
+            writer = null;
+        }
+    }
+}
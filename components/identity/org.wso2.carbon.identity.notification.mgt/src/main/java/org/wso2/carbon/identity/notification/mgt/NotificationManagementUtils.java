@@ -26,7 +26,11 @@ import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.Enumeration;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Util functionality for MessageSending Components
@@ -35,6 +39,10 @@ import java.util.Properties;
 public class NotificationManagementUtils {
 
     private static final Log log = LogFactory.getLog(NotificationMgtConfigBuilder.class);
+    /**
+     * Compiled place holder patterns, against the place holder start and end regex
+     */
+    private static final Map<String, Pattern> placeHolderPatterns = new ConcurrentHashMap<String, Pattern>();
 
     /**
      * Returns a set of properties which has keys starting with the given prefix
@@ -118,7 +126,9 @@ public class NotificationManagementUtils {
     }
 
     /**
-     * Replace place holders in the given string with properties
+     * Replace place holders in the given string with properties, in a single pass over the string. Place holders
+     * which do not have a property are left as they are. Use {@link NotificationTemplate} for templates which are
+     * used more than once.
      *
      * @param content                Original content of the message which has place holders
      * @param replaceRegexStartsWith Placeholders starting regex
@@ -141,19 +151,33 @@ public class NotificationManagementUtils {
                     replaceRegexEndsWith);
             log.debug("Replacing place holders of String " + content);
         }
-            // For each property check whether there is a place holder and replace the place
-            // holders exist.
-            for (String key : properties.stringPropertyNames()) {
+        String patternKey = replaceRegexStartsWith + "\n" + replaceRegexEndsWith;
+        Pattern pattern = placeHolderPatterns.get(patternKey);
+        if (pattern == null) {
+            pattern = Pattern.compile(replaceRegexStartsWith + "(.+?)" + replaceRegexEndsWith);
+            placeHolderPatterns.put(patternKey, pattern);
+        }
+
+        // Find each place holder and replace it if there is a property for it.
+        Matcher matcher = pattern.matcher(content);
+        StringBuffer replaced = new StringBuffer(content.length());
+        while (matcher.find()) {
+            String value = properties.getProperty(matcher.group(1));
+            if (value != null) {
                 if (log.isDebugEnabled()) {
-                    log.debug("Replacing place holder with property key :" + key + " from value :" + properties
-                            .getProperty(key));
+                    log.debug("Replacing place holder with property key :" + matcher.group(1) + " from value :" +
+                            value);
                 }
-                content = content.replaceAll(replaceRegexStartsWith + key + replaceRegexEndsWith,
-                        properties.getProperty(key));
-            }
-            if (log.isDebugEnabled()) {
-                log.debug("Place holders replaced String " + content);
+                matcher.appendReplacement(replaced, Matcher.quoteReplacement(value));
+            } else {
+                matcher.appendReplacement(replaced, Matcher.quoteReplacement(matcher.group()));
             }
+        }
+        matcher.appendTail(replaced);
+        content = replaced.toString();
+        if (log.isDebugEnabled()) {
+            log.debug("Place holders replaced String " + content);
+        }
         return content;
     }
 
@@ -53,6 +53,10 @@ public class NotificationMgtConfigBuilder {
      * Thread pool size for message sending task
      */
     private String threadPoolSize;
+    /**
+     * Queue, retry and dead letter configurations of the event dispatching
+     */
+    private Properties dispatchProperties;
 
     /**
      * Load properties file and set Module properties
@@ -63,6 +67,7 @@ public class NotificationMgtConfigBuilder {
     public NotificationMgtConfigBuilder(BundleContext bundleContext) throws NotificationManagementException {
         notificationMgtConfigProperties = loadProperties(bundleContext);
         setThreadPoolSize();
+        setDispatchProperties();
         resolveSecrets();
         moduleConfiguration = new HashMap<String, ModuleConfiguration>();
         build();
@@ -76,6 +81,22 @@ public class NotificationMgtConfigBuilder {
                 THREAD_POOL_SIZE);
     }
 
+    /**
+     * Sets the event dispatching configurations, so that they are not taken as module configurations
+     */
+    private void setDispatchProperties() {
+        dispatchProperties = new Properties();
+        String[] keys = {NotificationMgtConstants.Configs.QUEUE_SIZE,
+                NotificationMgtConstants.Configs.QUEUE_OVERFLOW_POLICY, NotificationMgtConstants.Configs.RETRY_COUNT,
+                NotificationMgtConstants.Configs.RETRY_DELAY, NotificationMgtConstants.Configs.DEAD_LETTER_FILE};
+        for (String key : keys) {
+            Object value = notificationMgtConfigProperties.remove(key);
+            if (value != null) {
+                dispatchProperties.put(key, ((String) value).trim());
+            }
+        }
+    }
+
     /**
      * Load properties which are defined in msg-mgt.properties file
      *
@@ -166,7 +187,8 @@ public class NotificationMgtConfigBuilder {
         Properties moduleProperties = getModuleProperties(moduleName);
         List<Subscription> subscriptionList = buildSubscriptionList(moduleName, moduleProperties);
 
-        return new ModuleConfiguration(getModuleProperties(moduleName), subscriptionList);
+        // Subscription properties are removed from module properties while building the subscriptions
+        return new ModuleConfiguration(moduleProperties, subscriptionList);
     }
 
     /**
@@ -221,6 +243,10 @@ public class NotificationMgtConfigBuilder {
         return threadPoolSize;
     }
 
+    public Properties getDispatchProperties() {
+        return dispatchProperties;
+    }
+
     /**
      * There can be sensitive information like passwords in configuration file. If they are encrypted using secure
      * vault, this method will resolve them and replace with original values.
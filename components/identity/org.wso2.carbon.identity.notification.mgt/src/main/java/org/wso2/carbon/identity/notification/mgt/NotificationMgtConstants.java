@@ -26,10 +26,20 @@ public class NotificationMgtConstants {
 
     public static final String MODULE_CONFIG_FILE = "msg-mgt.properties";
     public static final int THREAD_POOL_DEFAULT_SIZE = 5;
+    public static final int QUEUE_DEFAULT_SIZE = 10000;
+    public static final int RETRY_DEFAULT_COUNT = 3;
+    public static final long RETRY_DEFAULT_DELAY = 1000L;
+    public static final long SHUTDOWN_TIMEOUT = 10000L;
+    public static final String DEAD_LETTER_DEFAULT_FILE = "notification-dead-letter.log";
 
     public static class Configs {
         public static final String MODULE_NAME = "module.name";
         public static final String SUBSCRIPTION = "subscription";
         public static final String THREAD_POOL_SIZE = "threadPool.size";
+        public static final String QUEUE_SIZE = "queue.size";
+        public static final String QUEUE_OVERFLOW_POLICY = "queue.overflowPolicy";
+        public static final String RETRY_COUNT = "retry.count";
+        public static final String RETRY_DELAY = "retry.delay";
+        public static final String DEAD_LETTER_FILE = "deadLetter.file";
     }
 }
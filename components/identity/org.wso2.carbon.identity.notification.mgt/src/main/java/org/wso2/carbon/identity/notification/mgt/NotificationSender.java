@@ -23,6 +23,7 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.notification.mgt.bean.PublisherEvent;
 
 import java.util.List;
+import java.util.Properties;
 
 /**
  * The service class exposed from this bundle. This will take care of triggering all registered message sending
@@ -44,11 +45,27 @@ public class NotificationSender {
      * @param notificationSendingModules Set of notification sending modules registered
      */
     public NotificationSender(List<NotificationSendingModule> notificationSendingModules, int threadPoolSize) {
-        this.eventDistributionTask = new EventDistributionTask(notificationSendingModules, threadPoolSize);
+        this(notificationSendingModules, threadPoolSize, new Properties());
+    }
+
+    /**
+     * Overridden to initiate event distribution task towards notification sending modules with queue, retry and
+     * dead letter configurations.
+     *
+     * @param notificationSendingModules Set of notification sending modules registered
+     * @param threadPoolSize             Size of the thread pool of each notification sending module
+     * @param dispatchProperties         Queue, retry and dead letter configurations
+     */
+    public NotificationSender(List<NotificationSendingModule> notificationSendingModules, int threadPoolSize,
+                              Properties dispatchProperties) {
+        this.eventDistributionTask = new EventDistributionTask(notificationSendingModules, threadPoolSize,
+                dispatchProperties);
         if (log.isDebugEnabled()) {
             log.debug("Starting event distribution task from Notification Management component");
         }
-        new Thread(eventDistributionTask).start();
+        Thread distributionThread = new Thread(eventDistributionTask, "NotificationEventDistributor");
+        distributionThread.setDaemon(true);
+        distributionThread.start();
     }
 
     /**
@@ -74,4 +91,11 @@ public class NotificationSender {
         eventDistributionTask.shutdown();
     }
 
+    /**
+     * @return Event distribution task, which exposes the queue depths and delivery statistics
+     */
+    public EventDistributionTask getEventDistributionTask() {
+        return eventDistributionTask;
+    }
+
 }
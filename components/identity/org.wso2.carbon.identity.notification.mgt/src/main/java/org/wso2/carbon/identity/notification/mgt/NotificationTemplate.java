@@ -0,0 +1,124 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.notification.mgt;
+
+import org.apache.commons.lang.StringUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * A message template which is parsed once into literal text and place holders, so that building a message is a
+ * single pass over the template without any regular expressions. Place holders which have no value are left as they
+ * are in the message.
+ */
+public class NotificationTemplate {
+
+    private final String placeHolderStart;
+    private final String placeHolderEnd;
+    /**
+     * Literal text before each place holder, and after the last one. One more than the place holders.
+     */
+    private final String[] literals;
+    /**
+     * Names of the place holders, in the order they appear in the template
+     */
+    private final String[] placeHolders;
+
+    /**
+     * Parses the template
+     *
+     * @param content          Content of the template
+     * @param placeHolderStart Text which starts a place holder, ie "{"
+     * @param placeHolderEnd   Text which ends a place holder, ie "}"
+     */
+    public NotificationTemplate(String content, String placeHolderStart, String placeHolderEnd) {
+
+        if (content == null || StringUtils.isEmpty(placeHolderStart) || StringUtils.isEmpty(placeHolderEnd)) {
+            throw new IllegalArgumentException("Missing required arguments for parsing template");
+        }
+        this.placeHolderStart = placeHolderStart;
+        this.placeHolderEnd = placeHolderEnd;
+
+        List<String> literalList = new ArrayList<String>();
+        List<String> placeHolderList = new ArrayList<String>();
+        int literalStart = 0;
+        int searchFrom = 0;
+        while (true) {
+            int start = content.indexOf(placeHolderStart, searchFrom);
+            if (start < 0) {
+                break;
+            }
+            int end = content.indexOf(placeHolderEnd, start + placeHolderStart.length());
+            if (end < 0) {
+                break;
+            }
+            // Use the start closest to the end, ie "((name)" has the place holder "(name)"
+            int innerStart = content.lastIndexOf(placeHolderStart, end - placeHolderStart.length());
+            if (innerStart > start) {
+                start = innerStart;
+            }
+            String name = content.substring(start + placeHolderStart.length(), end);
+            if (name.length() > 0 && name.indexOf('\n') < 0) {
+                literalList.add(content.substring(literalStart, start));
+                placeHolderList.add(name);
+                literalStart = end + placeHolderEnd.length();
+                searchFrom = literalStart;
+            } else {
+                searchFrom = start + placeHolderStart.length();
+            }
+        }
+        literalList.add(content.substring(literalStart));
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.placeHolders = placeHolderList.toArray(new String[placeHolderList.size()]);
+    }
+
+    /**
+     * Builds a message by replacing the place holders with property values. Where several property sets have a
+     * value for a place holder, the first one is used.
+     *
+     * @param propertySets Property sets in the order of precedence. Null sets are skipped
+     * @return Message built from the template
+     */
+    public String build(Properties... propertySets) {
+
+        StringBuilder message = new StringBuilder(literals[0].length() * 2);
+        message.append(literals[0]);
+        for (int i = 0; i < placeHolders.length; i++) {
+            String value = null;
+            for (Properties properties : propertySets) {
+                if (properties != null) {
+                    value = properties.getProperty(placeHolders[i]);
+                    if (value != null) {
+                        break;
+                    }
+                }
+            }
+            if (value != null) {
+                message.append(value);
+            } else {
+                message.append(placeHolderStart).append(placeHolders[i]).append(placeHolderEnd);
+            }
+            message.append(literals[i + 1]);
+        }
+        return message.toString();
+    }
+}
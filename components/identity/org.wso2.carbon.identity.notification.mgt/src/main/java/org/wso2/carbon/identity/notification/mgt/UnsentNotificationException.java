@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.notification.mgt;
+
+/**
+ * Thrown by a notification sending module when an event could not be sent to some of its endpoints. Holds a
+ * resend of the event to those endpoints only, so that retrying does not send the event again to the
+ * endpoints it was already sent to.
+ */
+@SuppressWarnings("unused")
+public class UnsentNotificationException extends NotificationManagementException {
+
+    /**
+     * Sends an event again to the endpoints it could not be sent to
+     */
+    public interface Resend {
+
+        /**
+         * @throws NotificationManagementException If the event could still not be sent to some of the
+         *                                         endpoints. An {@link UnsentNotificationException} holds the
+         *                                         resend to the remaining endpoints.
+         */
+        public void resend() throws NotificationManagementException;
+    }
+
+    private final Resend resend;
+
+    public UnsentNotificationException(String message, Throwable cause, Resend resend) {
+        super(message, cause);
+        this.resend = resend;
+    }
+
+    /**
+     * @return Resend of the event to the endpoints it could not be sent to
+     */
+    public Resend getResend() {
+        return resend;
+    }
+}
@@ -26,8 +26,8 @@ import org.wso2.carbon.identity.notification.mgt.*;
 import org.wso2.carbon.identity.notification.mgt.bean.ModuleConfiguration;
 
 import javax.mail.MessageRemovedException;
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * @scr.reference name="ldap.tenant.manager.listener.service"
@@ -55,9 +55,11 @@ public class NotificationManagementServiceComponent {
      */
     private NotificationMgtConfigBuilder configBuilder;
     /**
-     * Since Message Sending modules are dynamically registered a List is used
+     * Since Message Sending modules are dynamically registered a List is used. Copy on write, since it is iterated
+     * by the event distribution task while modules are registered.
      */
-    private List<NotificationSendingModule> notificationSendingModules = new ArrayList<NotificationSendingModule>();
+    private List<NotificationSendingModule> notificationSendingModules =
+            new CopyOnWriteArrayList<NotificationSendingModule>();
 
     protected void activate(ComponentContext context) {
         // Register Notification sender as an OSGI service. Other components can consume the service for sending
@@ -92,7 +94,12 @@ public class NotificationManagementServiceComponent {
                 log.debug("Notification mgt thread pool size " + threadPoolSize);
             }
             // Register Notification sender as the service class
-            notificationSender = new NotificationSender(notificationSendingModules, threadPoolSize);
+            if (configBuilder != null) {
+                notificationSender = new NotificationSender(notificationSendingModules, threadPoolSize,
+                        configBuilder.getDispatchProperties());
+            } else {
+                notificationSender = new NotificationSender(notificationSendingModules, threadPoolSize);
+            }
             context.getBundleContext().registerService(NotificationSender.class.getName(),
                     notificationSender, null);
             if (log.isDebugEnabled()) {
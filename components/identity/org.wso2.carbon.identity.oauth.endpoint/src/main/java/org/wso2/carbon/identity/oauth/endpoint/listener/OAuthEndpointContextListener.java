@@ -0,0 +1,52 @@
+/*
+* Copyright (c) 2015, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+* WSO2 Inc. licenses this file to you under the Apache License,
+* Version 2.0 (the "License"); you may not use this file except
+* in compliance with the License.
+* You may obtain a copy of the License at
+*
+* http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied. See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+
+package org.wso2.carbon.identity.oauth.endpoint.listener;
+
+import org.wso2.carbon.identity.oauth.endpoint.util.OpenIDConnectUserRPStore;
+
+import javax.servlet.ServletContextEvent;
+import javax.servlet.ServletContextListener;
+
+/**
+ * Listener for executing deployment and undeployment tasks of the OAuth endpoints
+ */
+public class OAuthEndpointContextListener implements ServletContextListener {
+
+    /**
+     * Method for calling after context initialization
+     *
+     * @param servletContextEvent
+     */
+    public void contextInitialized(ServletContextEvent servletContextEvent) {
+
+        // Nothing to be done on initialization
+    }
+
+    /**
+     * Method for calling after context destroy
+     *
+     * @param servletContextEvent
+     */
+    public void contextDestroyed(ServletContextEvent servletContextEvent) {
+
+        // Write the consent given by users before the endpoints were undeployed
+        OpenIDConnectUserRPStore.getInstance().shutdown();
+    }
+
+}
@@ -18,20 +18,82 @@
 package org.wso2.carbon.identity.oauth.endpoint.util;
 
 import org.apache.amber.oauth2.common.exception.OAuthSystemException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.core.model.OpenIDUserRPDO;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.provider.openid.cache.OpenIDUserRPCache;
+import org.wso2.carbon.identity.provider.openid.cache.OpenIDUserRPCacheEntry;
 import org.wso2.carbon.identity.provider.openid.dao.OpenIDUserRPDAO;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 /**
- * Stores user consent on applications
+ * Stores user consent on applications. Consent is cached in the {@link OpenIDUserRPCache}, so that
+ * authorization requests do not query the database for every consent check. The cached consent is
+ * cleared whenever it is changed in the database, including by the OpenID provider. Consent given by
+ * the user is cached at once and written to the database in the background, coalescing repeated
+ * consent of the same user on the same application.
  */
 public class OpenIDConnectUserRPStore {
 
+    private static final Log log = LogFactory.getLog(OpenIDConnectUserRPStore.class);
+
     private static final String DEFAULT_PROFILE_NAME = "default";
+
+    private static final String CACHE_TIMEOUT = "OAuth.ConsentStore.CacheTimeout";
+    private static final String WRITE_INTERVAL = "OAuth.ConsentStore.WriteInterval";
+
+    // in seconds
+    private static final int DEFAULT_CACHE_TIMEOUT = 300;
+    // in milli seconds
+    private static final int DEFAULT_WRITE_INTERVAL = 1000;
+    private static final long DEFAULT_SHUTDOWN_TIMEOUT = 10000;
+
     private static OpenIDConnectUserRPStore store = new OpenIDConnectUserRPStore();
 
+    /**
+     * Consent not yet written to the database, by user and application. Only the latest consent of a user on
+     * an application is written.
+     */
+    private final ConcurrentMap<String, OpenIDUserRPDO> pendingWrites =
+            new ConcurrentHashMap<String, OpenIDUserRPDO>();
+
+    private final long cacheTimeout;
+
+    private final ScheduledExecutorService writer;
+
     private OpenIDConnectUserRPStore() {
 
+        cacheTimeout = TimeUnit.SECONDS.toMillis(IdentityUtil.getIntProperty(CACHE_TIMEOUT, DEFAULT_CACHE_TIMEOUT));
+        int writeInterval = IdentityUtil.getIntProperty(WRITE_INTERVAL, DEFAULT_WRITE_INTERVAL);
+        if (writeInterval > 0) {
+            writer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "OpenIDConnectUserRPStoreWriter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            writer.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    writePendingConsents();
+                }
+            }, writeInterval, writeInterval, TimeUnit.MILLISECONDS);
+        } else {
+            writer = null;
+        }
     }
 
     public static OpenIDConnectUserRPStore getInstance() {
@@ -50,12 +112,17 @@ public class OpenIDConnectUserRPStore {
         repDO.setUserName(username);
         repDO.setTrustedAlways(trustedAlways);
 
-        OpenIDUserRPDAO dao = new OpenIDUserRPDAO();
-        try {
-            dao.createOrUpdate(repDO);
-        } catch (IdentityException e) {
-            throw new OAuthSystemException("Error while storing user consent", e);
+        if (writer == null || writer.isShutdown()) {
+            OpenIDUserRPDAO dao = new OpenIDUserRPDAO();
+            try {
+                dao.createOrUpdate(repDO);
+            } catch (IdentityException e) {
+                throw new OAuthSystemException("Error while storing user consent", e);
+            }
+        } else {
+            pendingWrites.put(getPendingWriteKey(username, appName), repDO);
         }
+        cacheConsent(username, appName, trustedAlways);
     }
 
     /**
@@ -64,16 +131,109 @@ public class OpenIDConnectUserRPStore {
      * @return
      * @throws OAuthSystemException
      */
-    public synchronized boolean hasUserApproved(String username, String appName) throws OAuthSystemException {
-        OpenIDUserRPDAO dao = new OpenIDUserRPDAO();
+    public boolean hasUserApproved(String username, String appName) throws OAuthSystemException {
+        OpenIDUserRPDO pendingDO = pendingWrites.get(getPendingWriteKey(username, appName));
+        if (pendingDO != null) {
+            return pendingDO.isTrustedAlways();
+        }
+
+        boolean approved = false;
         try {
+            if (cacheTimeout > 0) {
+                OpenIDUserRPCacheEntry entry = OpenIDUserRPCache.getCacheInstance().getUserRP(username, appName);
+                if (entry != null) {
+                    return entry.isTrustedAlways();
+                }
+            }
+
+            OpenIDUserRPDAO dao = new OpenIDUserRPDAO();
             OpenIDUserRPDO rpDO = dao.getOpenIDUserRP(username, appName);
             if (rpDO != null && rpDO.isTrustedAlways()) {
-                return true;
+                approved = true;
             }
         } catch (IdentityException e) {
             throw new OAuthSystemException("Error while loading user consent", e);
         }
-        return false;
+
+        cacheConsent(username, appName, approved);
+        return approved;
+    }
+
+    /**
+     * Writes the pending consent to the database and stops writing in the background. Consent given
+     * after this is written on the request thread. Called when the OAuth endpoints are undeployed.
+     */
+    public void shutdown() {
+        if (writer == null) {
+            return;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(DEFAULT_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                writer.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writer.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        writePendingConsents();
+    }
+
+    private void cacheConsent(String username, String appName, boolean approved) {
+        if (cacheTimeout <= 0) {
+            return;
+        }
+        try {
+            OpenIDUserRPCache.getCacheInstance().addUserRP(username, appName, approved, cacheTimeout);
+        } catch (IdentityException e) {
+            log.error("Error while caching the consent of user " + username + " on application " + appName, e);
+        }
+    }
+
+    /**
+     * Writes the pending consent to the database. Failed writes are dropped from the cache so that
+     * the consent is asked again.
+     */
+    private void writePendingConsents() {
+
+        List<Map.Entry<String, OpenIDUserRPDO>> entries =
+                new ArrayList<Map.Entry<String, OpenIDUserRPDO>>(pendingWrites.entrySet());
+        if (entries.isEmpty()) {
+            return;
+        }
+        OpenIDUserRPDAO dao = new OpenIDUserRPDAO();
+        for (Map.Entry<String, OpenIDUserRPDO> entry : entries) {
+            OpenIDUserRPDO rpDO = entry.getValue();
+            try {
+                dao.createOrUpdate(rpDO);
+            } catch (IdentityException e) {
+                log.error("Error while storing the consent of user " + rpDO.getUserName() + " on application " +
+                        rpDO.getRpUrl(), e);
+                clearCachedConsent(rpDO);
+            } catch (RuntimeException e) {
+                log.error("Error while storing the consent of user " + rpDO.getUserName() + " on application " +
+                        rpDO.getRpUrl(), e);
+                clearCachedConsent(rpDO);
+            } finally {
+                // keep consent given again while this one was being written
+                pendingWrites.remove(entry.getKey(), rpDO);
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Wrote " + entries.size() + " pending user consents");
+        }
+    }
+
+    private void clearCachedConsent(OpenIDUserRPDO rpDO) {
+        try {
+            OpenIDUserRPCache.getCacheInstance().clearUserRP(rpDO.getUserName(), rpDO.getRpUrl());
+        } catch (IdentityException e) {
+            log.error("Error while clearing the cached consent of user " + rpDO.getUserName() +
+                    " on application " + rpDO.getRpUrl(), e);
+        }
+    }
+
+    private static String getPendingWriteKey(String username, String appName) {
+        return username + '\u0000' + appName;
     }
 }
@@ -20,44 +20,30 @@ package org.wso2.carbon.identity.oauth;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.xml.security.utils.Base64;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.identity.base.IdentityException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.oauth.cache.CacheKey;
 import org.wso2.carbon.identity.oauth.cache.OAuthCache;
 import org.wso2.carbon.identity.oauth.cache.OAuthCacheKey;
 import org.wso2.carbon.identity.oauth.config.OAuthServerConfiguration;
-import org.wso2.carbon.registry.core.utils.UUIDGenerator;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
-import javax.crypto.Mac;
-import javax.crypto.spec.SecretKeySpec;
 
 public final class OAuthUtil {
 
     public static final Log log = LogFactory.getLog(OAuthUtil.class);
 
     /**
-     * Generates a random number using two UUIDs and HMAC-SHA1
+     * Generates a secure random number of 160 bits
      *
      * @return generated secure random number
      * @throws IdentityOAuthAdminException Invalid Algorithm or Invalid Key
      */
     public static String getRandomNumber() throws IdentityOAuthAdminException {
         try {
-            String secretKey = UUIDGenerator.generateUUID();
-            String baseString = UUIDGenerator.generateUUID();
-
-            SecretKeySpec key = new SecretKeySpec(secretKey.getBytes(), "HmacSHA1");
-            Mac mac = Mac.getInstance("HmacSHA1");
-            mac.init(key);
-            byte[] rawHmac = mac.doFinal(baseString.getBytes());
-            String random = Base64.encode(rawHmac);
-            // Registry doesn't have support for these character.
-            random = random.replace("/", "_");
-            random = random.replace("=", "a");
-            random = random.replace("+", "f");
-            return random;
-        } catch (Exception e) {
+            return IdentityUtil.getRandomNumber();
+        } catch (IdentityException e) {
             log.error("Error when generating a random number.", e);
             throw new IdentityOAuthAdminException("Error when generating a random number.", e);
         }
@@ -26,6 +26,7 @@ import org.wso2.carbon.identity.application.mgt.ApplicationManagementService;
 import org.wso2.carbon.identity.oauth.config.OAuthServerConfiguration;
 import org.wso2.carbon.identity.oauth2.OAuth2Service;
 import org.wso2.carbon.identity.oauth2.OAuth2TokenValidationService;
+import org.wso2.carbon.identity.oauth2.token.AccessTokenIssuer;
 
 /**
  * @scr.component name="identity.oauth2.component" immediate="true"
@@ -54,6 +55,13 @@ public class OAuth2ServiceComponent {
         }
     }
 
+    protected void deactivate(ComponentContext context) {
+        AccessTokenIssuer.shutdown();
+        if (log.isDebugEnabled()) {
+            log.debug("Identity OAuth bundle is deactivated");
+        }
+    }
+
     /**
      * Set Application management service implementation
      *
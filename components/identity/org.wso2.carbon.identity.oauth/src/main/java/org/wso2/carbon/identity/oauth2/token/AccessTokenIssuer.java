@@ -25,6 +25,7 @@ import org.apache.commons.logging.LogFactory;
 import org.apache.oltu.openidconnect.as.util.OIDCAuthzServerUtil;
 import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.core.model.OAuthAppDO;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.oauth.cache.AppInfoCache;
 import org.wso2.carbon.identity.oauth.cache.AuthorizationGrantCache;
 import org.wso2.carbon.identity.oauth.cache.AuthorizationGrantCacheKey;
@@ -44,19 +45,49 @@ import org.wso2.carbon.identity.openidconnect.IDTokenBuilder;
 import org.wso2.carbon.utils.CarbonUtils;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Map;
-
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Issues access tokens. The stages of issuing run one after another and the request is rejected at
+ * the first stage which fails. The application data is loaded from the database while the client
+ * is being authenticated, on a small thread pool sized by OAuth.TokenIssuer.LookupThreadPoolSize in
+ * identity.xml. The latencies of the stages are recorded per grant type and logged every
+ * OAuth.TokenIssuer.StatsLogInterval seconds.
+ */
 public class AccessTokenIssuer {
 
-    private static AccessTokenIssuer instance;
+    private static final String LOOKUP_THREAD_POOL_SIZE = "OAuth.TokenIssuer.LookupThreadPoolSize";
+    private static final int DEFAULT_LOOKUP_THREAD_POOL_SIZE = 10;
+    private static final String STATS_LOG_INTERVAL = "OAuth.TokenIssuer.StatsLogInterval";
+    // in seconds
+    private static final long DEFAULT_STATS_LOG_INTERVAL = 300;
+    private static volatile AccessTokenIssuer instance;
     private static Log log = LogFactory.getLog(AccessTokenIssuer.class);
     private Map<String, AuthorizationGrantHandler> authzGrantHandlers =
             new Hashtable<String, AuthorizationGrantHandler>();
     private List<ClientAuthenticationHandler> clientAuthenticationHandlers =
             new ArrayList<ClientAuthenticationHandler>();
     private AppInfoCache appInfoCache;
+    private ThreadPoolExecutor lookupExecutor;
+    private Map<String, TokenIssuanceStats> issuanceStats;
+    private ScheduledExecutorService statsLogger;
+    // requests of each grant type when the stats were last logged, only used by the stats logger
+    private Map<String, Long> loggedRequestCounts = new HashMap<String, Long>();
 
     private AccessTokenIssuer() throws IdentityOAuth2Exception {
 
@@ -71,25 +102,100 @@ public class AccessTokenIssuer {
             log.error("Error while creating AppInfoCache");
         }
 
+        Map<String, TokenIssuanceStats> stats = new HashMap<String, TokenIssuanceStats>();
+        for (String grantType : authzGrantHandlers.keySet()) {
+            stats.put(grantType, new TokenIssuanceStats(grantType));
+        }
+        issuanceStats = Collections.unmodifiableMap(stats);
+
+        int lookupThreadPoolSize = getLookupThreadPoolSize();
+        if (lookupThreadPoolSize > 0) {
+            lookupExecutor = new ThreadPoolExecutor(lookupThreadPoolSize, lookupThreadPoolSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(lookupThreadPoolSize * 10),
+                    new IssuerThreadFactory("AccessTokenIssuerLookup-"), new LookupRejectionHandler());
+            lookupExecutor.allowCoreThreadTimeOut(true);
+        }
+
+        long statsLogInterval = IdentityUtil.getLongProperty(STATS_LOG_INTERVAL, DEFAULT_STATS_LOG_INTERVAL);
+        if (statsLogInterval > 0) {
+            statsLogger = Executors.newSingleThreadScheduledExecutor(
+                    new IssuerThreadFactory("AccessTokenIssuerStatsLogger-"));
+            statsLogger.scheduleWithFixedDelay(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        logIssuanceStats();
+                    } catch (RuntimeException e) {
+                        log.error("Error while logging the token issuance stats", e);
+                    }
+                }
+            }, statsLogInterval, statsLogInterval, TimeUnit.SECONDS);
+        }
     }
 
     public static AccessTokenIssuer getInstance() throws IdentityOAuth2Exception {
 
         CarbonUtils.checkSecurity();
 
-        if (instance == null) {
+        AccessTokenIssuer issuer = instance;
+        if (issuer == null) {
             synchronized (AccessTokenIssuer.class) {
-                if (instance == null) {
-                    instance = new AccessTokenIssuer();
+                issuer = instance;
+                if (issuer == null) {
+                    issuer = new AccessTokenIssuer();
+                    instance = issuer;
                 }
             }
         }
-        return instance;
+        return issuer;
+    }
+
+    /**
+     * Stops the lookup thread pool and the stats logger. Requests still holding the issuer load the
+     * application data on the request thread. Called when the OAuth bundle is deactivated.
+     */
+    public static synchronized void shutdown() {
+        AccessTokenIssuer issuer = instance;
+        if (issuer == null) {
+            return;
+        }
+        instance = null;
+        if (issuer.lookupExecutor != null) {
+            issuer.lookupExecutor.shutdown();
+        }
+        if (issuer.statsLogger != null) {
+            issuer.statsLogger.shutdownNow();
+        }
     }
 
     public OAuth2AccessTokenRespDTO issue(OAuth2AccessTokenReqDTO tokenReqDTO)
             throws IdentityException, InvalidOAuthClientException {
 
+        String grantType = tokenReqDTO.getGrantType();
+        TokenIssuanceStats stats = grantType != null ? issuanceStats.get(grantType) : null;
+        long requestStart = System.nanoTime();
+        boolean issued = false;
+        try {
+            OAuth2AccessTokenRespDTO tokenRespDTO = issue(tokenReqDTO, stats);
+            issued = !tokenRespDTO.isError();
+            return tokenRespDTO;
+        } finally {
+            if (stats != null) {
+                stats.recordRequest(issued, System.nanoTime() - requestStart);
+            }
+        }
+    }
+
+    /**
+     * @return latencies of the token requests keyed by grant type
+     */
+    public Map<String, TokenIssuanceStats> getIssuanceStats() {
+        return issuanceStats;
+    }
+
+    private OAuth2AccessTokenRespDTO issue(OAuth2AccessTokenReqDTO tokenReqDTO, TokenIssuanceStats stats)
+            throws IdentityException, InvalidOAuthClientException {
+
         String grantType = tokenReqDTO.getGrantType();
         OAuth2AccessTokenRespDTO tokenRespDTO;
 
@@ -121,6 +227,14 @@ public class AccessTokenIssuer {
             return tokenRespDTO;
         }
 
+        // the application data does not depend on the client authentication, load it meanwhile
+        OAuthAppDO oAuthAppDO = appInfoCache.getValueFromCache(tokenReqDTO.getClientId());
+        Future<OAuthAppDO> appLookup = null;
+        if (oAuthAppDO == null) {
+            appLookup = lookupAppInformation(tokenReqDTO.getClientId());
+        }
+
+        long stageStart = System.nanoTime();
         ClientAuthenticationHandler clientAuthHandler = null;
         if (authenticatorHandlerIndex > -1) {
             clientAuthHandler = clientAuthenticationHandlers.get(authenticatorHandlerIndex);
@@ -131,19 +245,15 @@ public class AccessTokenIssuer {
         } else {
             isAuthenticated = true;
         }
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.CLIENT_AUTHENTICATION, stageStart);
 
         // loading the stored application data
-        OAuthAppDO oAuthAppDO = getAppInformation(tokenReqDTO);
+        if (oAuthAppDO == null) {
+            oAuthAppDO = getAppInformation(tokenReqDTO.getClientId(), appLookup);
+        }
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.APPLICATION_LOOKUP, stageStart);
         String applicationName = oAuthAppDO.getApplicationName();
         String userName = tokReqMsgCtx.getAuthorizedUser();
-        if (!authzGrantHandler.isOfTypeApplicationUser()) {
-            tokReqMsgCtx.setAuthorizedUser(oAuthAppDO.getUserName());
-            tokReqMsgCtx.setTenantID(oAuthAppDO.getTenantId());
-        }
-
-        boolean isValidGrant = authzGrantHandler.validateGrant(tokReqMsgCtx);
-        boolean isAuthorized = authzGrantHandler.authorizeAccessDelegation(tokReqMsgCtx);
-        boolean isValidScope = authzGrantHandler.validateScope(tokReqMsgCtx);
 
         //boolean isAuthenticated = true;
         if (!isAuthenticated) {
@@ -155,6 +265,13 @@ public class AccessTokenIssuer {
             return tokenRespDTO;
         }
 
+        if (!authzGrantHandler.isOfTypeApplicationUser()) {
+            tokReqMsgCtx.setAuthorizedUser(oAuthAppDO.getUserName());
+            tokReqMsgCtx.setTenantID(oAuthAppDO.getTenantId());
+        }
+
+        boolean isValidGrant = authzGrantHandler.validateGrant(tokReqMsgCtx);
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.GRANT_VALIDATION, stageStart);
         //boolean isValidGrant = true;
         if (!isValidGrant) {
             //Do not change this log format as these logs use by external applications
@@ -165,6 +282,8 @@ public class AccessTokenIssuer {
             return tokenRespDTO;
         }
 
+        boolean isAuthorized = authzGrantHandler.authorizeAccessDelegation(tokReqMsgCtx);
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.AUTHORIZATION, stageStart);
         //boolean isAuthorized = true;
         if (!isAuthorized) {
             //Do not change this log format as these logs use by external applications
@@ -175,6 +294,8 @@ public class AccessTokenIssuer {
             return tokenRespDTO;
         }
 
+        boolean isValidScope = authzGrantHandler.validateScope(tokReqMsgCtx);
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.SCOPE_VALIDATION, stageStart);
         //boolean isValidScope = true;
         if (!isValidScope) {
             //Do not change this log format as these logs use by external applications
@@ -185,6 +306,7 @@ public class AccessTokenIssuer {
         }
 
         tokenRespDTO = authzGrantHandler.issue(tokReqMsgCtx);
+        stageStart = recordStage(stats, TokenIssuanceStats.Stage.TOKEN_ISSUE, stageStart);
         tokenRespDTO.setCallbackURI(oAuthAppDO.getCallbackUrl());
 
         String[] scopes = tokReqMsgCtx.getScope();
@@ -208,8 +330,10 @@ public class AccessTokenIssuer {
         }
 
         if (tokReqMsgCtx.getScope() != null && OIDCAuthzServerUtil.isOIDCAuthzRequest(tokReqMsgCtx.getScope())) {
+            stageStart = System.nanoTime();
             IDTokenBuilder builder = OAuthServerConfiguration.getInstance().getOpenIDConnectIDTokenBuilder();
             tokenRespDTO.setIDToken(builder.buildIDToken(tokReqMsgCtx, tokenRespDTO));
+            recordStage(stats, TokenIssuanceStats.Stage.ID_TOKEN, stageStart);
         }
 
         if (tokenReqDTO.getGrantType().equals(GrantType.AUTHORIZATION_CODE.toString())) {
@@ -219,6 +343,19 @@ public class AccessTokenIssuer {
         return tokenRespDTO;
     }
 
+    /**
+     * Records the latency of a stage
+     *
+     * @return time the stage ended at, which is the start of the next stage
+     */
+    private long recordStage(TokenIssuanceStats stats, TokenIssuanceStats.Stage stage, long stageStart) {
+        long now = System.nanoTime();
+        if (stats != null) {
+            stats.recordStage(stage, now - stageStart);
+        }
+        return now;
+    }
+
     private void addUserAttributesToCache(OAuth2AccessTokenReqDTO tokenReqDTO, OAuth2AccessTokenRespDTO tokenRespDTO) {
         AuthorizationGrantCacheKey oldCacheKey = new AuthorizationGrantCacheKey(tokenReqDTO.getAuthorizationCode());
         //checking getUserAttributesId vale of cacheKey before retrieve entry from cache as it causes to NPE
@@ -231,15 +368,48 @@ public class AccessTokenIssuer {
         }
     }
 
-    private OAuthAppDO getAppInformation(OAuth2AccessTokenReqDTO tokenReqDTO) throws IdentityOAuth2Exception, InvalidOAuthClientException {
-        OAuthAppDO oAuthAppDO = appInfoCache.getValueFromCache(tokenReqDTO.getClientId());
-        if (oAuthAppDO != null) {
-            return oAuthAppDO;
+    /**
+     * Starts loading the application data from the database on the lookup thread pool
+     *
+     * @return the pending application data, or null if the thread pool is disabled
+     */
+    private Future<OAuthAppDO> lookupAppInformation(final String clientId) {
+        if (lookupExecutor == null) {
+            return null;
+        }
+        return lookupExecutor.submit(new Callable<OAuthAppDO>() {
+            @Override
+            public OAuthAppDO call() throws Exception {
+                return new OAuthAppDAO().getAppInformation(clientId);
+            }
+        });
+    }
+
+    private OAuthAppDO getAppInformation(String clientId, Future<OAuthAppDO> appLookup)
+            throws IdentityOAuth2Exception, InvalidOAuthClientException {
+        OAuthAppDO oAuthAppDO;
+        if (appLookup == null) {
+            oAuthAppDO = new OAuthAppDAO().getAppInformation(clientId);
         } else {
-            oAuthAppDO = new OAuthAppDAO().getAppInformation(tokenReqDTO.getClientId());
-            appInfoCache.addToCache(tokenReqDTO.getClientId(), oAuthAppDO);
-            return oAuthAppDO;
+            try {
+                oAuthAppDO = appLookup.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IdentityOAuth2Exception("Interrupted while loading the application of client " + clientId, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof InvalidOAuthClientException) {
+                    throw (InvalidOAuthClientException) cause;
+                } else if (cause instanceof IdentityOAuth2Exception) {
+                    throw (IdentityOAuth2Exception) cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IdentityOAuth2Exception("Error while loading the application of client " + clientId, cause);
+            }
         }
+        appInfoCache.addToCache(clientId, oAuthAppDO);
+        return oAuthAppDO;
     }
 
     private OAuth2AccessTokenRespDTO handleError(String errorCode,
@@ -257,4 +427,63 @@ public class AccessTokenIssuer {
         tokenRespDTO.setErrorMsg(errorMsg);
         return tokenRespDTO;
     }
+
+    /**
+     * Logs the stats of the grant types which had requests since the stats were last logged
+     */
+    private void logIssuanceStats() {
+        if (!log.isInfoEnabled()) {
+            return;
+        }
+        for (TokenIssuanceStats stats : issuanceStats.values()) {
+            long requestCount = stats.getIssuedCount() + stats.getRejectedCount();
+            Long loggedCount = loggedRequestCounts.put(stats.getGrantType(), requestCount);
+            if (requestCount > 0 && (loggedCount == null || loggedCount != requestCount)) {
+                log.info("Token issuance stats: " + stats);
+            }
+        }
+    }
+
+    private static int getLookupThreadPoolSize() {
+        String value = IdentityUtil.getProperty(LOOKUP_THREAD_POOL_SIZE);
+        if (value != null && value.trim().length() > 0) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value " + value + " for " + LOOKUP_THREAD_POOL_SIZE + ". Using the default value " +
+                        DEFAULT_LOOKUP_THREAD_POOL_SIZE);
+            }
+        }
+        return DEFAULT_LOOKUP_THREAD_POOL_SIZE;
+    }
+
+    private static class IssuerThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        IssuerThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs a lookup on the request thread when the queue is full or the pool is shut down, so that
+     * the request never waits for a lookup which is not going to run
+     */
+    private static class LookupRejectionHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            runnable.run();
+        }
+    }
 }
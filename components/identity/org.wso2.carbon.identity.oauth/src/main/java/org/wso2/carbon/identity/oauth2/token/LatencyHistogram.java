@@ -0,0 +1,130 @@
+/*
+*Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*WSO2 Inc. licenses this file to you under the Apache License,
+*Version 2.0 (the "License"); you may not use this file except
+*in compliance with the License.
+*You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+*Unless required by applicable law or agreed to in writing,
+*software distributed under the License is distributed on an
+*"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+*KIND, either express or implied.  See the License for the
+*specific language governing permissions and limitations
+*under the License.
+*/
+
+package org.wso2.carbon.identity.oauth2.token;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock free histogram of latencies, with fixed buckets from one milli second to ten seconds.
+ */
+public class LatencyHistogram {
+
+    /**
+     * Upper bounds of the buckets in milli seconds. Latencies above the last bound go to an
+     * overflow bucket.
+     */
+    private static final long[] BUCKET_BOUNDS = {1, 2, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    private final AtomicLongArray bucketCounts = new AtomicLongArray(BUCKET_BOUNDS.length + 1);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong totalNanos = new AtomicLong();
+
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * @param nanos latency in nano seconds
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+        int bucket = 0;
+        while (bucket < BUCKET_BOUNDS.length && millis > BUCKET_BOUNDS[bucket]) {
+            bucket++;
+        }
+        bucketCounts.incrementAndGet(bucket);
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long currentMax = maxNanos.get();
+        while (nanos > currentMax && !maxNanos.compareAndSet(currentMax, nanos)) {
+            currentMax = maxNanos.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return average latency in milli seconds
+     */
+    public double getAverage() {
+        long recorded = count.get();
+        return recorded == 0 ? 0 : totalNanos.get() / 1000000d / recorded;
+    }
+
+    /**
+     * @return maximum latency in milli seconds
+     */
+    public double getMax() {
+        return maxNanos.get() / 1000000d;
+    }
+
+    /**
+     * @param percentile percentile between 0 and 100
+     * @return upper bound in milli seconds of the bucket the percentile falls in. -1 if the
+     * percentile is above the last bucket
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = getBucketCounts();
+        long total = 0;
+        for (long bucketCount : counts) {
+            total += bucketCount;
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKET_BOUNDS.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return BUCKET_BOUNDS[i];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * @return upper bounds of the buckets in milli seconds, the overflow bucket excluded
+     */
+    public static long[] getBucketBounds() {
+        return BUCKET_BOUNDS.clone();
+    }
+
+    /**
+     * @return number of latencies in each bucket, followed by the overflow bucket
+     */
+    public long[] getBucketCounts() {
+        long[] counts = new long[bucketCounts.length()];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = bucketCounts.get(i);
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return "[count=" + getCount() + ", avg=" + String.format("%.2f", getAverage()) + "ms, p50<=" +
+                getPercentile(50) + "ms, p99<=" + getPercentile(99) + "ms, max=" + String.format("%.2f", getMax()) +
+                "ms]";
+    }
+}
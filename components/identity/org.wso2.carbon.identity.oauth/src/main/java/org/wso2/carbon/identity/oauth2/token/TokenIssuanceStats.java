@@ -0,0 +1,123 @@
+/*
+*Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*WSO2 Inc. licenses this file to you under the Apache License,
+*Version 2.0 (the "License"); you may not use this file except
+*in compliance with the License.
+*You may obtain a copy of the License at
+*
+*http://www.apache.org/licenses/LICENSE-2.0
+*
+*Unless required by applicable law or agreed to in writing,
+*software distributed under the License is distributed on an
+*"AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+*KIND, either express or implied.  See the License for the
+*specific language governing permissions and limitations
+*under the License.
+*/
+
+package org.wso2.carbon.identity.oauth2.token;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies of the token requests of a single grant type, in total and per stage of issuing.
+ */
+public class TokenIssuanceStats {
+
+    /**
+     * Stages of issuing an access token, in the order they run
+     */
+    public enum Stage {
+        CLIENT_AUTHENTICATION,
+        /**
+         * Time spent waiting for the application data after the client was authenticated
+         */
+        APPLICATION_LOOKUP,
+        GRANT_VALIDATION,
+        AUTHORIZATION,
+        SCOPE_VALIDATION,
+        TOKEN_ISSUE,
+        ID_TOKEN
+    }
+
+    private final String grantType;
+
+    private final LatencyHistogram totalLatency = new LatencyHistogram();
+
+    private final Map<Stage, LatencyHistogram> stageLatencies;
+
+    private final AtomicLong issuedCount = new AtomicLong();
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    TokenIssuanceStats(String grantType) {
+        this.grantType = grantType;
+        Map<Stage, LatencyHistogram> latencies = new EnumMap<Stage, LatencyHistogram>(Stage.class);
+        for (Stage stage : Stage.values()) {
+            latencies.put(stage, new LatencyHistogram());
+        }
+        this.stageLatencies = Collections.unmodifiableMap(latencies);
+    }
+
+    void recordStage(Stage stage, long nanos) {
+        stageLatencies.get(stage).record(nanos);
+    }
+
+    void recordRequest(boolean issued, long nanos) {
+        if (issued) {
+            issuedCount.incrementAndGet();
+        } else {
+            rejectedCount.incrementAndGet();
+        }
+        totalLatency.record(nanos);
+    }
+
+    public String getGrantType() {
+        return grantType;
+    }
+
+    /**
+     * @return number of requests an access token was issued for
+     */
+    public long getIssuedCount() {
+        return issuedCount.get();
+    }
+
+    /**
+     * @return number of requests which were rejected or failed with an exception
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * @return latency of whole requests, rejected ones included
+     */
+    public LatencyHistogram getTotalLatency() {
+        return totalLatency;
+    }
+
+    /**
+     * @return latencies of the stages. A stage is not recorded for requests rejected before it
+     */
+    public Map<Stage, LatencyHistogram> getStageLatencies() {
+        return stageLatencies;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(grantType);
+        builder.append(" [issued=").append(getIssuedCount()).append(", rejected=").append(getRejectedCount())
+                .append(", total=").append(totalLatency);
+        for (Map.Entry<Stage, LatencyHistogram> entry : stageLatencies.entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                builder.append(", ").append(entry.getKey()).append('=').append(entry.getValue());
+            }
+        }
+        return builder.append(']').toString();
+    }
+}
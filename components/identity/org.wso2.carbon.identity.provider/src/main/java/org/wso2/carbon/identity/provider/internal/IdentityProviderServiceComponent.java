@@ -25,6 +25,7 @@ import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.provider.IdentityAttributeService;
 import org.wso2.carbon.identity.provider.IdentityAttributeServiceStore;
 import org.wso2.carbon.identity.provider.IdentityProviderUtil;
+import org.wso2.carbon.identity.provider.openid.OpenIDAssociationPersister;
 import org.wso2.carbon.identity.provider.openid.listener.IdentityOpenIDUserEventListener;
 import org.wso2.carbon.registry.core.service.RegistryService;
 import org.wso2.carbon.user.core.UserRealm;
@@ -134,6 +135,7 @@ public class IdentityProviderServiceComponent {
         if (userEventServiceRegistration != null) {
             userEventServiceRegistration.unregister();
         }
+        OpenIDAssociationPersister.shutdownAll();
         if (log.isDebugEnabled()) {
             log.info("Identity Provider bundle is deactivated");
         }
@@ -0,0 +1,227 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.provider.openid;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openid4java.association.Association;
+import org.wso2.carbon.identity.base.IdentityConstants;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.provider.openid.dao.OpenIDAssociationDAO;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes associations to, and removes them from, the identity database in the background.
+ * <p/>
+ * Operations are queued in a bounded queue and written in batches by a single daemon thread, so
+ * neither a slow database nor a burst of associations holds up the OpenID requests. When the queue
+ * is full the operation is done by the calling thread instead of being dropped. Expired associations
+ * are removed from the database periodically by the same thread.
+ * <p/>
+ * {@link #shutdownAll()} stops the workers and writes the queued operations. Operations queued after
+ * that are written by the calling thread.
+ */
+public class OpenIDAssociationPersister {
+
+    private static final Log log = LogFactory.getLog(OpenIDAssociationPersister.class);
+
+    private static final int DEFAULT_QUEUE_SIZE = 10000;
+
+    private static final int MAX_BATCH_SIZE = 100;
+
+    private static final long EXPIRED_CLEANUP_INTERVAL = 10 * 60 * 1000L;
+
+    private static final long SHUTDOWN_TIMEOUT = 10 * 1000L;
+
+    private static final List<OpenIDAssociationPersister> persisters =
+            new CopyOnWriteArrayList<OpenIDAssociationPersister>();
+
+    private final OpenIDAssociationDAO dao;
+
+    private final BlockingQueue<Operation> queue;
+
+    private final Thread worker;
+
+    private volatile boolean shutdown;
+
+    /**
+     * @param dao       DAO of the association store
+     * @param storeType association store type, used to name the worker thread
+     */
+    public OpenIDAssociationPersister(OpenIDAssociationDAO dao, String storeType) {
+        this.dao = dao;
+        this.queue = new LinkedBlockingQueue<Operation>(readQueueSize());
+        this.worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processQueue();
+            }
+        }, "OpenIDAssociationPersister-" + storeType);
+        worker.setDaemon(true);
+        worker.start();
+        persisters.add(this);
+    }
+
+    /**
+     * Stops the workers of all the persisters, writing the operations they have queued.
+     */
+    public static void shutdownAll() {
+        for (OpenIDAssociationPersister persister : persisters) {
+            persister.shutdown();
+        }
+        persisters.clear();
+    }
+
+    /**
+     * Queues the association to be stored in the database.
+     *
+     * @param association association to store
+     */
+    public void store(Association association) {
+        if (!queue.offer(new Operation(association, association.getHandle()))) {
+            log.warn("Association persistence queue is full. Storing association " + association.getHandle() +
+                    " in the calling thread.");
+            dao.storeAssociation(association);
+        } else if (shutdown) {
+            persist(null);
+        }
+    }
+
+    /**
+     * Queues the association with the given handle to be removed from the database.
+     *
+     * @param handle handle of the association to remove
+     */
+    public void remove(String handle) {
+        if (!queue.offer(new Operation(null, handle))) {
+            log.warn("Association persistence queue is full. Removing association " + handle +
+                    " in the calling thread.");
+            dao.removeAssociation(handle);
+        } else if (shutdown) {
+            persist(null);
+        }
+    }
+
+    /**
+     * Stops the worker and writes the operations still in the queue. Waits up to
+     * {@value #SHUTDOWN_TIMEOUT} ms for the worker to finish the batch it is writing.
+     */
+    public void shutdown() {
+        shutdown = true;
+        try {
+            worker.join(SHUTDOWN_TIMEOUT);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        persist(null);
+    }
+
+    private void processQueue() {
+        long lastCleanup = System.currentTimeMillis();
+        while (!shutdown) {
+            try {
+                Operation operation = queue.poll(1, TimeUnit.SECONDS);
+                if (operation != null) {
+                    persist(operation);
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastCleanup > EXPIRED_CLEANUP_INTERVAL) {
+                    lastCleanup = now;
+                    dao.removeExpiredAssociations(now);
+                }
+            } catch (InterruptedException e) {
+                log.warn("Association persistence thread interrupted. Stopping.");
+                break;
+            } catch (RuntimeException e) {
+                log.error("Error while removing expired associations", e);
+            }
+        }
+        persist(null);
+    }
+
+    /**
+     * Writes the given operation, if any, and everything in the queue in batches.
+     */
+    private synchronized void persist(Operation first) {
+        List<Operation> batch = new ArrayList<Operation>(MAX_BATCH_SIZE);
+        if (first != null) {
+            batch.add(first);
+        }
+        queue.drainTo(batch, MAX_BATCH_SIZE - batch.size());
+        while (!batch.isEmpty()) {
+            try {
+                write(batch);
+            } catch (RuntimeException e) {
+                log.error("Error while persisting " + batch.size() + " associations", e);
+            }
+            batch.clear();
+            queue.drainTo(batch, MAX_BATCH_SIZE);
+        }
+    }
+
+    private void write(List<Operation> batch) {
+        // stores are written before removes, a handle is never removed before it is stored
+        List<Association> stores = new ArrayList<Association>();
+        List<String> removes = new ArrayList<String>();
+        for (Operation operation : batch) {
+            if (operation.association != null) {
+                stores.add(operation.association);
+            } else {
+                removes.add(operation.handle);
+            }
+        }
+        dao.storeAssociations(stores);
+        dao.removeAssociations(removes);
+    }
+
+    private static int readQueueSize() {
+        String queueSize = IdentityUtil.getProperty(IdentityConstants.ServerConfig.OPENID_ASSOCIATION_PERSISTENCE_QUEUE_SIZE);
+        if (queueSize != null && queueSize.trim().length() > 0) {
+            try {
+                int size = Integer.parseInt(queueSize.trim());
+                if (size > 0) {
+                    return size;
+                }
+            } catch (NumberFormatException e) {
+                log.error("Invalid value for " + IdentityConstants.ServerConfig.OPENID_ASSOCIATION_PERSISTENCE_QUEUE_SIZE +
+                        " : " + queueSize + ". Using the default " + DEFAULT_QUEUE_SIZE);
+            }
+        }
+        return DEFAULT_QUEUE_SIZE;
+    }
+
+    private static class Operation {
+
+        private final Association association;
+
+        private final String handle;
+
+        private Operation(Association association, String handle) {
+            this.association = association;
+            this.handle = handle;
+        }
+    }
+}
@@ -26,6 +26,7 @@ import org.wso2.carbon.identity.provider.openid.dao.OpenIDAssociationDAO;
 
 import java.util.Date;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This is the custom AssociationStore. Uses super's methods to generate
@@ -33,6 +34,9 @@ import java.util.Random;
  * database. In the case of loading an association it will first look in the
  * super and if fails, it will look in the database. The database may be shared
  * in a clustered environment.
+ * <p/>
+ * The store does not lock. Associations are written to and removed from the
+ * database in batches by a background {@link OpenIDAssociationPersister}.
  *
  * @author WSO2 Inc.
  */
@@ -43,22 +47,23 @@ public class OpenIDServerAssociationStore extends
             .getLog(OpenIDServerAssociationStore.class);
     private int storeId = 0;
     private String timestamp;
-    private int counter;
+    private AtomicInteger counter;
     private OpenIDAssociationCache cache;
     private OpenIDAssociationDAO dao;
+    private OpenIDAssociationPersister persister;
 
     /**
      * Here we instantiate a DAO to access the identity database.
      *
-     * @param dbConnection
-     * @param privateAssociations if this association store stores private associations
+     * @param associationsType if this association store stores private or shared associations
      */
     public OpenIDServerAssociationStore(String associationsType) {
         storeId = new Random().nextInt(9999);
         timestamp = Long.toString(new Date().getTime());
-        counter = 0;
+        counter = new AtomicInteger();
         cache = OpenIDAssociationCache.getCacheInstance();
         dao = new OpenIDAssociationDAO(associationsType);
+        persister = new OpenIDAssociationPersister(dao, associationsType);
     }
 
     /**
@@ -68,20 +73,16 @@ public class OpenIDServerAssociationStore extends
      * @param expiryIn date
      * @return <code>Association</code>
      */
-    public synchronized Association generate(String type, int expiryIn)
+    public Association generate(String type, int expiryIn)
             throws AssociationException {
-        String handle = storeId + timestamp + "-" + counter++;
-        final Association association = Association.generate(type, handle, expiryIn);
+        String handle = storeId + timestamp + "-" + counter.getAndIncrement();
+        Association association = Association.generate(type, handle, expiryIn);
         cache.addToCache(association);
         // Asynchronous write to database
-        Thread thread = new Thread() {
-            public void run() {
-                log.debug("Stroing association " + association.getHandle()
-                        + " in the database.");
-                dao.storeAssociation(association);
-            }
-        };
-        thread.start();
+        if (log.isDebugEnabled()) {
+            log.debug("Queueing association " + association.getHandle() + " to be stored in the database.");
+        }
+        persister.store(association);
         return association;
     }
 
@@ -91,7 +92,7 @@ public class OpenIDServerAssociationStore extends
      * @param handle
      * @return <code>Association<code>
      */
-    public synchronized Association load(String handle) {
+    public Association load(String handle) {
 
         boolean chacheMiss = false;
 
@@ -115,7 +116,11 @@ public class OpenIDServerAssociationStore extends
         // if the association is expired
         if (association.hasExpired()) {
             log.warn("Association is expired for handle " + handle);
-            remove(handle); // remove only from db
+            if (!chacheMiss) {
+                // expired entries are evicted, the database entry is removed below
+                cache.removeCacheEntry(handle);
+            }
+            remove(handle);
             return null;
 
         } else if (chacheMiss) {
@@ -127,22 +132,19 @@ public class OpenIDServerAssociationStore extends
     }
 
     /**
-     * Removes the association from the memory and db.
+     * Removes the association from the db.
      */
-    public synchronized void remove(final String handle) {
+    public void remove(String handle) {
 
-        // we are not removing from cache
+        // we are not removing live associations from cache
         // because it will cost a database call
         // for a cache miss. Associations are self validating tokens
         // cache.removeCacheEntry(handle);
 
         // removing from the database
-        Thread thread = new Thread() {
-            public void run() {
-                log.debug("Removing the association" + handle + " from the database");
-                dao.removeAssociation(handle);
-            }
-        };
-        thread.start();
+        if (log.isDebugEnabled()) {
+            log.debug("Queueing association " + handle + " to be removed from the database");
+        }
+        persister.remove(handle);
     }
 }
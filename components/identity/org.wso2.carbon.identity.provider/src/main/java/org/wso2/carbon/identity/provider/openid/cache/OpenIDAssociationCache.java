@@ -105,17 +105,11 @@ public class OpenIDAssociationCache extends OpenIDBaseCache<OpenIDIdentityCacheK
                 if (expiry != null && type != null && secretKey != null) {
                     return new Association(type, handle, (SecretKey) secretKey, expiry);
                     /*
-					 * We are not removing expired handles from the cache. If we
-					 * do, then at a lookup for a expired search, it will fall
-					 * back to a database lookup which costs a lot. JCache
-					 * should remove an entry if an entry was never called.
-					 * 
-					 * if(association.hasExpired()){
-					 * associationCache.removeCacheEntry(handle);
-					 * if(log.isDebugEnabled()){
-					 * log.debug("Expired entry in cache for handle : " +
-					 * handle); } } else { return association; }
-					 */
+                     * Expired entries are returned as they are, so that the
+                     * caller can tell an expired handle from an unknown one.
+                     * The association store evicts them on load and removes
+                     * the database entry as well.
+                     */
                 }
             } else {
                 if (log.isDebugEnabled()) {
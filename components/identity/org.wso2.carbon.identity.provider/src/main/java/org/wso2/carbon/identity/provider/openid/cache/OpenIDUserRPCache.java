@@ -0,0 +1,95 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.provider.openid.cache;
+
+import org.wso2.carbon.identity.base.IdentityException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
+
+/**
+ * Caches whether users always trust relying parties, so that consent checks do not query the
+ * database every time. Entries are cleared by
+ * {@link org.wso2.carbon.identity.provider.openid.dao.OpenIDUserRPDAO} whenever the relying party
+ * of a user is stored, updated or removed, on every node of the cluster.
+ */
+public class OpenIDUserRPCache extends OpenIDBaseCache<OpenIDIdentityCacheKey, OpenIDUserRPCacheEntry> {
+
+    private static final String OPENID_USER_RP_CACHE = "OPENID_USER_RP_CACHE";
+    private static OpenIDUserRPCache userRPCache = null;
+
+    private OpenIDUserRPCache() {
+        super(OPENID_USER_RP_CACHE);
+    }
+
+    /**
+     * Returns the singleton of the <code>OpenIDUserRPCache</code>
+     *
+     * @return
+     */
+    public static synchronized OpenIDUserRPCache getCacheInstance() {
+        if (userRPCache == null) {
+            userRPCache = new OpenIDUserRPCache();
+        }
+        return userRPCache;
+    }
+
+    /**
+     * Returns the cached trust of the user on the relying party
+     *
+     * @param userName
+     * @param rpUrl
+     * @return cached entry, or null if there is no entry or it has expired
+     * @throws IdentityException
+     */
+    public OpenIDUserRPCacheEntry getUserRP(String userName, String rpUrl) throws IdentityException {
+        OpenIDUserRPCacheEntry entry = getValueFromCache(getKey(userName, rpUrl));
+        if (entry != null && !entry.isExpired()) {
+            return entry;
+        }
+        return null;
+    }
+
+    /**
+     * Caches the trust of the user on the relying party
+     *
+     * @param userName
+     * @param rpUrl
+     * @param trustedAlways
+     * @param timeout       milli seconds the entry is used for
+     * @throws IdentityException
+     */
+    public void addUserRP(String userName, String rpUrl, boolean trustedAlways, long timeout)
+            throws IdentityException {
+        addToCache(getKey(userName, rpUrl),
+                new OpenIDUserRPCacheEntry(trustedAlways, System.currentTimeMillis() + timeout));
+    }
+
+    /**
+     * Removes the cached trust of the user on the relying party
+     *
+     * @param userName
+     * @param rpUrl
+     * @throws IdentityException
+     */
+    public void clearUserRP(String userName, String rpUrl) throws IdentityException {
+        clearCacheEntry(getKey(userName, rpUrl));
+    }
+
+    private static OpenIDIdentityCacheKey getKey(String userName, String rpUrl) throws IdentityException {
+        return new OpenIDIdentityCacheKey(IdentityUtil.getTenantIdOFUser(userName), userName + '\u0000' + rpUrl);
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.wso2.carbon.identity.provider.openid.cache;
+
+/**
+ * Cache entry holding whether a user always trusts a relying party
+ */
+public class OpenIDUserRPCacheEntry extends OpenIDCacheEntry {
+
+    private static final long serialVersionUID = -2815482376120934618L;
+    private boolean trustedAlways;
+    private long expiryTime;
+
+    public OpenIDUserRPCacheEntry(boolean trustedAlways, long expiryTime) {
+        this.trustedAlways = trustedAlways;
+        this.expiryTime = expiryTime;
+    }
+
+    public boolean isTrustedAlways() {
+        return trustedAlways;
+    }
+
+    public boolean isExpired() {
+        return System.currentTimeMillis() >= expiryTime;
+    }
+}
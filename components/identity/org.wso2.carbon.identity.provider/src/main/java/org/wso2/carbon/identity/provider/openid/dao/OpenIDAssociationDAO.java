@@ -29,6 +29,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
 
 
 /**
@@ -58,7 +59,7 @@ public class OpenIDAssociationDAO {
      *
      * @param association
      */
-    public synchronized void storeAssociation(Association association) {
+    public void storeAssociation(Association association) {
 
         Connection connection = null;
         PreparedStatement prepStmt = null;
@@ -94,13 +95,67 @@ public class OpenIDAssociationDAO {
         }
     }
 
+    /**
+     * Stores the given associations in the identity database as a single batch. If the batch fails,
+     * for example because one of the entries already exists, the associations are stored one by one.
+     *
+     * @param associations associations to store
+     */
+    public void storeAssociations(List<Association> associations) {
+
+        if (associations.isEmpty()) {
+            return;
+        }
+
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+        boolean stored = false;
+
+        try {
+            connection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = connection.prepareStatement(OpenIDSQLQueries.STORE_ASSOCIATION);
+            for (Association association : associations) {
+                prepStmt.setString(1, association.getHandle());
+                prepStmt.setString(2, association.getType());
+                prepStmt.setTimestamp(3, new java.sql.Timestamp(association.getExpiry().getTime()));
+                prepStmt.setString(4, Base64.encode(association.getMacKey().getEncoded()));
+                prepStmt.setString(5, associationStore);
+                prepStmt.addBatch();
+            }
+            prepStmt.executeBatch();
+            connection.commit();
+            stored = true;
+            if (log.isDebugEnabled()) {
+                log.debug(associations.size() + " associations successfully stored in the database.");
+            }
+
+        } catch (SQLException e) {
+            log.warn("Failed to store a batch of " + associations.size() + " associations. " +
+                    "Storing them one by one.", e);
+            IdentityDatabaseUtil.rollBack(connection);
+        } catch (IdentityException e) {
+            log.error("Failed to store a batch of " + associations.size() + " associations. " +
+                    "Error while accessing the database. ", e);
+            return;
+        } finally {
+            IdentityDatabaseUtil.closeStatement(prepStmt);
+            IdentityDatabaseUtil.closeConnection(connection);
+        }
+
+        if (!stored) {
+            for (Association association : associations) {
+                storeAssociation(association);
+            }
+        }
+    }
+
     /**
      * Loads the association in the identity database.
      *
      * @param handle
      * @return <code>Association</code>
      */
-    public synchronized Association loadAssociation(String handle) {
+    public Association loadAssociation(String handle) {
 
         Connection connection = null;
         PreparedStatement prepStmt = null;
@@ -136,7 +191,7 @@ public class OpenIDAssociationDAO {
      *
      * @param handle
      */
-    public synchronized void removeAssociation(String handle) {
+    public void removeAssociation(String handle) {
 
         Connection connection = null;
         PreparedStatement prepStmt = null;
@@ -167,6 +222,78 @@ public class OpenIDAssociationDAO {
         }
     }
 
+    /**
+     * Removes the associations with the given handles from the database as a single batch. Handles
+     * which do not exist in the database are ignored.
+     *
+     * @param handles handles of the associations to remove
+     */
+    public void removeAssociations(List<String> handles) {
+
+        if (handles.isEmpty()) {
+            return;
+        }
+
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+
+        try {
+            connection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = connection.prepareStatement(OpenIDSQLQueries.REMOVE_ASSOCIATION);
+            for (String handle : handles) {
+                prepStmt.setString(1, handle);
+                prepStmt.addBatch();
+            }
+            prepStmt.executeBatch();
+            connection.commit();
+            if (log.isDebugEnabled()) {
+                log.debug(handles.size() + " associations successfully removed from the database.");
+            }
+
+        } catch (SQLException e) {
+            log.error("Failed to remove a batch of " + handles.size() + " associations. " +
+                    "Error while accessing the database. ", e);
+            IdentityDatabaseUtil.rollBack(connection);
+        } catch (IdentityException e) {
+            log.error("Failed to remove a batch of " + handles.size() + " associations. " +
+                    "Error while accessing the database. ", e);
+        } finally {
+            IdentityDatabaseUtil.closeStatement(prepStmt);
+            IdentityDatabaseUtil.closeConnection(connection);
+        }
+    }
+
+    /**
+     * Removes all the associations of every store type which expired before the given time.
+     *
+     * @param expiredBefore time in milliseconds
+     */
+    public void removeExpiredAssociations(long expiredBefore) {
+
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+
+        try {
+            connection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = connection.prepareStatement(OpenIDSQLQueries.REMOVE_EXPIRED_ASSOCIATIONS);
+            prepStmt.setTimestamp(1, new java.sql.Timestamp(expiredBefore));
+            int removed = prepStmt.executeUpdate();
+            connection.commit();
+            if (log.isDebugEnabled()) {
+                log.debug(removed + " expired associations removed from the database.");
+            }
+
+        } catch (SQLException e) {
+            log.error("Failed to remove the expired associations. Error while accessing the database. ", e);
+            IdentityDatabaseUtil.rollBack(connection);
+        } catch (IdentityException e) {
+            log.error("Failed to remove the expired associations. Error while accessing the database. ", e);
+        } finally {
+            IdentityDatabaseUtil.closeStatement(prepStmt);
+            IdentityDatabaseUtil.closeConnection(connection);
+        }
+    }
+
     /**
      * Check if the entry exist in the database
      *
@@ -174,7 +301,7 @@ public class OpenIDAssociationDAO {
      * @return boolean
      * @throws SQLException
      */
-    private synchronized boolean isAssociationExist(Connection connection, String handle) {
+    private boolean isAssociationExist(Connection connection, String handle) {
 
         PreparedStatement prepStmt = null;
         ResultSet results = null;
@@ -208,7 +335,7 @@ public class OpenIDAssociationDAO {
      * @return <code>Association</code>
      * @throws SQLException
      */
-    private synchronized Association buildAssociationObject(ResultSet results) {
+    private Association buildAssociationObject(ResultSet results) {
 
         Association assoc = null;
         String assocHandle = null;
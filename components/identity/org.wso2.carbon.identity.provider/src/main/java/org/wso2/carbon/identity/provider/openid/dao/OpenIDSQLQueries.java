@@ -40,6 +40,9 @@ public class OpenIDSQLQueries {
     public static final String REMOVE_ASSOCIATION = "DELETE " + "FROM IDN_OPENID_ASSOCIATIONS " +
             "WHERE HANDLE = ?";
 
+    public static final String REMOVE_EXPIRED_ASSOCIATIONS = "DELETE " + "FROM IDN_OPENID_ASSOCIATIONS " +
+            "WHERE EXPIRE_IN < ?";
+
     /**
      * {@link OpenIDRememberMeTokenDAO}
      */
@@ -24,6 +24,7 @@ import org.wso2.carbon.identity.core.model.OpenIDUserRPDO;
 import org.wso2.carbon.identity.core.persistence.JDBCPersistenceManager;
 import org.wso2.carbon.identity.core.util.IdentityDatabaseUtil;
 import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.provider.openid.cache.OpenIDUserRPCache;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
@@ -38,7 +39,8 @@ public class OpenIDUserRPDAO {
 
     /**
      * Creates a Relying Party and associates it with the User.
-     * If the entry exist, then update with the new data
+     * If the entry exist, then update with the new data. The cached trust of the user on the
+     * Relying Party is cleared.
      *
      * @param rpdo
      * @throws IdentityException
@@ -98,6 +100,7 @@ public class OpenIDUserRPDAO {
             IdentityDatabaseUtil.closeStatement(prepStmt);
             IdentityDatabaseUtil.closeConnection(connection);
         }
+        OpenIDUserRPCache.getCacheInstance().clearUserRP(rpdo.getUserName(), rpdo.getRpUrl());
     }
 
     /**
@@ -141,6 +144,7 @@ public class OpenIDUserRPDAO {
             IdentityDatabaseUtil.closeStatement(prepStmt);
             IdentityDatabaseUtil.closeConnection(connection);
         }
+        OpenIDUserRPCache.getCacheInstance().clearUserRP(rpdo.getUserName(), rpdo.getRpUrl());
     }
 
     /**
@@ -173,6 +177,7 @@ public class OpenIDUserRPDAO {
             IdentityDatabaseUtil.closeStatement(prepStmt);
             IdentityDatabaseUtil.closeConnection(connection);
         }
+        OpenIDUserRPCache.getCacheInstance().clearUserRP(opdo.getUserName(), opdo.getRpUrl());
     }
 
     /**
@@ -25,9 +25,9 @@ import org.apache.xml.security.utils.EncryptionConstants;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.wso2.carbon.base.ServerConfiguration;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 
 import javax.crypto.SecretKey;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
 import java.security.KeyStore;
 import java.security.PrivateKey;
@@ -37,9 +37,7 @@ public class TokenDecrypter {
     public static Element decryptToken(String token) throws Exception {
 
         ByteArrayInputStream bais = new ByteArrayInputStream(token.getBytes());
-        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-        dbf.setNamespaceAware(true);
-        Document doc = dbf.newDocumentBuilder().parse(bais);
+        Document doc = IdentityXMLUtil.getSecuredDocumentBuilder().parse(bais);
         Element encryptedTokenElem = doc.getDocumentElement();
 
         // Decrypt element
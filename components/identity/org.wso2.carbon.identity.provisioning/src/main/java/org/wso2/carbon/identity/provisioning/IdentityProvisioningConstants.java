@@ -36,6 +36,18 @@ public class IdentityProvisioningConstants {
     public static final String LOCAL_SP = ApplicationConstants.LOCAL_SP;
     public static final String JIT_PROVISIONING_ENABLED = "jitProvisioningEnabled";
 
+    public static class ServerConfig {
+
+        public static final String THREAD_POOL_SIZE = "OutboundProvisioning.ThreadPoolSize";
+        public static final String QUEUE_SIZE = "OutboundProvisioning.QueueSize";
+        public static final String RETRY_COUNT = "OutboundProvisioning.RetryCount";
+        public static final String RETRY_INTERVAL = "OutboundProvisioning.RetryInterval";
+        public static final String MAX_RETRY_INTERVAL = "OutboundProvisioning.MaxRetryInterval";
+        public static final String RETRY_POLL_INTERVAL = "OutboundProvisioning.RetryPollInterval";
+        public static final String RETRY_BATCH_SIZE = "OutboundProvisioning.RetryBatchSize";
+        public static final String RETRY_CLAIM_TIMEOUT = "OutboundProvisioning.RetryClaimTimeout";
+    }
+
     public static class SQLQueries {
 
         public static final String ADD_PROVISIONING_ENTITY_SQL = "INSERT INTO IDP_PROVISIONING_ENTITY (PROVISIONING_CONFIG_ID, ENTITY_TYPE, "
@@ -48,6 +60,21 @@ public class IdentityProvisioningConstants {
                 + "FROM IDP_PROVISIONING_ENTITY WHERE PROVISIONING_CONFIG_ID=? AND ENTITY_TYPE=? AND "
                 + "ENTITY_LOCAL_USERSTORE=? AND ENTITY_NAME=? AND TENANT_ID=?";
 
+        public static final String ADD_PROVISIONING_RETRY_SQL = "INSERT INTO IDP_PROVISIONING_RETRY (TENANT_ID, "
+                + "TENANT_DOMAIN, IDP_NAME, CONNECTOR_TYPE, ENTITY, RETRY_COUNT, NEXT_RETRY_TIME) VALUES (?, ?, ?, ?, ?, ?, ?)";
+
+        public static final String GET_DUE_PROVISIONING_RETRIES_SQL = "SELECT ID, TENANT_DOMAIN, IDP_NAME, "
+                + "CONNECTOR_TYPE, ENTITY, RETRY_COUNT, NEXT_RETRY_TIME FROM IDP_PROVISIONING_RETRY WHERE "
+                + "NEXT_RETRY_TIME <= ? ORDER BY NEXT_RETRY_TIME";
+
+        public static final String CLAIM_PROVISIONING_RETRY_SQL = "UPDATE IDP_PROVISIONING_RETRY SET "
+                + "NEXT_RETRY_TIME=? WHERE ID=? AND NEXT_RETRY_TIME=?";
+
+        public static final String UPDATE_PROVISIONING_RETRY_SQL = "UPDATE IDP_PROVISIONING_RETRY SET "
+                + "RETRY_COUNT=?, NEXT_RETRY_TIME=? WHERE ID=?";
+
+        public static final String DELETE_PROVISIONING_RETRY_SQL = "DELETE FROM IDP_PROVISIONING_RETRY WHERE ID=?";
+
         public static final String GET_IDP_PROVISIONING_CONFIG_ID_SQL = "SELECT ID FROM IDP_PROVISIONING_CONFIG WHERE IDP_ID=? AND PROVISIONING_CONNECTOR_TYPE=?";
 
         public static final String GET_SP_NAMES_OF_SUPER_TENANT_PROV_CONNECTORS_BY_IDP = "SELECT DISTINCT(APP.APP_NAME) FROM SP_APP APP JOIN " +
@@ -50,9 +50,6 @@ import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 import java.util.AbstractMap.SimpleEntry;
 import java.util.*;
 import java.util.Map.Entry;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  *
@@ -279,8 +276,44 @@ public class OutboundProvisioningManager {
         // name of the default provisioning connector.
         String connectorType = fIdP.getDefaultProvisioningConnectorConfig().getName();
 
+        return getOutboundProvisioningConnector(idpName, connectorType, registeredConnectorFactories,
+                tenantDomainName, enableJitProvisioning);
+    }
+
+    /**
+     * Creates the provisioning connector of a failed provisioning operation which is being retried.
+     *
+     * @param idpName
+     * @param connectorType
+     * @param tenantDomainName
+     * @return
+     * @throws IdentityApplicationManagementException
+     * @throws IdentityProvisioningException
+     */
+    AbstractOutboundProvisioningConnector getOutboundProvisioningConnector(String idpName,
+                                                                           String connectorType,
+                                                                           String tenantDomainName)
+            throws IdentityApplicationManagementException, IdentityProvisioningException {
+
+        IdentityProvider fIdP = IdentityProviderManager.getInstance().getEnabledIdPByName(idpName,
+                tenantDomainName);
+        boolean enableJitProvisioning = fIdP != null && fIdP.getJustInTimeProvisioningConfig() != null
+                && fIdP.getJustInTimeProvisioningConfig().isProvisioningEnabled();
+
+        return getOutboundProvisioningConnector(idpName, connectorType,
+                IdentityProvisionServiceComponent.getConnectorFactories(), tenantDomainName,
+                enableJitProvisioning);
+    }
+
+    private AbstractOutboundProvisioningConnector getOutboundProvisioningConnector(
+            String idpName, String connectorType,
+            Map<String, AbstractProvisioningConnectorFactory> registeredConnectorFactories,
+            String tenantDomainName, boolean enableJitProvisioning)
+            throws IdentityApplicationManagementException, IdentityProvisioningException {
+
         // get identity provider configuration.
-        fIdP = IdentityProviderManager.getInstance().getEnabledIdPByName(idpName, tenantDomainName);
+        IdentityProvider fIdP = IdentityProviderManager.getInstance().getEnabledIdPByName(idpName,
+                tenantDomainName);
 
         if (fIdP == null) {
             // This is an exceptional situation. If service provider has connected to an
@@ -390,12 +423,6 @@ public class OutboundProvisioningManager {
 
             ProvisioningEntity outboundProEntity;
 
-            ExecutorService executors = null;
-
-            if (connectors.size() > 0) {
-                executors = Executors.newFixedThreadPool(connectors.size());
-            }
-
             for (Iterator<Entry<String, RuntimeProvisioningConfig>> iterator = connectors
                     .entrySet().iterator(); iterator.hasNext(); ) {
 
@@ -495,12 +522,12 @@ public class OutboundProvisioningManager {
 
                         outboundProEntity = new ProvisioningEntity(ProvisioningEntityType.USER,
                                 user, ProvisioningOperation.POST, mappedUserClaims);
-                        Callable<Boolean> proThread = new ProvisioningThread(outboundProEntity,
+                        ProvisioningThread proThread = new ProvisioningThread(outboundProEntity,
                                 tenantDomainName, connector, connectorType, idPName, dao);
                         outboundProEntity.setIdentifier(provisionedIdentifier);
                         outboundProEntity.setJitProvisioning(jitProvisioning);
                         boolean isBlocking = entry.getValue().isBlocking();
-                        executeOutboundProvisioning(provisioningEntity, executors, connectorType, idPName, proThread, isBlocking);
+                        executeOutboundProvisioning(provisioningEntity, connectorType, idPName, proThread, isBlocking);
 
                     }
 
@@ -518,12 +545,12 @@ public class OutboundProvisioningManager {
 
                             outboundProEntity = new ProvisioningEntity(ProvisioningEntityType.USER,
                                     user, ProvisioningOperation.DELETE, mappedUserClaims);
-                            Callable<Boolean> proThread = new ProvisioningThread(outboundProEntity,
+                            ProvisioningThread proThread = new ProvisioningThread(outboundProEntity,
                                     tenantDomainName, connector, connectorType, idPName, dao);
                             outboundProEntity.setIdentifier(provisionedUserIdentifier);
                             outboundProEntity.setJitProvisioning(jitProvisioning);
                             boolean isBlocking = entry.getValue().isBlocking();
-                            executeOutboundProvisioning(provisioningEntity, executors, connectorType, idPName, proThread, isBlocking);
+                            executeOutboundProvisioning(provisioningEntity, connectorType, idPName, proThread, isBlocking);
                         }
                     }
 
@@ -543,20 +570,16 @@ public class OutboundProvisioningManager {
                     outboundProEntity = new ProvisioningEntity(provisioningEntity.getEntityType(),
                             provisioningEntity.getEntityName(), provisioningOp, mapppedClaims);
 
-                    Callable<Boolean> proThread = new ProvisioningThread(outboundProEntity,
+                    ProvisioningThread proThread = new ProvisioningThread(outboundProEntity,
                             tenantDomainName, connector, connectorType, idPName, dao);
                     outboundProEntity.setIdentifier(provisionedIdentifier);
                     outboundProEntity.setJitProvisioning(jitProvisioning);
                     boolean isBlocking = entry.getValue().isBlocking();
-                    executeOutboundProvisioning(provisioningEntity, executors, connectorType, idPName, proThread, isBlocking);
+                    executeOutboundProvisioning(provisioningEntity, connectorType, idPName, proThread, isBlocking);
                 }
 
             }
 
-            if (executors != null) {
-                executors.shutdown();
-            }
-
         } catch (CarbonException e) {
             throw new IdentityProvisioningException("Error occurred while checking for user " +
                     "provisioning", e);
@@ -569,27 +592,24 @@ public class OutboundProvisioningManager {
 
     }
 
-    private void executeOutboundProvisioning(ProvisioningEntity provisioningEntity, ExecutorService executors, String connectorType,
-                                             String idPName, Callable<Boolean> proThread, boolean isBlocking) throws IdentityProvisioningException {
+    private void executeOutboundProvisioning(ProvisioningEntity provisioningEntity, String connectorType,
+                                             String idPName, ProvisioningThread proThread, boolean isBlocking)
+            throws IdentityProvisioningException {
         if (!isBlocking) {
-            executors.submit(proThread);
+            ProvisioningExecutor.getInstance().submit(proThread);
         } else {
             try {
 
                 boolean success = proThread.call();
                 if (!success) {
-                    if (executors != null) {
-                        executors.shutdown();
-                    }
                     throw new IdentityProvisioningException
                             (generateMessageOnFailureProvisioningOperation(idPName,
                                     connectorType, provisioningEntity));
                     //DO Rollback
                 }
+            } catch (IdentityProvisioningException e) {
+                throw e;
             } catch (Exception e) { //call() of Callable interface throws this exception
-                if (executors != null) {
-                    executors.shutdown();
-                }
                 throw new IdentityProvisioningException
                         (generateMessageOnFailureProvisioningOperation(idPName,
                                 connectorType, provisioningEntity));
@@ -0,0 +1,420 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.provisioning;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.identity.application.common.IdentityApplicationManagementException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.provisioning.dao.CacheBackedProvisioningMgtDAO;
+import org.wso2.carbon.identity.provisioning.dao.ProvisioningManagementDAO;
+import org.wso2.carbon.identity.provisioning.dao.ProvisioningRetryDAO;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs non blocking outbound provisioning operations. Each provisioning identity provider gets its own
+ * bounded thread pool, so a slow or unreachable identity provider can not hold up provisioning to the
+ * others. When the queue of an identity provider is full the submitting thread runs the operation itself,
+ * which slows down the producer (e.g. a bulk user import) instead of growing the queue without limit. An
+ * operation submitted while the executor is being shut down is also run by the submitting thread.
+ * <p/>
+ * Failed operations are stored in the retry queue of the identity database and retried with an
+ * exponential back off until the configured retry count is reached. A node claims an entry of the queue
+ * before retrying it and removes it only once the retry succeeded, so an entry claimed by a node which
+ * goes down is retried when the claim expires.
+ * <p/>
+ * The executor is started and stopped with the provisioning bundle.
+ */
+public class ProvisioningExecutor {
+
+    private static final Log log = LogFactory.getLog(ProvisioningExecutor.class);
+
+    private static final int DEFAULT_THREAD_POOL_SIZE = 5;
+    private static final int DEFAULT_QUEUE_SIZE = 1000;
+    private static final int DEFAULT_RETRY_COUNT = 5;
+    private static final long DEFAULT_RETRY_INTERVAL = 60000;
+    private static final long DEFAULT_MAX_RETRY_INTERVAL = 3600000;
+    private static final long DEFAULT_RETRY_POLL_INTERVAL = 30000;
+    private static final int DEFAULT_RETRY_BATCH_SIZE = 100;
+    private static final long DEFAULT_RETRY_CLAIM_TIMEOUT = 600000;
+
+    private static volatile ProvisioningExecutor instance;
+
+    private final int threadPoolSize;
+    private final int queueSize;
+    private final int maxRetryCount;
+    private final long retryInterval;
+    private final long maxRetryInterval;
+    private final int retryBatchSize;
+    private final long retryClaimTimeout;
+
+    private final ConcurrentMap<String, ThreadPoolExecutor> executors =
+            new ConcurrentHashMap<String, ThreadPoolExecutor>();
+    private final ConcurrentMap<String, ProvisioningStats> stats =
+            new ConcurrentHashMap<String, ProvisioningStats>();
+
+    private final ProvisioningRetryDAO retryDAO;
+    private final CacheBackedProvisioningMgtDAO provisioningDAO;
+    private final ScheduledExecutorService retryScheduler;
+
+    private volatile boolean shutdown = false;
+
+    ProvisioningExecutor(int threadPoolSize, int queueSize, int maxRetryCount, long retryInterval,
+                         long maxRetryInterval, long retryPollInterval, int retryBatchSize,
+                         long retryClaimTimeout, ProvisioningRetryDAO retryDAO) {
+        this.threadPoolSize = threadPoolSize;
+        this.queueSize = queueSize;
+        this.maxRetryCount = maxRetryCount;
+        this.retryInterval = retryInterval;
+        this.maxRetryInterval = maxRetryInterval;
+        this.retryBatchSize = retryBatchSize;
+        this.retryClaimTimeout = retryClaimTimeout;
+        this.retryDAO = retryDAO;
+        this.provisioningDAO = new CacheBackedProvisioningMgtDAO(new ProvisioningManagementDAO());
+
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(
+                new ProvisioningThreadFactory("OutboundProvisioningRetry"));
+        this.retryScheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                retryDueOperations();
+            }
+        }, retryPollInterval, retryPollInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return the running provisioning executor, configured from the OutboundProvisioning section of
+     * identity.xml. It is started if it is not running.
+     */
+    public static ProvisioningExecutor getInstance() {
+        if (instance == null) {
+            start();
+        }
+        return instance;
+    }
+
+    /**
+     * Starts the provisioning executor, if it is not running. Called when the provisioning bundle is
+     * activated.
+     */
+    public static void start() {
+        synchronized (ProvisioningExecutor.class) {
+            if (instance == null) {
+                instance = new ProvisioningExecutor(
+                        IdentityUtil.getIntProperty(IdentityProvisioningConstants.ServerConfig.THREAD_POOL_SIZE,
+                                DEFAULT_THREAD_POOL_SIZE),
+                        IdentityUtil.getIntProperty(IdentityProvisioningConstants.ServerConfig.QUEUE_SIZE,
+                                DEFAULT_QUEUE_SIZE),
+                        IdentityUtil.getIntProperty(IdentityProvisioningConstants.ServerConfig.RETRY_COUNT,
+                                DEFAULT_RETRY_COUNT),
+                        IdentityUtil.getLongProperty(IdentityProvisioningConstants.ServerConfig.RETRY_INTERVAL,
+                                DEFAULT_RETRY_INTERVAL),
+                        IdentityUtil.getLongProperty(IdentityProvisioningConstants.ServerConfig.MAX_RETRY_INTERVAL,
+                                DEFAULT_MAX_RETRY_INTERVAL),
+                        IdentityUtil.getLongProperty(IdentityProvisioningConstants.ServerConfig.RETRY_POLL_INTERVAL,
+                                DEFAULT_RETRY_POLL_INTERVAL),
+                        IdentityUtil.getIntProperty(IdentityProvisioningConstants.ServerConfig.RETRY_BATCH_SIZE,
+                                DEFAULT_RETRY_BATCH_SIZE),
+                        IdentityUtil.getLongProperty(IdentityProvisioningConstants.ServerConfig.RETRY_CLAIM_TIMEOUT,
+                                DEFAULT_RETRY_CLAIM_TIMEOUT),
+                        new ProvisioningRetryDAO());
+            }
+        }
+    }
+
+    /**
+     * Shuts down the running provisioning executor. Called when the provisioning bundle is deactivated.
+     * The next {@link #getInstance()} or {@link #start()} starts a new executor.
+     */
+    public static void stop() {
+        ProvisioningExecutor executor;
+        synchronized (ProvisioningExecutor.class) {
+            executor = instance;
+            instance = null;
+        }
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Queues the given provisioning operation on the thread pool of its identity provider.
+     *
+     * @param provisioningThread
+     */
+    public void submit(ProvisioningThread provisioningThread) {
+        submit(provisioningThread, 0, null);
+    }
+
+    /**
+     * @return provisioning statistics keyed by tenant domain and identity provider name
+     */
+    public Map<String, ProvisioningStats> getStats() {
+        return Collections.unmodifiableMap(new HashMap<String, ProvisioningStats>(stats));
+    }
+
+    /**
+     * Stops accepting new operations. Operations already queued are completed, failures of those are still
+     * added to the retry queue.
+     */
+    private void shutdown() {
+        shutdown = true;
+        retryScheduler.shutdownNow();
+        for (ThreadPoolExecutor executor : executors.values()) {
+            executor.shutdown();
+        }
+        for (ProvisioningStats idPStats : stats.values()) {
+            log.info("Outbound provisioning statistics of " + idPStats);
+        }
+    }
+
+    /**
+     * @param retryEntry entry of the retry queue the operation was read from, null for a new operation
+     */
+    private void submit(final ProvisioningThread provisioningThread, final int retryCount,
+                        final ProvisioningRetryEntry retryEntry) {
+
+        if (shutdown) {
+            // the operation is not lost, it is picked up from the retry queue after the restart.
+            if (retryEntry == null) {
+                handleFailure(provisioningThread, retryCount, null, null);
+            }
+            return;
+        }
+
+        final String key = getKey(provisioningThread.getTenantDomainName(), provisioningThread.getIdPName());
+        final ProvisioningStats idPStats = getStats(key);
+
+        getExecutor(key).execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.currentTimeMillis();
+                boolean success = false;
+                Exception error = null;
+                try {
+                    success = provisioningThread.call();
+                } catch (Exception e) {
+                    error = e;
+                }
+                idPStats.recordOperation(success, System.currentTimeMillis() - start);
+
+                if (!success) {
+                    handleFailure(provisioningThread, retryCount, error, retryEntry);
+                } else if (retryEntry != null) {
+                    removeRetryEntry(retryEntry);
+                }
+            }
+        });
+    }
+
+    private void handleFailure(ProvisioningThread provisioningThread, int retryCount, Exception error,
+                               ProvisioningRetryEntry retryEntry) {
+
+        ProvisioningEntity provisioningEntity = provisioningThread.getProvisioningEntity();
+        String idPName = provisioningThread.getIdPName();
+        String tenantDomain = provisioningThread.getTenantDomainName();
+        ProvisioningStats idPStats = getStats(getKey(tenantDomain, idPName));
+        String operation = provisioningEntity.getOperation() + " " + provisioningEntity.getEntityType() + " " +
+                provisioningEntity.getEntityName() + " to identity provider " + idPName + " of " + tenantDomain;
+
+        if (retryCount >= maxRetryCount) {
+            idPStats.recordDropped();
+            log.error("Outbound provisioning failed for " + operation + ". Giving up after " + retryCount +
+                    " retries.", error);
+            if (retryEntry != null) {
+                removeRetryEntry(retryEntry);
+            }
+            return;
+        }
+
+        long delay = getRetryDelay(retryCount);
+        try {
+            if (retryEntry == null) {
+                retryDAO.addRetryEntry(provisioningEntity, tenantDomain, idPName,
+                        provisioningThread.getConnectorType(), retryCount + 1, System.currentTimeMillis() + delay);
+            } else {
+                retryDAO.updateRetryEntry(retryEntry.getId(), retryCount + 1, System.currentTimeMillis() + delay);
+            }
+            idPStats.recordRetry();
+            if (error != null) {
+                log.warn("Outbound provisioning failed for " + operation + ". Retrying in " + delay + "ms.",
+                        error);
+            }
+        } catch (IdentityApplicationManagementException e) {
+            idPStats.recordDropped();
+            log.error("Outbound provisioning failed for " + operation + " and it could not be added to the " +
+                    "retry queue.", e);
+        }
+    }
+
+    private void retryDueOperations() {
+
+        try {
+            List<ProvisioningRetryEntry> entries =
+                    retryDAO.getDueRetryEntries(System.currentTimeMillis(), retryBatchSize);
+
+            for (ProvisioningRetryEntry entry : entries) {
+                if (shutdown) {
+                    return;
+                }
+                // another node of the cluster may have picked the same entry.
+                if (!retryDAO.claimRetryEntry(entry, System.currentTimeMillis() + retryClaimTimeout)) {
+                    continue;
+                }
+
+                AbstractOutboundProvisioningConnector connector;
+                try {
+                    PrivilegedCarbonContext.startTenantFlow();
+                    PrivilegedCarbonContext.getThreadLocalCarbonContext().setTenantDomain(
+                            entry.getTenantDomain());
+                    connector = OutboundProvisioningManager.getInstance().getOutboundProvisioningConnector(
+                            entry.getIdPName(), entry.getConnectorType(), entry.getTenantDomain());
+                } finally {
+                    PrivilegedCarbonContext.endTenantFlow();
+                }
+
+                if (connector == null) {
+                    removeRetryEntry(entry);
+                    getStats(getKey(entry.getTenantDomain(), entry.getIdPName())).recordDropped();
+                    log.warn("Provisioning connector " + entry.getConnectorType() + " of identity provider " +
+                            entry.getIdPName() + " is no longer available. Dropping the retry of " +
+                            entry.getProvisioningEntity().getEntityName());
+                    continue;
+                }
+
+                if (log.isDebugEnabled()) {
+                    log.debug("Retrying provisioning of " + entry.getProvisioningEntity().getEntityName() +
+                            " to " + entry.getIdPName() + ". Attempt " + entry.getRetryCount());
+                }
+                submit(new ProvisioningThread(entry.getProvisioningEntity(), entry.getTenantDomain(), connector,
+                        entry.getConnectorType(), entry.getIdPName(), provisioningDAO), entry.getRetryCount(), entry);
+            }
+
+            if (log.isDebugEnabled()) {
+                for (ProvisioningStats idPStats : stats.values()) {
+                    log.debug("Outbound provisioning statistics of " + idPStats);
+                }
+            }
+        } catch (Exception e) {
+            // do not let the exception cancel the scheduled retries.
+            log.error("Error while retrying failed outbound provisioning operations", e);
+        }
+    }
+
+    private void removeRetryEntry(ProvisioningRetryEntry retryEntry) {
+        try {
+            retryDAO.deleteRetryEntry(retryEntry.getId());
+        } catch (IdentityApplicationManagementException e) {
+            // the entry is retried again once its claim expires.
+            log.error("Error while removing provisioning retry entry " + retryEntry.getId(), e);
+        }
+    }
+
+    private ThreadPoolExecutor getExecutor(String key) {
+
+        ThreadPoolExecutor executor = executors.get(key);
+        if (executor == null) {
+            ThreadPoolExecutor newExecutor = new ThreadPoolExecutor(threadPoolSize, threadPoolSize, 60,
+                    TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                    new ProvisioningThreadFactory("OutboundProvisioning-" + key), new CallerRunsHandler());
+            // identity providers which are not used do not hold on to threads.
+            newExecutor.allowCoreThreadTimeOut(true);
+            executor = executors.putIfAbsent(key, newExecutor);
+            if (executor == null) {
+                executor = newExecutor;
+            } else {
+                newExecutor.shutdown();
+            }
+        }
+        return executor;
+    }
+
+    private ProvisioningStats getStats(String key) {
+
+        ProvisioningStats idPStats = stats.get(key);
+        if (idPStats == null) {
+            ProvisioningStats newStats = new ProvisioningStats(key);
+            idPStats = stats.putIfAbsent(key, newStats);
+            if (idPStats == null) {
+                idPStats = newStats;
+            }
+        }
+        return idPStats;
+    }
+
+    /**
+     * @param retryCount number of retries already made
+     * @return delay before the next retry, doubled for every retry and capped at the maximum retry interval
+     */
+    long getRetryDelay(int retryCount) {
+        long delay = retryInterval;
+        for (int i = 0; i < retryCount && delay < maxRetryInterval; i++) {
+            delay = delay * 2;
+        }
+        return Math.min(delay, maxRetryInterval);
+    }
+
+    private static String getKey(String tenantDomain, String idPName) {
+        return tenantDomain + ":" + idPName;
+    }
+
+    /**
+     * Runs an operation on the submitting thread when the queue is full or the executor is shut down. Unlike
+     * {@link ThreadPoolExecutor.CallerRunsPolicy}, the operation is not dropped once the executor is shut down.
+     */
+    private static class CallerRunsHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            runnable.run();
+        }
+    }
+
+    private static class ProvisioningThreadFactory implements ThreadFactory {
+
+        private final String namePrefix;
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        private ProvisioningThreadFactory(String namePrefix) {
+            this.namePrefix = namePrefix;
+        }
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, namePrefix + "-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.provisioning;
+
+/**
+ * A failed outbound provisioning operation waiting in the retry queue.
+ */
+public class ProvisioningRetryEntry {
+
+    private int id;
+    private String tenantDomain;
+    private String idPName;
+    private String connectorType;
+    private ProvisioningEntity provisioningEntity;
+    private int retryCount;
+    private long nextRetryTime;
+
+    public ProvisioningRetryEntry(int id, String tenantDomain, String idPName, String connectorType,
+                                  ProvisioningEntity provisioningEntity, int retryCount, long nextRetryTime) {
+        this.id = id;
+        this.tenantDomain = tenantDomain;
+        this.idPName = idPName;
+        this.connectorType = connectorType;
+        this.provisioningEntity = provisioningEntity;
+        this.retryCount = retryCount;
+        this.nextRetryTime = nextRetryTime;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    public String getTenantDomain() {
+        return tenantDomain;
+    }
+
+    public String getIdPName() {
+        return idPName;
+    }
+
+    public String getConnectorType() {
+        return connectorType;
+    }
+
+    public ProvisioningEntity getProvisioningEntity() {
+        return provisioningEntity;
+    }
+
+    /**
+     * @return number of retries already made, including the one this entry is waiting for
+     */
+    public int getRetryCount() {
+        return retryCount;
+    }
+
+    /**
+     * @return time the entry was due at when it was read
+     */
+    public long getNextRetryTime() {
+        return nextRetryTime;
+    }
+}
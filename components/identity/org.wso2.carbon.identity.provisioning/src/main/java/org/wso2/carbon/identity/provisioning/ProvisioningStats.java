@@ -0,0 +1,125 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.provisioning;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Outbound provisioning statistics of a single provisioning identity provider.
+ */
+public class ProvisioningStats {
+
+    private final String idPName;
+
+    private final long startTime = System.currentTimeMillis();
+
+    private final AtomicLong successCount = new AtomicLong();
+
+    private final AtomicLong failureCount = new AtomicLong();
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final AtomicLong droppedCount = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    ProvisioningStats(String idPName) {
+        this.idPName = idPName;
+    }
+
+    void recordOperation(boolean success, long latency) {
+        if (success) {
+            successCount.incrementAndGet();
+        } else {
+            failureCount.incrementAndGet();
+        }
+        totalLatency.addAndGet(latency);
+        long currentMax = maxLatency.get();
+        while (latency > currentMax && !maxLatency.compareAndSet(currentMax, latency)) {
+            currentMax = maxLatency.get();
+        }
+    }
+
+    void recordRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    void recordDropped() {
+        droppedCount.incrementAndGet();
+    }
+
+    public String getIdPName() {
+        return idPName;
+    }
+
+    public long getSuccessCount() {
+        return successCount.get();
+    }
+
+    /**
+     * @return number of failed attempts, including attempts which were retried later
+     */
+    public long getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return number of failed operations added to the retry queue
+     */
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return number of operations given up on after exhausting all the retries
+     */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return average latency of a single attempt in milli seconds
+     */
+    public long getAverageLatency() {
+        long attempts = successCount.get() + failureCount.get();
+        return attempts == 0 ? 0 : totalLatency.get() / attempts;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * @return successful operations per minute since the statistics were started
+     */
+    public double getThroughput() {
+        long elapsed = System.currentTimeMillis() - startTime;
+        return elapsed <= 0 ? 0 : successCount.get() * 60000d / elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return idPName + " [success=" + getSuccessCount() + ", failed=" + getFailureCount() + ", retried=" +
+                getRetryCount() + ", dropped=" + getDroppedCount() + ", avgLatency=" + getAverageLatency() +
+                "ms, maxLatency=" + getMaxLatency() + "ms, throughput=" + String.format("%.2f", getThroughput()) +
+                "/min]";
+    }
+}
@@ -33,6 +33,22 @@ public class ProvisioningThread implements Callable<Boolean> {
         this.dao = dao;
     }
 
+    public ProvisioningEntity getProvisioningEntity() {
+        return provisioningEntity;
+    }
+
+    public String getTenantDomainName() {
+        return tenantDomainName;
+    }
+
+    public String getConnectorType() {
+        return connectorType;
+    }
+
+    public String getIdPName() {
+        return idPName;
+    }
+
     public Boolean call() throws IdentityProvisioningException {
 
         boolean success = false;
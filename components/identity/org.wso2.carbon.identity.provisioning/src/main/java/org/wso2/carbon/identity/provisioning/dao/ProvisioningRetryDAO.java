@@ -0,0 +1,364 @@
+/*
+ *  Copyright (c) 2005-2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.provisioning.dao;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.core.util.CryptoException;
+import org.wso2.carbon.core.util.CryptoUtil;
+import org.wso2.carbon.identity.application.common.IdentityApplicationManagementException;
+import org.wso2.carbon.identity.application.common.model.Claim;
+import org.wso2.carbon.identity.application.common.model.ClaimMapping;
+import org.wso2.carbon.identity.application.common.persistence.JDBCPersistenceManager;
+import org.wso2.carbon.identity.application.common.util.IdentityApplicationManagementUtil;
+import org.wso2.carbon.identity.provisioning.IdentityProvisioningConstants;
+import org.wso2.carbon.identity.provisioning.ProvisioningEntity;
+import org.wso2.carbon.identity.provisioning.ProvisioningRetryEntry;
+import org.wso2.carbon.idp.mgt.util.IdPManagementUtil;
+import org.wso2.carbon.user.api.UserStoreException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persists failed outbound provisioning operations in the IDP_PROVISIONING_RETRY table, so that they
+ * survive a server restart and can be picked up by any node of the cluster. Password claim values are
+ * encrypted before the provisioning entity is stored.
+ */
+public class ProvisioningRetryDAO {
+
+    private static final Log log = LogFactory.getLog(ProvisioningRetryDAO.class);
+
+    /**
+     * @param provisioningEntity
+     * @param tenantDomain
+     * @param identityProviderName
+     * @param connectorType
+     * @param retryCount
+     * @param nextRetryTime
+     * @throws IdentityApplicationManagementException
+     */
+    public void addRetryEntry(ProvisioningEntity provisioningEntity, String tenantDomain,
+                              String identityProviderName, String connectorType, int retryCount,
+                              long nextRetryTime) throws IdentityApplicationManagementException {
+
+        Connection dbConnection = null;
+        PreparedStatement prepStmt = null;
+        try {
+            int tenantId = IdPManagementUtil.getTenantIdOfDomain(tenantDomain);
+            byte[] entity = serialize(provisioningEntity);
+
+            dbConnection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = dbConnection.prepareStatement(
+                    IdentityProvisioningConstants.SQLQueries.ADD_PROVISIONING_RETRY_SQL);
+            prepStmt.setInt(1, tenantId);
+            prepStmt.setString(2, tenantDomain);
+            prepStmt.setString(3, identityProviderName);
+            prepStmt.setString(4, connectorType);
+            prepStmt.setBinaryStream(5, new ByteArrayInputStream(entity), entity.length);
+            prepStmt.setInt(6, retryCount);
+            prepStmt.setLong(7, nextRetryTime);
+
+            prepStmt.execute();
+            dbConnection.commit();
+        } catch (SQLException e) {
+            IdentityApplicationManagementUtil.rollBack(dbConnection);
+            String msg = "Error occurred while adding provisioning retry entry for tenant " + tenantDomain;
+            throw new IdentityApplicationManagementException(msg, e);
+        } catch (UserStoreException e) {
+            throw new IdentityApplicationManagementException(
+                    "Error occurred while getting the tenant id of " + tenantDomain, e);
+        } finally {
+            IdentityApplicationManagementUtil.closeStatement(prepStmt);
+            IdentityApplicationManagementUtil.closeConnection(dbConnection);
+        }
+    }
+
+    /**
+     * @param time
+     * @param maxEntries
+     * @return retry entries which are due at the given time, oldest first
+     * @throws IdentityApplicationManagementException
+     */
+    public List<ProvisioningRetryEntry> getDueRetryEntries(long time, int maxEntries)
+            throws IdentityApplicationManagementException {
+
+        List<ProvisioningRetryEntry> entries = new ArrayList<ProvisioningRetryEntry>();
+        List<Integer> unreadableEntries = new ArrayList<Integer>();
+        Connection dbConnection = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+        try {
+            dbConnection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = dbConnection.prepareStatement(
+                    IdentityProvisioningConstants.SQLQueries.GET_DUE_PROVISIONING_RETRIES_SQL);
+            prepStmt.setLong(1, time);
+            prepStmt.setMaxRows(maxEntries);
+
+            rs = prepStmt.executeQuery();
+            while (rs.next()) {
+                int id = rs.getInt(1);
+                ProvisioningEntity provisioningEntity;
+                try {
+                    provisioningEntity = deserialize(rs.getBinaryStream(5));
+                } catch (IdentityApplicationManagementException e) {
+                    // an entry which can not be read would otherwise block the head of the queue.
+                    log.error("Error while reading provisioning retry entry " + id + " of " + rs.getString(3) +
+                            ". Dropping it from the retry queue.", e);
+                    unreadableEntries.add(id);
+                    continue;
+                }
+                entries.add(new ProvisioningRetryEntry(id, rs.getString(2), rs.getString(3), rs.getString(4),
+                        provisioningEntity, rs.getInt(6), rs.getLong(7)));
+            }
+            dbConnection.commit();
+        } catch (SQLException e) {
+            IdentityApplicationManagementUtil.rollBack(dbConnection);
+            throw new IdentityApplicationManagementException(
+                    "Error occurred while reading provisioning retry entries", e);
+        } finally {
+            IdentityApplicationManagementUtil.closeResultSet(rs);
+            IdentityApplicationManagementUtil.closeStatement(prepStmt);
+            IdentityApplicationManagementUtil.closeConnection(dbConnection);
+        }
+        for (Integer id : unreadableEntries) {
+            deleteRetryEntry(id);
+        }
+        return entries;
+    }
+
+    /**
+     * Marks the given entry as in flight by moving its retry time to the end of the claim. Only the node
+     * which manages to move it retries the entry. If that node does not complete the retry, the entry is
+     * due again when the claim expires.
+     *
+     * @param entry       entry as it was read from the retry queue
+     * @param claimExpiry time the entry is due again unless it is removed or rescheduled
+     * @return true if the entry was claimed by this call
+     * @throws IdentityApplicationManagementException
+     */
+    public boolean claimRetryEntry(ProvisioningRetryEntry entry, long claimExpiry)
+            throws IdentityApplicationManagementException {
+
+        Connection dbConnection = null;
+        PreparedStatement prepStmt = null;
+        try {
+            dbConnection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = dbConnection.prepareStatement(
+                    IdentityProvisioningConstants.SQLQueries.CLAIM_PROVISIONING_RETRY_SQL);
+            prepStmt.setLong(1, claimExpiry);
+            prepStmt.setInt(2, entry.getId());
+            prepStmt.setLong(3, entry.getNextRetryTime());
+
+            int count = prepStmt.executeUpdate();
+            dbConnection.commit();
+            return count == 1;
+        } catch (SQLException e) {
+            IdentityApplicationManagementUtil.rollBack(dbConnection);
+            throw new IdentityApplicationManagementException(
+                    "Error occurred while claiming provisioning retry entry " + entry.getId(), e);
+        } finally {
+            IdentityApplicationManagementUtil.closeStatement(prepStmt);
+            IdentityApplicationManagementUtil.closeConnection(dbConnection);
+        }
+    }
+
+    /**
+     * Schedules the next retry of an entry whose retry failed.
+     *
+     * @param id
+     * @param retryCount
+     * @param nextRetryTime
+     * @throws IdentityApplicationManagementException
+     */
+    public void updateRetryEntry(int id, int retryCount, long nextRetryTime)
+            throws IdentityApplicationManagementException {
+
+        Connection dbConnection = null;
+        PreparedStatement prepStmt = null;
+        try {
+            dbConnection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = dbConnection.prepareStatement(
+                    IdentityProvisioningConstants.SQLQueries.UPDATE_PROVISIONING_RETRY_SQL);
+            prepStmt.setInt(1, retryCount);
+            prepStmt.setLong(2, nextRetryTime);
+            prepStmt.setInt(3, id);
+
+            prepStmt.execute();
+            dbConnection.commit();
+        } catch (SQLException e) {
+            IdentityApplicationManagementUtil.rollBack(dbConnection);
+            throw new IdentityApplicationManagementException(
+                    "Error occurred while updating provisioning retry entry " + id, e);
+        } finally {
+            IdentityApplicationManagementUtil.closeStatement(prepStmt);
+            IdentityApplicationManagementUtil.closeConnection(dbConnection);
+        }
+    }
+
+    /**
+     * Removes the given entry from the retry queue, once it was retried successfully or given up.
+     *
+     * @param id
+     * @return true if the entry was removed by this call
+     * @throws IdentityApplicationManagementException
+     */
+    public boolean deleteRetryEntry(int id) throws IdentityApplicationManagementException {
+
+        Connection dbConnection = null;
+        PreparedStatement prepStmt = null;
+        try {
+            dbConnection = JDBCPersistenceManager.getInstance().getDBConnection();
+            prepStmt = dbConnection.prepareStatement(
+                    IdentityProvisioningConstants.SQLQueries.DELETE_PROVISIONING_RETRY_SQL);
+            prepStmt.setInt(1, id);
+
+            int count = prepStmt.executeUpdate();
+            dbConnection.commit();
+            return count == 1;
+        } catch (SQLException e) {
+            IdentityApplicationManagementUtil.rollBack(dbConnection);
+            throw new IdentityApplicationManagementException(
+                    "Error occurred while deleting provisioning retry entry " + id, e);
+        } finally {
+            IdentityApplicationManagementUtil.closeStatement(prepStmt);
+            IdentityApplicationManagementUtil.closeConnection(dbConnection);
+        }
+    }
+
+    private byte[] serialize(ProvisioningEntity provisioningEntity)
+            throws IdentityApplicationManagementException {
+
+        ProvisioningEntity copy = new ProvisioningEntity(provisioningEntity.getEntityType(),
+                provisioningEntity.getEntityName(), provisioningEntity.getOperation(),
+                transformPasswords(provisioningEntity.getAttributes(), true));
+        copy.setIdentifier(provisioningEntity.getIdentifier());
+        copy.setJitProvisioning(provisioningEntity.isJitProvisioning());
+        copy.setInboundAttributes(provisioningEntity.getInboundAttributes());
+
+        ObjectOutputStream out = null;
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            out = new ObjectOutputStream(bytes);
+            out.writeObject(copy);
+            out.flush();
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IdentityApplicationManagementException("Error while serializing provisioning entity "
+                    + provisioningEntity.getEntityName(), e);
+        } finally {
+            closeStream(out);
+        }
+    }
+
+    private ProvisioningEntity deserialize(InputStream stream) throws IdentityApplicationManagementException {
+
+        ObjectInputStream in = null;
+        try {
+            in = new ObjectInputStream(stream);
+            ProvisioningEntity stored = (ProvisioningEntity) in.readObject();
+
+            ProvisioningEntity provisioningEntity = new ProvisioningEntity(stored.getEntityType(),
+                    stored.getEntityName(), stored.getOperation(),
+                    transformPasswords(stored.getAttributes(), false));
+            provisioningEntity.setIdentifier(stored.getIdentifier());
+            provisioningEntity.setJitProvisioning(stored.isJitProvisioning());
+            provisioningEntity.setInboundAttributes(stored.getInboundAttributes());
+            return provisioningEntity;
+        } catch (IOException e) {
+            throw new IdentityApplicationManagementException("Error while deserializing provisioning entity", e);
+        } catch (ClassNotFoundException e) {
+            throw new IdentityApplicationManagementException("Error while deserializing provisioning entity", e);
+        } finally {
+            closeStream(in);
+        }
+    }
+
+    /**
+     * Returns a copy of the given attributes with the password claim values encrypted or decrypted.
+     */
+    private Map<ClaimMapping, List<String>> transformPasswords(Map<ClaimMapping, List<String>> attributes,
+                                                               boolean encrypt)
+            throws IdentityApplicationManagementException {
+
+        if (attributes == null) {
+            return null;
+        }
+        Map<ClaimMapping, List<String>> copy = new HashMap<ClaimMapping, List<String>>();
+        for (Map.Entry<ClaimMapping, List<String>> entry : attributes.entrySet()) {
+            if (!isPasswordClaim(entry.getKey()) || entry.getValue() == null) {
+                copy.put(entry.getKey(), entry.getValue());
+                continue;
+            }
+            List<String> values = new ArrayList<String>();
+            try {
+                for (String value : entry.getValue()) {
+                    if (value == null) {
+                        values.add(null);
+                    } else if (encrypt) {
+                        values.add(CryptoUtil.getDefaultCryptoUtil().encryptAndBase64Encode(
+                                value.getBytes("UTF-8")));
+                    } else {
+                        values.add(new String(CryptoUtil.getDefaultCryptoUtil().base64DecodeAndDecrypt(value),
+                                "UTF-8"));
+                    }
+                }
+            } catch (CryptoException e) {
+                throw new IdentityApplicationManagementException("Error while protecting the password of " +
+                        "a provisioning entity", e);
+            } catch (IOException e) {
+                throw new IdentityApplicationManagementException("Error while protecting the password of " +
+                        "a provisioning entity", e);
+            }
+            copy.put(entry.getKey(), values);
+        }
+        return copy;
+    }
+
+    private boolean isPasswordClaim(ClaimMapping mapping) {
+        return isPasswordClaim(mapping.getLocalClaim()) || isPasswordClaim(mapping.getRemoteClaim());
+    }
+
+    private boolean isPasswordClaim(Claim claim) {
+        return claim != null && IdentityProvisioningConstants.PASSWORD_CLAIM_URI.equals(claim.getClaimUri());
+    }
+
+    private void closeStream(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                log.error("Error while closing stream", e);
+            }
+        }
+    }
+}
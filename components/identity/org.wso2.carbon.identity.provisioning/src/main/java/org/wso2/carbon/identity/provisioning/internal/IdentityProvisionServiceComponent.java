@@ -31,6 +31,7 @@ import org.wso2.carbon.identity.application.common.model.ProvisioningConnectorCo
 import org.wso2.carbon.identity.application.mgt.listener.ApplicationMgtListener;
 import org.wso2.carbon.identity.provisioning.AbstractProvisioningConnectorFactory;
 import org.wso2.carbon.identity.provisioning.IdentityProvisioningException;
+import org.wso2.carbon.identity.provisioning.ProvisioningExecutor;
 import org.wso2.carbon.identity.provisioning.listener.ApplicationMgtProvisioningListener;
 import org.wso2.carbon.identity.provisioning.listener.DefaultInboundUserProvisioningListener;
 import org.wso2.carbon.identity.provisioning.listener.IdentityProviderMgtProvisioningListener;
@@ -200,6 +201,8 @@ public class IdentityProvisionServiceComponent {
                 log.error("Error while initiating identity provisioning connector framework", e);
             }
 
+            ProvisioningExecutor.start();
+
             if (log.isDebugEnabled()) {
                 log.debug("Identity Provisioning framework bundle is activated");
             }
@@ -212,6 +215,7 @@ public class IdentityProvisionServiceComponent {
      * @param context
      */
     protected void deactivate(ComponentContext context) {
+        ProvisioningExecutor.stop();
         if (log.isDebugEnabled()) {
             log.debug("Identity Provision bundle is de-activated");
         }
@@ -32,6 +32,7 @@ import org.opensaml.xml.signature.SignatureValidator;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.wso2.carbon.identity.base.IdentityConstants;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 import org.wso2.carbon.identity.relyingparty.RelyingPartyData;
 import org.wso2.carbon.identity.relyingparty.RelyingPartyException;
 import org.wso2.carbon.identity.relyingparty.TokenVerifierConstants;
@@ -40,7 +41,6 @@ import org.wso2.carbon.identity.relyingparty.saml.tokens.SAML2TokenHolder;
 import org.wso2.carbon.identity.relyingparty.saml.tokens.TokenHolder;
 
 import javax.crypto.SecretKey;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileWriter;
@@ -87,7 +87,6 @@ public class SAMLTokenVerifier {
      */
     public Element decryptToken(String token, PrivateKey serviceKey) throws RelyingPartyException {
         ByteArrayInputStream bais = null;
-        DocumentBuilderFactory dbf = null;
         Document doc = null;
         Element encryptedTokenElem = null;
 
@@ -98,9 +97,7 @@ public class SAMLTokenVerifier {
             }
 
             bais = new ByteArrayInputStream(token.getBytes());
-            dbf = DocumentBuilderFactory.newInstance();
-            dbf.setNamespaceAware(true);
-            doc = dbf.newDocumentBuilder().parse(bais);
+            doc = IdentityXMLUtil.getSecuredDocumentBuilder().parse(bais);
             encryptedTokenElem = doc.getDocumentElement();
 
             // Decrypt element
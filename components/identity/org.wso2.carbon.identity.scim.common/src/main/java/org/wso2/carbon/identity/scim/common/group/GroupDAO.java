@@ -33,8 +33,11 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -46,6 +49,8 @@ public class GroupDAO {
 
     private static Log log = LogFactory.getLog(GroupDAO.class);
 
+    private static final int MAX_GROUPS_PER_QUERY = 100;
+
     /**
      * Lists the groups that are created from SCIM
      *
@@ -318,6 +323,75 @@ public class GroupDAO {
         return null;
     }
 
+    /**
+     * Reads the SCIM ids of the given groups with one query per batch of groups, instead of reading the
+     * attributes of each group separately.
+     *
+     * @param tenantId   tenant id
+     * @param roleNames  names of the groups
+     * @return SCIM ids of the groups keyed by the given group name. Groups that are not SCIM groups are
+     * not included.
+     * @throws IdentitySCIMException
+     */
+    public Map<String, String> getGroupIds(int tenantId, Collection<String> roleNames)
+            throws IdentitySCIMException {
+        Map<String, String> groupIds = new HashMap<String, String>();
+        if (roleNames == null || roleNames.isEmpty()) {
+            return groupIds;
+        }
+
+        //group names are stored with the domain, map them back to the names given by the caller
+        Map<String, String> namesWithDomain = new HashMap<String, String>();
+        for (String roleName : roleNames) {
+            namesWithDomain.put(SCIMCommonUtils.getGroupNameWithDomain(roleName), roleName);
+        }
+        List<String> names = new ArrayList<String>(namesWithDomain.keySet());
+
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rSet = null;
+        try {
+            connection = JDBCPersistenceManager.getInstance().getDBConnection();
+            for (int from = 0; from < names.size(); from += MAX_GROUPS_PER_QUERY) {
+                List<String> batch = names.subList(from, Math.min(from + MAX_GROUPS_PER_QUERY, names.size()));
+                StringBuilder sql = new StringBuilder(SQLQueries.GET_GROUP_IDS_BY_NAMES_SQL);
+                for (int i = 0; i < batch.size(); i++) {
+                    sql.append(i == 0 ? "?" : ", ?");
+                }
+                sql.append(")");
+
+                prepStmt = connection.prepareStatement(sql.toString());
+                prepStmt.setInt(1, tenantId);
+                prepStmt.setString(2, SCIMConstants.ID_URI);
+                int index = 3;
+                for (String name : batch) {
+                    prepStmt.setString(index++, name);
+                }
+                rSet = prepStmt.executeQuery();
+                while (rSet.next()) {
+                    String roleName = namesWithDomain.get(rSet.getString(1));
+                    if (roleName != null) {
+                        groupIds.put(roleName, rSet.getString(2));
+                    }
+                }
+                IdentityDatabaseUtil.closeResultSet(rSet);
+                IdentityDatabaseUtil.closeStatement(prepStmt);
+                rSet = null;
+                prepStmt = null;
+            }
+        } catch (IdentityException e) {
+            String errorMsg = "Error when getting an Identity Persistence Store instance.";
+            throw new IdentitySCIMException(errorMsg, e);
+        } catch (SQLException e) {
+            log.error("Error when executing the SQL : " + SQLQueries.GET_GROUP_IDS_BY_NAMES_SQL);
+            throw new IdentitySCIMException("Error when reading the SCIM Group information from the " +
+                    "persistence store.");
+        } finally {
+            IdentityDatabaseUtil.closeAllConnections(connection, rSet, prepStmt);
+        }
+        return groupIds;
+    }
+
     public void updateRoleName(int tenantId, String oldRoleName, String newRoleName)
             throws IdentitySCIMException {
         Connection connection = null;
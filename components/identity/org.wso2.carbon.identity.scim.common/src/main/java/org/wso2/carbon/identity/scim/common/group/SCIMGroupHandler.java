@@ -137,8 +137,21 @@ public class SCIMGroupHandler {
      * @param name
      * @return
      */
-    public String getGroupId(String name) {
-        return null;
+    public String getGroupId(String name) throws IdentitySCIMException {
+        return getGroupIds(Collections.singletonList(name)).get(name);
+    }
+
+    /**
+     * Get the ids of the given groups in bulk. Groups which are not SCIM groups are not included in
+     * the returned map.
+     *
+     * @param names
+     * @return group ids keyed by group name
+     * @throws IdentitySCIMException
+     */
+    public Map<String, String> getGroupIds(Collection<String> names) throws IdentitySCIMException {
+        GroupDAO groupDAO = new GroupDAO();
+        return groupDAO.getGroupIds(tenantId, names);
     }
 
     /**
@@ -4,6 +4,7 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.identity.scim.common.config.SCIMProvisioningConfigManager;
 import org.wso2.carbon.identity.scim.common.utils.IdentitySCIMException;
+import org.wso2.carbon.identity.scim.common.utils.SCIMCommonUtils;
 import org.wso2.charon.core.config.SCIMConsumer;
 import org.wso2.charon.core.config.SCIMProvider;
 import org.wso2.charon.core.objects.Group;
@@ -14,7 +15,6 @@ import org.wso2.charon.core.schema.SCIMConstants;
 
 import java.util.Map;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class DefaultSCIMProvisioningHandler implements ProvisioningHandler {
 
@@ -22,7 +22,7 @@ public class DefaultSCIMProvisioningHandler implements ProvisioningHandler {
     protected SCIMProvisioningConfigManager provisioningManager;
 
     //to make provisioning requests sent to different providers parallel.
-    private ExecutorService provisioningThreadPool = Executors.newCachedThreadPool();
+    private ExecutorService provisioningThreadPool = SCIMCommonUtils.getProvisioningThreadPool();
 
     private int objectType;
     //variables used in runnable's run method in a particular instance of the object:
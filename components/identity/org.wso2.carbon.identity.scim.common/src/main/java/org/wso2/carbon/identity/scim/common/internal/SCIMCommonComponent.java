@@ -76,6 +76,14 @@ public class SCIMCommonComponent {
         }
     }
 
+    protected void deactivate(ComponentContext ctx) {
+        SCIMCommonUtils.shutdownProvisioningThreadPool();
+        executorService.shutdown();
+        if (logger.isDebugEnabled()) {
+            logger.debug("SCIM Common component deactivated.");
+        }
+    }
+
     protected void setIdentityUtil(IdentityUtil idnUtil) {
         identityUtil = idnUtil;
     }
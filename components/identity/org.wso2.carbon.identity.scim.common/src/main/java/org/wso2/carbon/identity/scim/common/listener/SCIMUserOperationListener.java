@@ -28,6 +28,7 @@ import org.wso2.carbon.identity.scim.common.utils.AttributeMapper;
 import org.wso2.carbon.identity.scim.common.utils.IdentitySCIMException;
 import org.wso2.carbon.identity.scim.common.utils.SCIMCommonConstants;
 import org.wso2.carbon.identity.scim.common.utils.SCIMCommonUtils;
+import org.wso2.carbon.identity.scim.common.utils.SCIMUserIdResolver;
 import org.wso2.carbon.user.api.AuthorizationManager;
 import org.wso2.carbon.user.api.ClaimManager;
 import org.wso2.carbon.user.api.ClaimMapping;
@@ -50,7 +51,6 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 /**
  * This is to perform SCIM related operation on User Operations.
@@ -62,7 +62,7 @@ public class SCIMUserOperationListener implements UserOperationEventListener {
     private static Log log = LogFactory.getLog(SCIMUserOperationListener.class);
 
     //to make provisioning to other providers asynchronously happen.
-    private ExecutorService provisioningThreadPool = Executors.newCachedThreadPool();
+    private ExecutorService provisioningThreadPool = SCIMCommonUtils.getProvisioningThreadPool();
     private String provisioningHandlerImplClass = SCIMProvisioningConfigManager.getProvisioningHandlers()[0];
 
     public int getExecutionOrderId() {
@@ -287,6 +287,10 @@ public class SCIMUserOperationListener implements UserOperationEventListener {
                 return true;
             }
 
+            //drop the user from the SCIM id index, the id would otherwise keep resolving to the deleted user.
+            SCIMUserIdResolver.getInstance().removeUser(userStoreManager.getTenantId(),
+                    UserCoreUtil.addDomainToName(userName,
+                            UserCoreUtil.getDomainName(userStoreManager.getRealmConfiguration())));
 
             //do provisioning
             try {
@@ -0,0 +1,43 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.scim.common.utils;
+
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A user store manager which finds the users having any of several values of a claim in one search,
+ * e.g. with an IN clause or an OR filter. SCIM ids of group members are resolved with one search on
+ * user store managers implementing this, instead of one search per member.
+ */
+public interface BulkClaimUserStoreManager {
+
+    /**
+     * @param claimUri    claim to search on
+     * @param claimValues claim values to look for
+     * @param domain      user store domain to look in, null to search without a domain
+     * @param profileName profile name
+     * @return user names, with the domain if the user is in a secondary user store, keyed by the claim
+     * value. Values no user has are not included.
+     * @throws UserStoreException
+     */
+    Map<String, String> getUserNames(String claimUri, Collection<String> claimValues, String domain,
+                                     String profileName) throws UserStoreException;
+}
@@ -0,0 +1,37 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.scim.common.utils;
+
+import org.wso2.carbon.user.core.UserStoreException;
+
+/**
+ * A user store manager which lists its users a page at a time. Paged SCIM user listings pass the
+ * requested page to user store managers implementing this, instead of listing every user and
+ * cutting the page out of the list.
+ */
+public interface PaginatedUserStoreManager {
+
+    /**
+     * @param filter user name filter, "*" for all users
+     * @param offset number of users to skip, in user name order
+     * @param limit  maximum number of users to return
+     * @return user names of the page, in user name order
+     * @throws UserStoreException
+     */
+    String[] listUsers(String filter, int offset, int limit) throws UserStoreException;
+}
@@ -17,15 +17,25 @@
 */
 package org.wso2.carbon.identity.scim.common.utils;
 
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.CarbonConstants;
 import org.wso2.carbon.base.ServerConfiguration;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.scim.common.config.SCIMProviderDTO;
 import org.wso2.carbon.user.core.UserCoreConstants;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is to be used as a Util class for SCIM common things.
@@ -56,6 +66,68 @@ public class SCIMCommonUtils {
      */
     private static ThreadLocal threadLocalIsManagedThroughSCIMEP = new ThreadLocal();
 
+    private static final String PROVISIONING_THREAD_POOL_SIZE = "SCIMProvisioning.ThreadPoolSize";
+    private static final String PROVISIONING_QUEUE_SIZE = "SCIMProvisioning.QueueSize";
+    private static final int DEFAULT_PROVISIONING_THREAD_POOL_SIZE = 5;
+    private static final int DEFAULT_PROVISIONING_QUEUE_SIZE = 1000;
+    private static final long PROVISIONING_SHUTDOWN_TIMEOUT = 10000;
+    private static volatile ExecutorService provisioningThreadPool;
+
+    private static Log log = LogFactory.getLog(SCIMCommonUtils.class);
+
+    /**
+     * Thread pool shared by all SCIM provisioning operations. It is bounded, and when the queue is full
+     * the calling thread runs the provisioning operation itself, so that bulk user management operations
+     * are slowed down instead of piling up an unbounded number of threads. Operations submitted after the
+     * pool is shut down are also run by the calling thread.
+     *
+     * @return provisioning thread pool
+     */
+    public static ExecutorService getProvisioningThreadPool() {
+        if (provisioningThreadPool == null) {
+            synchronized (SCIMCommonUtils.class) {
+                if (provisioningThreadPool == null) {
+                    int poolSize = Math.max(1, IdentityUtil.getIntProperty(PROVISIONING_THREAD_POOL_SIZE,
+                            DEFAULT_PROVISIONING_THREAD_POOL_SIZE));
+                    int queueSize = Math.max(1, IdentityUtil.getIntProperty(PROVISIONING_QUEUE_SIZE,
+                            DEFAULT_PROVISIONING_QUEUE_SIZE));
+                    ThreadPoolExecutor threadPool = new ThreadPoolExecutor(poolSize, poolSize, 60,
+                            TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueSize),
+                            new ProvisioningThreadFactory(), new CallerRunsHandler());
+                    threadPool.allowCoreThreadTimeOut(true);
+                    provisioningThreadPool = threadPool;
+                }
+            }
+        }
+        return provisioningThreadPool;
+    }
+
+    /**
+     * Shuts down the provisioning thread pool, waiting for the queued provisioning operations to complete.
+     * Called when the SCIM common bundle is deactivated.
+     */
+    public static void shutdownProvisioningThreadPool() {
+        ExecutorService threadPool;
+        synchronized (SCIMCommonUtils.class) {
+            threadPool = provisioningThreadPool;
+            provisioningThreadPool = null;
+        }
+        if (threadPool == null) {
+            return;
+        }
+        threadPool.shutdown();
+        try {
+            if (!threadPool.awaitTermination(PROVISIONING_SHUTDOWN_TIMEOUT, TimeUnit.MILLISECONDS)) {
+                log.warn("SCIM provisioning operations did not complete within " + PROVISIONING_SHUTDOWN_TIMEOUT +
+                        "ms of the shutdown");
+                threadPool.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            threadPool.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
     public static void init() {
         //to initialize scim urls once.
         //construct SCIM_USER_LOCATION and SCIM_GROUP_LOCATION like: https://localhost:9443/wso2/scim/Groups
@@ -164,4 +236,28 @@ public class SCIMCommonUtils {
         }
         return groupName;
     }
+
+    private static class ProvisioningThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SCIMProvisioning-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Runs a provisioning operation on the calling thread when the queue is full or the pool is shut down, so
+     * that the operation is not dropped
+     */
+    private static class CallerRunsHandler implements RejectedExecutionHandler {
+
+        @Override
+        public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+            runnable.run();
+        }
+    }
 }
@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2010 WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.identity.scim.common.utils;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.wso2.carbon.user.core.UserCoreConstants;
+import org.wso2.carbon.user.core.UserStoreException;
+import org.wso2.carbon.user.core.UserStoreManager;
+import org.wso2.carbon.user.core.util.UserCoreUtil;
+import org.wso2.charon.core.schema.SCIMConstants;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bidirectional index between SCIM user ids and user names. Group operations resolve every member
+ * id to a user name, which costs a user store search per member. Since SCIM ids are never reused and
+ * user names can not be changed, resolved mappings are kept here until the user is deleted, the index
+ * grows beyond its capacity or the mapping times out. The index is local to the node, so a user
+ * deleted on another node is only dropped when its mapping times out.
+ */
+public class SCIMUserIdResolver {
+
+    private static Log log = LogFactory.getLog(SCIMUserIdResolver.class);
+
+    private static final int MAX_ENTRIES = 10000;
+
+    // in milli seconds
+    private static final long MAPPING_TIMEOUT = 5 * 60 * 1000L;
+
+    private static SCIMUserIdResolver instance = new SCIMUserIdResolver();
+
+    //keys are prefixed with the tenant id, since the same user name can exist in several tenants
+    private final Map<String, Mapping> idToUserName = new LRUMap();
+
+    private final Map<String, Mapping> userNameToId = new LRUMap();
+
+    private SCIMUserIdResolver() {
+    }
+
+    public static SCIMUserIdResolver getInstance() {
+        return instance;
+    }
+
+    /**
+     * Records the mapping between the given SCIM id and user name.
+     *
+     * @param tenantId tenant id
+     * @param id       SCIM id of the user
+     * @param userName user name, with the domain if the user is in a secondary user store
+     */
+    public void addMapping(int tenantId, String id, String userName) {
+        if (id == null || userName == null) {
+            return;
+        }
+        long expiryTime = System.currentTimeMillis() + MAPPING_TIMEOUT;
+        synchronized (this) {
+            idToUserName.put(getKey(tenantId, id), new Mapping(userName, expiryTime));
+            userNameToId.put(getKey(tenantId, userName), new Mapping(id, expiryTime));
+        }
+    }
+
+    /**
+     * Removes the user with the given SCIM id from the index.
+     *
+     * @param tenantId tenant id
+     * @param id       SCIM id of the user
+     */
+    public void removeMapping(int tenantId, String id) {
+        if (id == null) {
+            return;
+        }
+        synchronized (this) {
+            Mapping userName = idToUserName.remove(getKey(tenantId, id));
+            if (userName != null) {
+                userNameToId.remove(getKey(tenantId, userName.value));
+            }
+        }
+    }
+
+    /**
+     * Removes the user with the given user name from the index.
+     *
+     * @param tenantId tenant id
+     * @param userName user name, with the domain if the user is in a secondary user store
+     */
+    public void removeUser(int tenantId, String userName) {
+        if (userName == null) {
+            return;
+        }
+        synchronized (this) {
+            Mapping id = userNameToId.remove(getKey(tenantId, userName));
+            if (id != null) {
+                idToUserName.remove(getKey(tenantId, id.value));
+            }
+        }
+    }
+
+    /**
+     * Returns the user name of the user with the given SCIM id.
+     *
+     * @param userStoreManager user store manager of the tenant
+     * @param id               SCIM id of the user
+     * @param domain           user store domain to look in, null to search without a domain
+     * @return user name, or null if there is no user with the given id in the given user store
+     * @throws UserStoreException
+     */
+    public String getUserName(UserStoreManager userStoreManager, String id, String domain)
+            throws UserStoreException {
+        Map<String, String> userNames = getUserNames(userStoreManager, Collections.singleton(id), domain);
+        return userNames.get(id);
+    }
+
+    /**
+     * Resolves the user names of the given SCIM ids in one go. Ids found in the index are answered from
+     * it, only the remaining ids are searched in the user store. User store managers implementing
+     * {@link BulkClaimUserStoreManager} are searched once for all of them, others once per id.
+     *
+     * @param userStoreManager user store manager of the tenant
+     * @param ids              SCIM ids of the users
+     * @param domain           user store domain to look in, null to search without a domain
+     * @return user names keyed by SCIM id. Ids which do not belong to a user in the given user store are
+     * not included.
+     * @throws UserStoreException
+     */
+    public Map<String, String> getUserNames(UserStoreManager userStoreManager, Collection<String> ids,
+                                            String domain) throws UserStoreException {
+        Map<String, String> userNames = new HashMap<String, String>();
+        if (ids == null || ids.isEmpty()) {
+            return userNames;
+        }
+        int tenantId = userStoreManager.getTenantId();
+
+        synchronized (this) {
+            for (String id : ids) {
+                String userName = getValue(idToUserName, getKey(tenantId, id));
+                if (userName != null &&
+                        (domain == null || domain.equalsIgnoreCase(UserCoreUtil.extractDomainFromName(userName)))) {
+                    userNames.put(id, userName);
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug(userNames.size() + " of " + ids.size() + " SCIM ids resolved from the index.");
+        }
+
+        List<String> missingIds = new ArrayList<String>();
+        for (String id : ids) {
+            if (!userNames.containsKey(id)) {
+                missingIds.add(id);
+            }
+        }
+        if (missingIds.isEmpty()) {
+            return userNames;
+        }
+
+        if (userStoreManager instanceof BulkClaimUserStoreManager) {
+            Map<String, String> result = ((BulkClaimUserStoreManager) userStoreManager).getUserNames(
+                    SCIMConstants.ID_URI, missingIds, domain, UserCoreConstants.DEFAULT_PROFILE);
+            for (Map.Entry<String, String> entry : result.entrySet()) {
+                userNames.put(entry.getKey(), entry.getValue());
+                addMapping(tenantId, entry.getKey(), entry.getValue());
+            }
+            return userNames;
+        }
+
+        for (String id : missingIds) {
+            String claimValue = domain == null ? id : UserCoreUtil.addDomainToName(id, domain);
+            String[] result = userStoreManager.getUserList(SCIMConstants.ID_URI, claimValue,
+                    UserCoreConstants.DEFAULT_PROFILE);
+            if (result != null && result.length != 0) {
+                //we assume (since id is unique per user) only one user exists for a given id
+                userNames.put(id, result[0]);
+                addMapping(tenantId, id, result[0]);
+            }
+        }
+        return userNames;
+    }
+
+    /**
+     * Returns the SCIM id of the given user.
+     *
+     * @param userStoreManager user store manager of the tenant
+     * @param userName         user name, with the domain if the user is in a secondary user store
+     * @return SCIM id, or null if the user does not have one
+     * @throws UserStoreException
+     */
+    public String getUserId(UserStoreManager userStoreManager, String userName) throws UserStoreException {
+        int tenantId = userStoreManager.getTenantId();
+        String id;
+        synchronized (this) {
+            id = getValue(userNameToId, getKey(tenantId, userName));
+        }
+        if (id == null) {
+            id = userStoreManager.getUserClaimValue(userName, SCIMConstants.ID_URI, null);
+            addMapping(tenantId, id, userName);
+        }
+        return id;
+    }
+
+    /**
+     * Clears the index.
+     */
+    public synchronized void clear() {
+        idToUserName.clear();
+        userNameToId.clear();
+    }
+
+    private String getKey(int tenantId, String value) {
+        return tenantId + ":" + value;
+    }
+
+    private static String getValue(Map<String, Mapping> map, String key) {
+        Mapping mapping = map.get(key);
+        if (mapping == null) {
+            return null;
+        }
+        if (mapping.expiryTime <= System.currentTimeMillis()) {
+            map.remove(key);
+            return null;
+        }
+        return mapping.value;
+    }
+
+    private static class Mapping {
+
+        private final String value;
+
+        private final long expiryTime;
+
+        private Mapping(String value, long expiryTime) {
+            this.value = value;
+            this.expiryTime = expiryTime;
+        }
+    }
+
+    private static class LRUMap extends LinkedHashMap<String, Mapping> {
+
+        private static final long serialVersionUID = -4309178356412380465L;
+
+        private LRUMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Mapping> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    }
+}
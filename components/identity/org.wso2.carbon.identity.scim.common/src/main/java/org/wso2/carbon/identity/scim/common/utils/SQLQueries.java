@@ -29,6 +29,9 @@ public class SQLQueries {
     public static final String GET_GROUP_NAME_BY_ID_SQL =
             "SELECT ROLE_NAME FROM IDN_SCIM_GROUP WHERE IDN_SCIM_GROUP.TENANT_ID=? AND " +
                     "IDN_SCIM_GROUP.ATTR_VALUE=? AND IDN_SCIM_GROUP.ATTR_NAME=?";
+    public static final String GET_GROUP_IDS_BY_NAMES_SQL =
+            "SELECT ROLE_NAME, ATTR_VALUE FROM IDN_SCIM_GROUP WHERE IDN_SCIM_GROUP.TENANT_ID=? AND " +
+                    "IDN_SCIM_GROUP.ATTR_NAME=? AND IDN_SCIM_GROUP.ROLE_NAME IN (";
     public static final String ADD_ATTRIBUTES_SQL =
             "INSERT INTO IDN_SCIM_GROUP (TENANT_ID, ROLE_NAME, ATTR_NAME, ATTR_VALUE) VALUES (?, ?, ?, ?)";
     public static final String UPDATE_ATTRIBUTES_SQL =
@@ -30,8 +30,10 @@ import org.wso2.carbon.identity.scim.common.config.SCIMProvisioningConfigManager
 import org.wso2.carbon.identity.scim.common.group.SCIMGroupHandler;
 import org.wso2.carbon.identity.scim.common.utils.AttributeMapper;
 import org.wso2.carbon.identity.scim.common.utils.IdentitySCIMException;
+import org.wso2.carbon.identity.scim.common.utils.PaginatedUserStoreManager;
 import org.wso2.carbon.identity.scim.common.utils.SCIMCommonConstants;
 import org.wso2.carbon.identity.scim.common.utils.SCIMCommonUtils;
+import org.wso2.carbon.identity.scim.common.utils.SCIMUserIdResolver;
 import org.wso2.carbon.user.api.ClaimMapping;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.user.core.UserCoreConstants;
@@ -51,7 +53,6 @@ import org.wso2.charon.core.schema.SCIMConstants;
 
 import java.util.*;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 public class SCIMUserManager implements UserManager {
     private static Log log = LogFactory.getLog(SCIMUserManager.class);
@@ -59,7 +60,7 @@ public class SCIMUserManager implements UserManager {
     private ClaimManager carbonClaimManager = null;
     private String consumerName;
     //to make provisioning to other providers asynchronously happen.
-    private ExecutorService provisioningThreadPool = Executors.newCachedThreadPool();
+    private ExecutorService provisioningThreadPool = SCIMCommonUtils.getProvisioningThreadPool();
 
     public SCIMUserManager(UserStoreManager carbonUserStoreManager, String userName,
                            ClaimManager claimManager) {
@@ -175,22 +176,15 @@ public class SCIMUserManager implements UserManager {
         User scimUser = null;
         try {
             //get the user name of the user with this id
-            String[] userNames = carbonUM.getUserList(SCIMConstants.ID_URI, userId,
-                    UserCoreConstants.DEFAULT_PROFILE);
+            String userName = SCIMUserIdResolver.getInstance().getUserName(carbonUM, userId, null);
 
-            if (userNames == null || userNames.length == 0) {
-                if (log.isDebugEnabled()) {
-                    log.debug("User with SCIM id: " + userId + " does not exist in the system.");
-                }
-                return null;
-            } else if (userNames != null && userNames.length == 0) {
+            if (userName == null) {
                 if (log.isDebugEnabled()) {
                     log.debug("User with SCIM id: " + userId + " does not exist in the system.");
                 }
                 return null;
             } else {
-                //we assume (since id is unique per user) only one user exists for a given id
-                scimUser = this.getSCIMUser(userNames[0]);
+                scimUser = this.getSCIMUser(userName);
 
                 log.info("User: " + scimUser.getUserName() + " is retrieved through SCIM.");
             }
@@ -207,11 +201,13 @@ public class SCIMUserManager implements UserManager {
         try {
             String[] userNames = carbonUM.getUserList(SCIMConstants.ID_URI, "*", null);
             if (userNames != null && userNames.length != 0) {
+                String[] claimURIs = getSCIMClaimURIs();
+                Map<String, String> groupIds = new HashMap<String, String>();
                 for (String userName : userNames) {
                     if (userName.contains(UserCoreConstants.NAME_COMBINER)) {
                         userName = userName.split("\\" + UserCoreConstants.NAME_COMBINER)[0];
                     }
-                    User scimUser = this.getSCIMUser(userName);
+                    User scimUser = this.getSCIMUser(userName, claimURIs, groupIds);
                     Map<String, Attribute> attrMap = scimUser.getAttributeList();
                     if (attrMap != null && !attrMap.isEmpty()) {
                         users.add(scimUser);
@@ -257,11 +253,13 @@ public class SCIMUserManager implements UserManager {
                 }
                 return null;
             } else {
+                String[] claimURIs = getSCIMClaimURIs();
+                Map<String, String> groupIds = new HashMap<String, String>();
                 for (String userName : userNames) {
                     if (CarbonConstants.REGISTRY_ANONNYMOUS_USERNAME.equals(userName)) {
                         continue;
                     }
-                    scimUser = this.getSCIMUser(userName);
+                    scimUser = this.getSCIMUser(userName, claimURIs, groupIds);
                     //if SCIM-ID is not present in the attributes, skip
                     if (scimUser.getId() == null) {
                         continue;
@@ -286,8 +284,107 @@ public class SCIMUserManager implements UserManager {
         return null;
     }
 
-    public List<User> listUsersWithPagination(int i, int i1) {
-        return null;
+    /**
+     * Lists a page of users, sorted by user name. User stores implementing
+     * {@link PaginatedUserStoreManager} are asked for the page only. Otherwise the page is cut from the
+     * users {@link #listUsers()} returns, so that consecutive pages neither overlap nor skip users. Claims
+     * are only read for the users of the requested page.
+     *
+     * @param startIndex 1-based index of the first user of the page
+     * @param count      maximum number of users in the page
+     * @return users of the page
+     * @throws CharonException
+     */
+    public List<User> listUsersWithPagination(int startIndex, int count) throws CharonException {
+        if (startIndex < 1) {
+            startIndex = 1;
+        }
+        List<User> users = new ArrayList<User>();
+        if (count <= 0) {
+            return users;
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Listing users with pagination. Start index: " + startIndex + ", count: " + count);
+        }
+        try {
+            Collection<String> userNames;
+            if (carbonUM instanceof PaginatedUserStoreManager) {
+                String[] userNameList = ((PaginatedUserStoreManager) carbonUM).listUsers("*", startIndex - 1, count);
+                userNames = getUserNames(userNameList);
+            } else {
+                userNames = getPage(getUserNames(carbonUM.getUserList(SCIMConstants.ID_URI, "*", null)),
+                        startIndex, count);
+            }
+
+            String[] claimURIs = getSCIMClaimURIs();
+            Map<String, String> groupIds = new HashMap<String, String>();
+            for (String userName : userNames) {
+                User scimUser = this.getSCIMUser(userName, claimURIs, groupIds);
+                Map<String, Attribute> attrMap = scimUser.getAttributeList();
+                if (attrMap != null && !attrMap.isEmpty()) {
+                    users.add(scimUser);
+                }
+            }
+        } catch (org.wso2.carbon.user.core.UserStoreException e) {
+            throw new CharonException("Error while retrieving users from user store..", e);
+        }
+        return users;
+    }
+
+    /**
+     * @return the user names without their profile, sorted
+     */
+    private SortedSet<String> getUserNames(String[] userNameList) {
+        SortedSet<String> userNames = new TreeSet<String>();
+        if (userNameList == null) {
+            return userNames;
+        }
+        for (String userName : userNameList) {
+            if (userName.contains(UserCoreConstants.NAME_COMBINER)) {
+                userName = userName.split("\\" + UserCoreConstants.NAME_COMBINER)[0];
+            }
+            userNames.add(userName);
+        }
+        return userNames;
+    }
+
+    /**
+     * Cuts a page out of all the users of a user store which can not list a page of users
+     */
+    private List<String> getPage(SortedSet<String> userNames, int startIndex, int count) {
+        int maxUserListLength = getMaxUserListLength();
+        if (maxUserListLength > 0 && userNames.size() >= maxUserListLength) {
+            log.warn("The user store returned " + userNames.size() + " users, which is the maximum number of " +
+                    "users it lists. Pages after these users are empty. Increase " +
+                    UserCoreConstants.RealmConfig.PROPERTY_MAX_USER_LIST + " or use a filter to list the rest");
+        }
+        List<String> page = new ArrayList<String>();
+        long endIndex = (long) startIndex + count;
+        int index = 0;
+        for (String userName : userNames) {
+            index++;
+            if (index < startIndex) {
+                continue;
+            }
+            if (index >= endIndex) {
+                break;
+            }
+            page.add(userName);
+        }
+        return page;
+    }
+
+    private int getMaxUserListLength() {
+        String value = carbonUM.getRealmConfiguration()
+                .getUserStoreProperty(UserCoreConstants.RealmConfig.PROPERTY_MAX_USER_LIST);
+        if (value != null) {
+            try {
+                return Integer.parseInt(value.trim());
+            } catch (NumberFormatException e) {
+                log.warn("Invalid value " + value + " for " + UserCoreConstants.RealmConfig.PROPERTY_MAX_USER_LIST);
+            }
+        }
+        return 0;
     }
 
     public User updateUser(User user) throws CharonException {
@@ -372,30 +469,21 @@ public class SCIMUserManager implements UserManager {
                 log.debug("Deleting user: " + userId);
             }
             //get the user name of the user with this id
-            String[] userNames = null;
             String userName = null;
             try {
                 /*set thread local property to signal the downstream SCIMUserOperationListener
                 about the provisioning route.*/
                 SCIMCommonUtils.setThreadLocalIsManagedThroughSCIMEP(true);
-                userNames = carbonUM.getUserList(SCIMConstants.ID_URI, userId,
-                        UserCoreConstants.DEFAULT_PROFILE);
-                if (userNames == null && userNames.length == 0) {
-                    //resource with given id not found
-                    if (log.isDebugEnabled()) {
-                        log.debug("User with id: " + userId + " not found.");
-                    }
-                    throw new NotFoundException();
-                } else if (userNames != null && userNames.length == 0) {
+                userName = SCIMUserIdResolver.getInstance().getUserName(carbonUM, userId, null);
+                if (userName == null) {
                     //resource with given id not found
                     if (log.isDebugEnabled()) {
                         log.debug("User with id: " + userId + " not found.");
                     }
                     throw new NotFoundException();
                 } else {
-                    //we assume (since id is unique per user) only one user exists for a given id
-                    userName = userNames[0];
                     carbonUM.deleteUser(userName);
+                    SCIMUserIdResolver.getInstance().removeMapping(carbonUM.getTenantId(), userId);
                     log.info("User: " + userName + " is deleted through SCIM.");
                 }
 
@@ -454,19 +542,21 @@ public class SCIMUserManager implements UserManager {
                 List<String> userDisplayNames = group.getMembersWithDisplayName();
                 if (userIds != null && userIds.size() != 0) {
                     List<String> members = new ArrayList<String>();
+                    //resolve all the members at once
+                    Map<String, String> memberNames =
+                            SCIMUserIdResolver.getInstance().getUserNames(carbonUM, userIds, null);
                     for (String userId : userIds) {
-                        String[] userNames = carbonUM.getUserList(SCIMConstants.ID_URI, userId,
-                                UserCoreConstants.DEFAULT_PROFILE);
-                        if (userNames == null || userNames.length == 0) {
+                        String memberName = memberNames.get(userId);
+                        if (memberName == null) {
                             String error = "User: " + userId + " doesn't exist in the user store. " +
                                     "Hence, can not create the group: " + group.getDisplayName();
                             throw new IdentitySCIMException(error);
-                        } else if (userNames[0].indexOf(UserCoreConstants.DOMAIN_SEPARATOR) > 0 && !userNames[0].contains(domainName)) {
+                        } else if (memberName.indexOf(UserCoreConstants.DOMAIN_SEPARATOR) > 0 && !memberName.contains(domainName)) {
                             String error = "User: " + userId + " doesn't exist in the same user store. " +
                                     "Hence, can not create the group: " + group.getDisplayName();
                             throw new IdentitySCIMException(error);
                         } else {
-                            members.add(userNames[0]);
+                            members.add(memberName);
                             if (userDisplayNames != null && userDisplayNames.size() != 0) {
                                 boolean userContains = false;
                                 for (String user : userDisplayNames) {
@@ -474,9 +564,9 @@ public class SCIMUserManager implements UserManager {
                                             user.indexOf(UserCoreConstants.DOMAIN_SEPARATOR) > 0
                                                     ? user.split(UserCoreConstants.DOMAIN_SEPARATOR)[1]
                                                     : user;
-                                    if (user.equalsIgnoreCase(userNames[0].indexOf(UserCoreConstants.DOMAIN_SEPARATOR) > 0
-                                            ? userNames[0].split(UserCoreConstants.DOMAIN_SEPARATOR)[1]
-                                            : userNames[0])) {
+                                    if (user.equalsIgnoreCase(memberName.indexOf(UserCoreConstants.DOMAIN_SEPARATOR) > 0
+                                            ? memberName.split(UserCoreConstants.DOMAIN_SEPARATOR)[1]
+                                            : memberName)) {
                                         userContains = true;
                                         break;
                                     }
@@ -684,19 +774,20 @@ public class SCIMUserManager implements UserManager {
                 }
 
                 if (userIds != null && userIds.size() != 0) {
-                    String[] userNames = null;
+                    //resolve all the members at once
+                    Map<String, String> memberNames = SCIMUserIdResolver.getInstance().getUserNames(
+                            carbonUM, userIds, userStoreDomainForGroup);
+                    String[] displayNamesWithoutDomain = UserCoreUtil.removeDomainFromNames(
+                            userDisplayNames.toArray(new String[userDisplayNames.size()]));
                     for (String userId : userIds) {
-                        userNames = carbonUM.getUserList(SCIMConstants.ID_URI,
-                                UserCoreUtil.addDomainToName(userId, userStoreDomainForGroup),
-                                UserCoreConstants.DEFAULT_PROFILE);
-                        if (userNames == null || userNames.length == 0) {
+                        String memberName = memberNames.get(userId);
+                        if (memberName == null) {
                             String error = "User: " + userId + " doesn't exist in the user store. " +
                                     "Hence, can not update the group: " + oldGroup.getDisplayName();
                             throw new IdentitySCIMException(error);
                         } else {
-                            if (!UserCoreUtil.isContain(UserCoreUtil.removeDomainFromName(userNames[0]),
-                                    UserCoreUtil.removeDomainFromNames(userDisplayNames.toArray(
-                                            new String[userDisplayNames.size()])))) {
+                            if (!UserCoreUtil.isContain(UserCoreUtil.removeDomainFromName(memberName),
+                                    displayNamesWithoutDomain)) {
                                 throw new IdentitySCIMException("Given SCIM user Id and name not matching..");
                             }
                         }
@@ -829,18 +920,18 @@ public class SCIMUserManager implements UserManager {
 
                 List<String> userIds = newGroup.getMembers();
                 List<String> userDisplayNames = newGroup.getMembersWithDisplayName();
-                String[] userNames = null;
+                //resolve all the members at once
+                Map<String, String> memberNames =
+                        SCIMUserIdResolver.getInstance().getUserNames(carbonUM, userIds, null);
                 for (String userId : userIds) {
-                    userNames =
-                            carbonUM.getUserList(SCIMConstants.ID_URI, userId,
-                                    UserCoreConstants.DEFAULT_PROFILE);
-                    if (userNames == null || userNames.length == 0) {
+                    String memberName = memberNames.get(userId);
+                    if (memberName == null) {
                         String error =
                                 "User: " + userId + " doesn't exist in the user store. " +
                                         "Hence, can not update the group: " + oldGroup.getDisplayName();
                         throw new CharonException(error);
                     } else {
-                        if (!userDisplayNames.contains(userNames[0])) {
+                        if (!userDisplayNames.contains(memberName)) {
                             throw new CharonException("Given SCIM user Id and name not matching..");
                         }
                     }
@@ -958,7 +1049,17 @@ public class SCIMUserManager implements UserManager {
     }
 
     private User getSCIMUser(String userName) throws CharonException {
-        User scimUser = null;
+        return getSCIMUser(userName, getSCIMClaimURIs(), new HashMap<String, String>());
+    }
+
+    /**
+     * Returns the claim URIs of the SCIM claim dialect. Listing operations read these once and reuse them
+     * for every user in the result instead of walking the claim dialect per user.
+     *
+     * @return SCIM claim URIs
+     * @throws CharonException
+     */
+    private String[] getSCIMClaimURIs() throws CharonException {
         try {
             //get claims related to SCIM claim dialect
             ClaimMapping[] claims = carbonClaimManager.getAllClaimMappings(SCIMCommonUtils.SCIM_CLAIM_DIALECT);
@@ -967,9 +1068,28 @@ public class SCIMUserManager implements UserManager {
             for (ClaimMapping claim : claims) {
                 claimURIList.add(claim.getClaim().getClaimUri());
             }
+            return claimURIList.toArray(new String[claimURIList.size()]);
+        } catch (UserStoreException e) {
+            throw new CharonException("Error in retrieving the claims of SCIM claim dialect", e);
+        }
+    }
+
+    /**
+     * Builds the SCIM user of the given user name.
+     *
+     * @param userName   user name
+     * @param claimURIs  SCIM claim URIs to be read
+     * @param groupIds   SCIM group ids already resolved within the current request, keyed by role name. Roles
+     *                   which are not SCIM groups are mapped to null.
+     * @return SCIM user
+     * @throws CharonException
+     */
+    private User getSCIMUser(String userName, String[] claimURIs, Map<String, String> groupIds)
+            throws CharonException {
+        User scimUser = null;
+        try {
             //obtain user claim values
-            Map<String, String> attributes = carbonUM.getUserClaimValues(
-                    userName, claimURIList.toArray(new String[claimURIList.size()]), null);
+            Map<String, String> attributes = carbonUM.getUserClaimValues(userName, claimURIs, null);
             //skip simple type addresses claim coz it is complex with sub types in the schema
             if (attributes.containsKey(SCIMConstants.ADDRESSES_URI)) {
                 attributes.remove(SCIMConstants.ADDRESSES_URI);
@@ -983,7 +1103,10 @@ public class SCIMUserManager implements UserManager {
             //construct the SCIM Object from the attributes
             scimUser = (User) AttributeMapper.constructSCIMObjectFromAttributes(
                     attributes, SCIMConstants.USER_INT);
+            SCIMUserIdResolver.getInstance().addMapping(carbonUM.getTenantId(), scimUser.getId(), userName);
             //add groups of user:
+            List<String> scimRoles = new ArrayList<String>();
+            List<String> unresolvedRoles = new ArrayList<String>();
             for (String role : roles) {
                 if (UserCoreUtil.isEveryoneRole(role, carbonUM.getRealmConfiguration())
                         || UserCoreUtil.isPrimaryAdminRole(role, carbonUM.getRealmConfiguration())
@@ -995,9 +1118,23 @@ public class SCIMUserManager implements UserManager {
                     // skip intenal roles
                     continue;
                 }
-                Group group = getGroupOnlyWithMetaAttributes(role);
-                if (group != null) { // can be null for non SCIM groups
-                    scimUser.setGroup(null, group.getId(), role);
+                scimRoles.add(role);
+                if (!groupIds.containsKey(role)) {
+                    unresolvedRoles.add(role);
+                }
+            }
+            //read the ids of all the groups not seen before in this request at once
+            if (!unresolvedRoles.isEmpty()) {
+                Map<String, String> resolvedIds =
+                        new SCIMGroupHandler(carbonUM.getTenantId()).getGroupIds(unresolvedRoles);
+                for (String role : unresolvedRoles) {
+                    groupIds.put(role, resolvedIds.get(role));
+                }
+            }
+            for (String role : scimRoles) {
+                String groupId = groupIds.get(role);
+                if (groupId != null) { // can be null for non SCIM groups
+                    scimUser.setGroup(null, groupId, role);
                 }
             }
         } catch (UserStoreException e) {
@@ -1036,11 +1173,9 @@ public class SCIMUserManager implements UserManager {
 
         //get the ids of the users and set them in the group with id + display name
         if (userNames != null && userNames.length != 0) {
+            SCIMUserIdResolver userIdResolver = SCIMUserIdResolver.getInstance();
             for (String userName : userNames) {
-                User user = this.getSCIMUser(userName);
-                if (user != null) {
-                    group.setMember(user.getId(), userName);
-                }
+                group.setMember(userIdResolver.getUserId(carbonUM, userName), userName);
             }
         }
         //get other group attributes and set.
@@ -1049,25 +1184,6 @@ public class SCIMUserManager implements UserManager {
         return group;
     }
 
-    /**
-     * Get group with only meta attributes.
-     *
-     * @param groupName
-     * @return
-     * @throws CharonException
-     * @throws IdentitySCIMException
-     * @throws org.wso2.carbon.user.core.UserStoreException
-     */
-    private Group getGroupOnlyWithMetaAttributes(String groupName)
-            throws CharonException, IdentitySCIMException,
-            org.wso2.carbon.user.core.UserStoreException {
-        //get other group attributes and set.
-        Group group = new Group();
-        group.setDisplayName(groupName);
-        SCIMGroupHandler groupHandler = new SCIMGroupHandler(carbonUM.getTenantId());
-        return groupHandler.getGroupWithAttributes(group, groupName);
-    }
-
     /**
      * Provision the SCIM operation received at SCIM endpoint. In SCIMUserOperationListener,
      * we authorize the user who is performing the provisioning operation. But here, we do not need to
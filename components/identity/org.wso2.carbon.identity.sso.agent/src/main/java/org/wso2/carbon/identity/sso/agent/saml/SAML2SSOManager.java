@@ -18,8 +18,6 @@
 
 package org.wso2.carbon.identity.sso.agent.saml;
 
-import org.apache.xerces.impl.Constants;
-import org.apache.xerces.util.SecurityManager;
 import org.apache.xml.security.signature.XMLSignature;
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
@@ -45,15 +43,12 @@ import org.opensaml.xml.util.XMLHelper;
 import org.opensaml.xml.validation.ValidationException;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
+import org.wso2.carbon.identity.base.IdentityException;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 import org.wso2.carbon.identity.sso.agent.SSOAgentConstants;
 import org.wso2.carbon.identity.sso.agent.SSOAgentException;
 import org.wso2.carbon.identity.sso.agent.bean.LoggedInSessionBean;
 import org.wso2.carbon.identity.sso.agent.bean.SSOAgentConfig;
-import org.wso2.carbon.identity.sso.agent.util.CarbonEntityResolver;
 import org.wso2.carbon.identity.sso.agent.util.SSOAgentUtils;
 import org.xml.sax.SAXException;
 
@@ -61,12 +56,11 @@ import javax.crypto.SecretKey;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
-import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 import java.io.*;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -82,9 +76,6 @@ import java.util.zip.DeflaterOutputStream;
  */
 public class SAML2SSOManager {
 
-    private static final String SECURITY_MANAGER_PROPERTY = Constants.XERCES_PROPERTY_PREFIX +
-            Constants.SECURITY_MANAGER_PROPERTY;
-    private static final int ENTITY_EXPANSION_LIMIT = 0;
     private static Logger LOGGER = Logger.getLogger(SSOAgentConstants.LOGGER_NAME);
     private static volatile boolean bootStrapped = false;
     private SSOAgentConfig ssoAgentConfig = null;
@@ -304,8 +295,11 @@ public class SAML2SSOManager {
         }
         if (saml2Object instanceof LogoutRequest) {
             LogoutRequest logoutRequest = (LogoutRequest) saml2Object;
-            String sessionIndex = logoutRequest.getSessionIndexes().get(0).getSessionIndex();
-            Set<HttpSession> sessions = SSOAgentSessionManager.invalidateAllSessions(sessionIndex);
+            List<String> sessionIndexes = new ArrayList<String>();
+            for (SessionIndex sessionIndex : logoutRequest.getSessionIndexes()) {
+                sessionIndexes.add(sessionIndex.getSessionIndex());
+            }
+            Set<HttpSession> sessions = SSOAgentSessionManager.invalidateAllSessions(sessionIndexes);
             for (HttpSession session : sessions) {
                 session.invalidate();
             }
@@ -551,17 +545,7 @@ public class SAML2SSOManager {
 
         try {
             String decodedString = decodeHTMLCharacters(saml2SSOString);
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-
-            documentBuilderFactory.setExpandEntityReferences(false);
-            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            SecurityManager securityManager = new SecurityManager();
-            securityManager.setEntityExpansionLimit(ENTITY_EXPANSION_LIMIT);
-            documentBuilderFactory.setAttribute(SECURITY_MANAGER_PROPERTY, securityManager);
-
-            DocumentBuilder docBuilder = documentBuilderFactory.newDocumentBuilder();
-            docBuilder.setEntityResolver(new CarbonEntityResolver());
+            DocumentBuilder docBuilder = IdentityXMLUtil.getSecuredDocumentBuilder();
             ByteArrayInputStream is = new ByteArrayInputStream(decodedString.getBytes());
             Document document = docBuilder.parse(is);
             Element element = document.getDocumentElement();
@@ -705,21 +689,10 @@ public class SAML2SSOManager {
                     org.opensaml.xml.Configuration.getMarshallerFactory();
             Marshaller marshaller = marshallerFactory.getMarshaller(xmlObject);
             Element element = marshaller.marshall(xmlObject);
-            ByteArrayOutputStream byteArrayOutputStrm = new ByteArrayOutputStream();
-            DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
-            DOMImplementationLS impl = (DOMImplementationLS) registry.getDOMImplementation("LS");
-            LSSerializer writer = impl.createLSSerializer();
-            LSOutput output = impl.createLSOutput();
-            output.setByteStream(byteArrayOutputStrm);
-            writer.write(element, output);
-            return byteArrayOutputStrm.toString();
-        } catch (ClassNotFoundException e) {
-            throw new SSOAgentException("Error in marshalling SAML2 Assertion", e);
-        } catch (InstantiationException e) {
-            throw new SSOAgentException("Error in marshalling SAML2 Assertion", e);
+            return IdentityXMLUtil.serialize(element);
         } catch (MarshallingException e) {
             throw new SSOAgentException("Error in marshalling SAML2 Assertion", e);
-        } catch (IllegalAccessException e) {
+        } catch (IdentityException e) {
             throw new SSOAgentException("Error in marshalling SAML2 Assertion", e);
         }
     }
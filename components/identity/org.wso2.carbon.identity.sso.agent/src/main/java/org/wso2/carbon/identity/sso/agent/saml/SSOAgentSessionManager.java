@@ -22,52 +22,87 @@ import org.wso2.carbon.identity.sso.agent.SSOAgentConstants;
 import org.wso2.carbon.identity.sso.agent.bean.LoggedInSessionBean;
 
 import javax.servlet.http.HttpSession;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
-import java.util.Hashtable;
-import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 public class SSOAgentSessionManager {
 
+    private static Logger LOGGER = Logger.getLogger(SSOAgentConstants.LOGGER_NAME);
+
+    private static final int MIN_PURGE_THRESHOLD = 1000;
+
     /*
      * Session Index at the IdP is mapped to the session at the SP so that a single logout request
      * can be handled by invalidating the SP session mapped to IdP Session Index.
      */
-    private static Map<String, Set<HttpSession>> ssoSessionsMap =
-            new Hashtable<String, Set<HttpSession>>();
+    private static ConcurrentMap<String, Set<HttpSession>> ssoSessionsMap =
+            new ConcurrentHashMap<String, Set<HttpSession>>();
+
+    /*
+     * Reverse index of ssoSessionsMap, so that a session can be removed without reading its attributes.
+     */
+    private static ConcurrentMap<HttpSession, String> sessionIndexMap =
+            new ConcurrentHashMap<HttpSession, String>();
+
+    /*
+     * Sessions which expired without the session listener being notified are purged once the
+     * registry grows beyond this size.
+     */
+    private static volatile int purgeThreshold = MIN_PURGE_THRESHOLD;
 
     public static void invalidateSession(HttpSession session) {
-        LoggedInSessionBean sessionBean = ((LoggedInSessionBean) session.getAttribute(
-                SSOAgentConstants.SESSION_BEAN_NAME));
-        if (sessionBean != null && sessionBean.getSAML2SSO() != null) {
-            String sessionIndex = sessionBean.getSAML2SSO().getSessionIndex();
-            if (sessionIndex != null) {
-                Set<HttpSession> sessions = ssoSessionsMap.get(sessionIndex);
-                sessions.remove(session);
-            }
+        String sessionIndex = sessionIndexMap.remove(session);
+        if (sessionIndex != null) {
+            removeFromIndex(sessionIndex, session);
         }
     }
 
     public static Set<HttpSession> invalidateAllSessions(HttpSession session) {
-        LoggedInSessionBean sessionBean = ((LoggedInSessionBean) session.getAttribute(
-                SSOAgentConstants.SESSION_BEAN_NAME));
-        Set<HttpSession> sessions = new HashSet<HttpSession>();
-        if (sessionBean != null && sessionBean.getSAML2SSO() != null) {
-            String sessionIndex = sessionBean.getSAML2SSO().getSessionIndex();
-            if (sessionIndex != null) {
-                sessions = ssoSessionsMap.remove(sessionIndex);
+        String sessionIndex = sessionIndexMap.get(session);
+        if (sessionIndex == null) {
+            LoggedInSessionBean sessionBean = ((LoggedInSessionBean) session.getAttribute(
+                    SSOAgentConstants.SESSION_BEAN_NAME));
+            if (sessionBean != null && sessionBean.getSAML2SSO() != null) {
+                sessionIndex = sessionBean.getSAML2SSO().getSessionIndex();
             }
         }
-        if (sessions == null) {
-            sessions = new HashSet<HttpSession>();
+        if (sessionIndex == null) {
+            return new HashSet<HttpSession>();
         }
-        return sessions;
+        return invalidateAllSessions(sessionIndex);
     }
 
     public static Set<HttpSession> invalidateAllSessions(String sessionIndex) {
-        Set<HttpSession> sessions = ssoSessionsMap.remove(sessionIndex);
-        if (sessions == null) {
-            sessions = new HashSet<HttpSession>();
+        Set<HttpSession> sessions = new HashSet<HttpSession>();
+        Set<HttpSession> indexedSessions = ssoSessionsMap.remove(sessionIndex);
+        if (indexedSessions != null) {
+            for (HttpSession session : indexedSessions) {
+                sessionIndexMap.remove(session, sessionIndex);
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Removes the sessions of all the given session indexes, as in a back channel logout request
+     * carrying several session indexes.
+     *
+     * @param sessionIndexes IdP session indexes
+     * @return sessions mapped to any of the session indexes
+     */
+    public static Set<HttpSession> invalidateAllSessions(Collection<String> sessionIndexes) {
+        Set<HttpSession> sessions = new HashSet<HttpSession>();
+        for (String sessionIndex : sessionIndexes) {
+            if (sessionIndex != null) {
+                sessions.addAll(invalidateAllSessions(sessionIndex));
+            }
         }
         return sessions;
     }
@@ -75,12 +110,70 @@ public class SSOAgentSessionManager {
     public static void addAuthenticatedSession(HttpSession session) {
         String sessionIndex = ((LoggedInSessionBean) session.getAttribute(
                 SSOAgentConstants.SESSION_BEAN_NAME)).getSAML2SSO().getSessionIndex();
-        if (ssoSessionsMap.get(sessionIndex) != null) {
-            ssoSessionsMap.get(sessionIndex).add(session);
-        } else {
-            Set<HttpSession> sessions = new HashSet<HttpSession>();
+
+        String previousIndex = sessionIndexMap.put(session, sessionIndex);
+        if (previousIndex != null && !previousIndex.equals(sessionIndex)) {
+            removeFromIndex(previousIndex, session);
+        }
+
+        while (true) {
+            Set<HttpSession> sessions = ssoSessionsMap.get(sessionIndex);
+            if (sessions == null) {
+                Set<HttpSession> newSessions =
+                        Collections.newSetFromMap(new ConcurrentHashMap<HttpSession, Boolean>());
+                sessions = ssoSessionsMap.putIfAbsent(sessionIndex, newSessions);
+                if (sessions == null) {
+                    sessions = newSessions;
+                }
+            }
             sessions.add(session);
-            ssoSessionsMap.put(sessionIndex, sessions);
+            // the set may have been removed concurrently by a logout or when it became empty
+            if (ssoSessionsMap.get(sessionIndex) == sessions) {
+                break;
+            }
+        }
+
+        if (sessionIndexMap.size() > purgeThreshold) {
+            purgeExpiredSessions();
+        }
+    }
+
+    private static void removeFromIndex(String sessionIndex, HttpSession session) {
+        Set<HttpSession> sessions = ssoSessionsMap.get(sessionIndex);
+        if (sessions != null) {
+            sessions.remove(session);
+            if (sessions.isEmpty()) {
+                ssoSessionsMap.remove(sessionIndex, sessions);
+            }
+        }
+    }
+
+    private static synchronized void purgeExpiredSessions() {
+        if (sessionIndexMap.size() <= purgeThreshold) {
+            return;
+        }
+        long currentTime = System.currentTimeMillis();
+        int purged = 0;
+        for (HttpSession session : sessionIndexMap.keySet()) {
+            if (isExpired(session, currentTime)) {
+                invalidateSession(session);
+                purged++;
+            }
+        }
+        purgeThreshold = Math.max(MIN_PURGE_THRESHOLD, sessionIndexMap.size() * 2);
+        if (LOGGER.isLoggable(Level.FINE)) {
+            LOGGER.log(Level.FINE, "Purged " + purged + " expired sessions from the single logout registry");
+        }
+    }
+
+    private static boolean isExpired(HttpSession session, long currentTime) {
+        try {
+            int maxInactiveInterval = session.getMaxInactiveInterval();
+            return maxInactiveInterval > 0 &&
+                    currentTime - session.getLastAccessedTime() > maxInactiveInterval * 1000L;
+        } catch (IllegalStateException e) {
+            // session is already invalidated
+            return true;
         }
     }
 }
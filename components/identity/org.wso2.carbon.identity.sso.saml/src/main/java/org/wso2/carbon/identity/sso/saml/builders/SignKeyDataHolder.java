@@ -44,10 +44,39 @@ import java.security.cert.X509CRL;
 import java.security.cert.X509Certificate;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 public class SignKeyDataHolder implements X509Credential {
 
     private static SignKeyDataHolder instance = null;
+
+    /**
+     * Maximum number of tenants key material is cached for. The least recently used tenant is dropped first.
+     */
+    private static final int MAX_CACHED_TENANTS = 1000;
+
+    /**
+     * Key material of each tenant, loaded from the tenant key store once instead of for every signed message
+     */
+    private static final Map<String, SigningKeyData> signingKeyCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, SigningKeyData>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = -5731186493020364617L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SigningKeyData> eldest) {
+                    return size() > MAX_CACHED_TENANTS;
+                }
+            });
+
+    /**
+     * Cached key material is loaded again after this time, so that key store changes made on any node are
+     * picked up
+     */
+    private static final long SIGNING_KEY_CACHE_TIMEOUT = 5 * 60 * 1000L;
+
     private String signatureAlgorithm = null;
     private X509Certificate[] issuerCerts = null;
 
@@ -94,6 +123,14 @@ public class SignKeyDataHolder implements X509Credential {
 
             initializeRegistry(tenantID);
 
+            SigningKeyData cachedKeyData = signingKeyCache.get(tenantDomain);
+            if (cachedKeyData != null && cachedKeyData.expiryTime > System.currentTimeMillis()) {
+                issuerPK = cachedKeyData.issuerPK;
+                issuerCerts = cachedKeyData.issuerCerts;
+                signatureAlgorithm = cachedKeyData.signatureAlgorithm;
+                return;
+            }
+
             if (tenantID != MultitenantConstants.SUPER_TENANT_ID) {
                 String keyStoreName = SAMLSSOUtil.generateKSNameFromDomainName(tenantDomain);
                 keyAlias = tenantDomain;
@@ -101,20 +138,6 @@ public class SignKeyDataHolder implements X509Credential {
                 KeyStore keyStore = keyMan.getKeyStore(keyStoreName);
                 issuerPK = (PrivateKey) keyMan.getPrivateKey(keyStoreName, tenantDomain);
                 certificates = keyStore.getCertificateChain(keyAlias);
-                issuerCerts = new X509Certificate[certificates.length];
-
-                int i = 0;
-                for (Certificate certificate : certificates) {
-                    issuerCerts[i++] = (X509Certificate) certificate;
-                }
-
-                signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_RSA;
-
-                String pubKeyAlgo = issuerCerts[0].getPublicKey().getAlgorithm();
-                if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                    signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-                }
-
             } else {
                 keyAlias = ServerConfiguration.getInstance().getFirstProperty(
                         "Security.KeyStore.KeyAlias");
@@ -126,28 +149,38 @@ public class SignKeyDataHolder implements X509Credential {
                 issuerPK = (PrivateKey) keyAdmin.getPrivateKey(keyAlias, true);
 
                 certificates = keyMan.getPrimaryKeyStore().getCertificateChain(keyAlias);
+            }
 
-                issuerCerts = new X509Certificate[certificates.length];
+            issuerCerts = new X509Certificate[certificates.length];
 
-                int i = 0;
-                for (Certificate certificate : certificates) {
-                    issuerCerts[i++] = (X509Certificate) certificate;
-                }
+            int i = 0;
+            for (Certificate certificate : certificates) {
+                issuerCerts[i++] = (X509Certificate) certificate;
+            }
 
-                signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_RSA;
+            signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_RSA;
 
-                String pubKeyAlgo = issuerCerts[0].getPublicKey().getAlgorithm();
-                if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
-                    signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_DSA;
-                }
+            String pubKeyAlgo = issuerCerts[0].getPublicKey().getAlgorithm();
+            if (pubKeyAlgo.equalsIgnoreCase("DSA")) {
+                signatureAlgorithm = XMLSignature.ALGO_ID_SIGNATURE_DSA;
             }
 
+            signingKeyCache.put(tenantDomain, new SigningKeyData(issuerPK, issuerCerts, signatureAlgorithm));
+
         } catch (Exception e) {
             throw new IdentityException(e.getMessage(), e);
         }
 
     }
 
+    /**
+     * Clears the cached signing keys, so that they are loaded again from the key stores without waiting for
+     * the cache timeout.
+     */
+    public static void clearCache() {
+        signingKeyCache.clear();
+    }
+
     private void initializeRegistry(int tenantId) {
         BundleContext bundleContext = SAMLSSOUtil.getBundleContext();
         if (bundleContext != null) {
@@ -223,5 +256,17 @@ public class SignKeyDataHolder implements X509Credential {
         return null;
     }
 
-}
+    private static class SigningKeyData {
+
+        private final PrivateKey issuerPK;
+        private final X509Certificate[] issuerCerts;
+        private final String signatureAlgorithm;
+        private final long expiryTime = System.currentTimeMillis() + SIGNING_KEY_CACHE_TIMEOUT;
 
+        private SigningKeyData(PrivateKey issuerPK, X509Certificate[] issuerCerts, String signatureAlgorithm) {
+            this.issuerPK = issuerPK;
+            this.issuerCerts = issuerCerts;
+            this.signatureAlgorithm = signatureAlgorithm;
+        }
+    }
+}
@@ -33,9 +33,26 @@ import org.wso2.carbon.identity.base.IdentityException;
 import javax.xml.namespace.QName;
 import java.security.cert.CertificateEncodingException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class DefaultSSOSigner implements SSOSigner {
+
+    private static final int MAX_ENCODED_CERTIFICATES = 100;
+
+    private final Map<java.security.cert.X509Certificate, String> encodedCertificates = Collections.synchronizedMap(
+            new LinkedHashMap<java.security.cert.X509Certificate, String>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 3318862069557614254L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<java.security.cert.X509Certificate, String> eldest) {
+                    return size() > MAX_ENCODED_CERTIFICATES;
+                }
+            });
+
     /**
      * Builds SAML Elements
      *
@@ -57,6 +74,8 @@ public class DefaultSSOSigner implements SSOSigner {
 
     @Override
     public void init() throws IdentityException {
+        // Init.init() is synchronized and only needs to run once, hence done here instead of per signature
+        org.apache.xml.security.Init.init();
     }
 
     @Override
@@ -80,39 +99,9 @@ public class DefaultSSOSigner implements SSOSigner {
     @Override
     public Assertion doSetSignature(Assertion assertion, String signatureAlgorithm, X509Credential cred) throws IdentityException {
         try {
-            Signature signature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-            signature.setSigningCredential(cred);
-            signature.setSignatureAlgorithm(signatureAlgorithm);
-            signature.setCanonicalizationAlgorithm(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
-
-            try {
-                KeyInfo keyInfo = (KeyInfo) buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
-                X509Data data = (X509Data) buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
-                X509Certificate cert = (X509Certificate) buildXMLObject(X509Certificate.DEFAULT_ELEMENT_NAME);
-                String value = org.apache.xml.security.utils.Base64.encode(cred
-                        .getEntityCertificate().getEncoded());
-                cert.setValue(value);
-                data.getX509Certificates().add(cert);
-                keyInfo.getX509Datas().add(data);
-                signature.setKeyInfo(keyInfo);
-            } catch (CertificateEncodingException e) {
-                throw new IdentityException("errorGettingCert");
-            }
-
+            Signature signature = buildSignature(signatureAlgorithm, cred);
             assertion.setSignature(signature);
-
-            List<Signature> signatureList = new ArrayList<Signature>();
-            signatureList.add(signature);
-
-            // Marshall and Sign
-            MarshallerFactory marshallerFactory = org.opensaml.xml.Configuration
-                    .getMarshallerFactory();
-            Marshaller marshaller = marshallerFactory.getMarshaller(assertion);
-
-            marshaller.marshall(assertion);
-
-            org.apache.xml.security.Init.init();
-            Signer.signObjects(signatureList);
+            marshallAndSign(assertion, signature);
             return assertion;
         } catch (Exception e) {
             throw new IdentityException("Error while signing the SAML Response message.", e);
@@ -122,45 +111,67 @@ public class DefaultSSOSigner implements SSOSigner {
     @Override
     public StatusResponseType doSignResponse(StatusResponseType response, String signatureAlgorithm, X509Credential cred) throws IdentityException {
         try {
-            Signature signature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-            signature.setSigningCredential(cred);
-            signature.setSignatureAlgorithm(signatureAlgorithm);
-            signature.setCanonicalizationAlgorithm(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
+            Signature signature = buildSignature(signatureAlgorithm, cred);
+            response.setSignature(signature);
+            marshallAndSign(response, signature);
+            return response;
+        } catch (Exception e) {
+            throw new IdentityException("Error while signing the SAML Response message.", e);
+        }
+    }
 
-            try {
-                KeyInfo keyInfo = (KeyInfo) buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
-                X509Data data = (X509Data) buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
-                X509Certificate cert =
-                        (X509Certificate) buildXMLObject(X509Certificate.DEFAULT_ELEMENT_NAME);
-                String value =
-                        org.apache.xml.security.utils.Base64.encode(cred.getEntityCertificate()
-                                .getEncoded());
-                cert.setValue(value);
-                data.getX509Certificates().add(cert);
-                keyInfo.getX509Datas().add(data);
-                signature.setKeyInfo(keyInfo);
-            } catch (CertificateEncodingException e) {
-                throw new IdentityException("errorGettingCert");
-            }
+    /**
+     * Builds the Signature element along with the KeyInfo carrying the signing certificate
+     *
+     * @param signatureAlgorithm signature algorithm
+     * @param cred               signing credential
+     * @return Signature element
+     * @throws IdentityException
+     */
+    private Signature buildSignature(String signatureAlgorithm, X509Credential cred) throws IdentityException {
+        Signature signature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
+        signature.setSigningCredential(cred);
+        signature.setSignatureAlgorithm(signatureAlgorithm);
+        signature.setCanonicalizationAlgorithm(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
 
-            response.setSignature(signature);
+        try {
+            KeyInfo keyInfo = (KeyInfo) buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
+            X509Data data = (X509Data) buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
+            X509Certificate cert = (X509Certificate) buildXMLObject(X509Certificate.DEFAULT_ELEMENT_NAME);
+            cert.setValue(getEncodedCertificate(cred.getEntityCertificate()));
+            data.getX509Certificates().add(cert);
+            keyInfo.getX509Datas().add(data);
+            signature.setKeyInfo(keyInfo);
+        } catch (CertificateEncodingException e) {
+            throw new IdentityException("errorGettingCert");
+        }
+        return signature;
+    }
 
-            List<Signature> signatureList = new ArrayList<Signature>();
-            signatureList.add(signature);
+    /**
+     * Returns the base64 encoded signing certificate. The signing certificates of a node are few and do not
+     * change often, hence the encoded form is remembered instead of being encoded for every signature.
+     */
+    private String getEncodedCertificate(java.security.cert.X509Certificate certificate)
+            throws CertificateEncodingException {
+        String encoded = encodedCertificates.get(certificate);
+        if (encoded == null) {
+            encoded = org.apache.xml.security.utils.Base64.encode(certificate.getEncoded());
+            encodedCertificates.put(certificate, encoded);
+        }
+        return encoded;
+    }
 
-            // Marshall and Sign
-            MarshallerFactory marshallerFactory =
-                    org.opensaml.xml.Configuration.getMarshallerFactory();
-            Marshaller marshaller = marshallerFactory.getMarshaller(response);
+    private void marshallAndSign(XMLObject xmlObject, Signature signature) throws Exception {
+        List<Signature> signatureList = new ArrayList<Signature>();
+        signatureList.add(signature);
 
-            marshaller.marshall(response);
+        // Marshall and Sign
+        MarshallerFactory marshallerFactory = org.opensaml.xml.Configuration.getMarshallerFactory();
+        Marshaller marshaller = marshallerFactory.getMarshaller(xmlObject);
 
-            org.apache.xml.security.Init.init();
-            Signer.signObjects(signatureList);
-            return response;
+        marshaller.marshall(xmlObject);
 
-        } catch (Exception e) {
-            throw new IdentityException("Error while signing the SAML Response message.", e);
-        }
+        Signer.signObjects(signatureList);
     }
 }
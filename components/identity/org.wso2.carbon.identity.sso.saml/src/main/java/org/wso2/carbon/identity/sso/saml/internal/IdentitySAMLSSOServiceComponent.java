@@ -23,9 +23,11 @@ import org.osgi.service.component.ComponentContext;
 import org.osgi.service.http.HttpService;
 import org.wso2.carbon.identity.authenticator.saml2.sso.common.Util;
 import org.wso2.carbon.identity.base.IdentityConstants;
+import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.sso.saml.SSOServiceProviderConfigManager;
 import org.wso2.carbon.identity.sso.saml.admin.FileBasedConfigManager;
+import org.wso2.carbon.identity.sso.saml.logout.LogoutRequestSender;
 import org.wso2.carbon.identity.sso.saml.servlet.SAMLSSOProviderServlet;
 import org.wso2.carbon.identity.sso.saml.util.SAMLSSOUtil;
 import org.wso2.carbon.registry.core.service.RegistryService;
@@ -123,9 +125,19 @@ public class IdentitySAMLSSOServiceComponent {
             }
         }
 
+        LogoutRequestSender.start();
+
+        try {
+            SAMLSSOUtil.initSAMLExtensions();
+        } catch (IdentityException e) {
+            log.error("Error while initializing the SAML SSO signer, encrypter and assertion builder extensions. " +
+                    "They will be initialized when the first request is served.", e);
+        }
+
     }
 
     protected void deactivate(ComponentContext ctxt) {
+        LogoutRequestSender.stop();
         SAMLSSOUtil.setBundleContext(null);
         if (log.isDebugEnabled()) {
             log.info("Identity SAML SSO bundle is deactivated");
@@ -20,17 +20,25 @@ package org.wso2.carbon.identity.sso.saml.logout;
 import org.apache.commons.httpclient.HttpStatus;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.conn.scheme.PlainSocketFactory;
 import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
 import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.util.EntityUtils;
+import org.wso2.carbon.identity.base.IdentityConstants;
 import org.wso2.carbon.identity.base.IdentityException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
 import org.wso2.carbon.identity.sso.saml.dto.SingleLogoutRequestDTO;
 import org.wso2.carbon.identity.sso.saml.util.SAMLSSOUtil;
 
@@ -38,35 +46,106 @@ import javax.net.ssl.SSLContext;
 import javax.net.ssl.TrustManager;
 import javax.net.ssl.X509TrustManager;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
+import java.util.Map;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class is used to send logout requests to each and every session participant. It follows a fire and
  * forget approach where the task of sending each and every logout request is submitted to a threadpool
  * as a job. This class implements a singleton, because it is expensive to create thread pool for each
  * and every object.
+ * <p/>
+ * All the logout requests are sent through a single HTTP client backed by a pooled connection manager, so
+ * that connections (and TLS sessions) to a session participant are kept alive and reused across logouts.
+ * Failed requests are re-scheduled with an exponential back off instead of blocking a worker thread.
+ * <p/>
+ * The sender is started and stopped with the SAML SSO bundle. A stopped sender is replaced by a new one on
+ * the next {@link #start()} or {@link #getInstance()}.
  */
 public class LogoutRequestSender {
 
     private static Log log = LogFactory.getLog(LogoutRequestSender.class);
 
-    private static ExecutorService threadPool = Executors.newFixedThreadPool(2);
+    private static final int DEFAULT_THREAD_POOL_SIZE = 10;
 
-    private static LogoutRequestSender instance = new LogoutRequestSender();
+    private static final int DEFAULT_MAX_CONNECTIONS_PER_PARTICIPANT = 5;
+
+    private static final int DEFAULT_CONNECTION_TIMEOUT = 5000;
+
+    private static final int DEFAULT_SOCKET_TIMEOUT = 10000;
+
+    private static final long DEFAULT_MAX_RETRY_INTERVAL = 600000;
+
+    /**
+     * Maximum number of session participants statistics are kept for. When the limit is reached the
+     * statistics of the least recently used participant are dropped, so that participants removed over
+     * time do not accumulate.
+     */
+    private static final int MAX_TRACKED_PARTICIPANTS = 1000;
+
+    private static volatile LogoutRequestSender instance;
+
+    private final ScheduledExecutorService threadPool;
+
+    private final HttpClient httpClient;
+
+    private final long maxRetryInterval;
+
+    private final Map<String, SingleLogoutParticipantStats> participantStats =
+            new LinkedHashMap<String, SingleLogoutParticipantStats>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 4180275631624780339L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, SingleLogoutParticipantStats> eldest) {
+                    return size() > MAX_TRACKED_PARTICIPANTS;
+                }
+            };
 
     /**
      * A private constructor since we are implementing a singleton here
      */
     private LogoutRequestSender() {
+        this(IdentityUtil.getIntProperty(IdentityConstants.ServerConfig.SINGLE_LOGOUT_THREAD_POOL_SIZE,
+                        DEFAULT_THREAD_POOL_SIZE),
+                IdentityUtil.getIntProperty(
+                        IdentityConstants.ServerConfig.SINGLE_LOGOUT_MAX_CONNECTIONS_PER_PARTICIPANT,
+                        DEFAULT_MAX_CONNECTIONS_PER_PARTICIPANT),
+                IdentityUtil.getIntProperty(IdentityConstants.ServerConfig.SINGLE_LOGOUT_CONNECTION_TIMEOUT,
+                        DEFAULT_CONNECTION_TIMEOUT),
+                IdentityUtil.getIntProperty(IdentityConstants.ServerConfig.SINGLE_LOGOUT_SOCKET_TIMEOUT,
+                        DEFAULT_SOCKET_TIMEOUT),
+                IdentityUtil.getLongProperty(IdentityConstants.ServerConfig.SINGLE_LOGOUT_MAX_RETRY_INTERVAL,
+                        DEFAULT_MAX_RETRY_INTERVAL));
+    }
 
+    /**
+     * Creates a sender with the given settings. Exposed within the package so that the sender can be
+     * exercised against a stub session participant without the identity configuration.
+     *
+     * @param threadPoolSize             number of logout requests sent concurrently
+     * @param maxConnectionsPerParticipant maximum number of pooled connections kept for one participant
+     * @param connectionTimeout          connection timeout in milli seconds
+     * @param socketTimeout              socket read timeout in milli seconds
+     * @param maxRetryInterval           upper bound of the retry back off in milli seconds
+     */
+    LogoutRequestSender(int threadPoolSize, int maxConnectionsPerParticipant, int connectionTimeout,
+                        int socketTimeout, long maxRetryInterval) {
+        this.threadPool = Executors.newScheduledThreadPool(threadPoolSize, new LogoutSenderThreadFactory());
+        this.httpClient = createHttpClient(threadPoolSize, maxConnectionsPerParticipant, connectionTimeout,
+                socketTimeout);
+        this.maxRetryInterval = maxRetryInterval;
     }
 
     /**
@@ -75,22 +154,57 @@ public class LogoutRequestSender {
      * @return LogoutRequestSender instance
      */
     public static LogoutRequestSender getInstance() {
+        if (instance == null) {
+            start();
+        }
         return instance;
     }
 
+    /**
+     * Starts the logout request sender, if it is not running. Called when the SAML SSO bundle is activated.
+     */
+    public static void start() {
+        synchronized (LogoutRequestSender.class) {
+            if (instance == null) {
+                instance = new LogoutRequestSender();
+            }
+        }
+    }
+
+    /**
+     * Stops the running logout request sender. Called when the SAML SSO bundle is deactivated. The next
+     * {@link #getInstance()} or {@link #start()} starts a new sender.
+     */
+    public static void stop() {
+        LogoutRequestSender sender;
+        synchronized (LogoutRequestSender.class) {
+            sender = instance;
+            instance = null;
+        }
+        if (sender != null) {
+            sender.shutdown();
+        }
+    }
+
     /**
      * takes an array of SingleLogoutRequestDTO objects, creates and submits each of them as a task
      * to the thread pool
      *
      * @param singleLogoutRequestDTOs Array of SingleLogoutRequestDTO representing all the session participants
      */
-    public void sendLogoutRequests(org.wso2.carbon.identity.sso.saml.dto.SingleLogoutRequestDTO[] singleLogoutRequestDTOs) {
+    public void sendLogoutRequests(SingleLogoutRequestDTO[] singleLogoutRequestDTOs) {
         if (singleLogoutRequestDTOs == null) {
             return;
         }
         // For each logoutReq, create a new task and submit it to the thread pool.
         for (SingleLogoutRequestDTO reqDTO : singleLogoutRequestDTOs) {
-            threadPool.submit(new LogoutReqSenderTask(reqDTO));
+            try {
+                threadPool.submit(new LogoutReqSenderTask(reqDTO));
+            } catch (RejectedExecutionException e) {
+                log.error("Logout request to " + reqDTO.getAssertionConsumerURL() +
+                        " is not sent since the logout request sender is shut down");
+                return;
+            }
             if (log.isDebugEnabled()) {
                 log.debug("A logoutReqSenderTask is assigned to the thread pool");
 
@@ -99,38 +213,105 @@ public class LogoutRequestSender {
     }
 
     /**
-     * This method is used to derive the port from the assertion consumer URL.
+     * Returns the delivery statistics of the session participants logout requests were sent to.
      *
-     * @param assertionConsumerURL Assertion Consumer URL
-     * @return Port, if mentioned in the URL, or else 443 as the default value
-     * @throws MalformedURLException when the ACS is malformed.
+     * @return statistics per assertion consumer URL
      */
-    private int derivePortFromAssertionConsumerURL(String assertionConsumerURL)
-            throws URISyntaxException {
-        int port = 443;    // use 443 as the default port
-        try {
-            URI uri = new URI(assertionConsumerURL);
-            if (uri.getPort() != -1) {    // if the port is mentioned in the URL
-                port = uri.getPort();
-            } else if ("http".equals(uri.getScheme())) {  // if it is using http
-                port = 80;
+    public Collection<SingleLogoutParticipantStats> getParticipantStats() {
+        synchronized (participantStats) {
+            return Collections.unmodifiableCollection(
+                    new ArrayList<SingleLogoutParticipantStats>(participantStats.values()));
+        }
+    }
+
+    /**
+     * Stops sending logout requests, drops the pending retries and releases the pooled connections.
+     */
+    void shutdown() {
+        threadPool.shutdownNow();
+        httpClient.getConnectionManager().shutdown();
+    }
+
+    private SingleLogoutParticipantStats getStats(String assertionConsumerURL) {
+        synchronized (participantStats) {
+            SingleLogoutParticipantStats stats = participantStats.get(assertionConsumerURL);
+            if (stats == null) {
+                stats = new SingleLogoutParticipantStats(assertionConsumerURL);
+                participantStats.put(assertionConsumerURL, stats);
             }
-        } catch (URISyntaxException e) {
-            log.error("Error deriving port from the assertion consumer url", e);
-            throw e;
+            return stats;
         }
-        return port;
+    }
+
+    /**
+     * Calculates the delay before the given retry, doubling the configured retry interval for each
+     * consecutive failure up to the maximum retry interval.
+     *
+     * @param retryCount number of the retry, starting from 1
+     * @return delay in milli seconds
+     */
+    private long getRetryDelay(int retryCount) {
+        long delay = SAMLSSOUtil.getSingleLogoutRetryInterval();
+        for (int i = 1; i < retryCount && delay < maxRetryInterval; i++) {
+            delay = delay * 2;
+        }
+        return Math.min(delay, maxRetryInterval);
+    }
+
+    private static HttpClient createHttpClient(int maxConnections, int maxConnectionsPerParticipant,
+                                               int connectionTimeout, int socketTimeout) {
+        SchemeRegistry schemeRegistry = new SchemeRegistry();
+        schemeRegistry.register(new Scheme("http", 80, PlainSocketFactory.getSocketFactory()));
+        try {
+            TrustManager easyTrustManager = new X509TrustManager() {
+                public void checkClientTrusted(
+                        java.security.cert.X509Certificate[] x509Certificates,
+                        String s)
+                        throws java.security.cert.CertificateException {
+                }
+
+                public void checkServerTrusted(
+                        java.security.cert.X509Certificate[] x509Certificates,
+                        String s)
+                        throws java.security.cert.CertificateException {
+                }
+
+                public java.security.cert.X509Certificate[] getAcceptedIssuers() {
+                    return null;
+                }
+            };
+
+            SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, new TrustManager[]{easyTrustManager}, null);
+            SSLSocketFactory sf = new SSLSocketFactory(sslContext, SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+            // 443 is only the default port, a port given in the assertion consumer URL takes precedence
+            schemeRegistry.register(new Scheme("https", 443, sf));
+        } catch (GeneralSecurityException e) {
+            log.error("Error registering the EasySSLProtocolSocketFactory", e);
+        }
+
+        ThreadSafeClientConnManager connectionManager = new ThreadSafeClientConnManager(schemeRegistry);
+        connectionManager.setMaxTotal(Math.max(maxConnections, maxConnectionsPerParticipant));
+        connectionManager.setDefaultMaxPerRoute(maxConnectionsPerParticipant);
+
+        HttpParams params = new BasicHttpParams();
+        HttpConnectionParams.setConnectionTimeout(params, connectionTimeout);
+        HttpConnectionParams.setSoTimeout(params, socketTimeout);
+        return new DefaultHttpClient(connectionManager, params);
     }
 
     /**
      * This class is used to model a single logout request that is being sent to a session participant.
      * It will send the logout req. to the session participant in its 'run' method when this job is
-     * submitted to the thread pool.
+     * submitted to the thread pool. If the participant does not acknowledge the request, the same task is
+     * scheduled again after the back off delay until the retry count is exhausted.
      */
     private class LogoutReqSenderTask implements Runnable {
 
         private SingleLogoutRequestDTO logoutReqDTO;
 
+        private int currentRetryCount;
+
         public LogoutReqSenderTask(SingleLogoutRequestDTO logoutReqDTO) {
             this.logoutReqDTO = logoutReqDTO;
         }
@@ -140,7 +321,7 @@ public class LogoutRequestSender {
             // set the logout request
             logoutReqParams.add(new BasicNameValuePair("SAMLRequest", logoutReqDTO.getLogoutResponse()));
 
-            if (log.isDebugEnabled()) {
+            if (log.isDebugEnabled() && currentRetryCount == 0) {
                 try {
                     log.debug("SAMLRequest : " + SAMLSSOUtil.decodeForPost(logoutReqDTO.getLogoutResponse()));
                 } catch (IdentityException e) {
@@ -148,104 +329,86 @@ public class LogoutRequestSender {
                 }
             }
 
+            SingleLogoutParticipantStats stats = getStats(logoutReqDTO.getAssertionConsumerURL());
+            int statusCode = 0;
+            long startTime = System.currentTimeMillis();
             try {
-                int port = derivePortFromAssertionConsumerURL(logoutReqDTO.getAssertionConsumerURL());
                 UrlEncodedFormEntity entity = new UrlEncodedFormEntity(logoutReqParams, "UTF-8");
                 HttpPost httpPost = new HttpPost(logoutReqDTO.getAssertionConsumerURL());
                 httpPost.setEntity(entity);
                 httpPost.addHeader("Cookie", "JSESSIONID=" + logoutReqDTO.getRpSessionId());
-                TrustManager easyTrustManager = new X509TrustManager() {
-                    public void checkClientTrusted(
-                            java.security.cert.X509Certificate[] x509Certificates,
-                            String s)
-                            throws java.security.cert.CertificateException {
-                    }
-
-                    public void checkServerTrusted(
-                            java.security.cert.X509Certificate[] x509Certificates,
-                            String s)
-                            throws java.security.cert.CertificateException {
-                    }
 
-                    public java.security.cert.X509Certificate[] getAcceptedIssuers() {
-                        return null;
-                    }
-                };
-
-                SSLContext sslContext = SSLContext.getInstance("TLS");
-                sslContext.init(null, new TrustManager[]{easyTrustManager}, null);
-                SSLSocketFactory sf = new SSLSocketFactory(sslContext);
-                sf.setHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
-                Scheme httpsScheme = new Scheme("https", sf, port);
-
-                HttpClient httpClient = new DefaultHttpClient();
-                httpClient.getConnectionManager().getSchemeRegistry().register(httpsScheme);
-
-                HttpResponse response = null;
-                boolean isSuccessfullyLogout = false;
-                for (int currentRetryCount = 0; currentRetryCount < SAMLSSOUtil.getSingleLogoutRetryCount(); currentRetryCount++) {
-                    int statusCode = 0;
-
-                    //Completely consume the previous response before retrying
-                    if (response != null) {
-                        HttpEntity httpEntity = response.getEntity();
-                        if (httpEntity != null && httpEntity.isStreaming()) {
-                            InputStream instream = httpEntity.getContent();
-                            if (instream != null)
-                                instream.close();
-                        }
-                    }
-
-                    // send the logout request as a POST
-                    try {
-                        response = httpClient.execute(httpPost);
-                        statusCode = response.getStatusLine().getStatusCode();
-                    } catch (IOException e) {
-                        // ignore this exception since retrying is enabled if response is null.
-                    }
-                    if (response != null && SAMLSSOUtil.isHttpSuccessStatusCode(statusCode)) {
-                        log.info("single logout request is sent to : " + logoutReqDTO.getAssertionConsumerURL() +
-                                " is returned with " + HttpStatus.getStatusText(response.getStatusLine().getStatusCode()));
-                        isSuccessfullyLogout = true;
-                        break;
-                    } else {
-                        if (statusCode != 0) {
-                            log.warn("Failed single logout response from " +
-                                    logoutReqDTO.getAssertionConsumerURL() + " with status code " +
-                                    HttpStatus.getStatusText(statusCode));
-                        }
-                        try {
-                            synchronized (Thread.currentThread()) {
-                                Thread.currentThread().wait(SAMLSSOUtil.getSingleLogoutRetryInterval());
-                            }
-                            log.info("Sending single log out request again with retry count " +
-                                    (currentRetryCount + 1) + " after waiting for " +
-                                    SAMLSSOUtil.getSingleLogoutRetryInterval() + " milli seconds to " +
-                                    logoutReqDTO.getAssertionConsumerURL());
-                        } catch (InterruptedException e) {
-                            //Todo: handle this in better way.
-                        }
+                // send the logout request as a POST
+                try {
+                    HttpResponse response = httpClient.execute(httpPost);
+                    statusCode = response.getStatusLine().getStatusCode();
+                    // completely consume the response so that the connection is released back to the pool
+                    EntityUtils.consume(response.getEntity());
+                } catch (IOException e) {
+                    // ignore this exception since retrying is enabled if the participant is not reachable.
+                    httpPost.abort();
+                    if (log.isDebugEnabled()) {
+                        log.debug("Error sending logout request to : " + logoutReqDTO.getAssertionConsumerURL(), e);
                     }
-
-                }
-                if (!isSuccessfullyLogout) {
-                    log.error("Single logout failed after retrying " + SAMLSSOUtil.getSingleLogoutRetryCount() +
-                            " times with time interval " + SAMLSSOUtil.getSingleLogoutRetryInterval() + " in milli seconds.");
                 }
-
             } catch (IOException e) {
                 log.error("Error sending logout requests to : " +
                         logoutReqDTO.getAssertionConsumerURL(), e);
-            } catch (GeneralSecurityException e) {
-                log.error("Error registering the EasySSLProtocolSocketFactory", e);
             } catch (RuntimeException e) {
                 log.error("Runtime exception occurred.", e);
-            } catch (URISyntaxException e) {
-                log.error("Error deriving port from the assertion consumer url", e);
+            }
+
+            long latency = System.currentTimeMillis() - startTime;
+            if (SAMLSSOUtil.isHttpSuccessStatusCode(statusCode)) {
+                stats.recordAttempt(statusCode, latency, true);
+                log.info("single logout request is sent to : " + logoutReqDTO.getAssertionConsumerURL() +
+                        " is returned with " + HttpStatus.getStatusText(statusCode));
+                return;
+            }
+
+            stats.recordAttempt(statusCode, latency, false);
+            if (statusCode != 0) {
+                log.warn("Failed single logout response from " +
+                        logoutReqDTO.getAssertionConsumerURL() + " with status code " +
+                        HttpStatus.getStatusText(statusCode));
+            }
+
+            currentRetryCount++;
+            if (currentRetryCount >= SAMLSSOUtil.getSingleLogoutRetryCount()) {
+                stats.recordFailure();
+                log.error("Single logout to " + logoutReqDTO.getAssertionConsumerURL() + " failed after retrying " +
+                        SAMLSSOUtil.getSingleLogoutRetryCount() + " times with time interval " +
+                        SAMLSSOUtil.getSingleLogoutRetryInterval() + " in milli seconds.");
+                return;
+            }
+
+            long delay = getRetryDelay(currentRetryCount);
+            try {
+                threadPool.schedule(this, delay, TimeUnit.MILLISECONDS);
+                stats.recordRetry();
+                log.info("Sending single log out request again with retry count " + currentRetryCount +
+                        " after waiting for " + delay + " milli seconds to " +
+                        logoutReqDTO.getAssertionConsumerURL());
+            } catch (RejectedExecutionException e) {
+                stats.recordFailure();
+                log.error("Single logout to " + logoutReqDTO.getAssertionConsumerURL() +
+                        " is not retried since the logout request sender is shut down");
             }
         }
     }
 
+    /**
+     * Names the logout sender threads and marks them as daemons so that pending retries do not hold the
+     * server from shutting down.
+     */
+    private static class LogoutSenderThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadCount = new AtomicInteger();
 
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "SAMLSSOLogoutRequestSender-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
 }
-
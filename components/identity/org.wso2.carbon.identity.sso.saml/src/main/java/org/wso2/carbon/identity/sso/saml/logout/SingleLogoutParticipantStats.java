@@ -0,0 +1,114 @@
+/*
+*  Copyright (c) 2005-2010, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+*
+*  WSO2 Inc. licenses this file to you under the Apache License,
+*  Version 2.0 (the "License"); you may not use this file except
+*  in compliance with the License.
+*  You may obtain a copy of the License at
+*
+*    http://www.apache.org/licenses/LICENSE-2.0
+*
+* Unless required by applicable law or agreed to in writing,
+* software distributed under the License is distributed on an
+* "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+* KIND, either express or implied.  See the License for the
+* specific language governing permissions and limitations
+* under the License.
+*/
+package org.wso2.carbon.identity.sso.saml.logout;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivery statistics of back channel logout requests sent to a single session participant,
+ * identified by its assertion consumer URL.
+ */
+public class SingleLogoutParticipantStats {
+
+    private final String assertionConsumerURL;
+
+    private final AtomicLong deliveredCount = new AtomicLong();
+
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private final AtomicLong retryCount = new AtomicLong();
+
+    private final AtomicLong totalLatency = new AtomicLong();
+
+    private final AtomicLong maxLatency = new AtomicLong();
+
+    private final AtomicInteger lastStatusCode = new AtomicInteger();
+
+    SingleLogoutParticipantStats(String assertionConsumerURL) {
+        this.assertionConsumerURL = assertionConsumerURL;
+    }
+
+    void recordAttempt(int statusCode, long latency, boolean delivered) {
+        lastStatusCode.set(statusCode);
+        totalLatency.addAndGet(latency);
+        long currentMax = maxLatency.get();
+        while (latency > currentMax && !maxLatency.compareAndSet(currentMax, latency)) {
+            currentMax = maxLatency.get();
+        }
+        if (delivered) {
+            deliveredCount.incrementAndGet();
+        }
+    }
+
+    void recordRetry() {
+        retryCount.incrementAndGet();
+    }
+
+    void recordFailure() {
+        failedCount.incrementAndGet();
+    }
+
+    public String getAssertionConsumerURL() {
+        return assertionConsumerURL;
+    }
+
+    /**
+     * @return number of logout requests acknowledged with a 2xx response
+     */
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    /**
+     * @return number of logout requests given up on after exhausting all the retries
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getRetryCount() {
+        return retryCount.get();
+    }
+
+    /**
+     * @return average latency of a single attempt in milli seconds
+     */
+    public long getAverageLatency() {
+        long attempts = deliveredCount.get() + failedCount.get() + retryCount.get();
+        return attempts == 0 ? 0 : totalLatency.get() / attempts;
+    }
+
+    public long getMaxLatency() {
+        return maxLatency.get();
+    }
+
+    /**
+     * @return HTTP status code of the last attempt, 0 if the participant could not be reached
+     */
+    public int getLastStatusCode() {
+        return lastStatusCode.get();
+    }
+
+    @Override
+    public String toString() {
+        return assertionConsumerURL + " [delivered=" + getDeliveredCount() + ", failed=" + getFailedCount() +
+                ", retries=" + getRetryCount() + ", avgLatency=" + getAverageLatency() + "ms, maxLatency=" +
+                getMaxLatency() + "ms, lastStatus=" + getLastStatusCode() + "]";
+    }
+}
@@ -19,8 +19,6 @@ package org.wso2.carbon.identity.sso.saml.util;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.xerces.impl.Constants;
-import org.apache.xerces.util.SecurityManager;
 import org.joda.time.DateTime;
 import org.opensaml.Configuration;
 import org.opensaml.DefaultBootstrap;
@@ -41,10 +39,6 @@ import org.osgi.framework.BundleContext;
 import org.osgi.service.http.HttpService;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.bootstrap.DOMImplementationRegistry;
-import org.w3c.dom.ls.DOMImplementationLS;
-import org.w3c.dom.ls.LSOutput;
-import org.w3c.dom.ls.LSSerializer;
 import org.wso2.carbon.context.PrivilegedCarbonContext;
 import org.wso2.carbon.context.RegistryType;
 import org.wso2.carbon.core.util.KeyStoreManager;
@@ -56,9 +50,11 @@ import org.wso2.carbon.identity.application.common.model.SAML2SSOFederatedAuthen
 import org.wso2.carbon.identity.application.common.util.IdentityApplicationConstants;
 import org.wso2.carbon.identity.base.IdentityConstants;
 import org.wso2.carbon.identity.base.IdentityException;
+import org.wso2.carbon.identity.base.IdentityXMLUtil;
 import org.wso2.carbon.identity.core.model.SAMLSSOServiceProviderDO;
 import org.wso2.carbon.identity.core.persistence.IdentityPersistenceManager;
 import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.core.util.SecureIdGenerator;
 import org.wso2.carbon.identity.sso.saml.SAMLSSOConstants;
 import org.wso2.carbon.identity.sso.saml.SSOServiceProviderConfigManager;
 import org.wso2.carbon.identity.sso.saml.builders.DefaultResponseBuilder;
@@ -79,10 +75,8 @@ import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.ConfigurationContextService;
 import org.wso2.carbon.utils.multitenancy.MultitenantConstants;
 
-import javax.xml.XMLConstants;
 import javax.xml.namespace.QName;
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
 import java.net.*;
 import java.security.KeyStore;
@@ -99,9 +93,6 @@ public class SAMLSSOUtil {
     private static final ThreadLocal<Boolean> isSaaSApplication = new ThreadLocal<Boolean>();
     private static final ThreadLocal<String> userTenantDomainThreadLocal = new ThreadLocal<String>();
     private static final String DefaultAssertionBuilder = "org.wso2.carbon.identity.sso.saml.builders.assertion.DefaultSAMLAssertionBuilder";
-    private static final String SECURITY_MANAGER_PROPERTY = Constants.XERCES_PROPERTY_PREFIX +
-            Constants.SECURITY_MANAGER_PROPERTY;
-    private static final int ENTITY_EXPANSION_LIMIT = 0;
     static {
         for (char c = 'a'; c <= 'z'; c++)
             UNRESERVED_CHARACTERS.add(Character.valueOf(c));
@@ -124,14 +115,27 @@ public class SAMLSSOUtil {
     private static ConfigurationContextService configCtxService;
     private static HttpService httpService;
     private static boolean isBootStrapped = false;
-    private static Random random = new Random();
     private static int singleLogoutRetryCount = 5;
     private static long singleLogoutRetryInterval = 60000;
     private static String responseBuilderClassName = null;
-    private static SAMLAssertionBuilder samlAssertionBuilder = null;
-    private static SSOEncrypter ssoEncrypter = null;
-    private static SSOSigner ssoSigner = null;
-    private static SAML2HTTPRedirectSignatureValidator samlHTTPRedirectSignatureValidator = null;
+    private static volatile SAMLAssertionBuilder samlAssertionBuilder = null;
+    private static volatile SSOEncrypter ssoEncrypter = null;
+    private static volatile SSOSigner ssoSigner = null;
+    private static volatile SAML2HTTPRedirectSignatureValidator samlHTTPRedirectSignatureValidator = null;
+    // number of tenant domain and alias pairs credentials are cached for, the least recently used is dropped first
+    private static final int MAX_X509_CREDENTIALS = 1000;
+    private static final Map<String, CachedCredential> x509CredentialCache = Collections.synchronizedMap(
+            new LinkedHashMap<String, CachedCredential>(16, 0.75f, true) {
+
+                private static final long serialVersionUID = 7209613471932650417L;
+
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedCredential> eldest) {
+                    return size() > MAX_X509_CREDENTIALS;
+                }
+            });
+    // cached credentials are loaded again after this time, so that certificate changes made on any node are picked up
+    private static final long X509_CREDENTIAL_CACHE_TIMEOUT = 5 * 60 * 1000L;
     private static ThreadLocal tenantDomainInThreadLocal = new ThreadLocal();
 
     public static boolean isSaaSApplication() {
@@ -227,17 +231,7 @@ public class SAMLSSOUtil {
         InputStream inputStream = null;
         try {
             doBootstrap();
-            DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
-            documentBuilderFactory.setNamespaceAware(true);
-
-            documentBuilderFactory.setExpandEntityReferences(false);
-            documentBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-            SecurityManager securityManager = new SecurityManager();
-            securityManager.setEntityExpansionLimit(ENTITY_EXPANSION_LIMIT);
-            documentBuilderFactory.setAttribute(SECURITY_MANAGER_PROPERTY, securityManager);
-
-            DocumentBuilder docBuilder = documentBuilderFactory.newDocumentBuilder();
-            docBuilder.setEntityResolver(new CarbonEntityResolver());
+            DocumentBuilder docBuilder = IdentityXMLUtil.getSecuredDocumentBuilder();
             inputStream = new ByteArrayInputStream(authReqStr.trim().getBytes());
             Document document = docBuilder.parse(inputStream);
             Element element = document.getDocumentElement();
@@ -268,35 +262,16 @@ public class SAMLSSOUtil {
      */
     public static String marshall(XMLObject xmlObject) throws IdentityException {
 
-        ByteArrayOutputStream byteArrayOutputStrm = null;
         try {
             doBootstrap();
-            System.setProperty("javax.xml.parsers.DocumentBuilderFactory",
-                    "org.apache.xerces.jaxp.DocumentBuilderFactoryImpl");
 
             MarshallerFactory marshallerFactory = org.opensaml.xml.Configuration.getMarshallerFactory();
             Marshaller marshaller = marshallerFactory.getMarshaller(xmlObject);
             Element element = marshaller.marshall(xmlObject);
-
-            byteArrayOutputStrm = new ByteArrayOutputStream();
-            DOMImplementationRegistry registry = DOMImplementationRegistry.newInstance();
-            DOMImplementationLS impl = (DOMImplementationLS) registry.getDOMImplementation("LS");
-            LSSerializer writer = impl.createLSSerializer();
-            LSOutput output = impl.createLSOutput();
-            output.setByteStream(byteArrayOutputStrm);
-            writer.write(element, output);
-            return byteArrayOutputStrm.toString();
+            return IdentityXMLUtil.serialize(element);
         } catch (Exception e) {
             log.error("Error Serializing the SAML Response");
             throw new IdentityException("Error Serializing the SAML Response", e);
-        } finally {
-            if (byteArrayOutputStrm != null) {
-                try {
-                    byteArrayOutputStrm.close();
-                } catch (IOException e) {
-                    log.error("Error while closing the stream");
-                }
-            }
         }
     }
 
@@ -427,6 +402,8 @@ public class SAMLSSOUtil {
     public static void doBootstrap() {
         if (!isBootStrapped) {
             try {
+                System.setProperty("javax.xml.parsers.DocumentBuilderFactory",
+                        "org.apache.xerces.jaxp.DocumentBuilderFactoryImpl");
                 DefaultBootstrap.bootstrap();
                 isBootStrapped = true;
             } catch (ConfigurationException e) {
@@ -477,25 +454,9 @@ public class SAMLSSOUtil {
                                                    X509Credential cred) throws IdentityException {
 
         doBootstrap();
+        SSOSigner signer = getSSOSigner();
         try {
-
-            synchronized (Runtime.getRuntime().getClass()) {
-                ssoSigner = (SSOSigner) Class.forName(IdentityUtil.getProperty(
-                        "SSOService.SAMLSSOSigner").trim()).newInstance();
-                ssoSigner.init();
-            }
-
-            return ssoSigner.doSignResponse(response, signatureAlgorithm, cred);
-
-        } catch (ClassNotFoundException e) {
-            throw new IdentityException("Class not found: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-        } catch (InstantiationException e) {
-            throw new IdentityException("Error while instantiating class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-        } catch (IllegalAccessException e) {
-            throw new IdentityException("Illegal access to class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
+            return signer.doSignResponse(response, signatureAlgorithm, cred);
         } catch (Exception e) {
             throw new IdentityException("Error while signing the SAML Response message.", e);
         }
@@ -505,58 +466,9 @@ public class SAMLSSOUtil {
     public static Assertion setSignature(Assertion assertion, String signatureAlgorithm,
                                          X509Credential cred) throws IdentityException {
         doBootstrap();
+        SSOSigner signer = getSSOSigner();
         try {
-
-            synchronized (Runtime.getRuntime().getClass()) {
-                ssoSigner = (SSOSigner) Class.forName(IdentityUtil.getProperty(
-                        "SSOService.SAMLSSOSigner").trim()).newInstance();
-                ssoSigner.init();
-            }
-
-            return ssoSigner.doSetSignature(assertion, signatureAlgorithm, cred);
-//            Signature signature = (Signature) buildXMLObject(Signature.DEFAULT_ELEMENT_NAME);
-//            signature.setSigningCredential(cred);
-//            signature.setSignatureAlgorithm(signatureAlgorithm);
-//            signature.setCanonicalizationAlgorithm(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS);
-//
-//            try {
-//                KeyInfo keyInfo = (KeyInfo) buildXMLObject(KeyInfo.DEFAULT_ELEMENT_NAME);
-//                X509Data data = (X509Data) buildXMLObject(X509Data.DEFAULT_ELEMENT_NAME);
-//                X509Certificate cert = (X509Certificate) buildXMLObject(X509Certificate.DEFAULT_ELEMENT_NAME);
-//                String value = org.apache.xml.security.utils.Base64.encode(cred
-//                        .getEntityCertificate().getEncoded());
-//                cert.setValue(value);
-//                data.getX509Certificates().add(cert);
-//                keyInfo.getX509Datas().add(data);
-//                signature.setKeyInfo(keyInfo);
-//            } catch (CertificateEncodingException e) {
-//                throw new IdentityException("errorGettingCert");
-//            }
-//
-//            assertion.setSignature(signature);
-//
-//            List<Signature> signatureList = new ArrayList<Signature>();
-//            signatureList.add(signature);
-//
-//            // Marshall and Sign
-//            MarshallerFactory marshallerFactory = org.opensaml.xml.Configuration
-//                    .getMarshallerFactory();
-//            Marshaller marshaller = marshallerFactory.getMarshaller(assertion);
-//
-//            marshaller.marshall(assertion);
-//
-//            org.apache.xml.security.Init.init();
-//            Signer.signObjects(signatureList);
-//            return assertion;
-        } catch (ClassNotFoundException e) {
-            throw new IdentityException("Class not found: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-        } catch (InstantiationException e) {
-            throw new IdentityException("Error while instantiating class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-        } catch (IllegalAccessException e) {
-            throw new IdentityException("Illegal access to class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
+            return signer.doSetSignature(assertion, signatureAlgorithm, cred);
         } catch (Exception e) {
             throw new IdentityException("Error while signing the SAML Response message.", e);
         }
@@ -565,42 +477,10 @@ public class SAMLSSOUtil {
     public static EncryptedAssertion setEncryptedAssertion(Assertion assertion, String encryptionAlgorithm,
                                                            String alias, String domainName) throws IdentityException {
         doBootstrap();
+        SSOEncrypter encrypter = getSSOEncrypter();
         try {
             X509Credential cred = SAMLSSOUtil.getX509CredentialImplForTenant(domainName, alias);
-
-            synchronized (Runtime.getRuntime().getClass()) {
-                ssoEncrypter = (SSOEncrypter) Class.forName(IdentityUtil.getProperty(
-                        "SSOService.SAMLSSOEncrypter").trim()).newInstance();
-                ssoEncrypter.init();
-            }
-            return ssoEncrypter.doEncryptedAssertion(assertion, cred, alias, encryptionAlgorithm);
-//
-//            Credential symmetricCredential = SecurityHelper.getSimpleCredential(
-//                    SecurityHelper.generateSymmetricKey(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256));
-//
-//            EncryptionParameters encParams = new EncryptionParameters();
-//            encParams.setAlgorithm(EncryptionConstants.ALGO_ID_BLOCKCIPHER_AES256);
-//            encParams.setEncryptionCredential(symmetricCredential);
-//
-//            KeyEncryptionParameters keyEncryptionParameters = new KeyEncryptionParameters();
-//            keyEncryptionParameters.setAlgorithm(EncryptionConstants.ALGO_ID_KEYTRANSPORT_RSA15);
-//            keyEncryptionParameters.setEncryptionCredential(cred);
-//
-//            Encrypter encrypter = new Encrypter(encParams, keyEncryptionParameters);
-//            encrypter.setKeyPlacement(Encrypter.KeyPlacement.INLINE);
-//
-//            EncryptedAssertion encrypted = encrypter.encrypt(assertion);
-////            response.getEncryptedAssertions().add(encrypted);
-//            return encrypted;
-        } catch (ClassNotFoundException e) {
-            throw new IdentityException("Class not found: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOEncrypter"), e);
-        } catch (InstantiationException e) {
-            throw new IdentityException("Error while instantiating class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOEncrypter"), e);
-        } catch (IllegalAccessException e) {
-            throw new IdentityException("Illegal access to class: "
-                    + IdentityUtil.getProperty("SSOService.SAMLSSOEncrypter"), e);
+            return encrypter.doEncryptedAssertion(assertion, cred, alias, encryptionAlgorithm);
         } catch (Exception e) {
             throw new IdentityException("Error while signing the SAML Response message.", e);
         }
@@ -610,40 +490,111 @@ public class SAMLSSOUtil {
                                                String sessionId) throws IdentityException {
 
         doBootstrap();
-        String assertionBuilderClass = null;
+        SAMLAssertionBuilder assertionBuilder = getSAMLAssertionBuilder();
         try {
-            assertionBuilderClass = IdentityUtil.getProperty("SSOService.SAMLSSOAssertionBuilder").trim();
-            if (assertionBuilderClass == null || assertionBuilderClass.equals("")) {
-                assertionBuilderClass = DefaultAssertionBuilder;
-            }
+            return assertionBuilder.buildAssertion(authReqDTO, notOnOrAfter, sessionId);
         } catch (Exception e) {
-            log.debug("SAMLSSOAssertionBuilder configuration is set to default builder ");
-            assertionBuilderClass = DefaultAssertionBuilder;
+            throw new IdentityException("Error while building the saml assertion", e);
         }
+    }
 
-        try {
+    /**
+     * Instantiates the configured signer, encrypter, assertion builder and HTTP redirect signature validator
+     * extensions. These are stateless and shared by all the requests, hence created once when the bundle is
+     * activated instead of on each request.
+     *
+     * @throws IdentityException if an extension class cannot be instantiated
+     */
+    public static void initSAMLExtensions() throws IdentityException {
+        getSSOSigner();
+        getSSOEncrypter();
+        getSAMLAssertionBuilder();
+        getSAML2HTTPRedirectSignatureValidator();
+    }
+
+    private static SSOSigner getSSOSigner() throws IdentityException {
+        SSOSigner signer = ssoSigner;
+        if (signer == null) {
+            synchronized (SAMLSSOUtil.class) {
+                signer = ssoSigner;
+                if (signer == null) {
+                    signer = (SSOSigner) createExtension(IdentityUtil.getProperty("SSOService.SAMLSSOSigner"));
+                    signer.init();
+                    ssoSigner = signer;
+                }
+            }
+        }
+        return signer;
+    }
 
-            synchronized (Runtime.getRuntime().getClass()) {
-                samlAssertionBuilder = (SAMLAssertionBuilder) Class.forName(assertionBuilderClass).newInstance();
-                samlAssertionBuilder.init();
+    private static SSOEncrypter getSSOEncrypter() throws IdentityException {
+        SSOEncrypter encrypter = ssoEncrypter;
+        if (encrypter == null) {
+            synchronized (SAMLSSOUtil.class) {
+                encrypter = ssoEncrypter;
+                if (encrypter == null) {
+                    encrypter = (SSOEncrypter) createExtension(
+                            IdentityUtil.getProperty("SSOService.SAMLSSOEncrypter"));
+                    encrypter.init();
+                    ssoEncrypter = encrypter;
+                }
             }
-            return samlAssertionBuilder.buildAssertion(authReqDTO, notOnOrAfter, sessionId);
+        }
+        return encrypter;
+    }
 
+    private static SAMLAssertionBuilder getSAMLAssertionBuilder() throws IdentityException {
+        SAMLAssertionBuilder assertionBuilder = samlAssertionBuilder;
+        if (assertionBuilder == null) {
+            synchronized (SAMLSSOUtil.class) {
+                assertionBuilder = samlAssertionBuilder;
+                if (assertionBuilder == null) {
+                    String assertionBuilderClass = IdentityUtil.getProperty("SSOService.SAMLSSOAssertionBuilder");
+                    if (assertionBuilderClass == null || assertionBuilderClass.trim().equals("")) {
+                        log.debug("SAMLSSOAssertionBuilder configuration is set to default builder ");
+                        assertionBuilderClass = DefaultAssertionBuilder;
+                    }
+                    assertionBuilder = (SAMLAssertionBuilder) createExtension(assertionBuilderClass);
+                    assertionBuilder.init();
+                    samlAssertionBuilder = assertionBuilder;
+                }
+            }
+        }
+        return assertionBuilder;
+    }
+
+    private static SAML2HTTPRedirectSignatureValidator getSAML2HTTPRedirectSignatureValidator()
+            throws IdentityException {
+        SAML2HTTPRedirectSignatureValidator validator = samlHTTPRedirectSignatureValidator;
+        if (validator == null) {
+            synchronized (SAMLSSOUtil.class) {
+                validator = samlHTTPRedirectSignatureValidator;
+                if (validator == null) {
+                    validator = (SAML2HTTPRedirectSignatureValidator) createExtension(
+                            IdentityUtil.getProperty("SSOService.SAML2HTTPRedirectSignatureValidator"));
+                    validator.init();
+                    samlHTTPRedirectSignatureValidator = validator;
+                }
+            }
+        }
+        return validator;
+    }
+
+    private static Object createExtension(String className) throws IdentityException {
+        if (className == null) {
+            throw new IdentityException("Class not found: " + className);
+        }
+        try {
+            return Class.forName(className.trim()).newInstance();
         } catch (ClassNotFoundException e) {
-            throw new IdentityException("Class not found: "
-                    + assertionBuilderClass, e);
+            throw new IdentityException("Class not found: " + className, e);
         } catch (InstantiationException e) {
-            throw new IdentityException("Error while instantiating class: "
-                    + assertionBuilderClass, e);
+            throw new IdentityException("Error while instantiating class: " + className, e);
         } catch (IllegalAccessException e) {
-            throw new IdentityException("Illegal access to class: "
-                    + assertionBuilderClass, e);
-        } catch (Exception e) {
-            throw new IdentityException("Error while building the saml assertion", e);
+            throw new IdentityException("Illegal access to class: " + className, e);
         }
     }
 
-
     /**
      * Builds SAML Elements
      *
@@ -665,8 +616,7 @@ public class SAMLSSOUtil {
 
     public static String createID() {
 
-        byte[] bytes = new byte[20]; // 160 bits
-        random.nextBytes(bytes);
+        byte[] bytes = SecureIdGenerator.generateBytes(20); // 160 bits
 
         char[] chars = new char[40];
 
@@ -702,6 +652,13 @@ public class SAMLSSOUtil {
     public static X509CredentialImpl getX509CredentialImplForTenant(String domainName, String alias)
             throws IdentitySAML2SSOException {
 
+        String cacheKey = (domainName == null ? MultitenantConstants.SUPER_TENANT_DOMAIN_NAME : domainName) +
+                ":" + alias;
+        CachedCredential cachedCredential = x509CredentialCache.get(cacheKey);
+        if (cachedCredential != null && cachedCredential.expiryTime > System.currentTimeMillis()) {
+            return cachedCredential.credential;
+        }
+
         int tenantID = -1234;
         RealmService realmService = SAMLSSOUtil.getRealmService();
 
@@ -733,6 +690,7 @@ public class SAMLSSOUtil {
             java.security.cert.X509Certificate cert =
                     (java.security.cert.X509Certificate) keyStore.getCertificate(alias);
             credentialImpl = new X509CredentialImpl(cert);
+            x509CredentialCache.put(cacheKey, new CachedCredential(credentialImpl));
 
         } catch (Exception e) {
             String errorMsg =
@@ -743,6 +701,14 @@ public class SAMLSSOUtil {
         return credentialImpl;
     }
 
+    /**
+     * Clears the cached public credentials, so that they are loaded again from the key stores without waiting
+     * for the cache timeout.
+     */
+    public static void clearX509CredentialCache() {
+        x509CredentialCache.clear();
+    }
+
     /**
      * Validates the request message's signature. Validates the signature of
      * both HTTP POST Binding and HTTP Redirect Binding.
@@ -833,16 +799,9 @@ public class SAMLSSOUtil {
      */
     public static boolean validateDeflateSignature(String queryString, String issuer,
                                                    String alias, String domainName) throws IdentityException {
+        SAML2HTTPRedirectSignatureValidator validator = getSAML2HTTPRedirectSignatureValidator();
         try {
-
-            synchronized (Runtime.getRuntime().getClass()) {
-                samlHTTPRedirectSignatureValidator = (SAML2HTTPRedirectSignatureValidator) Class.forName(IdentityUtil.getProperty(
-                        "SSOService.SAML2HTTPRedirectSignatureValidator").trim()).newInstance();
-                samlHTTPRedirectSignatureValidator.init();
-            }
-
-            return samlHTTPRedirectSignatureValidator.validateSignature(queryString, issuer,
-                    alias, domainName);
+            return validator.validateSignature(queryString, issuer, alias, domainName);
 
         } catch (SecurityException e) {
             log.error("Error validating deflate signature", e);
@@ -851,15 +810,6 @@ public class SAMLSSOUtil {
             log.warn("Signature validation failed for the SAML Message : Failed to construct the X509CredentialImpl for the alias " +
                     alias);
             return false;
-        } catch (ClassNotFoundException e) {
-            throw new IdentityException("Class not found: "
-                    + IdentityUtil.getProperty("SSOService.SAML2HTTPRedirectSignatureValidator"), e);
-        } catch (InstantiationException e) {
-            throw new IdentityException("Error while instantiating class: "
-                    + IdentityUtil.getProperty("SSOService.SAML2HTTPRedirectSignatureValidator"), e);
-        } catch (IllegalAccessException e) {
-            throw new IdentityException("Illegal access to class: "
-                    + IdentityUtil.getProperty("SSOService.SAML2HTTPRedirectSignatureValidator"), e);
         }
     }
 
@@ -878,16 +828,10 @@ public class SAMLSSOUtil {
         boolean isSignatureValid = false;
 
         if (request.getSignature() != null) {
+            SSOSigner signer = getSSOSigner();
             try {
                 X509Credential cred = SAMLSSOUtil.getX509CredentialImplForTenant(domainName, alias);
-
-                synchronized (Runtime.getRuntime().getClass()) {
-                    ssoSigner = (SSOSigner) Class.forName(IdentityUtil.getProperty(
-                            "SSOService.SAMLSSOSigner").trim()).newInstance();
-                    ssoSigner.init();
-                }
-
-                return ssoSigner.doValidateXMLSignature(request, cred, alias);
+                return signer.doValidateXMLSignature(request, cred, alias);
             } catch (IdentitySAML2SSOException ignore) {
                 log.warn("Signature validation failed for the SAML Message : Failed to construct the X509CredentialImpl for the alias " +
                         alias);
@@ -895,15 +839,6 @@ public class SAMLSSOUtil {
             } catch (IdentityException ignore) {
                 log.warn("Signature Validation Failed for the SAML Assertion : Signature is invalid.");
                 log.debug(ignore);
-            } catch (ClassNotFoundException e) {
-                throw new IdentityException("Class not found: "
-                        + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-            } catch (InstantiationException e) {
-                throw new IdentityException("Error while instantiating class: "
-                        + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
-            } catch (IllegalAccessException e) {
-                throw new IdentityException("Illegal access to class: "
-                        + IdentityUtil.getProperty("SSOService.SAMLSSOSigner"), e);
             } catch (Exception e) {
 
             }
@@ -1172,4 +1107,13 @@ public class SAMLSSOUtil {
         return (String) SAMLSSOUtil.tenantDomainInThreadLocal.get();
     }
 
+    private static class CachedCredential {
+
+        private final X509CredentialImpl credential;
+        private final long expiryTime = System.currentTimeMillis() + X509_CREDENTIAL_CACHE_TIMEOUT;
+
+        private CachedCredential(X509CredentialImpl credential) {
+            this.credential = credential;
+        }
+    }
 }
@@ -31,11 +31,17 @@ public class DBQueries {
 
     public static final String GET_TOKEN = "SELECT TOKEN_CONTENT  FROM  IDN_STS_STORE  WHERE TOKEN_ID = ?";
 
-    public static final String GET_ALL_TOKENS = "SELECT *  FROM  IDN_STS_STORE";
+    public static final String GET_ALL_TOKENS = "SELECT TOKEN_CONTENT  FROM  IDN_STS_STORE";
 
-    public static final String VALID_TOKENS = "SELECT *  FROM  IDN_STS_STORE WHERE STATE =? OR STATE =?";
+    public static final String VALID_TOKENS = "SELECT TOKEN_CONTENT  FROM  IDN_STS_STORE WHERE STATE IN (?,?) " +
+            "AND EXPIRE_DATE > ?";
 
-    public static final String GET_TOKENS_BY_STATE = "SELECT *  FROM  IDN_STS_STORE WHERE STATE = ?";
+    public static final String EXPIRED_TOKENS = "SELECT TOKEN_CONTENT  FROM  IDN_STS_STORE WHERE STATE = ? " +
+            "OR EXPIRE_DATE <= ?";
+
+    public static final String GET_TOKENS_BY_STATE = "SELECT TOKEN_CONTENT  FROM  IDN_STS_STORE WHERE STATE = ?";
+
+    public static final String REMOVE_EXPIRED_TOKENS = "DELETE FROM  IDN_STS_STORE WHERE EXPIRE_DATE < ?";
 
     public static final String TOKENS_EXISTS = "SELECT 1  FROM  IDN_STS_STORE";
 }
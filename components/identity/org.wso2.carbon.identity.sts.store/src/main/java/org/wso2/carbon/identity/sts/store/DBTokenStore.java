@@ -24,18 +24,74 @@ import org.apache.rahas.TrustException;
 import org.wso2.carbon.identity.sts.store.dao.DBStsDAO;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * In memory token store. Tokens are indexed by their expiry time and their state, so that the
+ * expired, valid, renewed and cancelled tokens are found without going through every token. Tokens
+ * which expired more than a purge interval ago are removed periodically.
+ */
 public class DBTokenStore implements TokenStorage {
 
     private static Log log = LogFactory.getLog(DBTokenStore.class);
     private static int poolSize = 100;
-    private static Map<String, Token> tokenMap = new ConcurrentHashMap<String, Token>();
+    private static ConcurrentMap<String, IndexedToken> tokenMap = new ConcurrentHashMap<String, IndexedToken>();
+    private static ConcurrentSkipListSet<IndexedToken> expiryIndex = new ConcurrentSkipListSet<IndexedToken>();
+    private static Map<Integer, Set<String>> stateIndex = new ConcurrentHashMap<Integer, Set<String>>();
+    private static final Object indexLock = new Object();
+    private static ScheduledExecutorService purgeExecutor;
     private DBStsDAO dbStsDAO;
 
+    /**
+     * Starts removing the tokens which expired more than a purge interval ago, once every purge interval.
+     * Called when the STS store bundle is activated.
+     *
+     * @param purgeInterval purge interval in milli seconds
+     */
+    public static synchronized void startPurging(final long purgeInterval) {
+        if (purgeExecutor != null) {
+            return;
+        }
+        purgeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "DBTokenStorePurger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        purgeExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    purgeExpiredTokens(System.currentTimeMillis() - purgeInterval);
+                } catch (RuntimeException e) {
+                    log.error("Error while purging the expired tokens", e);
+                }
+            }
+        }, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops removing the expired tokens. Called when the STS store bundle is deactivated.
+     */
+    public static synchronized void stopPurging() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+            purgeExecutor = null;
+        }
+    }
+
     /**
      * "#" are used for internal references. If a token-id comes with that we
      * need to remove.
@@ -70,31 +126,26 @@ public class DBTokenStore implements TokenStorage {
 
     public void add(Token token) throws TrustException {
         // put the Token to cache.
-        tokenMap.put(getTokenId(token), token);
+        index(getTokenId(token), token);
     }
 
     public void update(Token token) throws TrustException {
-        tokenMap.put(getTokenId(token), token);
+        index(getTokenId(token), token);
     }
 
     public String[] getTokenIdentifiers() throws TrustException {
-        List<String> tokenIds = new ArrayList<String>();
-
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            tokenIds.add(entry.getKey());
-        }
-
+        Set<String> tokenIds = tokenMap.keySet();
         return tokenIds.toArray(new String[tokenIds.size()]);
     }
 
     public Token[] getExpiredTokens() throws TrustException {
         List<Token> tokens = new ArrayList<Token>();
-        Date now = new Date();
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            Token tok = tokenMap.get(entry.getKey());
-            if (tok.getExpires().getTime() < now.getTime()) {
-                tokens.add(tok);
+        long now = System.currentTimeMillis();
+        for (IndexedToken indexedToken : expiryIndex) {
+            if (indexedToken.expires >= now) {
+                break;
             }
+            tokens.add(indexedToken.token);
         }
         return tokens.toArray(new Token[tokens.size()]);
 
@@ -102,56 +153,41 @@ public class DBTokenStore implements TokenStorage {
 
     public Token[] getValidTokens() throws TrustException {
         List<Token> tokens = new ArrayList<Token>();
-        Date now = new Date();
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            Token tok = tokenMap.get(entry.getKey());
-            if (tok.getExpires().getTime() > now.getTime()) {
-                tokens.add(tok);
-            }
+        long now = System.currentTimeMillis();
+        for (IndexedToken indexedToken : expiryIndex.tailSet(new IndexedToken(null, null, now + 1, 0))) {
+            tokens.add(indexedToken.token);
         }
         return tokens.toArray(new Token[tokens.size()]);
     }
 
     public Token[] getRenewedTokens() throws TrustException {
-
-        List<Token> tokens = new ArrayList<Token>();
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            Token tok = tokenMap.get(entry.getKey());
-            if (Token.RENEWED == tok.getState()) {
-                tokens.add(tok);
-            }
-        }
-        return tokens.toArray(new Token[tokens.size()]);
-
+        return getTokensByState(Token.RENEWED);
     }
 
     public Token[] getCancelledTokens() throws TrustException {
-        List<Token> tokens = new ArrayList<Token>();
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            Token tok = tokenMap.get(entry.getKey());
-            if (Token.CANCELLED == tok.getState()) {
-                tokens.add(tok);
-            }
-        }
-        return tokens.toArray(new Token[tokens.size()]);
+        return getTokensByState(Token.CANCELLED);
     }
 
     public Token getToken(String id) throws TrustException {
         id = getTokenId(id);
-        return tokenMap.get(id);
+        IndexedToken indexedToken = tokenMap.get(id);
+        return indexedToken != null ? indexedToken.token : null;
     }
 
     public void removeToken(String id) throws TrustException {
         id = getTokenId(id);
-        tokenMap.remove(id);
+        synchronized (indexLock) {
+            IndexedToken indexedToken = tokenMap.remove(id);
+            if (indexedToken != null) {
+                unindex(indexedToken);
+            }
+        }
     }
 
     public List<Token> getStorageTokens() throws TrustException {
         List<Token> tokens = new ArrayList<Token>();
-        for (Map.Entry<String, Token> entry : tokenMap.entrySet()) {
-            Token tok = tokenMap.get(entry.getKey());
-            tokens.add(tok);
-
+        for (IndexedToken indexedToken : tokenMap.values()) {
+            tokens.add(indexedToken.token);
         }
         return tokens;
     }
@@ -169,4 +205,108 @@ public class DBTokenStore implements TokenStorage {
         // If we don't immediately persist token to database,
         // we have to persist before the server shut down.
     }
+
+    /**
+     * Removes the tokens which expired before the given time.
+     *
+     * @param expiredBefore time in milliseconds
+     */
+    private static void purgeExpiredTokens(long expiredBefore) {
+        int purged = 0;
+        for (IndexedToken indexedToken : expiryIndex) {
+            if (indexedToken.expires >= expiredBefore) {
+                break;
+            }
+            synchronized (indexLock) {
+                if (tokenMap.remove(indexedToken.id, indexedToken)) {
+                    unindex(indexedToken);
+                    purged++;
+                }
+            }
+        }
+        if (purged > 0 && log.isDebugEnabled()) {
+            log.debug("Purged " + purged + " expired tokens");
+        }
+    }
+
+    private Token[] getTokensByState(int state) {
+        List<Token> tokens = new ArrayList<Token>();
+        Set<String> tokenIds = stateIndex.get(state);
+        if (tokenIds != null) {
+            for (String tokenId : tokenIds) {
+                IndexedToken indexedToken = tokenMap.get(tokenId);
+                // the state of the token may have changed after the ids were read
+                if (indexedToken != null && indexedToken.state == state) {
+                    tokens.add(indexedToken.token);
+                }
+            }
+        }
+        return tokens.toArray(new Token[tokens.size()]);
+    }
+
+    /**
+     * Adds the token to the store and the indexes, replacing the entry of the previous version of the
+     * token. The expiry time and the state are taken when the token is added or updated.
+     */
+    private static void index(String tokenId, Token token) {
+        long expires = token.getExpires() != null ? token.getExpires().getTime() : Long.MAX_VALUE;
+        IndexedToken indexedToken = new IndexedToken(tokenId, token, expires, token.getState());
+        synchronized (indexLock) {
+            IndexedToken previous = tokenMap.put(tokenId, indexedToken);
+            if (previous != null) {
+                unindex(previous);
+            }
+            expiryIndex.add(indexedToken);
+            Set<String> tokenIds = stateIndex.get(indexedToken.state);
+            if (tokenIds == null) {
+                tokenIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                stateIndex.put(indexedToken.state, tokenIds);
+            }
+            tokenIds.add(tokenId);
+        }
+    }
+
+    /**
+     * Removes the token from the expiry and state indexes. Must be called holding the index lock.
+     */
+    private static void unindex(IndexedToken indexedToken) {
+        expiryIndex.remove(indexedToken);
+        Set<String> tokenIds = stateIndex.get(indexedToken.state);
+        if (tokenIds != null) {
+            tokenIds.remove(indexedToken.id);
+        }
+    }
+
+    /**
+     * Token with the expiry time and the state it is indexed by. Ordered by the expiry time and then
+     * by the token id.
+     */
+    private static class IndexedToken implements Comparable<IndexedToken> {
+
+        private final String id;
+        private final Token token;
+        private final long expires;
+        private final int state;
+
+        private IndexedToken(String id, Token token, long expires, int state) {
+            this.id = id;
+            this.token = token;
+            this.expires = expires;
+            this.state = state;
+        }
+
+        @Override
+        public int compareTo(IndexedToken other) {
+            if (expires != other.expires) {
+                return expires < other.expires ? -1 : 1;
+            }
+            if (id == null) {
+                return other.id == null ? 0 : -1;
+            }
+            if (other.id == null) {
+                return 1;
+            }
+            return id.compareTo(other.id);
+        }
+    }
 }
@@ -31,14 +31,63 @@ import javax.xml.stream.XMLStreamException;
 import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 public class JDBCTokenStore implements TokenStorage {
 
     private static Log log = LogFactory.getLog(JDBCTokenStore.class);
     private static int poolSize = 100;
     private static ExecutorService executorService = Executors.newFixedThreadPool(poolSize);
+    private static ScheduledExecutorService purgeExecutor;
     private DBStsDAO dbStsDAO;
 
+    /**
+     * Starts deleting the tokens which expired more than a purge interval ago from the database, once every
+     * purge interval. Called when the STS store bundle is activated, unless the purge is disabled on this node.
+     *
+     * @param purgeInterval purge interval in milli seconds
+     */
+    public static synchronized void startPurging(final long purgeInterval) {
+        if (purgeExecutor != null) {
+            return;
+        }
+        purgeExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "JDBCTokenStorePurger");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        purgeExecutor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    int purged = new DBStsDAO().removeExpiredTokens(System.currentTimeMillis() - purgeInterval);
+                    if (purged > 0 && log.isDebugEnabled()) {
+                        log.debug("Purged " + purged + " expired tokens from the database");
+                    }
+                } catch (TrustException e) {
+                    log.error("Failed to purge the expired tokens", e);
+                } catch (RuntimeException e) {
+                    log.error("Failed to purge the expired tokens", e);
+                }
+            }
+        }, purgeInterval, purgeInterval, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops deleting the expired tokens. Called when the STS store bundle is deactivated.
+     */
+    public static synchronized void stopPurging() {
+        if (purgeExecutor != null) {
+            purgeExecutor.shutdownNow();
+            purgeExecutor = null;
+        }
+    }
+
     public static ExecutorService getExecutorService() {
         return executorService;
     }
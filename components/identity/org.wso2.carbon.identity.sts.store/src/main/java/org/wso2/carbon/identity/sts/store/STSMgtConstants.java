@@ -20,4 +20,11 @@ public class STSMgtConstants {
 
     public static final String TOKEN_CACHE_MANAGER = "STS_TOKEN_CACHE_MANAGER";
     public static final String TOKEN_CACHE_ID = "STS_TOKEN_CACHE";
+
+    /*Default interval of purging expired tokens, in milli seconds. Tokens are purged one interval after they expire.*/
+    public static final long TOKEN_PURGE_INTERVAL = 10 * 60 * 1000L;
+
+    /*identity.xml properties of the token purge*/
+    public static final String TOKEN_PURGE_INTERVAL_PROPERTY = "STS.TokenStore.PurgeInterval";
+    public static final String TOKEN_PURGE_ENABLED_PROPERTY = "STS.TokenStore.PurgeEnabled";
 }
@@ -25,8 +25,13 @@ import org.wso2.carbon.identity.core.util.IdentityDatabaseUtil;
 import org.wso2.carbon.identity.sts.store.DBQueries;
 import org.wso2.carbon.identity.sts.store.util.STSStoreUtils;
 
-import java.io.*;
-import java.sql.*;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -53,7 +58,7 @@ public class DBStsDAO {
             connection = getDBConnection();
             prepStmt = connection.prepareStatement(query);
             prepStmt.setString(1, token.getId());
-            byte[] tokenByteContainer = getTokenContent(token);
+            byte[] tokenByteContainer = STSStoreUtils.encodeToken(token);
             InputStream tokenInputStream = new ByteArrayInputStream(tokenByteContainer);
             prepStmt.setBinaryStream(2, tokenInputStream, tokenByteContainer.length);
             prepStmt.setTimestamp(3, new Timestamp(token.getCreated().getTime()));
@@ -100,7 +105,7 @@ public class DBStsDAO {
             connection = getDBConnection();
             prepStmt = connection.prepareStatement(query);
             //  prepStmt.setObject(1, token);
-            byte[] tokenByteContainer = getTokenContent(token);
+            byte[] tokenByteContainer = STSStoreUtils.encodeToken(token);
             InputStream tokenInputStream = new ByteArrayInputStream(tokenByteContainer);
             prepStmt.setBinaryStream(1, tokenInputStream, tokenByteContainer.length);
             prepStmt.setTimestamp(2, new Timestamp(token.getCreated().getTime()));
@@ -213,9 +218,7 @@ public class DBStsDAO {
 
             if (rs != null) {
                 while (rs.next()) {
-                    Blob tokenContent = rs.getBlob("TOKEN_CONTENT");
-                    byte[] tokenContentBytes = tokenContent.getBytes(1, (int) tokenContent.length());
-                    token = getToken(tokenContentBytes);
+                    token = getToken(rs);
                 }
             }
         } catch (Exception e) {
@@ -228,19 +231,8 @@ public class DBStsDAO {
         return token;
     }
 
-    private Token getToken(byte tokenContentBytes[]) throws TrustException {
-        Token token;
-        try {
-            ByteArrayInputStream tokenContentByteArray = new ByteArrayInputStream(tokenContentBytes);
-            ObjectInputStream tokenContentObject = new ObjectInputStream(tokenContentByteArray);
-            Object tokenObj = tokenContentObject.readObject();
-            token = (Token) tokenObj;
-        } catch (Exception e) {
-            String msg = "Failed to convert blob content to Token object ";
-            log.error(msg, e);
-            throw new TrustException(msg, e);
-        }
-        return token;
+    private Token getToken(ResultSet rs) throws SQLException, TrustException {
+        return STSStoreUtils.decodeToken(rs.getBytes("TOKEN_CONTENT"));
     }
 
     /**
@@ -262,7 +254,7 @@ public class DBStsDAO {
 
             if (rs != null) {
                 while (rs.next()) {
-                    tokens.add(getToken((byte[]) rs.getObject("TOKEN_CONTENT")));
+                    tokens.add(getToken(rs));
                 }
             }
             return tokens;
@@ -294,12 +286,12 @@ public class DBStsDAO {
             prepStmt = connection.prepareStatement(query);
             prepStmt.setInt(1, Token.ISSUED);
             prepStmt.setInt(2, Token.RENEWED);
+            prepStmt.setTimestamp(3, new Timestamp(System.currentTimeMillis()));
             rs = prepStmt.executeQuery();
 
             if (rs != null) {
                 while (rs.next()) {
-                    Token token = getToken((byte[]) rs.getObject("TOKEN_CONTENT"));
-                    tokens.add(token);
+                    tokens.add(getToken(rs));
                 }
             }
             return tokens.toArray(new Token[tokens.size()]);
@@ -313,14 +305,38 @@ public class DBStsDAO {
     }
 
     /**
-     * This is to get expired tokens from token store
+     * This is to get expired tokens from token store, which are the tokens in the expired state and
+     * the tokens past their expiry time
      *
      * @param status state id of expired tokens
      * @return Token[]
      * @throws TrustException if failed to get expired tokens
      */
     public Token[] getExpiredTokens(int status) throws TrustException {
-        return getTokens(status);
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+        List<Token> tokens = new ArrayList<Token>();
+
+        String query = DBQueries.EXPIRED_TOKENS;
+        try {
+            connection = getDBConnection();
+            prepStmt = connection.prepareStatement(query);
+            prepStmt.setInt(1, status);
+            prepStmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            rs = prepStmt.executeQuery();
+
+            while (rs.next()) {
+                tokens.add(getToken(rs));
+            }
+            return tokens.toArray(new Token[tokens.size()]);
+        } catch (Exception e) {
+            String msg = "Failed to get expired tokens";
+            log.error(msg, e);
+            throw new TrustException(msg, e);
+        } finally {
+            IdentityDatabaseUtil.closeAllConnections(connection, rs, prepStmt);
+        }
     }
 
     /**
@@ -360,8 +376,7 @@ public class DBStsDAO {
 
             if (rs != null) {
                 while (rs.next()) {
-                    Token token = getToken((byte[]) rs.getObject("TOKEN_CONTENT"));
-                    tokens.add(token);
+                    tokens.add(getToken(rs));
                 }
             }
             return tokens.toArray(new Token[tokens.size()]);
@@ -408,22 +423,33 @@ public class DBStsDAO {
         return tokenExist;
     }
 
-    private byte[] getTokenContent(Token token) throws IOException {
-        ByteArrayOutputStream tokenArrayStream = new ByteArrayOutputStream();
-        ObjectOutputStream tokenObjectStream = null;
-        byte[] tokenBytes = null;
+    /**
+     * This is to purge the tokens which expired before the given time
+     *
+     * @param expiredBefore time in milliseconds
+     * @return number of tokens removed
+     * @throws TrustException if failed to remove the expired tokens
+     */
+    public int removeExpiredTokens(long expiredBefore) throws TrustException {
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+        ResultSet rs = null;
+
+        String query = DBQueries.REMOVE_EXPIRED_TOKENS;
         try {
-            tokenObjectStream = new ObjectOutputStream(tokenArrayStream);
-            tokenObjectStream.writeObject(token);
-            tokenObjectStream.flush();
-            tokenBytes = tokenArrayStream.toByteArray();
+            connection = getDBConnection();
+            prepStmt = connection.prepareStatement(query);
+            prepStmt.setTimestamp(1, new Timestamp(expiredBefore));
+            int removed = prepStmt.executeUpdate();
+            connection.commit();
+            return removed;
+        } catch (Exception e) {
+            IdentityDatabaseUtil.rollBack(connection);
+            String msg = "Failed to remove expired tokens";
+            log.error(msg, e);
+            throw new TrustException(msg, e);
         } finally {
-            if (tokenObjectStream != null) {
-                tokenObjectStream.close();
-            }
+            IdentityDatabaseUtil.closeAllConnections(connection, rs, prepStmt);
         }
-        return tokenBytes;
     }
-
-
 }
@@ -18,17 +18,54 @@ package org.wso2.carbon.identity.sts.store.internal;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.osgi.service.component.ComponentContext;
+import org.wso2.carbon.base.ServerConfigurationException;
+import org.wso2.carbon.identity.core.util.IdentityUtil;
+import org.wso2.carbon.identity.sts.store.DBTokenStore;
+import org.wso2.carbon.identity.sts.store.JDBCTokenStore;
+import org.wso2.carbon.identity.sts.store.STSMgtConstants;
 
-/*
-*/
+/**
+ * @scr.component name="identity.sts.store.component" immediate="true"
+ */
 public class STSStoreComponent {
 
     private static Log log = LogFactory.getLog(STSStoreComponent.class);
 
     protected void activate(ComponentContext context) {
+        try {
+            IdentityUtil.populateProperties();
+        } catch (ServerConfigurationException e) {
+            log.error("Error while reading identity.xml. Using the default token purge configuration", e);
+        }
+
+        long purgeInterval = IdentityUtil.getLongProperty(STSMgtConstants.TOKEN_PURGE_INTERVAL_PROPERTY,
+                STSMgtConstants.TOKEN_PURGE_INTERVAL / (60 * 1000)) * 60 * 1000;
+        if (purgeInterval <= 0) {
+            log.warn("Invalid token purge interval " + purgeInterval + ". Using the default interval");
+            purgeInterval = STSMgtConstants.TOKEN_PURGE_INTERVAL;
+        }
+
+        // in memory tokens are local to this node and are always purged
+        DBTokenStore.startPurging(purgeInterval);
+        // the token database is shared by the cluster, so the purge can be left to one node
+        String purgeEnabled = IdentityUtil.getProperty(STSMgtConstants.TOKEN_PURGE_ENABLED_PROPERTY);
+        if (purgeEnabled == null || Boolean.parseBoolean(purgeEnabled.trim())) {
+            JDBCTokenStore.startPurging(purgeInterval);
+        } else if (log.isDebugEnabled()) {
+            log.debug("Purging expired tokens from the database is disabled on this node");
+        }
+
         if (log.isDebugEnabled()) {
             log.info("Identity STS Mgt bundle is activated");
         }
     }
 
+    protected void deactivate(ComponentContext context) {
+        DBTokenStore.stopPurging();
+        JDBCTokenStore.stopPurging();
+        if (log.isDebugEnabled()) {
+            log.debug("Identity STS Mgt bundle is deactivated");
+        }
+    }
+
 }
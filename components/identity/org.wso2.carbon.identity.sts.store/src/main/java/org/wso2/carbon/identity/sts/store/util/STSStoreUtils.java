@@ -22,9 +22,25 @@ import org.apache.rahas.TrustException;
 import org.wso2.carbon.identity.sts.store.SerializableToken;
 
 import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.Map;
+import java.util.Properties;
 
 
 public class STSStoreUtils {
+
+    /*Version of the compact token encoding. Java serialized tokens start with 0xAC, so they are told apart.*/
+    private static final byte TOKEN_FORMAT_VERSION = 1;
+
+    private static final int JAVA_SERIALIZATION_MAGIC = 0xAC;
+
     /**
      * This method used to  get Serialized object to cache
      *
@@ -99,6 +115,158 @@ public class STSStoreUtils {
         return token1;
     }
 
+    /**
+     * Encodes the token to be stored in the database. The fields of the token are written one after
+     * the other, instead of using Java serialization. Tokens with properties which are not strings
+     * are Java serialized as before.
+     *
+     * @param token Token
+     * @return encoded token
+     * @throws IOException if failed to encode the token
+     */
+    public static byte[] encodeToken(Token token) throws IOException {
+
+        Properties properties = token.getProperties();
+        if (properties != null) {
+            for (Map.Entry<Object, Object> property : properties.entrySet()) {
+                if (!(property.getKey() instanceof String) || !(property.getValue() instanceof String)) {
+                    return serializeToken(token);
+                }
+            }
+        }
+
+        SerializableToken serializableToken = getSerializableToken(token);
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(byteStream);
+        out.writeByte(TOKEN_FORMAT_VERSION);
+        writeString(out, serializableToken.getId());
+        out.writeInt(serializableToken.getState());
+        writeString(out, serializableToken.getToken());
+        writeString(out, serializableToken.getPreviousToken());
+        writeString(out, serializableToken.getAttachedReference());
+        writeString(out, serializableToken.getUnattachedReference());
+        writeBytes(out, serializableToken.getSecret());
+        writeDate(out, serializableToken.getCreated());
+        writeDate(out, serializableToken.getExpires());
+        writeString(out, serializableToken.getIssuerAddress());
+        out.writeBoolean(serializableToken.isPersistenceEnabled());
+        out.writeBoolean(serializableToken.isChanged());
+        if (properties == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(properties.size());
+            for (Map.Entry<Object, Object> property : properties.entrySet()) {
+                writeString(out, (String) property.getKey());
+                writeString(out, (String) property.getValue());
+            }
+        }
+        out.flush();
+        return byteStream.toByteArray();
+    }
+
+    /**
+     * Decodes a token stored in the database, either in the compact encoding or Java serialized.
+     *
+     * @param content encoded token
+     * @return Token
+     * @throws TrustException if failed to decode the token
+     */
+    public static Token decodeToken(byte[] content) throws TrustException {
+
+        try {
+            if (content.length > 0 && (content[0] & 0xFF) == JAVA_SERIALIZATION_MAGIC) {
+                ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(content));
+                return (Token) in.readObject();
+            }
+
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(content));
+            byte version = in.readByte();
+            if (version != TOKEN_FORMAT_VERSION) {
+                throw new TrustException("Unsupported token format version " + version);
+            }
+            SerializableToken serializableToken = new SerializableToken();
+            serializableToken.setId(readString(in));
+            serializableToken.setState(in.readInt());
+            serializableToken.setToken(readString(in));
+            serializableToken.setPreviousToken(readString(in));
+            serializableToken.setAttachedReference(readString(in));
+            serializableToken.setUnattachedReference(readString(in));
+            serializableToken.setSecret(readBytes(in));
+            serializableToken.setCreated(readDate(in));
+            serializableToken.setExpires(readDate(in));
+            serializableToken.setIssuerAddress(readString(in));
+            serializableToken.setPersistenceEnabled(in.readBoolean());
+            serializableToken.setChanged(in.readBoolean());
+            int propertyCount = in.readInt();
+            if (propertyCount >= 0) {
+                Properties properties = new Properties();
+                for (int i = 0; i < propertyCount; i++) {
+                    properties.setProperty(readString(in), readString(in));
+                }
+                serializableToken.setProperties(properties);
+            }
+            return getToken(serializableToken);
+
+        } catch (IOException e) {
+            throw new TrustException("Failed to decode the token", e);
+        } catch (ClassNotFoundException e) {
+            throw new TrustException("Failed to decode the token", e);
+        } catch (XMLStreamException e) {
+            throw new TrustException("Failed to decode the token", e);
+        }
+    }
+
+    private static byte[] serializeToken(Token token) throws IOException {
+        ByteArrayOutputStream byteStream = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(byteStream);
+        try {
+            out.writeObject(token);
+            out.flush();
+        } finally {
+            out.close();
+        }
+        return byteStream.toByteArray();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value == null ? null : value.getBytes("UTF-8"));
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes == null ? null : new String(bytes, "UTF-8");
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeDate(DataOutputStream out, Date value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeLong(value.getTime());
+        }
+    }
+
+    private static Date readDate(DataInputStream in) throws IOException {
+        return in.readBoolean() ? new Date(in.readLong()) : null;
+    }
+
     public static void removeTokenFromCache(String cacheId) {
 //        Cache<String, SerializableToken> cache = DBTokenStore.getTokenCache();
 //        if (cache != null && cache.containsKey(cacheId)) {
@@ -44,6 +44,8 @@ public class TCPThriftAuthenticationService {
     private final String keyStorePassword;
     private final int clientTimeout;
     private ThriftAuthenticatorService thriftAuthenticatorService;
+    //authenticator service created by this service, which has to be shut down with it
+    private ThriftAuthenticatorServiceImpl ownAuthenticatorService;
     private Log log = LogFactory.getLog(TCPThriftAuthenticationService.class);
     private TServer authenticationServer;
 
@@ -73,7 +75,9 @@ public class TCPThriftAuthenticationService {
         this.keyStorePassword = keyStorePassword;
         this.clientTimeout = 30000;
 
-        this.thriftAuthenticatorService = new ThriftAuthenticatorServiceImpl(authenticationHandler, null, new InMemoryThriftSessionDAO(), thriftSessionTimeOut);
+        this.ownAuthenticatorService = new ThriftAuthenticatorServiceImpl(authenticationHandler, null,
+                new InMemoryThriftSessionDAO(), thriftSessionTimeOut);
+        this.thriftAuthenticatorService = ownAuthenticatorService;
     }
 
     public void start() throws TTransportException, UnknownHostException {
@@ -100,7 +104,12 @@ public class TCPThriftAuthenticationService {
     }
 
     public void stop() {
-        authenticationServer.stop();
+        if (authenticationServer != null) {
+            authenticationServer.stop();
+        }
+        if (ownAuthenticatorService != null) {
+            ownAuthenticatorService.shutdown();
+        }
     }
 
     public boolean isAuthenticated(String sessionId) {
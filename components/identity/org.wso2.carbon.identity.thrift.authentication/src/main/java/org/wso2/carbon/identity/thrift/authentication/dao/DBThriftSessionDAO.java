@@ -31,6 +31,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Class to manipulate thrift session info in database.
@@ -220,6 +221,71 @@ public class DBThriftSessionDAO implements ThriftSessionDAO {
         }
     }
 
+    @Override
+    public void updateLastAccessTimes(Map<String, Long> lastAccessTimes) throws IdentityException {
+        if (lastAccessTimes.isEmpty()) {
+            return;
+        }
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+
+        try {
+            connection = ThriftAuthenticationDatabaseUtil.getDBConnection();
+            prepStmt = connection.prepareStatement(ThriftAuthenticationConstants.UPDATE_LAST_MODIFIED_TIME_SQL);
+
+            for (Map.Entry<String, Long> entry : lastAccessTimes.entrySet()) {
+                prepStmt.setLong(1, entry.getValue());
+                prepStmt.setString(2, entry.getKey());
+                prepStmt.addBatch();
+            }
+            prepStmt.executeBatch();
+            connection.commit();
+            if (log.isDebugEnabled()) {
+                log.debug("Updated last access time of " + lastAccessTimes.size() + " Thrift Sessions");
+            }
+
+        } catch (AuthenticationException e) {
+            String errorMsg = "Error when getting an Identity Persistence Store instance.";
+            log.error(errorMsg, e);
+            throw new IdentityException(errorMsg, e);
+        } catch (SQLException e) {
+            log.error("Error when executing the SQL : " + ThriftAuthenticationConstants.UPDATE_LAST_MODIFIED_TIME_SQL);
+            log.error(e.getMessage(), e);
+            throw new IdentityException("Error updating the Thrift Sessions.");
+        } finally {
+            ThriftAuthenticationDatabaseUtil.closeAllConnections(connection, null, prepStmt);
+        }
+    }
+
+    @Override
+    public void removeExpiredSessions(long lastAccessTime) throws IdentityException {
+        Connection connection = null;
+        PreparedStatement prepStmt = null;
+
+        try {
+            connection = ThriftAuthenticationDatabaseUtil.getDBConnection();
+            prepStmt = connection.prepareStatement(ThriftAuthenticationConstants.DELETE_EXPIRED_SESSIONS_SQL);
+            prepStmt.setLong(1, lastAccessTime);
+
+            int count = prepStmt.executeUpdate();
+            if (log.isDebugEnabled()) {
+                log.debug("No. of expired Thrift Sessions removed : " + count);
+            }
+            connection.commit();
+
+        } catch (AuthenticationException e) {
+            String errorMsg = "Error when getting an Identity Persistence Store instance.";
+            log.error(errorMsg, e);
+            throw new IdentityException(errorMsg, e);
+        } catch (SQLException e) {
+            log.error("Error when executing the SQL : " + ThriftAuthenticationConstants.DELETE_EXPIRED_SESSIONS_SQL);
+            log.error(e.getMessage(), e);
+            throw new IdentityException("Error deleting the expired Thrift Sessions.");
+        } finally {
+            ThriftAuthenticationDatabaseUtil.closeAllConnections(connection, null, prepStmt);
+        }
+    }
+
     @Override
     public ThriftSession getSession(String sessionId) throws IdentityException {
         Connection connection = null;
@@ -22,7 +22,9 @@ import org.apache.commons.logging.LogFactory;
 import org.wso2.carbon.utils.ThriftSession;
 
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
@@ -67,6 +69,22 @@ public class InMemoryThriftSessionDAO implements ThriftSessionDAO {
         }
     }
 
+    @Override
+    public void updateLastAccessTimes(Map<String, Long> lastAccessTimes) {
+        for (Map.Entry<String, Long> entry : lastAccessTimes.entrySet()) {
+            updateLastAccessTime(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public void removeExpiredSessions(long lastAccessTime) {
+        for (Iterator<ThriftSession> iterator = thriftSessionMap.values().iterator(); iterator.hasNext(); ) {
+            if (iterator.next().getLastAccess() < lastAccessTime) {
+                iterator.remove();
+            }
+        }
+    }
+
     @Override
     public ThriftSession getSession(String sessionId) {
         return thriftSessionMap.get(sessionId);
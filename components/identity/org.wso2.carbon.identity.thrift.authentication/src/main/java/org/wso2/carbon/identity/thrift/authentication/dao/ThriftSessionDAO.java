@@ -21,6 +21,7 @@ import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.utils.ThriftSession;
 
 import java.util.List;
+import java.util.Map;
 
 /**
  * Interface to manipulate thrift session info in database.
@@ -38,6 +39,22 @@ public interface ThriftSessionDAO {
     void updateLastAccessTime(String sessionId, long lastAccessTime)
             throws IdentityException;
 
+    /**
+     * Updates the last access times of several sessions at once.
+     *
+     * @param lastAccessTimes last access times keyed by session id
+     * @throws IdentityException
+     */
+    void updateLastAccessTimes(Map<String, Long> lastAccessTimes) throws IdentityException;
+
+    /**
+     * Removes the sessions which were not accessed after the given time.
+     *
+     * @param lastAccessTime sessions last accessed before this time are removed
+     * @throws IdentityException
+     */
+    void removeExpiredSessions(long lastAccessTime) throws IdentityException;
+
     ThriftSession getSession(String sessionId) throws IdentityException;
 
     ThriftSessionDAO getInstance();
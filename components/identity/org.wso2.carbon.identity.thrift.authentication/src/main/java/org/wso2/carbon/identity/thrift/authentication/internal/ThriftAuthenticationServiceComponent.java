@@ -70,6 +70,7 @@ public class ThriftAuthenticationServiceComponent {
     private ServiceRegistration thriftAuthenticationService;
     private ConfigurationContextService configurationContext;
     private TCPThriftAuthenticationService TCPThriftAuthenticationService;
+    private ThriftAuthenticatorServiceImpl thriftAuthenticatorServiceImpl;
 
     public static int readPortOffset() {
         return CarbonUtils.
@@ -103,9 +104,18 @@ public class ThriftAuthenticationServiceComponent {
                 thriftSessionTimeout = 60000 * 30;
             }
 
+            //configure how often the last access time of a session is written to the db, in ms
+            long lastAccessGranularity = readLongConfig(ThriftAuthenticationConstants.SESSION_LAST_ACCESS_GRANULARITY,
+                    ThriftAuthenticationConstants.DEFAULT_SESSION_LAST_ACCESS_GRANULARITY);
+
+            //configure the interval of writing last access times and removing expired sessions, in ms
+            long cleanupInterval = readLongConfig(ThriftAuthenticationConstants.SESSION_CLEANUP_INTERVAL,
+                    ThriftAuthenticationConstants.DEFAULT_SESSION_CLEANUP_INTERVAL);
+
             //get an instance of this to register as an osgi service
-            ThriftAuthenticatorServiceImpl thriftAuthenticatorServiceImpl =
-                    new ThriftAuthenticatorServiceImpl(new AuthenticationHandler(authenticationService), realmServiceInstance, thriftSessionDAO, thriftSessionTimeout);
+            thriftAuthenticatorServiceImpl = new ThriftAuthenticatorServiceImpl(
+                    new AuthenticationHandler(authenticationService), realmServiceInstance, thriftSessionDAO,
+                    thriftSessionTimeout, lastAccessGranularity, cleanupInterval);
 
             //register as an osgi service
             thriftAuthenticationService = compCtx.getBundleContext().registerService(
@@ -130,6 +140,9 @@ public class ThriftAuthenticationServiceComponent {
         if (TCPThriftAuthenticationService != null) {
             TCPThriftAuthenticationService.stop();
         }
+        if (thriftAuthenticatorServiceImpl != null) {
+            thriftAuthenticatorServiceImpl.shutdown();
+        }
         compCtx.getBundleContext().ungetService(thriftAuthenticationService.getReference());
 
     }
@@ -169,6 +182,24 @@ public class ThriftAuthenticationServiceComponent {
         this.configurationContext = null;
     }
 
+    private long readLongConfig(String name, long defaultValue) {
+        OMElement element = ThriftAuthenticationConfigParser.getInstance().getConfigElement(name);
+        if (element == null) {
+            return defaultValue;
+        }
+        try {
+            long value = Long.parseLong(element.getText().trim());
+            if (value > 0) {
+                return value;
+            }
+        } catch (NumberFormatException e) {
+            // fall through to the default
+        }
+        log.error("Invalid value for " + name + " in Thrift Authentication config, hence using the default: " +
+                defaultValue + "ms");
+        return defaultValue;
+    }
+
     private void startThriftServices(ThriftAuthenticatorService thriftAuthenticatorService) throws Exception {
         startThriftHttpAuthenticatorService(thriftAuthenticatorService);
         startThriftTcpAuthenticatorService(thriftAuthenticatorService);
@@ -26,16 +26,22 @@ import org.wso2.carbon.identity.base.IdentityException;
 import org.wso2.carbon.identity.thrift.authentication.ThriftAuthenticatorService;
 import org.wso2.carbon.identity.thrift.authentication.dao.ThriftSessionDAO;
 import org.wso2.carbon.identity.thrift.authentication.internal.generatedCode.AuthenticationException;
+import org.wso2.carbon.identity.thrift.authentication.internal.util.ThriftAuthenticationConstants;
 import org.wso2.carbon.user.api.UserStoreException;
 import org.wso2.carbon.user.core.service.RealmService;
 import org.wso2.carbon.utils.ServerConstants;
 import org.wso2.carbon.utils.ThriftSession;
 import org.wso2.carbon.utils.multitenancy.MultitenantUtils;
 
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This is a utility class that performs authentication related functionality
@@ -51,30 +57,64 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
     private RealmService realmService;
     private Map<String, ThriftSession> authenticatedSessions =
             new ConcurrentHashMap<String, ThriftSession>();
+    //last access times of the sessions as stored in the database, keyed by session id
+    private Map<String, Long> persistedAccessTimes = new ConcurrentHashMap<String, Long>();
     private ThriftSessionDAO thriftSessionDAO;
+    //last access time is written to the database only when it has moved by at least this many milli seconds
+    private long lastAccessGranularity;
+    private long cleanupInterval;
+    private ScheduledExecutorService sessionMaintainer;
 
     public ThriftAuthenticatorServiceImpl(AuthenticationHandler authenticationHandler, RealmService realmService, ThriftSessionDAO thriftSessionDAO, long thriftSessionTimeOut) {
+        this(authenticationHandler, realmService, thriftSessionDAO, thriftSessionTimeOut,
+                ThriftAuthenticationConstants.DEFAULT_SESSION_LAST_ACCESS_GRANULARITY,
+                ThriftAuthenticationConstants.DEFAULT_SESSION_CLEANUP_INTERVAL);
+    }
+
+    public ThriftAuthenticatorServiceImpl(AuthenticationHandler authenticationHandler, RealmService realmService,
+                                          ThriftSessionDAO thriftSessionDAO, long thriftSessionTimeOut,
+                                          long lastAccessGranularity, long cleanupInterval) {
         this.authenticationHandler = authenticationHandler;
         this.realmService = realmService;
         ThriftAuthenticatorServiceImpl.thriftSessionTimeOut = thriftSessionTimeOut;
         this.thriftSessionDAO = thriftSessionDAO.getInstance();
+        this.lastAccessGranularity = lastAccessGranularity;
+        this.cleanupInterval = cleanupInterval;
+
+        sessionMaintainer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "ThriftSessionMaintainer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        sessionMaintainer.scheduleWithFixedDelay(new SessionMaintainer(), cleanupInterval, cleanupInterval,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the background session maintenance, writing the last access times which are not yet
+     * in the database.
+     */
+    public void shutdown() {
+        sessionMaintainer.shutdown();
+        flushLastAccessTimes();
     }
 
     private void addThriftSession(ThriftSession thriftSession) throws IdentityException {
         //add to cache
         authenticatedSessions.put(thriftSession.getSessionId(), thriftSession);
+        persistedAccessTimes.put(thriftSession.getSessionId(), thriftSession.getLastAccess());
         //add to database
         ThriftSessionDAO thriftSessionDAO = this.thriftSessionDAO.getInstance();
         thriftSessionDAO.addSession(thriftSession);
     }
 
-    private void removeThriftSession(String thriftSessionId) throws IdentityException {
+    private void evictThriftSession(String thriftSessionId) {
         //remove from cache
-        //thriftSessionCache.remove(thriftSessionId);
         authenticatedSessions.remove(thriftSessionId);
-        //remove from db
-        ThriftSessionDAO thriftSessionDAO = this.thriftSessionDAO.getInstance();
-        thriftSessionDAO.removeSession(thriftSessionId);
+        persistedAccessTimes.remove(thriftSessionId);
     }
 
     public String authenticate(String userName, String password) throws AuthenticationException {
@@ -168,21 +208,14 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
         //if cache not empty, check if session id existing and valid, if so, update last access time and return it.
         if (!authenticatedSessions.isEmpty()) {
             ThriftSessionDAO thriftSessionDAO = this.thriftSessionDAO.getInstance();
-            if (authenticatedSessions.containsKey(sessionId)) {
-                ThriftSession thriftSessionInCache = authenticatedSessions.get(sessionId);
+            ThriftSession thriftSessionInCache = authenticatedSessions.get(sessionId);
+            if (thriftSessionInCache != null) {
                 if (isSessionValid(thriftSessionInCache)) {
-                    //update the last access time in cache and d
-                    long lastAccessTime = System.currentTimeMillis();
-                    (authenticatedSessions.get(sessionId)).setLastAccess(lastAccessTime);
+                    //update the last access time in cache only, it is written to the db by the session maintainer
+                    thriftSessionInCache.setLastAccess(System.currentTimeMillis());
                     try {
                         //if carbon context in the thrift session is not initialized, should do that now.
                         onSuccessLogin(thriftSessionInCache);
-                        //put the thrift session filled with carbon context info
-                        authenticatedSessions.put(sessionId, thriftSessionInCache);
-                        thriftSessionDAO.updateLastAccessTime(sessionId, lastAccessTime);
-                    } catch (IdentityException e) {
-                        String error = "Error while updating last access time in DB";
-                        log.error(error, e);
                     } catch (Exception e) {
                         String error = "Error in calling on success admin login for the thrift session.";
                         log.error(error, e);
@@ -194,14 +227,16 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
                         ThriftSession thriftSession = thriftSessionDAO.getSession(sessionId);
                         if (isSessionValid(thriftSession)) {
                             //update cache and return true
+                            persistedAccessTimes.put(sessionId, thriftSession.getLastAccess());
                             thriftSession.setLastAccess(System.currentTimeMillis());
                             onSuccessLogin(thriftSession);
                             authenticatedSessions.put(thriftSession.getSessionId(), thriftSession);
-                            thriftSessionDAO.updateLastAccessTime(sessionId, thriftSession.getLastAccess());
                             return true;
                         } else {
-                            //remove from cache and db and return false
-                            removeThriftSession(sessionId);
+                            //remove from cache only and return false. The last access time in the db may lag
+                            //behind the one of a node still using the session, so it is left to the session
+                            //maintainer to remove from the db once it is expired on every node
+                            evictThriftSession(sessionId);
                             return false;
                         }
                     } catch (IdentityException e) {
@@ -218,13 +253,13 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
                     if (thriftSessionDAO.isSessionExisting(sessionId)) {
                         ThriftSession thriftSession = thriftSessionDAO.getSession(sessionId);
                         if (isSessionValid(thriftSession)) {
+                            persistedAccessTimes.put(sessionId, thriftSession.getLastAccess());
                             thriftSession.setLastAccess(System.currentTimeMillis());
                             onSuccessLogin(thriftSession);
                             authenticatedSessions.put(thriftSession.getSessionId(), thriftSession);
-                            thriftSessionDAO.updateLastAccessTime(sessionId, thriftSession.getLastAccess());
                             return true;
                         } else {
-                            thriftSessionDAO.removeSession(sessionId);
+                            //left to the session maintainer to remove from the db, as above
                             return false;
                         }
                     }
@@ -250,6 +285,66 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
         throw new AuthenticationException(msg);
     }
 
+    /**
+     * Writes the last access times which moved by at least the configured granularity since they
+     * were last stored in the database, in a single batch.
+     */
+    private void flushLastAccessTimes() {
+        Map<String, Long> lastAccessTimes = new HashMap<String, Long>();
+        for (ThriftSession thriftSession : authenticatedSessions.values()) {
+            Long persistedAccessTime = persistedAccessTimes.get(thriftSession.getSessionId());
+            long lastAccessTime = thriftSession.getLastAccess();
+            if (persistedAccessTime == null || lastAccessTime - persistedAccessTime >= lastAccessGranularity) {
+                lastAccessTimes.put(thriftSession.getSessionId(), lastAccessTime);
+            }
+        }
+        if (lastAccessTimes.isEmpty()) {
+            return;
+        }
+        try {
+            thriftSessionDAO.getInstance().updateLastAccessTimes(lastAccessTimes);
+            persistedAccessTimes.putAll(lastAccessTimes);
+        } catch (IdentityException e) {
+            log.error("Error while updating last access time of thrift sessions in DB", e);
+        }
+    }
+
+    /**
+     * Evicts the expired sessions from the cache and the database.
+     */
+    private void removeExpiredSessions() {
+        long currentTime = System.currentTimeMillis();
+        for (ThriftSession thriftSession : authenticatedSessions.values()) {
+            if (currentTime - thriftSession.getLastAccess() >= thriftSessionTimeOut) {
+                authenticatedSessions.remove(thriftSession.getSessionId());
+                persistedAccessTimes.remove(thriftSession.getSessionId());
+            }
+        }
+        try {
+            //last access time in the db may lag behind the one in the cache of any node by up to the
+            //granularity and the cleanup interval
+            thriftSessionDAO.getInstance().removeExpiredSessions(
+                    currentTime - thriftSessionTimeOut - lastAccessGranularity - cleanupInterval);
+        } catch (IdentityException e) {
+            log.error("Error while removing expired thrift sessions from DB", e);
+        }
+    }
+
+    /**
+     * Periodically writes the last access times to the database and evicts the expired sessions.
+     */
+    private class SessionMaintainer implements Runnable {
+
+        public void run() {
+            try {
+                flushLastAccessTimes();
+                removeExpiredSessions();
+            } catch (RuntimeException e) {
+                log.error("Error while maintaining thrift sessions", e);
+            }
+        }
+    }
+
     /**
      * Perform session invalidation to avoid replay attacks.
      */
@@ -281,6 +376,7 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
         //first clear the cache
         if (!authenticatedSessions.isEmpty()) {
             authenticatedSessions.clear();
+            persistedAccessTimes.clear();
         }
         //get all sessions from db
         ThriftSessionDAO thriftSessionDAO = this.thriftSessionDAO.getInstance();
@@ -290,6 +386,7 @@ public class ThriftAuthenticatorServiceImpl implements ThriftAuthenticatorServic
             for (ThriftSession thriftSession : thriftSessions) {
                 //onSuccessLogin(thriftSession);
                 authenticatedSessions.put(thriftSession.getSessionId(), thriftSession);
+                persistedAccessTimes.put(thriftSession.getSessionId(), thriftSession.getLastAccess());
             }
         }
     }
@@ -26,6 +26,11 @@ public class ThriftAuthenticationConstants {
     public static final String CLIENT_TIMEOUT = "ClientTimeout";
     public static final int DEFAULT_CLIENT_TIMEOUT = 30000;
 
+    public static final String SESSION_LAST_ACCESS_GRANULARITY = "ThriftSessionLastAccessGranularity";
+    public static final long DEFAULT_SESSION_LAST_ACCESS_GRANULARITY = 60000;
+    public static final String SESSION_CLEANUP_INTERVAL = "ThriftSessionCleanupInterval";
+    public static final long DEFAULT_SESSION_CLEANUP_INTERVAL = 60000;
+
     public static final String THRIFT_SESSION_CACHE_ID = "THRIFT_SESSION_CACHE_ID";
 
     public static final String CHECK_EXISTING_THRIFT_SESSION_SQL =
@@ -42,6 +47,9 @@ public class ThriftAuthenticationConstants {
     public static final String UPDATE_LAST_MODIFIED_TIME_SQL =
             "UPDATE IDN_THRIFT_SESSION SET LAST_MODIFIED_TIME=? WHERE SESSION_ID=?";
 
+    public static final String DELETE_EXPIRED_SESSIONS_SQL =
+            "DELETE FROM IDN_THRIFT_SESSION WHERE LAST_MODIFIED_TIME<?";
+
     public static final String GET_THRIFT_SESSION_SQL =
             "SELECT SESSION_ID, USER_NAME, CREATED_TIME, LAST_MODIFIED_TIME FROM IDN_THRIFT_SESSION WHERE SESSION_ID=?";
 }
@@ -14,21 +14,69 @@ import org.wso2.carbon.user.core.claim.Claim;
 import org.wso2.carbon.user.core.tenant.Tenant;
 import org.wso2.carbon.user.core.util.UserCoreUtil;
 
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * User store manager which delegates to the remote user store admin services of one or more
+ * servers.
+ * <p/>
+ * Reads go to one server at a time. A server which refuses connections is skipped for the
+ * configured retry interval and the next one is used. Results of reads are cached for the
+ * configured time and the entries affected by a write are removed when the write is done. Writes
+ * go to all servers.
+ */
 public class CarbonRemoteUserStoreManger implements UserStoreManager {
 
     private static final String CONNECTION_REFUSED = "Connection refused";
+    private static final String READ_CACHE_TIMEOUT = "readCacheTimeout";
+    private static final String READ_CACHE_SIZE = "readCacheSize";
+    private static final String SERVER_RETRY_INTERVAL = "serverRetryInterval";
+    private static final int DEFAULT_READ_CACHE_TIMEOUT = 60;
+    private static final int DEFAULT_READ_CACHE_SIZE = 10000;
+    private static final int DEFAULT_SERVER_RETRY_INTERVAL = 30;
+    private static final String USER_TAG = "user:";
+    private static final String ROLE_TAG = "role:";
+    /**
+     * Tag of the entries listing users, invalidated when users are added or removed
+     */
+    private static final String USER_LIST_TAG = "userList";
+    /**
+     * Tag of the entries listing roles, invalidated when roles are added, removed or renamed
+     */
+    private static final String ROLE_LIST_TAG = "roleList";
+    /**
+     * Tag of the user lists of roles, invalidated when a user is removed
+     */
+    private static final String ROLE_MEMBERS_TAG = "roleMembers";
+    /**
+     * Tag of the role lists of users, invalidated when a role is removed or renamed
+     */
+    private static final String USER_ROLES_TAG = "userRoles";
     private static Log log = LogFactory.getLog(CarbonRemoteUserStoreManger.class);
-    private WSUserStoreManager remoteUserStore;
     private RealmConfiguration realmConfig;
     private String domainName;
     private UserStoreManager secondaryUserStoreManager;
-    private Map<String, WSUserStoreManager> remoteServers = new HashMap<String, WSUserStoreManager>();
+    private Map<String, WSUserStoreManager> remoteServers = new LinkedHashMap<String, WSUserStoreManager>();
+    /**
+     * URL of the server reads are sent to first
+     */
+    private volatile String activeServer;
+    /**
+     * Time until which a server which refused a connection is tried only after all other servers
+     */
+    private Map<String, Long> unavailableServers = new ConcurrentHashMap<String, Long>();
+    private long serverRetryInterval = DEFAULT_SERVER_RETRY_INTERVAL * 1000L;
+    private RemoteUserStoreCache cache = new RemoteUserStoreCache(DEFAULT_READ_CACHE_TIMEOUT * 1000L,
+            DEFAULT_READ_CACHE_SIZE);
 
     public CarbonRemoteUserStoreManger() {
 
@@ -54,7 +102,7 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
         String[] serverUrls = realmConfig.getUserStoreProperty("serverUrls").split(",");
 
         for (int i = 0; i < serverUrls.length; i++) {
-            remoteUserStore = new WSUserStoreManager(
+            WSUserStoreManager remoteUserStore = new WSUserStoreManager(
                     realmConfig.getUserStoreProperty("remoteUserName"),
                     realmConfig.getUserStoreProperty("password"), serverUrls[i],
                     configurationContext);
@@ -65,9 +113,14 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
 
             remoteServers.put(serverUrls[i], remoteUserStore);
         }
+        activeServer = serverUrls[0];
 
         this.realmConfig = realmConfig;
         domainName = realmConfig.getUserStoreProperty(UserStoreConfigConstants.DOMAIN_NAME);
+
+        serverRetryInterval = getIntProperty(SERVER_RETRY_INTERVAL, DEFAULT_SERVER_RETRY_INTERVAL) * 1000L;
+        cache = new RemoteUserStoreCache(getIntProperty(READ_CACHE_TIMEOUT, DEFAULT_READ_CACHE_TIMEOUT) * 1000L,
+                getIntProperty(READ_CACHE_SIZE, DEFAULT_READ_CACHE_SIZE));
     }
 
     /**
@@ -92,6 +145,16 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
                 "Remote Server URL(s)#Remote server URLs. e.g.: https://ca-datacenter/services,https://va-datacenter/services",
                 null);
         Property disabled = new Property("Disabled", "false", "Disabled#Check to disable the user store", null);
+        Property readCacheTimeout = new Property(READ_CACHE_TIMEOUT,
+                String.valueOf(DEFAULT_READ_CACHE_TIMEOUT),
+                "Read Cache Timeout#Seconds the results of reads from the remote server are cached for. " +
+                        "0 disables caching", null);
+        Property readCacheSize = new Property(READ_CACHE_SIZE, String.valueOf(DEFAULT_READ_CACHE_SIZE),
+                "Read Cache Size#Maximum number of cached results of reads from the remote server", null);
+        Property serverRetryInterval = new Property(SERVER_RETRY_INTERVAL,
+                String.valueOf(DEFAULT_SERVER_RETRY_INTERVAL),
+                "Server Retry Interval#Seconds a remote server which refused a connection is used only " +
+                        "when no other server is available", null);
 
         Property passwordJavaScriptRegEx = new Property(
                 UserStoreConfigConstants.passwordJavaScriptRegEx, "^[\\S]{5,30}$",
@@ -108,7 +171,7 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
 
         mandatoryProperties = new Property[]{remoteServerUserName, password, serverUrls,
                 passwordJavaScriptRegEx, usernameJavaScriptRegEx, roleNameJavaScriptRegEx};
-        optionalProperties = new Property[]{disabled};
+        optionalProperties = new Property[]{disabled, readCacheTimeout, readCacheSize, serverRetryInterval};
 
         properties.setOptionalProperties(optionalProperties);
         properties.setMandatoryProperties(mandatoryProperties);
@@ -119,102 +182,51 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
      *
      */
     @Override
-    public boolean isExistingRole(String roleName, boolean isShared)
+    public boolean isExistingRole(final String roleName, final boolean isShared)
             throws org.wso2.carbon.user.api.UserStoreException {
-        boolean rolesExists = false;
-        try {
-            rolesExists = remoteUserStore.isExistingRole(roleName, isShared);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        rolesExists = remoteStore.getValue().isExistingRole(roleName, isShared);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return readCached(RemoteUserStoreCache.key("isExistingRole", roleName, String.valueOf(isShared)),
+                tags(roleTag(roleName)), new RemoteCall<Boolean>() {
+                    @Override
+                    public Boolean call(WSUserStoreManager remoteStore)
+                            throws org.wso2.carbon.user.api.UserStoreException {
+                        return remoteStore.isExistingRole(roleName, isShared);
                     }
-                }
-            }
-        }
-        return rolesExists;
+                });
     }
 
     @Override
     public void addRole(String roleName, String[] userList, Permission[] permissions,
                         boolean isSharedRole) throws org.wso2.carbon.user.api.UserStoreException {
-
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().addRole(roleName, userList, permissions);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
-                }
-                log.error("Failed to update the remote server : " + remoteStore.getKey());
-            }
-        }
-
+        addRole(roleName, userList, permissions);
     }
 
     @Override
-    public void addRole(String roleName, String[] userList, Permission[] permissions)
+    public void addRole(final String roleName, final String[] userList, final Permission[] permissions)
             throws org.wso2.carbon.user.api.UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-
-            try {
-                remoteStore.getValue().addRole(roleName, userList, permissions);
-            } catch (org.wso2.carbon.user.api.UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore)
+                        throws org.wso2.carbon.user.api.UserStoreException {
+                    remoteStore.addRole(roleName, userList, permissions);
+                    return null;
                 }
-                log.error("Failed to update the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(concat(userTags(userList), roleTag(roleName), ROLE_LIST_TAG));
         }
     }
 
     @Override
-    public Map<String, String> getProperties(org.wso2.carbon.user.api.Tenant tenant)
+    public Map<String, String> getProperties(final org.wso2.carbon.user.api.Tenant tenant)
             throws org.wso2.carbon.user.api.UserStoreException {
-        Map<String, String> properties = new HashMap<String, String>();
-        try {
-            properties = remoteUserStore.getProperties(tenant);
-        } catch (org.wso2.carbon.user.api.UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        properties = remoteStore.getValue().getProperties(tenant);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
-                    }
-                }
+        return read(new RemoteCall<Map<String, String>>() {
+            @Override
+            public Map<String, String> call(WSUserStoreManager remoteStore)
+                    throws org.wso2.carbon.user.api.UserStoreException {
+                return remoteStore.getProperties(tenant);
             }
-        }
-        return properties;
+        });
     }
 
     @Override
@@ -238,7 +250,7 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
 
     @Override
     public ClaimManager getClaimManager() throws org.wso2.carbon.user.api.UserStoreException {
-        return remoteUserStore.getClaimManager();
+        return remoteServers.get(activeServer).getClaimManager();
     }
 
     @Override
@@ -254,393 +266,135 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
     }
 
     @Override
-    public String[] listUsers(String filter, int maxItemLimit) throws UserStoreException {
-
-        String[] users = null;
-
-        try {
-            users = remoteUserStore.listUsers(filter, maxItemLimit);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        users = remoteStore.getValue().listUsers(filter, maxItemLimit);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public String[] listUsers(final String filter, final int maxItemLimit) throws UserStoreException {
+        return addDomain(readCached(RemoteUserStoreCache.key("listUsers", filter, String.valueOf(maxItemLimit)),
+                tags(USER_LIST_TAG), new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.listUsers(filter, maxItemLimit);
                     }
-                }
-            }
-        }
-
-        if (users != null) {
-            for (int i = 0; i < users.length; i++) {
-                users[i] = domainName + "/" + users[i];
-            }
-        } else {
-            users = new String[0];
-        }
-
-        return users;
+                }));
     }
 
     @Override
-    public boolean isExistingUser(String userName) throws UserStoreException {
-        boolean usersExists = false;
-        try {
-            usersExists = remoteUserStore.isExistingUser(userName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        usersExists = remoteStore.getValue().isExistingUser(userName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public boolean isExistingUser(final String userName) throws UserStoreException {
+        return readCached(RemoteUserStoreCache.key("isExistingUser", userName), tags(userTag(userName)),
+                new RemoteCall<Boolean>() {
+                    @Override
+                    public Boolean call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.isExistingUser(userName);
                     }
-                }
-            }
-        }
-        return usersExists;
+                });
     }
 
     @Override
-    public boolean isExistingRole(String roleName) throws UserStoreException {
-        boolean roleExists = false;
-        try {
-            roleExists = remoteUserStore.isExistingRole(roleName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roleExists = remoteStore.getValue().isExistingRole(roleName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public boolean isExistingRole(final String roleName) throws UserStoreException {
+        return readCached(RemoteUserStoreCache.key("isExistingRole", roleName), tags(roleTag(roleName)),
+                new RemoteCall<Boolean>() {
+                    @Override
+                    public Boolean call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.isExistingRole(roleName);
                     }
-                }
-            }
-        }
-        return roleExists;
+                });
     }
 
     @Override
     public String[] getRoleNames() throws UserStoreException {
-
-        String[] roles = null;
-
-        try {
-            roles = remoteUserStore.getRoleNames();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roles = remoteStore.getValue().getRoleNames();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return addDomain(readCached(RemoteUserStoreCache.key("getRoleNames"), tags(ROLE_LIST_TAG),
+                new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getRoleNames();
                     }
-                }
-            }
-        }
-
-        if (roles != null) {
-            for (int i = 0; i < roles.length; i++) {
-                roles[i] = domainName + "/" + roles[i];
-            }
-        } else {
-            roles = new String[0];
-        }
-
-        return roles;
+                }));
     }
 
     @Override
-    public String[] getRoleNames(boolean noHybridRoles) throws UserStoreException {
-        String[] roles = null;
-
-        try {
-            roles = remoteUserStore.getRoleNames(noHybridRoles);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roles = remoteStore.getValue().getRoleNames(noHybridRoles);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public String[] getRoleNames(final boolean noHybridRoles) throws UserStoreException {
+        return addDomain(readCached(RemoteUserStoreCache.key("getRoleNames", String.valueOf(noHybridRoles)),
+                tags(ROLE_LIST_TAG), new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getRoleNames(noHybridRoles);
                     }
-                }
-            }
-        }
-        if (roles != null) {
-            for (int i = 0; i < roles.length; i++) {
-                roles[i] = domainName + "/" + roles[i];
-            }
-        } else {
-            roles = new String[0];
-        }
-
-        return roles;
+                }));
     }
 
     @Override
-    public String[] getProfileNames(String userName) throws UserStoreException {
-
-        String[] profileNames = new String[0];
-
-        try {
-            profileNames = remoteUserStore.getProfileNames(userName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        profileNames = remoteStore.getValue().getRoleListOfUser(userName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public String[] getProfileNames(final String userName) throws UserStoreException {
+        return copyOf(readCached(RemoteUserStoreCache.key("getProfileNames", userName), tags(userTag(userName)),
+                new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getProfileNames(userName);
                     }
-                }
-            }
-        }
-        return profileNames;
+                }));
     }
 
     @Override
-    public String[] getRoleListOfUser(String userName) throws UserStoreException {
-        String[] roles = null;
-
-        try {
-            roles = remoteUserStore.getRoleListOfUser(userName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roles = remoteStore.getValue().getRoleListOfUser(userName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public String[] getRoleListOfUser(final String userName) throws UserStoreException {
+        return addDomain(readCached(RemoteUserStoreCache.key("getRoleListOfUser", userName),
+                tags(userTag(userName), USER_ROLES_TAG), new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getRoleListOfUser(userName);
                     }
-                }
-            }
-        }
-        if (roles != null) {
-            for (int i = 0; i < roles.length; i++) {
-                roles[i] = domainName + "/" + roles[i];
-            }
-        } else {
-            roles = new String[0];
-        }
-        return roles;
+                }));
     }
 
     @Override
-    public String[] getUserListOfRole(String roleName) throws UserStoreException {
-        String[] users = null;
-
-        try {
-            users = remoteUserStore.getUserListOfRole(roleName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        users = remoteStore.getValue().getUserListOfRole(roleName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public String[] getUserListOfRole(final String roleName) throws UserStoreException {
+        return addDomain(readCached(RemoteUserStoreCache.key("getUserListOfRole", roleName),
+                tags(roleTag(roleName), ROLE_MEMBERS_TAG), new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserListOfRole(roleName);
                     }
-                }
-            }
-        }
-
-        if (users != null) {
-            for (int i = 0; i < users.length; i++) {
-                users[i] = domainName + "/" + users[i];
-            }
-        } else {
-            users = new String[0];
-        }
-
-        return users;
+                }));
     }
 
     @Override
-    public String getUserClaimValue(String userName, String claim, String profileName)
+    public String getUserClaimValue(final String userName, final String claim, final String profileName)
             throws UserStoreException {
-        String claimValue = null;
-        try {
-            claimValue = remoteUserStore.getUserClaimValue(userName, claim, profileName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        claimValue = remoteStore.getValue().getUserClaimValue(userName, claim,
-                                profileName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return readCached(RemoteUserStoreCache.key("getUserClaimValue", userName, claim, profileName),
+                tags(userTag(userName)), new RemoteCall<String>() {
+                    @Override
+                    public String call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserClaimValue(userName, claim, profileName);
                     }
-                }
-            }
-        }
-        return claimValue;
+                });
     }
 
     @Override
-    public Map<String, String> getUserClaimValues(String userName, String[] claims,
-                                                  String profileName) throws UserStoreException {
-        Map<String, String> claimValue = new HashMap<String, String>();
-
-        try {
-            claimValue = remoteUserStore.getUserClaimValues(userName, claims, profileName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        claimValue = remoteStore.getValue().getUserClaimValues(userName, claims,
-                                profileName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public Map<String, String> getUserClaimValues(final String userName, final String[] claims,
+                                                  final String profileName) throws UserStoreException {
+        String[] sortedClaims = claims != null ? claims.clone() : new String[0];
+        Arrays.sort(sortedClaims);
+        Map<String, String> claimValues = readCached(RemoteUserStoreCache.key("getUserClaimValues", userName,
+                profileName, Arrays.toString(sortedClaims)), tags(userTag(userName)),
+                new RemoteCall<Map<String, String>>() {
+                    @Override
+                    public Map<String, String> call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserClaimValues(userName, claims, profileName);
                     }
-                }
-            }
-        }
-        return claimValue;
+                });
+        return claimValues != null ? new HashMap<String, String>(claimValues) : null;
     }
 
     /**
      *
      */
     @Override
-    public Claim[] getUserClaimValues(String userName, String profileName)
+    public Claim[] getUserClaimValues(final String userName, final String profileName)
             throws UserStoreException {
-        Claim[] claim = new Claim[0];
-        try {
-            claim = remoteUserStore.getUserClaimValues(userName, profileName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        claim = remoteStore.getValue().getUserClaimValues(userName, profileName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        Claim[] claims = readCached(RemoteUserStoreCache.key("getUserClaimValues", userName, profileName),
+                tags(userTag(userName)), new RemoteCall<Claim[]>() {
+                    @Override
+                    public Claim[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserClaimValues(userName, profileName);
                     }
-                }
-            }
-        }
-        return claim;
+                });
+        return claims != null ? claims.clone() : null;
     }
 
     /**
@@ -648,570 +402,399 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
      */
     @Override
     public String[] getAllProfileNames() throws UserStoreException {
-        String[] profileNames = new String[0];
-        try {
-            profileNames = remoteUserStore.getAllProfileNames();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        profileNames = remoteStore.getValue().getAllProfileNames();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return copyOf(readCached(RemoteUserStoreCache.key("getAllProfileNames"), tags(),
+                new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getAllProfileNames();
                     }
-                }
-            }
-        }
-        return profileNames;
+                }));
     }
 
+    /**
+     *
+     */
     @Override
     public boolean isReadOnly() throws UserStoreException {
-        boolean readOnly = false;
-        try {
-            readOnly = remoteUserStore.isReadOnly();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        readOnly = remoteStore.getValue().isReadOnly();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
-                    }
-                }
+        return readCached(RemoteUserStoreCache.key("isReadOnly"), tags(), new RemoteCall<Boolean>() {
+            @Override
+            public Boolean call(WSUserStoreManager remoteStore) throws UserStoreException {
+                return remoteStore.isReadOnly();
             }
-        }
-        return readOnly;
+        });
     }
 
+    /**
+     *
+     */
     @Override
-    public void addUser(String userName, Object credential, String[] roleList,
-                        Map<String, String> claims, String profileName) throws UserStoreException {
-
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().addUser(userName, credential, roleList, claims, profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+    public void addUser(final String userName, final Object credential, final String[] roleList,
+                        final Map<String, String> claims, final String profileName) throws UserStoreException {
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.addUser(userName, credential, roleList, claims, profileName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(concat(roleTags(roleList), userTag(userName), USER_LIST_TAG));
         }
     }
 
+    /**
+     *
+     */
     @Override
     public void addUser(String userName, Object credential, String[] roleList,
                         Map<String, String> claims, String profileName, boolean requirePasswordChange)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().addUser(userName, credential, roleList, claims, profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
-                }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
-        }
+        addUser(userName, credential, roleList, claims, profileName);
     }
 
+    /**
+     *
+     */
     @Override
-    public void updateCredential(String userName, Object newCredential, Object oldCredential)
+    public void updateCredential(final String userName, final Object newCredential, final Object oldCredential)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().updateCredential(userName, newCredential, oldCredential);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.updateCredential(userName, newCredential, oldCredential);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName));
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void updateCredentialByAdmin(String userName, Object newCredential)
+    public void updateCredentialByAdmin(final String userName, final Object newCredential)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().updateCredentialByAdmin(userName, newCredential);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.updateCredentialByAdmin(userName, newCredential);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName));
         }
     }
 
+    /**
+     *
+     */
     @Override
     public void deleteUser(String userName) throws UserStoreException {
-
-        userName = UserCoreUtil.removeDomainFromName(userName);
-
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().deleteUser(userName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        final String name = UserCoreUtil.removeDomainFromName(userName);
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.deleteUser(name);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(name), USER_LIST_TAG, ROLE_MEMBERS_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
     public void deleteRole(String roleName) throws UserStoreException {
-
-        roleName = UserCoreUtil.removeDomainFromName(roleName);
-
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().deleteRole(roleName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        final String name = UserCoreUtil.removeDomainFromName(roleName);
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.deleteRole(name);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(roleTag(name), ROLE_LIST_TAG, USER_ROLES_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void updateUserListOfRole(String roleName, String[] deletedUsers, String[] newUsers)
+    public void updateUserListOfRole(final String roleName, final String[] deletedUsers, final String[] newUsers)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().updateUserListOfRole(roleName, deletedUsers, newUsers);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.updateUserListOfRole(roleName, deletedUsers, newUsers);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(concat(concat(userTags(deletedUsers), userTags(newUsers)), roleTag(roleName)));
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void updateRoleListOfUser(String userName, String[] deletedRoles, String[] newRoles)
+    public void updateRoleListOfUser(final String userName, final String[] deletedRoles, final String[] newRoles)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().updateRoleListOfUser(userName, deletedRoles, newRoles);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.updateRoleListOfUser(userName, deletedRoles, newRoles);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(concat(concat(roleTags(deletedRoles), roleTags(newRoles)), userTag(userName)));
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void setUserClaimValue(String userName, String claimURI, String claimValue,
-                                  String profileName) throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().setUserClaimValue(userName, claimURI, claimValue,
-                        profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+    public void setUserClaimValue(final String userName, final String claimURI, final String claimValue,
+                                  final String profileName) throws UserStoreException {
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.setUserClaimValue(userName, claimURI, claimValue, profileName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName), USER_LIST_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void setUserClaimValues(String userName, Map<String, String> claims, String profileName)
-            throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().setUserClaimValues(userName, claims, profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+    public void setUserClaimValues(final String userName, final Map<String, String> claims,
+                                   final String profileName) throws UserStoreException {
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.setUserClaimValues(userName, claims, profileName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName), USER_LIST_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void deleteUserClaimValue(String userName, String claimURI, String profileName)
+    public void deleteUserClaimValue(final String userName, final String claimURI, final String profileName)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().deleteUserClaimValue(userName, claimURI, profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.deleteUserClaimValue(userName, claimURI, profileName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName), USER_LIST_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
-    public void deleteUserClaimValues(String userName, String[] claims, String profileName)
+    public void deleteUserClaimValues(final String userName, final String[] claims, final String profileName)
             throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().deleteUserClaimValues(userName, claims, profileName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.deleteUserClaimValues(userName, claims, profileName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(userTag(userName), USER_LIST_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
     public String[] getHybridRoles() throws UserStoreException {
-        String[] roles = new String[0];
-        try {
-            roles = remoteUserStore.getHybridRoles();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roles = remoteStore.getValue().getHybridRoles();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return addDomain(readCached(RemoteUserStoreCache.key("getHybridRoles"), tags(ROLE_LIST_TAG),
+                new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getHybridRoles();
                     }
-                }
-            }
-        }
-
-        if (roles != null) {
-            for (int i = 0; i < roles.length; i++) {
-                roles[i] = domainName + "/" + roles[i];
-            }
-        } else {
-            return new String[0];
-        }
-        return roles;
+                }));
     }
 
+    /**
+     *
+     */
     @Override
     public String[] getAllSecondaryRoles() throws UserStoreException {
-        String[] roles = new String[0];
-
-        try {
-            roles = remoteUserStore.getAllSecondaryRoles();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        roles = remoteStore.getValue().getAllSecondaryRoles();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return addDomain(readCached(RemoteUserStoreCache.key("getAllSecondaryRoles"), tags(ROLE_LIST_TAG),
+                new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getAllSecondaryRoles();
                     }
-                }
-            }
-        }
-        if (roles != null) {
-            for (int i = 0; i < roles.length; i++) {
-                roles[i] = domainName + "/" + roles[i];
-            }
-        } else {
-            return new String[0];
-        }
-        return roles;
+                }));
     }
 
+    /**
+     *
+     */
     @Override
-    public Date getPasswordExpirationTime(String username) throws UserStoreException {
-        Date date = null;
-        try {
-            date = remoteUserStore.getPasswordExpirationTime(username);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        date = remoteStore.getValue().getPasswordExpirationTime(username);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public Date getPasswordExpirationTime(final String username) throws UserStoreException {
+        Date date = readCached(RemoteUserStoreCache.key("getPasswordExpirationTime", username),
+                tags(userTag(username)), new RemoteCall<Date>() {
+                    @Override
+                    public Date call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getPasswordExpirationTime(username);
                     }
-                }
-            }
-        }
-        return date;
+                });
+        return date != null ? new Date(date.getTime()) : null;
     }
 
+    /**
+     *
+     */
     @Override
-    public int getUserId(String username) throws UserStoreException {
-        int userId = -1;
-        try {
-            userId = remoteUserStore.getUserId(username);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        userId = remoteStore.getValue().getUserId(username);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public int getUserId(final String username) throws UserStoreException {
+        return readCached(RemoteUserStoreCache.key("getUserId", username), tags(userTag(username)),
+                new RemoteCall<Integer>() {
+                    @Override
+                    public Integer call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserId(username);
                     }
-                }
-            }
-        }
-        return userId;
+                });
     }
 
+    /**
+     *
+     */
     @Override
-    public int getTenantId(String username) throws UserStoreException {
-        int tenantId = -1;
-        try {
-            tenantId = remoteUserStore.getTenantId(username);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        tenantId = remoteStore.getValue().getTenantId(username);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+    public int getTenantId(final String username) throws UserStoreException {
+        return readCached(RemoteUserStoreCache.key("getTenantId", username), tags(userTag(username)),
+                new RemoteCall<Integer>() {
+                    @Override
+                    public Integer call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getTenantId(username);
                     }
-                }
-            }
-        }
-        return tenantId;
+                });
     }
 
+    /**
+     *
+     */
     @Override
     public int getTenantId() throws UserStoreException {
-        int tenantId = -1;
-        try {
-            tenantId = remoteUserStore.getTenantId();
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        tenantId = remoteStore.getValue().getTenantId();
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
-                    }
-                }
+        return readCached(RemoteUserStoreCache.key("getTenantId"), tags(), new RemoteCall<Integer>() {
+            @Override
+            public Integer call(WSUserStoreManager remoteStore) throws UserStoreException {
+                return remoteStore.getTenantId();
             }
-        }
-        return tenantId;
+        });
     }
 
+    /**
+     *
+     */
     @Override
-    public Map<String, String> getProperties(Tenant tenant) throws UserStoreException {
-        Map<String, String> properties = new HashMap<String, String>();
-        try {
-            properties = remoteUserStore.getProperties(tenant);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        properties = remoteStore.getValue().getProperties(tenant);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
-                    }
-                }
+    public Map<String, String> getProperties(final Tenant tenant) throws UserStoreException {
+        return read(new RemoteCall<Map<String, String>>() {
+            @Override
+            public Map<String, String> call(WSUserStoreManager remoteStore) throws UserStoreException {
+                return remoteStore.getProperties(tenant);
             }
-        }
-        return properties;
+        });
     }
 
+    /**
+     *
+     */
     @Override
-    public void updateRoleName(String roleName, String newRoleName) throws UserStoreException {
-        for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers.entrySet()
-                .iterator(); iterator.hasNext(); ) {
-            Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-            try {
-                remoteStore.getValue().updateRoleName(roleName, newRoleName);
-            } catch (UserStoreException e) {
-                if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                    throw e;
+    public void updateRoleName(final String roleName, final String newRoleName) throws UserStoreException {
+        try {
+            writeAll(new RemoteCall<Object>() {
+                @Override
+                public Object call(WSUserStoreManager remoteStore) throws UserStoreException {
+                    remoteStore.updateRoleName(roleName, newRoleName);
+                    return null;
                 }
-                log.error("Failed to connect to the remote server : " + remoteStore.getKey());
-            }
+            });
+        } finally {
+            cache.invalidate(roleTag(roleName), roleTag(newRoleName), ROLE_LIST_TAG, USER_ROLES_TAG);
         }
     }
 
+    /**
+     *
+     */
     @Override
     public boolean isBulkImportSupported() throws UserStoreException {
         return false;
     }
 
+    /**
+     *
+     */
     @Override
-    public String[] getUserList(String claim, String claimValue, String profileName)
+    public String[] getUserList(final String claim, final String claimValue, final String profileName)
             throws UserStoreException {
-        String[] users = new String[0];
-        try {
-            users = remoteUserStore.getUserList(claim, claimValue, profileName);
-        } catch (UserStoreException e) {
-            if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                throw e;
-            }
-            synchronized (this) {
-                for (Iterator<Entry<String, WSUserStoreManager>> iterator = remoteServers
-                        .entrySet().iterator(); iterator.hasNext(); ) {
-                    Entry<String, WSUserStoreManager> remoteStore = iterator.next();
-                    try {
-                        users = remoteStore.getValue().getUserList(claim, claimValue, profileName);
-                        remoteUserStore = remoteStore.getValue();
-                        break;
-                    } catch (UserStoreException ex) {
-                        if (!CONNECTION_REFUSED.equalsIgnoreCase(e.getMessage())) {
-                            throw e;
-                        }
-                        log.error("Failed to connect to the remote server : "
-                                + remoteStore.getKey());
+        return addDomain(readCached(RemoteUserStoreCache.key("getUserList", claim, claimValue, profileName),
+                tags(USER_LIST_TAG), new RemoteCall<String[]>() {
+                    @Override
+                    public String[] call(WSUserStoreManager remoteStore) throws UserStoreException {
+                        return remoteStore.getUserList(claim, claimValue, profileName);
                     }
-                }
-            }
-        }
-
-        if (users != null) {
-            for (int i = 0; i < users.length; i++) {
-                users[i] = domainName + "/" + users[i];
-            }
-        } else {
-            return new String[0];
-        }
-        return users;
+                }));
     }
 
+    /**
+     *
+     */
     @Override
     public UserStoreManager getSecondaryUserStoreManager() {
         return secondaryUserStoreManager;
     }
 
+    /**
+     *
+     */
     @Override
     public void setSecondaryUserStoreManager(UserStoreManager userStoreManager) {
         this.secondaryUserStoreManager = userStoreManager;
-
     }
 
     @Override
@@ -1229,4 +812,183 @@ public class CarbonRemoteUserStoreManger implements UserStoreManager {
         return realmConfig;
     }
 
+    /**
+     * Reads through the cache, deduplicating concurrent identical reads
+     */
+    private <T> T readCached(String key, String[] tags, final RemoteCall<T> call) throws UserStoreException {
+        return cache.get(key, tags, new RemoteUserStoreCache.Loader<T>() {
+            @Override
+            public T load() throws UserStoreException {
+                return read(call);
+            }
+        });
+    }
+
+    /**
+     * Makes the call on the active server. If it refuses the connection, the call is made on the
+     * other servers, the ones which have not refused a connection recently first.
+     */
+    private <T> T read(RemoteCall<T> call) throws UserStoreException {
+        UserStoreException lastError = null;
+        for (String serverUrl : getServersInOrder()) {
+            try {
+                T result = call.call(remoteServers.get(serverUrl));
+                markAvailable(serverUrl);
+                activeServer = serverUrl;
+                return result;
+            } catch (org.wso2.carbon.user.api.UserStoreException e) {
+                if (!isConnectionFailure(e)) {
+                    throw toUserStoreException(e);
+                }
+                markUnavailable(serverUrl);
+                log.error("Failed to connect to the remote server : " + serverUrl);
+                lastError = toUserStoreException(e);
+            }
+        }
+        if (lastError == null) {
+            throw new UserStoreException("No remote servers are configured for user store " + domainName);
+        }
+        throw lastError;
+    }
+
+    /**
+     * Makes the call on all servers. Servers which refuse the connection are skipped.
+     */
+    private void writeAll(RemoteCall<?> call) throws UserStoreException {
+        for (Entry<String, WSUserStoreManager> remoteStore : remoteServers.entrySet()) {
+            try {
+                call.call(remoteStore.getValue());
+                markAvailable(remoteStore.getKey());
+            } catch (org.wso2.carbon.user.api.UserStoreException e) {
+                if (!isConnectionFailure(e)) {
+                    throw toUserStoreException(e);
+                }
+                markUnavailable(remoteStore.getKey());
+                log.error("Failed to update the remote server : " + remoteStore.getKey());
+            }
+        }
+    }
+
+    private List<String> getServersInOrder() {
+        long now = System.currentTimeMillis();
+        List<String> servers = new ArrayList<String>(remoteServers.size());
+        List<String> unavailable = new ArrayList<String>();
+        String active = activeServer;
+        if (active != null) {
+            (isAvailable(active, now) ? servers : unavailable).add(active);
+        }
+        for (String serverUrl : remoteServers.keySet()) {
+            if (!serverUrl.equals(active)) {
+                (isAvailable(serverUrl, now) ? servers : unavailable).add(serverUrl);
+            }
+        }
+        servers.addAll(unavailable);
+        return servers;
+    }
+
+    private boolean isAvailable(String serverUrl, long now) {
+        Long retryTime = unavailableServers.get(serverUrl);
+        return retryTime == null || retryTime <= now;
+    }
+
+    private void markAvailable(String serverUrl) {
+        if (unavailableServers.remove(serverUrl) != null) {
+            log.info("Remote server " + serverUrl + " is available again");
+        }
+    }
+
+    private void markUnavailable(String serverUrl) {
+        unavailableServers.put(serverUrl, System.currentTimeMillis() + serverRetryInterval);
+    }
+
+    private boolean isConnectionFailure(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || CONNECTION_REFUSED.equalsIgnoreCase(cause.getMessage())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private UserStoreException toUserStoreException(org.wso2.carbon.user.api.UserStoreException e) {
+        if (e instanceof UserStoreException) {
+            return (UserStoreException) e;
+        }
+        return new UserStoreException(e.getMessage(), e);
+    }
+
+    private int getIntProperty(String name, int defaultValue) {
+        String value = realmConfig.getUserStoreProperty(name);
+        if (value == null || value.trim().length() == 0) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            log.error("Invalid value for user store property " + name + " : " + value + ". Using the default "
+                    + defaultValue);
+            return defaultValue;
+        }
+    }
+
+    private String[] addDomain(String[] names) {
+        if (names == null) {
+            return new String[0];
+        }
+        String[] domainNames = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            domainNames[i] = domainName + "/" + names[i];
+        }
+        return domainNames;
+    }
+
+    private String[] copyOf(String[] names) {
+        return names != null ? names.clone() : null;
+    }
+
+    private String userTag(String userName) {
+        return USER_TAG + (userName != null ? UserCoreUtil.removeDomainFromName(userName) : "");
+    }
+
+    private String roleTag(String roleName) {
+        return ROLE_TAG + (roleName != null ? UserCoreUtil.removeDomainFromName(roleName) : "");
+    }
+
+    private String[] userTags(String[] userNames) {
+        List<String> tags = new ArrayList<String>();
+        if (userNames != null) {
+            for (String userName : userNames) {
+                tags.add(userTag(userName));
+            }
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    private String[] roleTags(String[] roleNames) {
+        List<String> tags = new ArrayList<String>();
+        if (roleNames != null) {
+            for (String roleName : roleNames) {
+                tags.add(roleTag(roleName));
+            }
+        }
+        return tags.toArray(new String[tags.size()]);
+    }
+
+    private String[] tags(String... tags) {
+        return tags;
+    }
+
+    private String[] concat(String[] first, String... more) {
+        String[] tags = Arrays.copyOf(first, first.length + more.length);
+        System.arraycopy(more, 0, tags, first.length, more.length);
+        return tags;
+    }
+
+    /**
+     * A call on the user store manager of one remote server
+     */
+    private interface RemoteCall<T> {
+
+        T call(WSUserStoreManager remoteStore) throws org.wso2.carbon.user.api.UserStoreException;
+    }
 }
@@ -0,0 +1,208 @@
+/*
+ *  Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ *  WSO2 Inc. licenses this file to you under the Apache License,
+ *  Version 2.0 (the "License"); you may not use this file except
+ *  in compliance with the License.
+ *  You may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing,
+ *  software distributed under the License is distributed on an
+ *  "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ *  KIND, either express or implied.  See the License for the
+ *  specific language governing permissions and limitations
+ *  under the License.
+ *
+ */
+package org.wso2.carbon.identity.user.store.remote;
+
+import org.wso2.carbon.user.core.UserStoreException;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Read-through cache of the results of remote user store calls.
+ * <p/>
+ * Every entry is tagged with the users and roles it was read for, so that a write can remove only
+ * the entries it affects. Concurrent identical calls are made only once, the other callers wait
+ * for the result of the call in flight. Cached values are shared, callers must copy arrays and
+ * maps before returning them.
+ */
+public class RemoteUserStoreCache {
+
+    private static final char KEY_SEPARATOR = '\u0000';
+
+    /**
+     * Time an entry is valid for, in milliseconds. Nothing is cached if zero.
+     */
+    private final long timeout;
+
+    private final int maxEntries;
+
+    private final ConcurrentMap<String, CacheEntry> entries = new ConcurrentHashMap<String, CacheEntry>();
+
+    private final ConcurrentMap<String, FutureTask<Object>> inFlight =
+            new ConcurrentHashMap<String, FutureTask<Object>>();
+
+    /**
+     * Incremented on every invalidation. Results of calls started before an invalidation are
+     * neither cached nor shared with calls started after it.
+     */
+    private final AtomicLong generation = new AtomicLong();
+
+    /**
+     * @param timeout    time an entry is valid for, in milliseconds. Zero disables caching
+     * @param maxEntries maximum number of entries. The cache is cleared when it is full
+     */
+    public RemoteUserStoreCache(long timeout, int maxEntries) {
+        this.timeout = timeout > 0 ? timeout : 0;
+        this.maxEntries = maxEntries > 0 ? maxEntries : 1;
+    }
+
+    /**
+     * Builds a cache key from the name of the call and its arguments
+     *
+     * @param parts name of the call followed by its arguments
+     * @return cache key
+     */
+    public static String key(String... parts) {
+        StringBuilder key = new StringBuilder();
+        for (String part : parts) {
+            key.append(part).append(KEY_SEPARATOR);
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the cached value of the key, or loads it. When the same key is already being loaded
+     * by another thread, waits for that load instead of starting another one.
+     *
+     * @param key    cache key built by {@link #key(String...)}
+     * @param tags   tags the value is invalidated by
+     * @param loader loads the value from the remote user store
+     * @return value of the key
+     * @throws UserStoreException if the value could not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public <T> T get(String key, String[] tags, final Loader<T> loader) throws UserStoreException {
+
+        if (timeout > 0) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null) {
+                if (entry.expiryTime > System.currentTimeMillis()) {
+                    return (T) entry.value;
+                }
+                entries.remove(key, entry);
+            }
+        }
+
+        long loadGeneration = generation.get();
+        String flightKey = key + loadGeneration;
+        FutureTask<Object> task = new FutureTask<Object>(new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return loader.load();
+            }
+        });
+        FutureTask<Object> running = inFlight.putIfAbsent(flightKey, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(flightKey, task);
+            }
+        }
+
+        Object value;
+        try {
+            value = running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UserStoreException("Interrupted while waiting for the remote user store", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UserStoreException) {
+                throw (UserStoreException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new UserStoreException(cause.getMessage(), cause);
+        }
+
+        if (running == task && timeout > 0 && generation.get() == loadGeneration) {
+            if (entries.size() >= maxEntries) {
+                entries.clear();
+            }
+            entries.put(key, new CacheEntry(value, tags, System.currentTimeMillis() + timeout));
+        }
+        return (T) value;
+    }
+
+    /**
+     * Removes the entries which have any of the given tags
+     *
+     * @param tags tags of the entries to remove
+     */
+    public void invalidate(String... tags) {
+        generation.incrementAndGet();
+        for (Iterator<Map.Entry<String, CacheEntry>> iterator = entries.entrySet().iterator();
+             iterator.hasNext(); ) {
+            if (iterator.next().getValue().hasAnyTag(tags)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Removes all entries
+     */
+    public void invalidateAll() {
+        generation.incrementAndGet();
+        entries.clear();
+    }
+
+    /**
+     * Loads a value from the remote user store
+     */
+    public interface Loader<T> {
+
+        T load() throws UserStoreException;
+    }
+
+    private static class CacheEntry {
+
+        private final Object value;
+
+        private final String[] tags;
+
+        private final long expiryTime;
+
+        private CacheEntry(Object value, String[] tags, long expiryTime) {
+            this.value = value;
+            this.tags = tags;
+            this.expiryTime = expiryTime;
+        }
+
+        private boolean hasAnyTag(String[] otherTags) {
+            for (String tag : tags) {
+                for (String otherTag : otherTags) {
+                    if (tag.equals(otherTag)) {
+                        return true;
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -20,6 +20,9 @@ package org.wso2.carbon.apacheds;
 import org.wso2.carbon.apacheds.impl.ConfigurationConstants;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * This class encapsulates information needed to create an apacheds partition.
@@ -29,11 +32,23 @@ import java.util.Arrays;
  * <Property name="kdcEnabled">false</Property>
  * <Property name="kdcPassword">secret</Property>
  * <Property name="ldapServerPrinciplePassword">randall</Property>
+ * <Property name="partitionCacheSize">500</Property>
+ * <Property name="indexedAttributes">ou,dc,objectClass,cn,uid,mail:1000</Property>
  * </defaultPartition>
  */
 @SuppressWarnings({"UnusedDeclaration"})
 public class PartitionInfo extends DomainNameEntry {
 
+    /**
+     * Default number of entries cached by the partition.
+     */
+    public static final int DEFAULT_PARTITION_CACHE_SIZE = 500;
+
+    /**
+     * Default number of entries cached by an attribute index.
+     */
+    public static final int DEFAULT_INDEX_CACHE_SIZE = 100;
+
     /**
      * An id given to the partition.
      */
@@ -69,9 +84,20 @@ public class PartitionInfo extends DomainNameEntry {
      */
     private boolean kdcEnabled = false;
 
+    /**
+     * Number of entries cached by the partition.
+     */
+    private int partitionCacheSize = DEFAULT_PARTITION_CACHE_SIZE;
+
+    /**
+     * Attributes indexed in the partition, mapped to the cache size of the index.
+     */
+    private Map<String, Integer> indexedAttributes = new LinkedHashMap<String, Integer>();
+
     public PartitionInfo() {
         this.objectClassList.addAll(Arrays.asList("top", "organization", "dcObject",
                 "extensibleObject"));
+        addDefaultIndexedAttributes();
     }
 
     public PartitionInfo(String partitionId, String realm, String rootDN,
@@ -83,6 +109,13 @@ public class PartitionInfo extends DomainNameEntry {
 
         this.objectClassList.addAll(Arrays.asList("top", "organization", "dcObject",
                 "extensibleObject"));
+        addDefaultIndexedAttributes();
+    }
+
+    private void addDefaultIndexedAttributes() {
+        for (String attribute : Arrays.asList("ou", "dc", "objectClass", "cn", "uid")) {
+            this.indexedAttributes.put(attribute, DEFAULT_INDEX_CACHE_SIZE);
+        }
     }
 
     public boolean isKdcEnabled() {
@@ -180,6 +213,38 @@ public class PartitionInfo extends DomainNameEntry {
         this.partitionKdcPassword = partitionKdcPassword;
     }
 
+    public int getPartitionCacheSize() {
+        return partitionCacheSize;
+    }
+
+    public void setPartitionCacheSize(int partitionCacheSize) {
+        if (partitionCacheSize <= 0) {
+            return;
+        }
+
+        this.partitionCacheSize = partitionCacheSize;
+    }
+
+    /**
+     * Returns the attributes indexed in the partition.
+     *
+     * @return A readonly map of attribute names to the number of entries cached by the index.
+     */
+    public Map<String, Integer> getIndexedAttributes() {
+        return Collections.unmodifiableMap(indexedAttributes);
+    }
+
+    /**
+     * Replaces the indexed attributes of the partition.
+     *
+     * @param indexedAttributes Attribute names mapped to the number of entries cached by the index.
+     */
+    public void setIndexedAttributes(Map<String, Integer> indexedAttributes) {
+        if (indexedAttributes == null || indexedAttributes.isEmpty()) return;
+
+        this.indexedAttributes = new LinkedHashMap<String, Integer>(indexedAttributes);
+    }
+
     public String getLdapServerPrinciplePassword() {
         return ldapServerPrinciplePassword;
     }
@@ -20,6 +20,8 @@ package org.wso2.carbon.apacheds.impl;
 import org.apache.axiom.om.util.Base64;
 import org.apache.directory.server.core.CoreSession;
 import org.apache.directory.server.core.DirectoryService;
+import org.apache.directory.server.core.entry.ClonedServerEntry;
+import org.apache.directory.server.core.filtering.EntryFilteringCursor;
 import org.apache.directory.server.core.factory.JdbmPartitionFactory;
 import org.apache.directory.server.core.factory.PartitionFactory;
 import org.apache.directory.server.core.interceptor.Interceptor;
@@ -28,10 +30,16 @@ import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmIndex;
 import org.apache.directory.server.core.partition.impl.btree.jdbm.JdbmPartition;
 import org.apache.directory.server.kerberos.shared.store.KerberosAttribute;
 import org.apache.directory.server.xdbm.Index;
+import org.apache.directory.shared.ldap.entry.EntryAttribute;
 import org.apache.directory.shared.ldap.entry.ServerEntry;
+import org.apache.directory.shared.ldap.entry.Value;
 import org.apache.directory.shared.ldap.exception.LdapException;
 import org.apache.directory.shared.ldap.exception.LdapInvalidDnException;
+import org.apache.directory.shared.ldap.filter.PresenceNode;
+import org.apache.directory.shared.ldap.filter.SearchScope;
+import org.apache.directory.shared.ldap.message.AliasDerefMode;
 import org.apache.directory.shared.ldap.name.DN;
+import org.apache.directory.shared.ldap.schema.AttributeType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.wso2.carbon.apacheds.*;
@@ -39,13 +47,23 @@ import org.wso2.carbon.base.MultitenantConstants;
 import org.wso2.carbon.ldap.server.exception.DirectoryServerException;
 
 import javax.naming.NamingException;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.Set;
 
 /**
@@ -53,8 +71,15 @@ import java.util.Set;
  */
 class ApacheDirectoryPartitionManager implements PartitionManager {
 
-    /*Partition cache size is expressed as number of entries*/
-    private static final int PARTITION_CACHE_SIZE = 500;
+    /*System indexes ApacheDS needs in every partition, expressed as OIDs*/
+    private static final String[] SYSTEM_INDEXES = {"1.3.6.1.4.1.18060.0.4.1.2.1",
+            "1.3.6.1.4.1.18060.0.4.1.2.2", "1.3.6.1.4.1.18060.0.4.1.2.3", "1.3.6.1.4.1.18060.0.4.1.2.4",
+            "1.3.6.1.4.1.18060.0.4.1.2.5", "1.3.6.1.4.1.18060.0.4.1.2.6", "1.3.6.1.4.1.18060.0.4.1.2.7"};
+    /*objectClass is kept up to date by the store itself, regardless of the configuration*/
+    private static final String OBJECT_CLASS_OID = "2.5.4.0";
+    /*File in the partition directory listing the attribute indexes which are kept up to date*/
+    private static final String INDEX_INFO_FILE = "wso2-indexes.properties";
+    private static final String INDEXED_ATTRIBUTES_PROPERTY = "indexedAttributes";
     private static final Logger logger = LoggerFactory.getLogger(
             ApacheDirectoryPartitionManager.class);
     private DirectoryService directoryService = null;
@@ -94,9 +119,10 @@ class ApacheDirectoryPartitionManager implements PartitionManager {
             throws DirectoryServerException {
 
         try {
-            JdbmPartition partition = createNewPartition(partitionInformation.getPartitionId(),
-                    partitionInformation.getRootDN());
+            JdbmPartition partition = createNewPartition(partitionInformation);
             this.directoryService.addPartition(partition);
+            writeMaintainedIndexes(partition.getPartitionDir(),
+                    getIndexedAttributes(partitionInformation).keySet());
 
             CoreSession adminSession = this.directoryService.getAdminSession();
 
@@ -186,18 +212,36 @@ class ApacheDirectoryPartitionManager implements PartitionManager {
     }
 
     /**
-     * This method initializes a partition from existing partition directory.
+     * This method initializes a partition from existing partition directory. Configured attribute
+     * indexes which were not maintained by the partition so far are built from the partition
+     * entries before the partition is used, so that searches never run against a partially built
+     * index. Partitions created before the index configuration was recorded are re-indexed.
      */
     public void initializeExistingPartition(PartitionInfo partitionInfo) throws
             DirectoryServerException {
 
         Partition existingPartition = null;
+        File partitionDirectory = new File(this.workingDirectory, partitionInfo.getPartitionId());
+        Map<String, Integer> indexedAttributes = getIndexedAttributes(partitionInfo);
+        Set<String> maintainedIndexes = readMaintainedIndexes(partitionDirectory);
+        boolean legacyPartition = maintainedIndexes == null;
+        Set<String> indexesToBuild = new HashSet<String>();
         try {
             existingPartition = partitionFactory.createPartition(
-                    partitionInfo.getPartitionId(), partitionInfo.getRootDN(), PARTITION_CACHE_SIZE,
-                    new File(this.workingDirectory, partitionInfo.getPartitionId()));
+                    partitionInfo.getPartitionId(), partitionInfo.getRootDN(),
+                    partitionInfo.getPartitionCacheSize(), partitionDirectory);
             existingPartition.setSchemaManager(directoryService.getSchemaManager());
 
+            for (Map.Entry<String, Integer> index : indexedAttributes.entrySet()) {
+                partitionFactory.addIndex(existingPartition, index.getKey(), index.getValue());
+
+                if (!isObjectClass(index.getKey()) &&
+                        (legacyPartition || !maintainedIndexes.contains(index.getKey()))) {
+                    deleteIndexFiles(partitionDirectory, index.getKey());
+                    indexesToBuild.add(index.getKey());
+                }
+            }
+
             if (logger.isDebugEnabled()) {
                 logger.debug("Partition" + partitionInfo.getPartitionId() +
                         " created from existing partition directory.");
@@ -225,7 +269,178 @@ class ApacheDirectoryPartitionManager implements PartitionManager {
             throw new DirectoryServerException(e);
         }
 
+        if (!indexesToBuild.isEmpty()) {
+            /*the indexes are already attached to the partition and searches use them, hence they are
+            built while the server is still starting, before the partition is used*/
+            buildIndexes((JdbmPartition) existingPartition, indexesToBuild);
+        }
+
+        /*recorded on every start, so that an index dropped from the configuration is no longer
+        considered maintained and is rebuilt if it is configured again*/
+        writeMaintainedIndexes(partitionDirectory, indexedAttributes.keySet());
+    }
+
+    /**
+     * Returns the configured attribute indexes of the partition which are known to the schema.
+     */
+    private Map<String, Integer> getIndexedAttributes(PartitionInfo partitionInfo) {
+        Map<String, Integer> indexedAttributes = new LinkedHashMap<String, Integer>();
+
+        for (Map.Entry<String, Integer> index : partitionInfo.getIndexedAttributes().entrySet()) {
+            try {
+                this.directoryService.getSchemaManager().lookupAttributeTypeRegistry(index.getKey());
+                indexedAttributes.put(index.getKey(), index.getValue());
+            } catch (LdapException e) {
+                logger.warn("Attribute " + index.getKey() + " is not defined in the schema. " +
+                        "Not indexing it in partition " + partitionInfo.getPartitionId());
+            }
+        }
+        return indexedAttributes;
+    }
+
+    private boolean isObjectClass(String attribute) throws LdapException {
+        return OBJECT_CLASS_OID.equals(this.directoryService.getSchemaManager().
+                lookupAttributeTypeRegistry(attribute).getOid());
+    }
+
+    private void deleteIndexFiles(File partitionDirectory, String attribute) throws LdapException {
+        String oid = this.directoryService.getSchemaManager().lookupAttributeTypeRegistry(attribute).
+                getOid();
+
+        for (String fileName : Arrays.asList(attribute, oid)) {
+            for (String extension : Arrays.asList(".db", ".lg")) {
+                File indexFile = new File(partitionDirectory, fileName + extension);
+                if (indexFile.exists() && !indexFile.delete()) {
+                    logger.warn("Could not delete index file " + indexFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds every entry of the partition to the given attribute indexes.
+     */
+    @SuppressWarnings("unchecked")
+    private void buildIndexes(JdbmPartition partition, Set<String> indexesToBuild)
+            throws DirectoryServerException {
+
+        logger.info("Building indexes " + indexesToBuild + " of partition " + partition.getId());
+        long startTime = System.currentTimeMillis();
+        int entryCount = 0;
+
+        EntryFilteringCursor cursor = null;
+        try {
+            cursor = this.directoryService.getAdminSession().search(partition.getSuffixDn(),
+                    SearchScope.SUBTREE, new PresenceNode("objectClass"),
+                    AliasDerefMode.NEVER_DEREF_ALIASES, null);
+
+            while (cursor.next()) {
+                ClonedServerEntry entry = cursor.get();
+                Long id = partition.getEntryId(entry.getDn().getNormName());
+                if (id == null) {
+                    continue;
+                }
+
+                for (String attribute : indexesToBuild) {
+                    EntryAttribute entryAttribute = entry.get(attribute);
+                    if (entryAttribute == null) {
+                        continue;
+                    }
+
+                    AttributeType attributeType = entryAttribute.getAttributeType();
+                    Index<Object, ServerEntry, Long> index =
+                            (Index<Object, ServerEntry, Long>) partition.getUserIndex(attribute);
+                    for (Value<?> value : entryAttribute) {
+                        index.add(value.get(), id);
+                    }
+                    partition.getPresenceIndex().add(attributeType.getOid(), id);
+                }
+                entryCount++;
+            }
+
+            partition.sync();
+
+        } catch (Exception e) {
+            String msg = "Could not build indexes of partition " + partition.getId();
+            throwDirectoryServerException(msg, e);
+        } finally {
+            if (cursor != null) {
+                try {
+                    cursor.close();
+                } catch (Exception e) {
+                    logger.warn("Could not close the cursor over partition " + partition.getId(), e);
+                }
+            }
+        }
+
+        logger.info("Indexed " + entryCount + " entries of partition " + partition.getId() + " in " +
+                (System.currentTimeMillis() - startTime) + " ms.");
+    }
 
+    /**
+     * Returns the attribute indexes which are kept up to date in the given partition directory, or
+     * null if the partition was created before the indexes were recorded.
+     */
+    private Set<String> readMaintainedIndexes(File partitionDirectory) throws DirectoryServerException {
+        File indexInfoFile = new File(partitionDirectory, INDEX_INFO_FILE);
+        if (!indexInfoFile.exists()) {
+            return null;
+        }
+
+        Set<String> maintainedIndexes = new HashSet<String>();
+        InputStream in = null;
+        try {
+            in = new FileInputStream(indexInfoFile);
+            Properties properties = new Properties();
+            properties.load(in);
+
+            String indexes = properties.getProperty(INDEXED_ATTRIBUTES_PROPERTY, "");
+            for (String index : indexes.split(",")) {
+                if (index.trim().length() > 0) {
+                    maintainedIndexes.add(index.trim());
+                }
+            }
+        } catch (IOException e) {
+            throwDirectoryServerException("Could not read " + indexInfoFile.getAbsolutePath(), e);
+        } finally {
+            closeStream(in);
+        }
+        return maintainedIndexes;
+    }
+
+    private void writeMaintainedIndexes(File partitionDirectory, Set<String> indexedAttributes)
+            throws DirectoryServerException {
+        File indexInfoFile = new File(partitionDirectory, INDEX_INFO_FILE);
+
+        StringBuilder indexes = new StringBuilder();
+        for (String index : indexedAttributes) {
+            if (indexes.length() > 0) {
+                indexes.append(",");
+            }
+            indexes.append(index);
+        }
+
+        OutputStream out = null;
+        try {
+            out = new FileOutputStream(indexInfoFile);
+            Properties properties = new Properties();
+            properties.setProperty(INDEXED_ATTRIBUTES_PROPERTY, indexes.toString());
+            properties.store(out, "Attribute indexes maintained in this partition");
+        } catch (IOException e) {
+            throwDirectoryServerException("Could not write " + indexInfoFile.getAbsolutePath(), e);
+        } finally {
+            closeStream(out);
+        }
+    }
+
+    private void closeStream(Closeable stream) {
+        if (stream != null) {
+            try {
+                stream.close();
+            } catch (IOException e) {
+                logger.warn("Could not close stream.", e);
+            }
+        }
     }
 
     /**
@@ -432,8 +647,10 @@ class ApacheDirectoryPartitionManager implements PartitionManager {
         return null;
     }
 
-    private JdbmPartition createNewPartition(String partitionId, String partitionSuffix)
+    private JdbmPartition createNewPartition(PartitionInfo partitionInfo)
             throws DirectoryServerException {
+        String partitionId = partitionInfo.getPartitionId();
+        String partitionSuffix = partitionInfo.getRootDN();
         try {
             JdbmPartition partition = new JdbmPartition();
             String partitionDirectoryName = this.workingDirectory + File.separator + partitionId;
@@ -442,23 +659,20 @@ class ApacheDirectoryPartitionManager implements PartitionManager {
             partition.setId(partitionId);
             partition.setSuffix(partitionSuffix);
             partition.setPartitionDir(partitionDirectory);
+            partition.setCacheSize(partitionInfo.getPartitionCacheSize());
 
             Set<Index<?, ServerEntry, Long>> indexedAttrs =
                     new HashSet<Index<?, ServerEntry, Long>>();
 
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.1"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.2"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.3"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.4"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.5"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.6"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("1.3.6.1.4.1.18060.0.4.1.2.7"));
-
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("ou"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("dc"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("objectClass"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("cn"));
-            indexedAttrs.add(new JdbmIndex<String, ServerEntry>("uid"));
+            for (String systemIndex : SYSTEM_INDEXES) {
+                indexedAttrs.add(new JdbmIndex<String, ServerEntry>(systemIndex));
+            }
+
+            for (Map.Entry<String, Integer> index : getIndexedAttributes(partitionInfo).entrySet()) {
+                JdbmIndex<String, ServerEntry> jdbmIndex = new JdbmIndex<String, ServerEntry>(index.getKey());
+                jdbmIndex.setCacheSize(index.getValue());
+                indexedAttrs.add(jdbmIndex);
+            }
             partition.setIndexedAttributes(indexedAttrs);
 
             String message = MessageFormat.format(
@@ -100,7 +100,7 @@ public class DirectoryActivator implements BundleActivator {
 
                 //create and register LDAPTenantManager implementation in OSGI.
                 LDAPTenantManager ldapTenantManager = new LDAPTenantManagerService(this.ldapServer.
-                        getPartitionManager());
+                        getPartitionManager(), configurationBuilder);
                 bundleContext.registerService(LDAPTenantManager.class.getName(), ldapTenantManager,
                         null);
                 if (logger.isDebugEnabled()) {
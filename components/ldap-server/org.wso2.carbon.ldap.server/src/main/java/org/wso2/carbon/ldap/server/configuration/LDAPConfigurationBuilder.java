@@ -38,6 +38,7 @@ import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -366,6 +367,8 @@ public class LDAPConfigurationBuilder {
         this.partitionConfigurations.setPartitionKdcPassword(propertyMap.get("kdcPassword"));
         this.partitionConfigurations.setLdapServerPrinciplePassword(propertyMap.get("ldapServerPrinciplePassword"));
         this.partitionConfigurations.setRootDN(getDomainNameForRealm(propertyMap.get("realm")));
+        this.partitionConfigurations.setPartitionCacheSize(getIntegerValue(propertyMap.get("partitionCacheSize")));
+        this.partitionConfigurations.setIndexedAttributes(getIndexedAttributes(propertyMap.get("indexedAttributes")));
 
         // Admin user config
         OMElement partitionAdmin = documentElement.getFirstChildWithName(new QName("PartitionAdmin"));
@@ -382,6 +385,42 @@ public class LDAPConfigurationBuilder {
 
     }
 
+    /**
+     * Reads the indexed attributes of the partition. Attributes are separated by commas and each
+     * attribute may be followed by the cache size of its index, e.g. ou,dc,objectClass,cn,uid,mail:1000
+     *
+     * @param value: value of the indexedAttributes property
+     * @return : attribute names mapped to the cache size of the index, null if the property is not set.
+     */
+    private Map<String, Integer> getIndexedAttributes(String value) {
+        if (value == null || value.trim().length() == 0) {
+            return null;
+        }
+
+        Map<String, Integer> indexedAttributes = new LinkedHashMap<String, Integer>();
+        for (String attribute : value.split(",")) {
+            attribute = attribute.trim();
+            if (attribute.length() == 0) {
+                continue;
+            }
+
+            int cacheSize = PartitionInfo.DEFAULT_INDEX_CACHE_SIZE;
+            int separatorIndex = attribute.indexOf(':');
+            if (separatorIndex > 0) {
+                String cacheSizeValue = attribute.substring(separatorIndex + 1).trim();
+                attribute = attribute.substring(0, separatorIndex).trim();
+                try {
+                    cacheSize = Integer.parseInt(cacheSizeValue);
+                } catch (NumberFormatException e) {
+                    logger.warn("Invalid index cache size " + cacheSizeValue + " for attribute " + attribute +
+                            ". Using the default cache size " + PartitionInfo.DEFAULT_INDEX_CACHE_SIZE);
+                }
+            }
+            indexedAttributes.put(attribute, cacheSize);
+        }
+        return indexedAttributes;
+    }
+
     private AdminInfo buildPartitionAdminConfigurations(Map<String, String> propertyMap) {
         AdminInfo adminInfo = new AdminInfo();
 
@@ -197,7 +197,14 @@ public class LDAPTenantManagerService implements LDAPTenantManager {
         String rootDN = getTenantSuffix(tenant.getDomain());
         AdminInfo tenantAdminInfo = getAdminInfo(tenant);
 
-        return new PartitionInfo(partitionID, realm, rootDN, tenantAdminInfo);
+        PartitionInfo partitionInfo = new PartitionInfo(partitionID, realm, rootDN, tenantAdminInfo);
+
+        /*Tenant partitions are indexed and cached the same way as the default partition.*/
+        PartitionInfo defaultPartitionInfo = ldapConfigurationBuilder.getPartitionConfigurations();
+        partitionInfo.setPartitionCacheSize(defaultPartitionInfo.getPartitionCacheSize());
+        partitionInfo.setIndexedAttributes(defaultPartitionInfo.getIndexedAttributes());
+
+        return partitionInfo;
     }
 
 }
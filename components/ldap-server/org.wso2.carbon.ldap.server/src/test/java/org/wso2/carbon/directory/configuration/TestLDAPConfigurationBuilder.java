@@ -86,6 +86,11 @@ public class TestLDAPConfigurationBuilder extends TestCase {
         assertEquals(info.getPreferredDomainComponent(), "wso2");
         assertEquals(info.getRootDN(), "dc=wso2,dc=org");
 
+        assertEquals(info.getPartitionCacheSize(), 1000);
+        assertEquals(info.getIndexedAttributes().size(), 6);
+        assertEquals(info.getIndexedAttributes().get("uid").intValue(), PartitionInfo.DEFAULT_INDEX_CACHE_SIZE);
+        assertEquals(info.getIndexedAttributes().get("mail").intValue(), 500);
+
         /*Commenting out the following part because we moved creating user admin entry and group
          *entry to user core and not reading following config in ldap component anymore.*/
 
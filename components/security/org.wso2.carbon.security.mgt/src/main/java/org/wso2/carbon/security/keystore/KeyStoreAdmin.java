@@ -34,6 +34,7 @@ import org.wso2.carbon.registry.core.exceptions.RegistryException;
 import org.wso2.carbon.security.SecurityConfigException;
 import org.wso2.carbon.security.SecurityConstants;
 import org.wso2.carbon.security.keystore.service.*;
+import org.wso2.carbon.security.util.KeyStoreCertIndex;
 import org.wso2.carbon.security.util.KeyStoreMgtUtil;
 import org.wso2.carbon.utils.CarbonUtils;
 
@@ -300,6 +301,7 @@ public class KeyStoreAdmin {
                         " is already in use and can't be deleted");
             }
             registry.delete(path);
+            KeyStoreCertIndex.getInstance().invalidate(KeyStoreCertIndex.getStoreKey(tenantId, keyStoreName));
         } catch (RegistryException e) {
             log.error(e.getMessage(), e);
             throw new SecurityConfigException(e.getMessage(), e);
@@ -337,6 +339,7 @@ public class KeyStoreAdmin {
             ks.setCertificateEntry(fileName, cert);
 
             keyMan.updateKeyStore(keyStoreName, ks);
+            KeyStoreCertIndex.getInstance().invalidate(KeyStoreCertIndex.getStoreKey(tenantId, keyStoreName));
 
         } catch (SecurityConfigException e) {
             throw e;
@@ -379,6 +382,7 @@ public class KeyStoreAdmin {
             ks.setCertificateEntry(alias, cert);
 
             keyMan.updateKeyStore(keyStoreName, ks);
+            KeyStoreCertIndex.getInstance().invalidate(KeyStoreCertIndex.getStoreKey(tenantId, keyStoreName));
 
             return alias;
 
@@ -407,6 +411,7 @@ public class KeyStoreAdmin {
 
             ks.deleteEntry(alias);
             keyMan.updateKeyStore(keyStoreName, ks);
+            KeyStoreCertIndex.getInstance().invalidate(KeyStoreCertIndex.getStoreKey(tenantId, keyStoreName));
         } catch (SecurityConfigException e) {
             throw e;
         } catch (Exception e) {
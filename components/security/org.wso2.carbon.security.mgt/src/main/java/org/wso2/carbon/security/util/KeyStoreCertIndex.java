@@ -0,0 +1,271 @@
+/*
+ * Copyright (c) 2014, WSO2 Inc. (http://www.wso2.org) All Rights Reserved.
+ *
+ * WSO2 Inc. licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except
+ * in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package org.wso2.carbon.security.util;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.security.KeyStore;
+import java.security.KeyStoreException;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps lookup indexes of the certificates in key stores and the certificate paths which were
+ * validated against them, so that ServerCrypto does not have to go through every entry of every
+ * store on each secured message.
+ * <p/>
+ * Indexes are kept per key store instance and built the first time the instance is looked up, so
+ * a store reloaded by KeyStoreManager gets a new index. Any change to a store made through
+ * KeyStoreAdmin invalidates all the indexes and validated paths on this node. Indexes also expire,
+ * so that changes made on other nodes are picked up.
+ */
+public class KeyStoreCertIndex {
+
+    private static final Log log = LogFactory.getLog(KeyStoreCertIndex.class);
+
+    private static final int MAX_VALIDATED_PATHS = 1000;
+
+    private static final long VALIDATED_PATH_TIMEOUT = 15 * 60 * 1000L;
+
+    private static final long INDEX_TIMEOUT = 15 * 60 * 1000L;
+
+    private static KeyStoreCertIndex instance = new KeyStoreCertIndex();
+
+    /*Incremented on every key store change. Indexes and validated paths of older generations are not used.*/
+    private final AtomicLong generation = new AtomicLong();
+
+    /*Key stores do not override equals, so indexes are looked up by the identity of the store instance.*/
+    private final Map<KeyStore, Index> indexes = new WeakHashMap<KeyStore, Index>();
+
+    private final Map<String, ValidatedPath> validatedPaths =
+            new LinkedHashMap<String, ValidatedPath>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, ValidatedPath> eldest) {
+                    return size() > MAX_VALIDATED_PATHS;
+                }
+            };
+
+    private KeyStoreCertIndex() {
+    }
+
+    public static KeyStoreCertIndex getInstance() {
+        return instance;
+    }
+
+    /**
+     * Returns the index of the given key store, building it if it is not available or has expired.
+     *
+     * @param storeKey unique key of the store, including the tenant. If null the index is not kept.
+     * @param keyStore key store to index
+     * @param crypto   crypto used to compute the subject key identifiers
+     * @return index of the key store
+     * @throws KeyStoreException if the key store can not be read
+     */
+    public Index getIndex(String storeKey, KeyStore keyStore, ServerCrypto crypto) throws KeyStoreException {
+        long currentGeneration = generation.get();
+        if (storeKey == null) {
+            return new Index(currentGeneration, keyStore, crypto);
+        }
+        Index index;
+        synchronized (indexes) {
+            index = indexes.get(keyStore);
+        }
+        if (index == null || index.generation != currentGeneration ||
+                index.expiryTime < System.currentTimeMillis()) {
+            index = new Index(currentGeneration, keyStore, crypto);
+            synchronized (indexes) {
+                indexes.put(keyStore, index);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Indexed " + index.aliasCount + " entries of key store " + storeKey);
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Drops the index of the given key store instance, so that it is rebuilt at the next lookup. To be
+     * called when the store has an entry its index does not know of.
+     *
+     * @param keyStore key store instance
+     */
+    public void removeIndex(KeyStore keyStore) {
+        synchronized (indexes) {
+            indexes.remove(keyStore);
+        }
+    }
+
+    /**
+     * Checks whether the certificate path with the given key was validated successfully and is
+     * still valid.
+     *
+     * @param pathKey fingerprint of the certificate path and the stores it was validated against
+     * @return true if the path is known to be valid
+     */
+    public boolean isValidated(String pathKey) {
+        synchronized (validatedPaths) {
+            ValidatedPath validatedPath = validatedPaths.get(pathKey);
+            if (validatedPath == null) {
+                return false;
+            }
+            if (validatedPath.generation != generation.get() ||
+                    validatedPath.expiryTime < System.currentTimeMillis()) {
+                validatedPaths.remove(pathKey);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Records a successfully validated certificate path.
+     *
+     * @param pathKey  fingerprint of the certificate path and the stores it was validated against
+     * @param notAfter earliest expiry time of the certificates in the path
+     */
+    public void addValidated(String pathKey, long notAfter) {
+        long expiryTime = Math.min(notAfter, System.currentTimeMillis() + VALIDATED_PATH_TIMEOUT);
+        synchronized (validatedPaths) {
+            validatedPaths.put(pathKey, new ValidatedPath(generation.get(), expiryTime));
+        }
+    }
+
+    /**
+     * Invalidates the indexes and validated certificate paths after a key store change.
+     *
+     * @param storeKey unique key of the changed store, including the tenant
+     */
+    public void invalidate(String storeKey) {
+        generation.incrementAndGet();
+        synchronized (validatedPaths) {
+            validatedPaths.clear();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Invalidated certificate indexes after change of key store " + storeKey);
+        }
+    }
+
+    /**
+     * Returns the key used to index a key store of a tenant.
+     */
+    public static String getStoreKey(int tenantId, String keyStoreName) {
+        return tenantId + ":" + keyStoreName;
+    }
+
+    /**
+     * Certificate lookups of a single key store. Where several entries match, the alias which comes
+     * first in the key store is kept.
+     */
+    public static class Index {
+
+        private final long generation;
+
+        private final long expiryTime = System.currentTimeMillis() + INDEX_TIMEOUT;
+
+        private int aliasCount;
+
+        private final Map<String, String> thumbprints = new HashMap<String, String>();
+
+        private final Map<String, String> subjectKeyIdentifiers = new HashMap<String, String>();
+
+        private final Map<String, String> issuerSerials = new HashMap<String, String>();
+
+        private final Map<String, List<String>> subjects = new HashMap<String, List<String>>();
+
+        private Index(long generation, KeyStore keyStore, ServerCrypto crypto) throws KeyStoreException {
+            this.generation = generation;
+
+            for (Enumeration<String> aliases = keyStore.aliases(); aliases.hasMoreElements(); ) {
+                String alias = aliases.nextElement();
+                Certificate cert = keyStore.getCertificate(alias);
+                if (!(cert instanceof X509Certificate)) {
+                    continue;
+                }
+                X509Certificate x509Cert = (X509Certificate) cert;
+                aliasCount++;
+
+                String thumbprint = crypto.getThumbprintKey(x509Cert);
+                if (thumbprint != null && !thumbprints.containsKey(thumbprint)) {
+                    thumbprints.put(thumbprint, alias);
+                }
+
+                String ski = crypto.getSKIKey(x509Cert);
+                if (ski != null && !subjectKeyIdentifiers.containsKey(ski)) {
+                    subjectKeyIdentifiers.put(ski, alias);
+                }
+
+                String issuerSerial = crypto.getIssuerSerialKey(x509Cert.getIssuerDN().getName(),
+                        x509Cert.getSerialNumber());
+                if (!issuerSerials.containsKey(issuerSerial)) {
+                    issuerSerials.put(issuerSerial, alias);
+                }
+
+                String subject = crypto.getDNKey(x509Cert.getSubjectDN().getName());
+                List<String> subjectAliases = subjects.get(subject);
+                if (subjectAliases == null) {
+                    subjectAliases = new ArrayList<String>();
+                    subjects.put(subject, subjectAliases);
+                }
+                subjectAliases.add(alias);
+            }
+        }
+
+        public String getAliasForThumbprint(String thumbprint) {
+            return thumbprints.get(thumbprint);
+        }
+
+        public String getAliasForSKI(String ski) {
+            return subjectKeyIdentifiers.get(ski);
+        }
+
+        public String getAliasForIssuerSerial(String issuerSerial) {
+            return issuerSerials.get(issuerSerial);
+        }
+
+        public List<String> getAliasesForSubject(String subject) {
+            List<String> aliases = subjects.get(subject);
+            if (aliases == null) {
+                return Collections.emptyList();
+            }
+            return Collections.unmodifiableList(aliases);
+        }
+    }
+
+    private static class ValidatedPath {
+
+        private final long generation;
+
+        private final long expiryTime;
+
+        private ValidatedPath(long generation, long expiryTime) {
+            this.generation = generation;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -63,6 +63,7 @@ public class ServerCrypto implements Crypto {
     public final static String PROP_ID_TENANT_ID = "org.wso2.stratos.tenant.id";
     public final static String PROP_ID_XKMS_SERVICE_URL = "org.wso2.carbon.security.crypto.xkms.url";
     private static final String SKI_OID = "2.5.29.14";
+    private static final String CACERTS_STORE_KEY = "cacerts";
     private static Log log = LogFactory.getLog(ServerCrypto.class);
     private static CertificateFactory certFact = null;
     private Properties properties = null;
@@ -71,6 +72,10 @@ public class ServerCrypto implements Crypto {
     private List<KeyStore> trustStores = new ArrayList<KeyStore>();
     private Registry registry = null;
     private Boolean useXkms;
+    // keys of the stores in KeyStoreCertIndex
+    private String keyStoreKey = null;
+    private List<String> trustStoreKeys = new ArrayList<String>();
+    private String cacertsKey = CACERTS_STORE_KEY;
 
     public ServerCrypto(Properties prop) throws CredentialException, IOException {
         this(prop, ServerCrypto.class.getClassLoader());
@@ -99,6 +104,7 @@ public class ServerCrypto implements Crypto {
             String ksId = this.properties.getProperty(PROP_ID_PRIVATE_STORE);
             if (ksId != null) {
                 this.keystore = keyMan.getKeyStore(ksId);
+                this.keyStoreKey = KeyStoreCertIndex.getStoreKey(tenantId, ksId);
             }
 
             // Get other keystores if available
@@ -110,6 +116,7 @@ public class ServerCrypto implements Crypto {
                     String id = ids[i];
                     KeyStore tstks = keyMan.getKeyStore(id);
                     this.trustStores.add(i, tstks);
+                    this.trustStoreKeys.add(i, KeyStoreCertIndex.getStoreKey(tenantId, id));
                 }
             }
         } catch (Exception e) {
@@ -132,6 +139,7 @@ public class ServerCrypto implements Crypto {
             log.warn("Unable load to cacerts from the JDK.");
             if (trustStores != null && trustStores.size() > 0) {
                 cacerts = this.trustStores.get(0);
+                cacertsKey = this.trustStoreKeys.get(0);
             } else {
                 throw new CredentialException(3, "secError00", e);
             }
@@ -319,32 +327,13 @@ public class ServerCrypto implements Crypto {
             String alias = null;
 
             if (this.keystore != null) {
-                alias = keystore.getCertificateAlias(cert);
-
-                // Use brute force search
-                if (alias == null) {
-                    alias = findAliasForCert(this.keystore, cert);
-                }
+                alias = findAliasForCert(this.keystore, this.keyStoreKey, cert);
             }
 
             // Check the trust stores
             if (alias == null && this.trustStores != null) {
-                for (Iterator trustStoreIter = this.trustStores.iterator(); trustStoreIter
-                        .hasNext(); ) {
-                    KeyStore store = (KeyStore) trustStoreIter.next();
-                    alias = store.getCertificateAlias(cert);
-                    if (alias != null) {
-                        break;
-                    }
-                }
-            }
-
-            // Use brute force search on the trust stores
-            if (alias == null && this.trustStores != null) {
-                for (Iterator trustStoreIter = this.trustStores.iterator(); trustStoreIter
-                        .hasNext(); ) {
-                    KeyStore store = (KeyStore) trustStoreIter.next();
-                    alias = this.findAliasForCert(store, cert);
+                for (int i = 0; i < this.trustStores.size(); i++) {
+                    alias = findAliasForCert(this.trustStores.get(i), this.trustStoreKeys.get(i), cert);
                     if (alias != null) {
                         break;
                     }
@@ -352,12 +341,7 @@ public class ServerCrypto implements Crypto {
             }
 
             if (alias == null && this.cacerts != null) {
-                alias = cacerts.getCertificateAlias(cert);
-
-                // Use brute force search
-                if (alias == null) {
-                    alias = findAliasForCert(this.cacerts, cert);
-                }
+                alias = findAliasForCert(this.cacerts, this.cacertsKey, cert);
             }
 
             if (alias != null) {
@@ -377,7 +361,29 @@ public class ServerCrypto implements Crypto {
         return null;
     }
 
-    private String findAliasForCert(KeyStore ks, Certificate cert) throws KeyStoreException {
+    private String findAliasForCert(KeyStore ks, String storeKey, Certificate cert)
+            throws KeyStoreException {
+        if (cert instanceof X509Certificate) {
+            String thumbprint = getThumbprintKey((X509Certificate) cert);
+            if (thumbprint != null) {
+                String alias = getIndex(ks, storeKey).getAliasForThumbprint(thumbprint);
+                if (alias != null) {
+                    return alias;
+                }
+                // the certificate may have been added after the index was built
+                alias = ks.getCertificateAlias(cert);
+                if (alias != null) {
+                    KeyStoreCertIndex.getInstance().removeIndex(ks);
+                }
+                return alias;
+            }
+        }
+
+        // Use brute force search
+        String certAlias = ks.getCertificateAlias(cert);
+        if (certAlias != null) {
+            return certAlias;
+        }
         Enumeration e = ks.aliases();
         while (e.hasMoreElements()) {
             String alias = (String) e.nextElement();
@@ -393,12 +399,11 @@ public class ServerCrypto implements Crypto {
      * @see org.apache.ws.security.components.crypto.Crypto#getAliasForX509Cert(java.lang.String)
      */
     public String getAliasForX509Cert(String issuer) throws WSSecurityException {
-        String alias = getAliasForX509Cert(issuer, null, false, this.keystore);
+        String alias = getAliasForX509Cert(issuer, null, false, this.keyStoreKey, this.keystore);
         if (alias == null) {
-            Iterator<KeyStore> ite = this.trustStores.iterator();
-            while (ite.hasNext()) {
-                KeyStore ks = ite.next();
-                alias = getAliasForX509Cert(issuer, null, false, ks);
+            for (int i = 0; i < this.trustStores.size(); i++) {
+                alias = getAliasForX509Cert(issuer, null, false, this.trustStoreKeys.get(i),
+                        this.trustStores.get(i));
                 if (alias != null) {
                     break;
                 }
@@ -414,12 +419,11 @@ public class ServerCrypto implements Crypto {
      */
     public String getAliasForX509Cert(String issuer, BigInteger serialNumber)
             throws WSSecurityException {
-        String alias = getAliasForX509Cert(issuer, serialNumber, true, this.keystore);
+        String alias = getAliasForX509Cert(issuer, serialNumber, true, this.keyStoreKey, this.keystore);
         if (alias == null) {
-            Iterator<KeyStore> ite = this.trustStores.iterator();
-            while (ite.hasNext()) {
-                KeyStore ks = ite.next();
-                alias = getAliasForX509Cert(issuer, serialNumber, true, ks);
+            for (int i = 0; i < this.trustStores.size(); i++) {
+                alias = getAliasForX509Cert(issuer, serialNumber, true, this.trustStoreKeys.get(i),
+                        this.trustStores.get(i));
                 if (alias != null) {
                     break;
                 }
@@ -434,23 +438,9 @@ public class ServerCrypto implements Crypto {
     public String getAliasForX509Cert(byte[] skiBytes) throws WSSecurityException {
         try {
 
-            Certificate cert;
-            for (Enumeration e = keystore.aliases(); e.hasMoreElements(); ) {
-                String alias = (String) e.nextElement();
-                Certificate[] certs = this.getCertificates(alias);
-                if (certs == null || certs.length == 0) {
-                    return null;
-                } else {
-                    cert = certs[0];
-                }
-                if (!(cert instanceof X509Certificate)) {
-                    continue;
-                }
-                byte[] data = getSKIBytesFromCert((X509Certificate) cert);
-                if (data.length != skiBytes.length) {
-                    continue;
-                }
-                if (Arrays.equals(data, skiBytes)) {
+            if (keystore != null) {
+                String alias = getIndex(keystore, keyStoreKey).getAliasForSKI(toHex(skiBytes));
+                if (alias != null) {
                     return alias;
                 }
             }
@@ -522,37 +512,9 @@ public class ServerCrypto implements Crypto {
      * @see org.apache.ws.security.components.crypto.Crypto#getAliasForX509CertThumb(byte[])
      */
     public String getAliasForX509CertThumb(byte[] thumb) throws WSSecurityException {
-        Certificate cert;
-        MessageDigest sha;
-        try {
-            sha = MessageDigest.getInstance("SHA-1");
-        } catch (NoSuchAlgorithmException e1) {
-            throw new WSSecurityException(0, "noSHA1availabe");
-        }
         try {
-            for (Enumeration e = keystore.aliases(); e.hasMoreElements(); ) {
-                String alias = (String) e.nextElement();
-                Certificate[] certs = this.getCertificates(alias);
-                if (certs == null || certs.length == 0) {
-                    return null;
-                } else {
-                    cert = certs[0];
-                }
-                if (!(cert instanceof X509Certificate)) {
-                    continue;
-                }
-                sha.reset();
-                try {
-                    sha.update(cert.getEncoded());
-                } catch (CertificateEncodingException e1) {
-                    throw new WSSecurityException(WSSecurityException.SECURITY_TOKEN_UNAVAILABLE,
-                            "encodeError");
-                }
-                byte[] data = sha.digest();
-
-                if (Arrays.equals(data, thumb)) {
-                    return alias;
-                }
+            if (keystore != null) {
+                return getIndex(keystore, keyStoreKey).getAliasForThumbprint(toHex(thumb));
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.FAILURE, "keystore");
@@ -597,6 +559,11 @@ public class ServerCrypto implements Crypto {
 
         boolean result;
 
+        String pathKey = getCertPathKey(certs);
+        if (pathKey != null && KeyStoreCertIndex.getInstance().isValidated(pathKey)) {
+            return true;
+        }
+
 //        if (useXKMS()) {
 //            result = XKMSCryptoClient.validateCertPath(certs, properties
 //                    .getProperty(PROP_ID_XKMS_SERVICE_URL));
@@ -618,6 +585,14 @@ public class ServerCrypto implements Crypto {
             result = this.validateCertPath(this.cacerts, certs);
         }
 
+        if (result && pathKey != null) {
+            long notAfter = Long.MAX_VALUE;
+            for (X509Certificate cert : certs) {
+                notAfter = Math.min(notAfter, cert.getNotAfter().getTime());
+            }
+            KeyStoreCertIndex.getInstance().addValidated(pathKey, notAfter);
+        }
+
         return result;
     }
 
@@ -628,30 +603,11 @@ public class ServerCrypto implements Crypto {
 
         // Store the aliases found
         Vector aliases = new Vector();
-        Certificate cert;
-
-        // The DN to search the keystore for
-        Vector subjectRDN = splitAndTrim(subjectDN);
 
-        // Look at every certificate in the keystore
+        // Look up the DN in the keystore index
         try {
-            for (Enumeration e = keystore.aliases(); e.hasMoreElements(); ) {
-                String alias = (String) e.nextElement();
-
-                Certificate[] certs = this.getCertificates(alias);
-                if (certs == null || certs.length == 0) {
-                    return null;
-                } else {
-                    cert = certs[0];
-                }
-                if (cert instanceof X509Certificate) {
-                    Vector foundRDN = splitAndTrim(((X509Certificate) cert).getSubjectDN()
-                            .getName());
-
-                    if (subjectRDN.equals(foundRDN)) {
-                        aliases.add(alias);
-                    }
-                }
+            if (keystore != null) {
+                aliases.addAll(getIndex(keystore, keyStoreKey).getAliasesForSubject(getDNKey(subjectDN)));
             }
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.FAILURE, "keystore");
@@ -678,38 +634,89 @@ public class ServerCrypto implements Crypto {
     }
 
     private String getAliasForX509Cert(String issuer, BigInteger serialNumber,
-                                       boolean useSerialNumber, KeyStore ks) throws WSSecurityException {
-        Vector issuerRDN = splitAndTrim(issuer);
-        X509Certificate x509cert;
-        Vector certRDN;
-        Certificate cert;
+                                       boolean useSerialNumber, String storeKey, KeyStore ks)
+            throws WSSecurityException {
+        if (!useSerialNumber || ks == null) {
+            return null;
+        }
         try {
-            for (Enumeration e = ks.aliases(); e.hasMoreElements(); ) {
-                String alias = (String) e.nextElement();
-                Certificate[] certs = this.getCertificates(alias);
-
-                if (certs == null || certs.length == 0) {
-                    return null;
-                } else {
-                    cert = certs[0];
-                }
-                if (!(cert instanceof X509Certificate)) {
-                    continue;
-                }
-                x509cert = (X509Certificate) cert;
-                if (useSerialNumber && x509cert.getSerialNumber().compareTo(serialNumber) == 0) {
-                    certRDN = splitAndTrim(x509cert.getIssuerDN().getName());
-                    if (certRDN.equals(issuerRDN)) {
-                        return alias;
-                    }
-                }
-            }
+            return getIndex(ks, storeKey).getAliasForIssuerSerial(getIssuerSerialKey(issuer, serialNumber));
         } catch (KeyStoreException e) {
             throw new WSSecurityException(WSSecurityException.FAILURE, "keystore");
         }
+    }
+
+    private KeyStoreCertIndex.Index getIndex(KeyStore ks, String storeKey) throws KeyStoreException {
+        return KeyStoreCertIndex.getInstance().getIndex(storeKey, ks, this);
+    }
+
+    /**
+     * @return hex encoded SHA-1 thumbprint of the certificate, null if it can not be computed
+     */
+    String getThumbprintKey(X509Certificate cert) {
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-1");
+            return toHex(sha.digest(cert.getEncoded()));
+        } catch (NoSuchAlgorithmException e) {
+            log.error("SHA-1 message digest is not available", e);
+        } catch (CertificateEncodingException e) {
+            log.warn("Unable to encode certificate " + cert.getSubjectDN().getName(), e);
+        }
         return null;
     }
 
+    /**
+     * @return hex encoded subject key identifier of the certificate, null if it can not be computed
+     */
+    String getSKIKey(X509Certificate cert) {
+        try {
+            return toHex(getSKIBytesFromCert(cert));
+        } catch (WSSecurityException e) {
+            if (log.isDebugEnabled()) {
+                log.debug("No subject key identifier for certificate " + cert.getSubjectDN().getName(), e);
+            }
+            return null;
+        }
+    }
+
+    String getIssuerSerialKey(String issuer, BigInteger serialNumber) {
+        return getDNKey(issuer) + "#" + serialNumber;
+    }
+
+    String getDNKey(String dn) {
+        return splitAndTrim(dn).toString();
+    }
+
+    /**
+     * Returns a key identifying the certificate path together with the stores it is validated
+     * against, or null if the certificates can not be encoded.
+     */
+    private String getCertPathKey(X509Certificate[] certs) {
+        if (certs == null || certs.length == 0) {
+            return null;
+        }
+        try {
+            MessageDigest sha = MessageDigest.getInstance("SHA-256");
+            for (X509Certificate cert : certs) {
+                sha.update(cert.getEncoded());
+            }
+            return toHex(sha.digest()) + "|" + keyStoreKey + "|" + trustStoreKeys + "|" + cacertsKey;
+        } catch (NoSuchAlgorithmException e) {
+            log.error("SHA-256 message digest is not available", e);
+        } catch (CertificateEncodingException e) {
+            log.warn("Unable to encode certificate path", e);
+        }
+        return null;
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return hex.toString();
+    }
+
     private Vector splitAndTrim(String inString) {
         X509NameTokenizer nmTokens = new X509NameTokenizer(inString);
         Vector vr = new Vector();
@@ -0,0 +1,25 @@
+-- Adds the outbound provisioning retry queue to an identity database created before it was added to the create script
+CREATE TABLE IDP_PROVISIONING_RETRY (
+            ID INTEGER NOT NULL,
+            TENANT_ID INTEGER NOT NULL,
+            TENANT_DOMAIN VARCHAR(255) NOT NULL,
+            IDP_NAME VARCHAR(254) NOT NULL,
+            CONNECTOR_TYPE VARCHAR(255) NOT NULL,
+            ENTITY BLOB NOT NULL,
+            RETRY_COUNT INTEGER DEFAULT 0,
+            NEXT_RETRY_TIME BIGINT NOT NULL,
+            PRIMARY KEY (ID))
+/
+CREATE INDEX IDX_IDP_PROV_RETRY_NEXT ON IDP_PROVISIONING_RETRY(NEXT_RETRY_TIME)
+/
+CREATE SEQUENCE IDP_PROV_RETRY_SEQ START WITH 1 INCREMENT BY 1 NOCACHE
+/
+CREATE TRIGGER IDP_PROV_RETRY_TRIG NO CASCADE
+            BEFORE INSERT
+            ON IDP_PROVISIONING_RETRY
+            REFERENCING NEW AS NEW
+            FOR EACH ROW MODE DB2SQL
+                BEGIN ATOMIC
+                    SET (NEW.ID) = (NEXTVAL FOR IDP_PROV_RETRY_SEQ);
+                END
+/
@@ -0,0 +1,13 @@
+-- Adds the outbound provisioning retry queue to an identity database created before it was added to the create script
+IF NOT  EXISTS (SELECT * FROM SYS.OBJECTS WHERE OBJECT_ID = OBJECT_ID(N'[DBO].[IDP_PROVISIONING_RETRY]') AND TYPE IN (N'U'))
+CREATE TABLE IDP_PROVISIONING_RETRY (
+            ID INTEGER IDENTITY,
+            TENANT_ID INTEGER NOT NULL,
+            TENANT_DOMAIN VARCHAR(255) NOT NULL,
+            IDP_NAME VARCHAR(254) NOT NULL,
+            CONNECTOR_TYPE VARCHAR(255) NOT NULL,
+            ENTITY VARBINARY(MAX) NOT NULL,
+            RETRY_COUNT INTEGER DEFAULT 0,
+            NEXT_RETRY_TIME BIGINT NOT NULL,
+            PRIMARY KEY (ID));
+CREATE INDEX IDX_IDP_PROV_RETRY_NEXT ON IDP_PROVISIONING_RETRY(NEXT_RETRY_TIME);
@@ -155,6 +155,12 @@ CREATE TABLE IDN_STS_STORE (
             STATE INTEGER DEFAULT 0,
             PRIMARY KEY (ID))
 /
+CREATE INDEX IDX_STS_STORE_TOKEN_ID ON IDN_STS_STORE(TOKEN_ID)
+/
+CREATE INDEX IDX_STS_STORE_EXPIRE ON IDN_STS_STORE(EXPIRE_DATE)
+/
+CREATE INDEX IDX_STS_STORE_STATE_EXPIRE ON IDN_STS_STORE(STATE, EXPIRE_DATE)
+/
 CREATE SEQUENCE IDN_STS_STORE_SEQUENCE START WITH 1 INCREMENT BY 1 NOCACHE
 /
 CREATE TRIGGER IDN_STS_STORE_TRIGGER NO CASCADE BEFORE INSERT ON IDN_STS_STORE
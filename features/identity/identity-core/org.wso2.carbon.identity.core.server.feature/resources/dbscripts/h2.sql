@@ -144,6 +144,9 @@ CREATE TABLE IDN_STS_STORE (
             STATE INTEGER DEFAULT 0,
             PRIMARY KEY (ID)
 );
+CREATE INDEX IDX_STS_STORE_TOKEN_ID ON IDN_STS_STORE(TOKEN_ID);
+CREATE INDEX IDX_STS_STORE_EXPIRE ON IDN_STS_STORE(EXPIRE_DATE);
+CREATE INDEX IDX_STS_STORE_STATE_EXPIRE ON IDN_STS_STORE(STATE, EXPIRE_DATE);
 
 CREATE TABLE IDN_IDENTITY_USER_DATA (
             TENANT_ID INTEGER DEFAULT -1234,
@@ -217,6 +217,18 @@ CREATE TABLE IF NOT EXISTS IDP_PROVISIONING_ENTITY (
             UNIQUE (PROVISIONING_CONFIG_ID, ENTITY_TYPE, ENTITY_VALUE),
             FOREIGN KEY (PROVISIONING_CONFIG_ID) REFERENCES IDP_PROVISIONING_CONFIG(ID) ON DELETE CASCADE);
 
+CREATE TABLE IF NOT EXISTS IDP_PROVISIONING_RETRY (
+            ID INTEGER AUTO_INCREMENT,
+            TENANT_ID INTEGER NOT NULL,
+            TENANT_DOMAIN VARCHAR(255) NOT NULL,
+            IDP_NAME VARCHAR(254) NOT NULL,
+            CONNECTOR_TYPE VARCHAR(255) NOT NULL,
+            ENTITY BLOB NOT NULL,
+            RETRY_COUNT INTEGER DEFAULT 0,
+            NEXT_RETRY_TIME BIGINT NOT NULL,
+            PRIMARY KEY (ID));
+CREATE INDEX IDX_IDP_PROV_RETRY_NEXT ON IDP_PROVISIONING_RETRY(NEXT_RETRY_TIME);
+
 CREATE TABLE IF NOT EXISTS IDP_LOCAL_CLAIM (
             ID INTEGER AUTO_INCREMENT,
             TENANT_ID INTEGER,
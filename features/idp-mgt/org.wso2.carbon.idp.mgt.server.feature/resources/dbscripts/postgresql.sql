@@ -269,6 +269,21 @@ CREATE TABLE IDP_PROVISIONING_ENTITY (
             UNIQUE (PROVISIONING_CONFIG_ID, ENTITY_TYPE, ENTITY_VALUE),
             FOREIGN KEY (PROVISIONING_CONFIG_ID) REFERENCES IDP_PROVISIONING_CONFIG(ID) ON DELETE CASCADE);
 
+DROP TABLE IF EXISTS IDP_PROVISIONING_RETRY;
+DROP SEQUENCE IF EXISTS IDP_PROV_RETRY_SEQ;
+CREATE SEQUENCE IDP_PROV_RETRY_SEQ;
+CREATE TABLE IDP_PROVISIONING_RETRY (
+            ID INTEGER DEFAULT NEXTVAL('IDP_PROV_RETRY_SEQ'),
+            TENANT_ID INTEGER NOT NULL,
+            TENANT_DOMAIN VARCHAR(255) NOT NULL,
+            IDP_NAME VARCHAR(254) NOT NULL,
+            CONNECTOR_TYPE VARCHAR(255) NOT NULL,
+            ENTITY BYTEA NOT NULL,
+            RETRY_COUNT INTEGER DEFAULT 0,
+            NEXT_RETRY_TIME BIGINT NOT NULL,
+            PRIMARY KEY (ID));
+CREATE INDEX IDX_IDP_PROV_RETRY_NEXT ON IDP_PROVISIONING_RETRY(NEXT_RETRY_TIME);
+
 DROP TABLE IF EXISTS IDP_LOCAL_CLAIM;
 DROP SEQUENCE IF EXISTS IDP_LOCAL_CLAIM_SEQ;
 CREATE SEQUENCE IDP_LOCAL_CLAIM_SEQ;